@@ -1,6 +1,7 @@
 package org.jgroups.protocols;
 
 
+import java.io.DataInput;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.DatagramPacket;
@@ -11,14 +12,21 @@ import java.net.MulticastSocket;
 import java.net.NetworkInterface;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.Message;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.Property;
 import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
 import org.jgroups.stack.IpAddress;
@@ -47,6 +55,9 @@ import org.jgroups.util.Util;
  * threads from having to do message unmarshalling; this time can now be spent
  * receiving packets. If you have lots of retransmissions because of network
  * input buffer overflow, consider setting this property to true.
+ * <li> param use_nio - boolean, defaults to false. If set, unicast and multicast datagrams are
+ * received by a single selector driven thread over non-blocking DatagramChannels, which drains
+ * up to nio_batch_size datagrams per wakeup into pooled direct buffers.
  * </ul>
  * @author Bela Ban
  * @version $Id: JOLSR_UDP.java,v 1.144.2.1 2007/09/17 07:41:03 belaban Exp $
@@ -84,6 +95,34 @@ public class JOLSR_UDP extends UDP implements Runnable {
     /** The unicast receiver thread */
     UcastReceiver   ucast_receiver=null;
 
+    @Property(description="Receive datagrams with one selector driven thread over non-blocking DatagramChannels, " +
+      "draining several datagrams per wakeup, instead of one blocking receiver thread per socket")
+    protected boolean use_nio=false;
+
+    @Property(description="Max number of datagrams drained per selector wakeup (only used if use_nio is true)")
+    protected int nio_batch_size=32;
+
+    /** Channel used for sending and receiving unicast packets when use_nio is enabled (sock is its adaptor) */
+    DatagramChannel ucast_channel=null;
+
+    /** Channel used for receiving IP multicast packets when use_nio is enabled */
+    DatagramChannel mcast_channel=null;
+
+    /**
+     * Channel bound to the wildcard address and the port of ucast_channel, which receives the datagrams
+     * sent to the broadcast address when ucast_channel is bound to bind_addr (use_nio only)
+     */
+    DatagramChannel bcast_channel=null;
+
+    /** The selector driven receiver, only used if use_nio is enabled */
+    NioDatagramReceiver nio_receiver=null;
+
+    /** Number of unicast datagrams dropped because the send buffer of ucast_channel was full */
+    final AtomicLong num_dropped_sends=new AtomicLong();
+
+    /** Avoids creating a new IpAddress for every received packet */
+    final SenderAddressCache sender_cache=new SenderAddressCache();
+
 
     /** Usually, src addresses are nulled, and the receiver simply sets them to the address of the sender. However,
      * for multiple addresses on a Windows loopback device, this doesn't work
@@ -146,7 +185,7 @@ public class JOLSR_UDP extends UDP implements Runnable {
                 offset=packet.getOffset();
                 len=packet.getLength();
                 data=packet.getData();
-                sender=new IpAddress(sender_addr, sender_port);
+                sender=sender_cache.get(sender_addr, sender_port);
 
                 if(len > receive_buf.length) {
                     if(log.isErrorEnabled())
@@ -190,6 +229,21 @@ public class JOLSR_UDP extends UDP implements Runnable {
         _send(((IpAddress)dest).getIpAddress(), ((IpAddress)dest).getPort(), false, data, offset, length);
     }
 
+    @ManagedAttribute(description="Number of datagrams received by the nio receiver")
+    public long getNioPacketsReceived() {
+        return nio_receiver != null? nio_receiver.getNumPackets() : 0;
+    }
+
+    @ManagedAttribute(description="Average number of datagrams drained per selector wakeup")
+    public double getNioAverageBatchSize() {
+        return nio_receiver != null? nio_receiver.getAverageBatchSize() : 0;
+    }
+
+    @ManagedAttribute(description="Number of unicast datagrams dropped because the send buffer was full")
+    public long getNioDroppedSends() {
+        return num_dropped_sends.get();
+    }
+
 
     /* ------------------------------------------------------------------------------- */
 
@@ -223,6 +277,18 @@ public class JOLSR_UDP extends UDP implements Runnable {
     }
 
     private void _send(InetAddress dest, int port, boolean mcast, byte[] data, int offset, int length) throws Exception {
+        if(!mcast && ucast_channel != null) {
+            // the channel is non-blocking, so its socket adaptor cannot be used to send
+            try {
+                if(ucast_channel.send(ByteBuffer.wrap(data, offset, length), new InetSocketAddress(dest, port)) == 0)
+                    log.warn("send buffer full, dropped packet to " + dest + ":" + port + " (" + length + " bytes, " +
+                               num_dropped_sends.incrementAndGet() + " dropped so far)");
+            }
+            catch(Exception ex) {
+                throw new Exception("dest=" + dest + ":" + port + " (" + length + " bytes)", ex);
+            }
+            return;
+        }
         DatagramPacket packet=new DatagramPacket(data, offset, length, dest, port);
         try {
             if(mcast) {
@@ -292,6 +358,24 @@ public class JOLSR_UDP extends UDP implements Runnable {
     }
 
     void closeSocket() {
+        if(bcast_channel != null) {
+            try {
+                bcast_channel.close();
+            }
+            catch(IOException ex) {
+                // ignore
+            }
+            bcast_channel=null;
+        }
+        if(ucast_channel != null) {
+            try {
+                ucast_channel.close();
+            }
+            catch(IOException ex) {
+                // ignore
+            }
+            ucast_channel=null;
+        }
         if(sock != null) {
             sock.close();
             sock=null;
@@ -333,7 +417,13 @@ public class JOLSR_UDP extends UDP implements Runnable {
 
         // 2. Create socket for receiving unicast UDP packets. The address and port
         //    of this socket will be our local address (local_addr)
-        if(bind_port > 0) {
+        if(use_nio) {
+            ucast_channel=createDatagramChannel();
+            sock=ucast_channel.socket();
+            if(isBoundToBindAddr())
+                bcast_channel=createBroadcastChannel(sock.getLocalPort());
+        }
+        else if(bind_port > 0) {
             sock=createDatagramSocketWithBindPort();
         }
         else {
@@ -366,29 +456,34 @@ public class JOLSR_UDP extends UDP implements Runnable {
         		mcast_addr = new IpAddress(mcast_group_addr, mcast_port);
         	}
         	InetAddress mcast_ipAddress = mcast_addr.getIpAddress();
-            mcast_sock=new MulticastSocket(mcast_port);
-            mcast_sock.setTimeToLive(ip_ttl);
-            if(tos > 0) {
-                try {
-                    mcast_sock.setTrafficClass(tos);
-                }
-                catch(SocketException e) {
-                    log.warn("traffic class of " + tos + " could not be set, will be ignored", e);
-                }
-            }
-
-            if(receive_on_all_interfaces || (receive_interfaces != null && !receive_interfaces.isEmpty())) {
-            	List<NetworkInterface> interfaces;
-                if(receive_interfaces != null)
-                    interfaces=receive_interfaces;
-                else
-                    interfaces=Util.getAllAvailableInterfaces();
-                bindToInterfaces(interfaces, mcast_sock, mcast_ipAddress);
+            if(use_nio) {
+                mcast_channel=createMulticastChannel(mcast_ipAddress);
             }
             else {
-                if(bind_addr != null)
-                    mcast_sock.setInterface(bind_addr);
-                 mcast_sock.joinGroup(mcast_ipAddress);
+                mcast_sock=new MulticastSocket(mcast_port);
+                mcast_sock.setTimeToLive(ip_ttl);
+                if(tos > 0) {
+                    try {
+                        mcast_sock.setTrafficClass(tos);
+                    }
+                    catch(SocketException e) {
+                        log.warn("traffic class of " + tos + " could not be set, will be ignored", e);
+                    }
+                }
+
+                if(receive_on_all_interfaces || (receive_interfaces != null && !receive_interfaces.isEmpty())) {
+                	List<NetworkInterface> interfaces;
+                    if(receive_interfaces != null)
+                        interfaces=receive_interfaces;
+                    else
+                        interfaces=Util.getAllAvailableInterfaces();
+                    bindToInterfaces(interfaces, mcast_sock, mcast_ipAddress);
+                }
+                else {
+                    if(bind_addr != null)
+                        mcast_sock.setInterface(bind_addr);
+                     mcast_sock.joinGroup(mcast_ipAddress);
+                }
             }
 
             // 3b. Create mcast sender socket
@@ -468,6 +563,115 @@ public class JOLSR_UDP extends UDP implements Runnable {
         return tmp;
     }
 
+    /**
+     * Creates the non-blocking unicast channel used when use_nio is enabled. It is bound to bind_addr and
+     * bind_port (or the first free port in port_range), or to an ephemeral port if bind_port is 0.<p>
+     * A channel bound to a unicast address does not receive the datagrams sent to the broadcast address,
+     * which are received by the channel created by {@link #createBroadcastChannel(int)} on the same port.
+     * Both set SO_REUSEADDR to share the port, so a port of the range is only taken if no other socket
+     * uses it
+     */
+    protected DatagramChannel createDatagramChannel() throws Exception {
+        int rcv_port=bind_port, max_port=bind_port > 0? bind_port + port_range : 0;
+        boolean shared_port=isBoundToBindAddr();
+        while(true) {
+            if(bind_port > 0 && shared_port && !isPortFree(rcv_port)) {
+                if(++rcv_port > max_port)
+                    throw new Exception("cannot create a channel on any port in range " + bind_port + '-' + max_port);
+                continue;
+            }
+            DatagramChannel tmp=DatagramChannel.open(StandardProtocolFamily.INET);
+            try {
+                tmp.setOption(StandardSocketOptions.SO_BROADCAST, true);
+                if(shared_port)
+                    tmp.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                tmp.bind(new InetSocketAddress(bind_addr, bind_port > 0? rcv_port : 0));
+                if(tos > 0) {
+                    try {
+                        tmp.setOption(StandardSocketOptions.IP_TOS, tos);
+                    }
+                    catch(IOException e) {
+                        log.warn("traffic class of " + tos + " could not be set, will be ignored");
+                    }
+                }
+                return tmp;
+            }
+            catch(IOException bind_ex) {
+                tmp.close();
+                if(bind_port <= 0 || ++rcv_port > max_port)
+                    throw new Exception("cannot create a channel on any port in range " +
+                            bind_port + '-' + max_port, bind_ex);
+            }
+        }
+    }
+
+    /**
+     * Creates the channel which receives the datagrams sent to the broadcast address on the port of the
+     * unicast channel (see {@link #createDatagramChannel()})
+     * @return the channel, or null if it could not be bound (broadcasts will not be received)
+     */
+    protected DatagramChannel createBroadcastChannel(int port) throws IOException {
+        DatagramChannel tmp=DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            tmp.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            tmp.bind(new InetSocketAddress(port));
+            return tmp;
+        }
+        catch(IOException ex) {
+            tmp.close();
+            log.warn("could not bind the broadcast channel to port " + port + ", datagrams sent to the " +
+                       "broadcast address will not be received: " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * Creates the non-blocking channel receiving IP multicast packets when use_nio is enabled, joining the group
+     * on the receive interfaces (or on the interface of bind_addr)
+     */
+    protected DatagramChannel createMulticastChannel(InetAddress mcast_ipAddress) throws Exception {
+        DatagramChannel tmp=DatagramChannel.open(StandardProtocolFamily.INET);
+        tmp.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        tmp.bind(new InetSocketAddress(mcast_port));
+        List<NetworkInterface> interfaces=new ArrayList<>();
+        if(receive_on_all_interfaces || (receive_interfaces != null && !receive_interfaces.isEmpty()))
+            interfaces.addAll(receive_interfaces != null? receive_interfaces : Util.getAllAvailableInterfaces());
+        else {
+            NetworkInterface intf=bind_addr != null? NetworkInterface.getByInetAddress(bind_addr) : null;
+            interfaces.add(intf != null? intf : NetworkInterface.getNetworkInterfaces().nextElement());
+        }
+        for(NetworkInterface intf : interfaces) {
+            try {
+                tmp.join(mcast_ipAddress, intf);
+            }
+            catch(IOException e) {
+                log.warn("could not join " + mcast_ipAddress + " on " + intf.getName(), e);
+            }
+        }
+        return tmp;
+    }
+
+    /**
+     * Returns true if the unicast channel is bound to a specific address (bind_addr), so broadcasts
+     * are received by a separate channel
+     */
+    protected boolean isBoundToBindAddr() {
+        return bind_addr != null && !bind_addr.isAnyLocalAddress();
+    }
+
+    /**
+     * Returns true if no socket is bound to the port, on any address
+     */
+    protected static boolean isPortFree(int port) {
+        try(DatagramChannel probe=DatagramChannel.open(StandardProtocolFamily.INET)) {
+            probe.bind(new InetSocketAddress(port));
+            return true;
+        }
+        catch(IOException ex) {
+            return false;
+        }
+    }
+
     /** Creates a DatagramSocket with a random port. Because in certain operating systems, ports are reused,
      * we keep a list of the n last used ports, and avoid port reuse */
     protected DatagramSocket createEphemeralDatagramSocket() {
@@ -509,7 +713,8 @@ public class JOLSR_UDP extends UDP implements Runnable {
 
         if(thread_naming_pattern != null) {
 //        	thread_naming_pattern.renameThread(MCAST_RECEIVER_THREAD_NAME, mcast_receiver); // FIXME
-        	mcast_receiver.setName(MCAST_RECEIVER_THREAD_NAME);
+        	if(mcast_receiver != null)
+        		mcast_receiver.setName(MCAST_RECEIVER_THREAD_NAME);
         	if(ucast_receiver != null)
 //        		thread_naming_pattern.renameThread(UcastReceiver.UCAST_RECEIVER_THREAD_NAME, ucast_receiver.getThread());
         		ucast_receiver.getThread().setName(UcastReceiver.UCAST_RECEIVER_THREAD_NAME);
@@ -532,6 +737,15 @@ public class JOLSR_UDP extends UDP implements Runnable {
 
     @Override
 	void closeMulticastSocket() {
+        if(mcast_channel != null) {
+            try {
+                mcast_channel.close();
+            }
+            catch(IOException ex) {
+            	// ignore
+            }
+            mcast_channel=null;
+        }
         if(mcast_sock != null) {
             try {
                 if(mcast_addr != null) {
@@ -573,9 +787,18 @@ public class JOLSR_UDP extends UDP implements Runnable {
 
     @Override
 	void setBufferSizes() {
-        if(sock != null)
+        // sock is the adaptor of ucast_channel when use_nio is enabled, so it is only set without nio
+        if(ucast_channel != null)
+            setBufferSize(ucast_channel, ucast_send_buf_size, ucast_recv_buf_size);
+        else if(sock != null)
             setBufferSize(sock, ucast_send_buf_size, ucast_recv_buf_size);
 
+        if(bcast_channel != null)
+            setBufferSize(bcast_channel, ucast_send_buf_size, ucast_recv_buf_size);
+
+        if(mcast_channel != null)
+            setBufferSize(mcast_channel, mcast_send_buf_size, mcast_recv_buf_size);
+
         if(mcast_sock != null)
             setBufferSize(mcast_sock, mcast_send_buf_size, mcast_recv_buf_size);
 
@@ -586,12 +809,40 @@ public class JOLSR_UDP extends UDP implements Runnable {
         }
     }
 
+    void setBufferSize(DatagramChannel channel, int send_buf_size, int recv_buf_size) {
+        try {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, send_buf_size);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, recv_buf_size);
+        }
+        catch(IOException ex) {
+            log.warn("failed setting buffer sizes of " + channel + ": " + ex);
+        }
+    }
+
     /**
-     * Starts the unicast and multicast receiver threads
+     * Starts the unicast and multicast receiver threads, or the nio receiver thread if use_nio is enabled
      */
     @Override
 	protected
 	void startThreads() throws Exception {
+        if(use_nio) {
+            if(nio_receiver == null) {
+                nio_receiver=new NioDatagramReceiver(new NioDatagramReceiver.DatagramHandler() {
+                    public void receive(Address sender, DataInput in) throws Exception {
+                        JOLSR_UDP.this.receive(sender, in);
+                    }
+                }, sender_cache, nio_batch_size, 65535);
+                nio_receiver.register(ucast_channel);
+                if(bcast_channel != null)
+                    nio_receiver.register(bcast_channel);
+                if(mcast_channel != null)
+                    nio_receiver.register(mcast_channel);
+                nio_receiver.start();
+                if(log.isDebugEnabled())
+                    log.debug("created nio receiver thread " + nio_receiver.getThread());
+            }
+            return;
+        }
         if(ucast_receiver == null) {
             //start the listener thread of the ucast_recv_sock
             ucast_receiver=new UcastReceiver();
@@ -636,6 +887,13 @@ public class JOLSR_UDP extends UDP implements Runnable {
 	void stopThreads() {
         Thread tmp;
 
+        // 0. Stop the nio receiver thread
+        if(nio_receiver != null) {
+            nio_receiver.stop();
+            nio_receiver=null;
+            closeSockets();
+        }
+
         // 1. Stop the multicast receiver thread
         if(mcast_receiver != null) {
             if(mcast_receiver.isAlive()) {
@@ -695,22 +953,21 @@ public class JOLSR_UDP extends UDP implements Runnable {
             packet=new DatagramPacket(receive_buf, receive_buf.length);
             try {
 				sock.setBroadcast(true);
-				System.err.println("Broadcast enabled = "+sock.getBroadcast()+" on port "+sock.getPort());
+				if(log.isDebugEnabled())
+					log.debug("broadcast enabled=" + sock.getBroadcast() + " on port " + sock.getLocalPort());
 			} catch (SocketException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				log.warn("could not enable broadcast on the unicast socket", e);
 			}
             while(running && thread != null && sock != null) {
                 try {
                     packet.setData(receive_buf, 0, receive_buf.length);
                     sock.receive(packet);
                     sender_addr=packet.getAddress();
-                    System.err.println("Received message from "+sender_addr);
                     sender_port=packet.getPort();
                     offset=packet.getOffset();
                     len=packet.getLength();
                     data=packet.getData();
-                    sender=new IpAddress(sender_addr, sender_port);
+                    sender=sender_cache.get(sender_addr, sender_port);
 
                     if(len > receive_buf.length) {
                         if(log.isErrorEnabled())
@@ -0,0 +1,203 @@
+package org.jgroups.protocols;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.logging.Log;
+import org.jgroups.logging.LogFactory;
+import org.jgroups.util.ByteBufferInputStream;
+
+/**
+ * Selector driven receiver for one or more non-blocking {@link DatagramChannel}s. Instead of one
+ * blocking thread per socket doing a single receive() per wakeup, a single thread waits on the
+ * selector and, every time a channel becomes readable, drains up to <tt>batch_size</tt> datagrams
+ * into a pool of pre-allocated direct buffers before handing them to the {@link DatagramHandler}.<p>
+ * The buffers (and the {@link DataInput} views over them) are reused for every batch, so a
+ * received packet only costs the unmarshalling done by the handler. The handler must therefore
+ * consume the data before returning (this is what {@link TP#receive(Address, DataInput)} does).
+ */
+public class NioDatagramReceiver implements Runnable {
+
+    public static final String NIO_RECEIVER_THREAD_NAME="JOLSR_UDP nio receiver";
+
+    /**
+     * Callback invoked for every received datagram
+     */
+    public interface DatagramHandler {
+        void receive(Address sender, DataInput in) throws Exception;
+    }
+
+    protected final Log log=LogFactory.getLog(this.getClass());
+
+    private final Selector selector;
+
+    private final DatagramHandler handler;
+
+    private final SenderAddressCache sender_cache;
+
+    /** Pool of receive buffers, one per datagram of a batch */
+    private final ByteBuffer[] buffers;
+
+    /** Reusable stream views over the buffers of the pool */
+    private final DataInput[] inputs;
+
+    private final Address[] senders;
+
+    private volatile boolean running=false;
+
+    private Thread thread=null;
+
+    // Only written by the receiver thread, read by JMX
+    private volatile long num_packets=0;
+
+    private volatile long num_batches=0;
+
+
+    public NioDatagramReceiver(DatagramHandler handler, SenderAddressCache sender_cache,
+                               int batch_size, int buffer_size) throws IOException {
+        if(batch_size <= 0)
+            throw new IllegalArgumentException("batch_size must be > 0: " + batch_size);
+        this.handler=handler;
+        this.sender_cache=sender_cache;
+        this.selector=Selector.open();
+        this.buffers=new ByteBuffer[batch_size];
+        this.inputs=new DataInput[batch_size];
+        this.senders=new Address[batch_size];
+        for(int i=0; i < batch_size; i++) {
+            buffers[i]=ByteBuffer.allocateDirect(buffer_size);
+            inputs[i]=new ByteBufferInputStream(buffers[i]);
+        }
+    }
+
+
+    /**
+     * Registers a channel with this receiver. The channel is switched to non-blocking mode
+     */
+    public void register(DatagramChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    public void start() {
+        start(NIO_RECEIVER_THREAD_NAME);
+    }
+
+    public synchronized void start(String name) {
+        if(thread == null) {
+            running=true;
+            thread=new Thread(this, name);
+            thread.start();
+        }
+    }
+
+    public synchronized void stop() {
+        running=false;
+        Thread tmp=thread;
+        thread=null;
+        selector.wakeup();
+        if(tmp != null && tmp != Thread.currentThread()) {
+            try {
+                tmp.join(Global.THREAD_SHUTDOWN_WAIT_TIME);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt(); // set interrupt flag again
+            }
+        }
+        try {
+            selector.close();
+        }
+        catch(IOException e) {
+            // ignore
+        }
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Number of datagrams received so far */
+    public long getNumPackets() {
+        return num_packets;
+    }
+
+    /** Number of non-empty batches drained so far */
+    public long getNumBatches() {
+        return num_batches;
+    }
+
+    public double getAverageBatchSize() {
+        return num_batches == 0? 0 : (double)num_packets / num_batches;
+    }
+
+    public void run() {
+        while(running) {
+            try {
+                if(selector.select() == 0)
+                    continue;
+                for(Iterator<SelectionKey> it=selector.selectedKeys().iterator(); it.hasNext();) {
+                    SelectionKey key=it.next();
+                    it.remove();
+                    if(key.isValid() && key.isReadable())
+                        drain((DatagramChannel)key.channel());
+                }
+            }
+            catch(ClosedSelectorException closed) {
+                break;
+            }
+            catch(IOException ex) {
+                if(!running)
+                    break;
+                if(log.isErrorEnabled())
+                    log.error("failure in nio receive()", ex);
+            }
+        }
+        if(log.isDebugEnabled()) log.debug("nio receiver thread terminated");
+    }
+
+
+    /**
+     * Reads up to one batch of datagrams from the channel and passes them up. If the channel still
+     * has pending datagrams when the batch is full, the key stays readable and the next select()
+     * returns immediately
+     */
+    private void drain(DatagramChannel channel) throws IOException {
+        int count=0;
+        while(count < buffers.length) {
+            ByteBuffer buf=buffers[count];
+            buf.clear();
+            SocketAddress from=channel.receive(buf);
+            if(from == null)
+                break;
+            buf.flip();
+            senders[count]=sender_cache.get(from);
+            count++;
+        }
+        if(count == 0)
+            return;
+        num_packets+=count;
+        num_batches++;
+        for(int i=0; i < count; i++) {
+            try {
+                handler.receive(senders[i], inputs[i]);
+            }
+            catch(Throwable t) {
+                if(log.isErrorEnabled())
+                    log.error("failed handling datagram from " + senders[i], t);
+            }
+            senders[i]=null;
+        }
+    }
+}
@@ -10,6 +10,7 @@ import org.jgroups.stack.IpAddress;
 import org.jgroups.stack.Protocol;
 
 import urv.bwcalc.BwData;
+import urv.conf.ApplicationConfig;
 import urv.conf.PropertiesLoader;
 import urv.log.Log;
 import urv.olsr.core.OLSRController;
@@ -58,6 +59,10 @@ public class OLSR extends Protocol implements OLSRMessageSender, OLSRMessageUppe
 	public Object down(Message msg) {
         Address dest = msg.getDest();
         boolean multicast = dest == null;
+        if (ApplicationConfig.BROADCAST_ADDRESS.equals(dest)) {
+            // The message is sent to the one-hop neighbors, without routing
+            return sendBroadcastDataMessage(msg);
+        }
         if (!multicast) {
             // The message is unicast
             OLSRNode destNode = new OLSRNode();
@@ -76,6 +81,15 @@ public class OLSR extends Protocol implements OLSRMessageSender, OLSRMessageUppe
     }
 
 
+	/**
+	 * Sends down a data message received from another node
+	 */
+	@Override
+	public Object forwardDataMessage(Message msg){
+		// The OLSRHeader of the received message is reused
+		return down_prot.down(msg);
+	}
+
 	/**
 	 * Passes an update (VIEW_CHANGE) event up to the stack
 	 */
@@ -129,6 +143,8 @@ public class OLSR extends Protocol implements OLSRMessageSender, OLSRMessageUppe
 			return;
 		}
 		controller.unregisterMulticastGroup(mcast_addr_name);
+		// The OLSR thread of the node is stopped with its last OLSR protocol
+		controller.unregisterMessageUpper(mcast_addr_name);
 	}
 
 	 /**
@@ -177,6 +193,14 @@ public class OLSR extends Protocol implements OLSRMessageSender, OLSRMessageUppe
                 controller.handleIncomingControlMessage(msg);
                 break;
 
+            case OLSRHeader.BROADCAST:
+                // Our own broadcast messages may be received back
+                IpAddress broadcastSrc = (IpAddress)msg.getSrc();
+                if (broadcastSrc!=null && !broadcastSrc.getIpAddress().equals(localNode.getAddress())){
+                    controller.sendBroadcastMessageToStack(msg,hdr.getMcastAddress());
+                }
+                break;
+
             case OLSRHeader.DATA:
                 OLSRNode finalDest = hdr.getDest();
                 if (finalDest.equals(localNode)){
@@ -189,8 +213,8 @@ public class OLSR extends Protocol implements OLSRMessageSender, OLSRMessageUppe
                     String mcastAddr=hdr.getMcastAddress();
                     controller.sendMessageToStack(msg,mcastAddr);
                 } else {
-                    // The message should be forwarded
-                    return controller.handleOutgoingDataMessage(msg,finalDest,hdr.getMcastAddress());
+                    // The message should be forwarded (the received message is sent again)
+                    return controller.forwardDataMessage(msg,finalDest);
                 }
                 break;
 
@@ -202,6 +226,20 @@ public class OLSR extends Protocol implements OLSRMessageSender, OLSRMessageUppe
     }
 
     //	PRIVATE METHODS --
+
+	/**
+	 * Sends a data message of this stack to all the one-hop neighbors. The
+	 * neighbors deliver it to the stack of the same group, if they have one
+	 * @param msg
+	 */
+	private Object sendBroadcastDataMessage(Message msg) {
+		OLSRHeader header = new OLSRHeader();
+		header.setType(OLSRHeader.BROADCAST);
+		header.setMcastAddress(mcast_addr_name);
+		msg.putHeader(id, header);
+		msg.setSrc(localNode.getJGroupsAddress());
+		return down_prot.down(msg);
+	}
 	
 	private void startController() {
 		Log.getInstance().info("OLSR will start with localNode="+localNode+"!\n");
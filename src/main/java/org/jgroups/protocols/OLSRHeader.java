@@ -12,6 +12,8 @@ public class OLSRHeader extends Header {
 
 	public static final int CONTROL = 0;
 	public static final int DATA    = 1;
+	// Data message for the stack of a group, sent to all the one-hop neighbors
+	public static final int BROADCAST = 2;
 	
 	public int      type;
 	public OLSRNode dest;
@@ -58,6 +60,8 @@ public class OLSRHeader extends Header {
         int retval=Global.BYTE_SIZE; // type;
         if(type == DATA)
             retval+=dest.serializedSize() + Global.INT_SIZE;
+        if(type == BROADCAST)
+            retval+=Global.INT_SIZE;
         return retval;
     }
 
@@ -67,6 +71,8 @@ public class OLSRHeader extends Header {
         if (type==DATA){
             dest = new OLSRNode();
             dest.readFrom(in);
+        }
+        if (type==DATA || type==BROADCAST){
             byte[] addr = new byte[4];
             for(int i=0;i<4;i++){
                 addr[i]=in.readByte();
@@ -74,21 +80,19 @@ public class OLSRHeader extends Header {
             mcastAddress = InetAddress.getByAddress(addr).getHostAddress();
 		}
 	}
-
     @Override
 	public void writeTo(DataOutput out) throws Exception {
         out.writeByte(type);
         if (type==DATA){
             dest.writeTo(out);
+        }
+        if (type==DATA || type==BROADCAST){
             byte[] addr = InetAddress.getByName(mcastAddress).getAddress();
             for(int i=0;i<addr.length;i++){
                 out.writeByte(addr[i]);
             }
         }
-
     }
-
-	
     /**
      * @param dest the dest to set
 	 */
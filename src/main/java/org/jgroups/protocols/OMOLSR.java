@@ -4,6 +4,7 @@ import org.jgroups.Address;
 import org.jgroups.Event;
 import org.jgroups.Message;
 import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.Property;
 import org.jgroups.protocols.pbcast.NakAckHeader2;
 import org.jgroups.stack.IpAddress;
@@ -13,8 +14,11 @@ import urv.olsr.mcast.TopologyEvent;
 import urv.omolsr.core.OMOLSRController;
 import urv.omolsr.core.UnicastHandlerListener;
 import urv.omolsr.data.OMOLSRNetworkGraph;
+import urv.omolsr.tree.TreeStrategies;
+import urv.omolsr.tree.TreeStrategy;
 
 import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * An Overlay Multicast protocol. Multicast messages are intercepted by this protocol and are sent by means of several
@@ -33,19 +37,26 @@ public class OMOLSR extends Protocol {
     @Property(description="Multicast port for this stack")
 	private int                       mcast_port;
 
-    @Property(description="Minimum number of neighbors to perform broadcast instead of unicast")
+    @Property(description="Minimum number of virtual neighbors one hop away to send them a message by local " +
+      "broadcast instead of unicast (0 disables local broadcast)")
 	private int                       bcast_min_neigh;
 
+    @Property(description="Tree along which the messages of a node are sent to the group: mst (minimum spanning " +
+      "tree), spt (shortest path tree of the source) or widest (widest path tree of the source, by bandwidth coefficient)")
+	private String                    tree_strategy = TreeStrategies.DEFAULT.getName();
+
 	private UnicastHandlerListener    unicastHandlerListener;
     private Address                   mcastAddr;
 	private Address                   localAddress;
 
 	//TODO OMOLSR: Now, it is not a singleton
 	private volatile OMOLSRController controller;
-	private boolean                   recomputeMstFlag;
+	// Released when the controller has been created and configured
+	private final CountDownLatch      controllerCreated = new CountDownLatch(1);
 
     // New vars 01-04-2008
     private OLSRNode                  localNode;
+	private TreeStrategy              treeStrategy;
 
 
 	/**
@@ -63,11 +74,6 @@ public class OMOLSR extends Protocol {
         Address dest = msg.getDest();
         boolean multicast=dest == null;
         if (multicast){
-            //In first place, check if MST must be recomputed
-            if (isRecomputeMstFlag()){
-                setRecomputeMstFlag(false);
-                controller.computeMST();
-            }
             // The message is addressed to a multicast group
             OMOLSRHeader header = new OMOLSRHeader().setType(OMOLSRHeader.DATA).setGroupId(mcastAddr)
               //Since OLSR changes src address we must recover this information at omolsr level
@@ -91,6 +97,28 @@ public class OMOLSR extends Protocol {
 
 
 
+    @ManagedAttribute(description="Number of OMOLSR headers written by this process")
+    public long getHeadersWritten() {
+        return OMOLSRHeader.getWrittenHeaders();
+    }
+
+    @ManagedAttribute(description="Average size of the OMOLSR headers written by this process (in bytes)")
+    public long getAvgHeaderSize() {
+        long headers=OMOLSRHeader.getWrittenHeaders();
+        return headers == 0? 0 : OMOLSRHeader.getWrittenBytes() / headers;
+    }
+
+    @ManagedAttribute(description="Average size of the forwarding tables in the OMOLSR headers written by this process (in bytes)")
+    public long getAvgForwardingTableSize() {
+        long headers=OMOLSRHeader.getWrittenHeaders();
+        return headers == 0? 0 : OMOLSRHeader.getForwardingTableBytes() / headers;
+    }
+
+    @ManagedAttribute(description="Size of the largest OMOLSR header written by this process (in bytes)")
+    public long getMaxHeaderSize() {
+        return OMOLSRHeader.getMaxHeaderSize();
+    }
+
     public Object eventDown(Event evt){
         Message msg =evt.getArg();
         System.err.println("OMOLSR: sending message from "+localNode+" to "+msg.getDest());
@@ -112,6 +140,15 @@ public class OMOLSR extends Protocol {
 		this.unicastHandlerListener = listener;	
 	}
 	
+	/**
+	 * Checks the configuration of the protocol
+	 */
+	@Override
+	public void init() throws Exception{
+		super.init();
+		treeStrategy = TreeStrategies.forName(tree_strategy);
+	}
+
 	/**
 	 * Starts the protocol, sets the port where broadcast messages are received 
 	 */
@@ -168,8 +205,9 @@ public class OMOLSR extends Protocol {
                     TopologyEvent updateEvt = (TopologyEvent)objArg;
                     OMOLSRNetworkGraph omolsrNetworkGraph  = updateEvt.getOMOLSRNetworkGraph();
                     localNode = updateEvt.getLocalNode().copy();
+                    getController().updateRoutingTable(updateEvt.getRoutingTable());
+                    //The MST of the new graph is computed in the background
                     getController().updateMulticastNetworkGraph(omolsrNetworkGraph);
-                    setRecomputeMstFlag(true);
                     return up_prot.up(new Event(Event.VIEW_CHANGE, updateEvt));
                 }
                 return up_prot.up(evt);
@@ -191,6 +229,10 @@ public class OMOLSR extends Protocol {
             return up_prot.up(msg);
 
         OMOLSRHeader hdr=(OMOLSRHeader)obj;
+        //A message sent by local broadcast is only processed by its recipients,
+        //the other neighbors that receive it would duplicate the message
+        if (hdr.getRecipients()!=null && !hdr.getRecipients().contains(localNode))
+            return null;
         //Set back src and dst Addresses before getting the message copy
 
         //Set back the src address, since OLSR changes src address when
@@ -210,11 +252,6 @@ public class OMOLSR extends Protocol {
 
             case OMOLSRHeader.DATA:
                 try{
-                    //In first place, check if MST must be recomputed
-                    if (isRecomputeMstFlag()){
-                        setRecomputeMstFlag(false);
-                        getController().computeMST();
-                    }
                     handleIncomingDataMessage(msg.copy()); // TODO There is no header!!
                     //Not needed, it's done out of the case statement
                 }
@@ -234,7 +271,7 @@ public class OMOLSR extends Protocol {
     }
 
     private void createController() {
-        controller = new OMOLSRController(this,localNode);
+        controller = new OMOLSRController(this,localNode,treeStrategy==null ? TreeStrategies.DEFAULT : treeStrategy);
 	}
     
 	/**
@@ -242,8 +279,10 @@ public class OMOLSR extends Protocol {
 	 */
 	private OMOLSRController getController() {
 		//Wait for the event that creates the controller
-        while (controller==null) {
-        	 // FIXME busy wait
+        try {
+            controllerCreated.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         return controller;
 	}
@@ -260,14 +299,6 @@ public class OMOLSR extends Protocol {
 		unicastHandlerListener.handleOutgoingDataMessage(msg);
 	}
 	
-	/**
-	 * Returns the value of the flag
-	 * @return
-	 */
-	private boolean isRecomputeMstFlag() {
-		return recomputeMstFlag;
-	}
-	
 	/**
 	 * Launches bootstrapping process
 	 *
@@ -276,15 +307,8 @@ public class OMOLSR extends Protocol {
 		// Creates the controller
 		createController();
 		System.err.println("OMOLSR: start!! mcast="+ mcast_addr +" local="+localAddress+" localNode="+localNode);
-		getController().registerOmolsrProtocol(this);
-	}
-
-	/**
-	 * Indicates whether the MST must be recomputed before sending 
-	 * a new message
-	 * @param b
-	 */
-	private synchronized void setRecomputeMstFlag(boolean b) {
-		this.recomputeMstFlag = b;
+		controller.registerOmolsrProtocol(this);
+		controller.setBroadcastMinNeighbours(bcast_min_neigh);
+		controllerCreated.countDown();
 	}
 }
\ No newline at end of file
@@ -7,15 +7,38 @@ import org.jgroups.stack.IpAddress;
 import urv.olsr.data.OLSRNode;
 import urv.util.graph.HashMapSet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 /**
  * Header for unicast messages sent in OMOLSR:
+ * <p>
+ * The forwarding table is written as a dictionary of the addresses it contains, followed by
+ * the entries, which refer to the addresses by their index in the dictionary. The dictionary
+ * only contains the address of each node (the receivers do not use the bandwidth information),
+ * and the prefix shared by all the addresses (usually the network of the MANET) is written
+ * once. All the counts and indexes are variable length ints, so a node of a group of less than
+ * 128 members costs one byte in each entry, plus its address suffix in the dictionary.
+ * <p>
+ * A header sent by local broadcast also contains its recipients (the one-hop neighbors which
+ * must process the message), written as indexes in the dictionary after the entries. The other
+ * neighbors which receive the broadcast message discard it
+ * <p>
+ * The table is encoded once per header, so it must not be modified after the header has been
+ * sent (the copies of a message may share the header)
   * @author Marcel Arrufat Arias
  */
 public class OMOLSRHeader extends Header {
@@ -35,6 +58,18 @@ public class OMOLSRHeader extends Header {
      * <Address>
      */
     private HashMapSet<OLSRNode,OLSRNode> forwardingTable = new HashMapSet<>();
+
+    // Nodes which must process a message sent by local broadcast, null if the message is unicast
+    private Set<OLSRNode> recipients;
+
+    // Forwarding table as written in the header, null until the header is serialized
+    private volatile byte[] encodedForwardingTable;
+
+    // Sizes of the headers written by this process
+    private static final AtomicLong writtenHeaders = new AtomicLong();
+    private static final AtomicLong writtenBytes = new AtomicLong();
+    private static final AtomicLong forwardingTableBytes = new AtomicLong();
+    private static final AtomicLong maxHeaderSize = new AtomicLong();
     
 	public OMOLSRHeader() {
 		
@@ -70,6 +105,41 @@ public class OMOLSRHeader extends Header {
 		return this.forwardingTable.get(node);
 	}
 	
+	/**
+	 * @return Returns the bytes of the forwarding tables in the headers written by this process
+	 */
+	public static long getForwardingTableBytes() {
+		return forwardingTableBytes.get();
+	}
+
+	/**
+	 * @return Returns the size of the largest header written by this process
+	 */
+	public static long getMaxHeaderSize() {
+		return maxHeaderSize.get();
+	}
+
+	/**
+	 * @return Returns the bytes of the headers written by this process
+	 */
+	public static long getWrittenBytes() {
+		return writtenBytes.get();
+	}
+
+	/**
+	 * @return Returns the number of headers written by this process
+	 */
+	public static long getWrittenHeaders() {
+		return writtenHeaders.get();
+	}
+
+	/**
+	 * @return Returns the recipients of a message sent by local broadcast, or null
+	 */
+	public Set<OLSRNode> getRecipients() {
+		return recipients;
+	}
+
 	/**
 	 * @return Returns the srcAddress.
 	 */
@@ -80,6 +150,7 @@ public class OMOLSRHeader extends Header {
 
 	public OMOLSRHeader setForwardingTable(HashMapSet<OLSRNode,OLSRNode> forwardingTable){
 		this.forwardingTable = forwardingTable;
+		this.encodedForwardingTable = null;
 		return this;
 	}
 
@@ -92,6 +163,16 @@ public class OMOLSRHeader extends Header {
 	}
 
 	
+	/**
+	 * Sets the recipients of a message sent by local broadcast
+	 * @param recipients
+	 */
+	public OMOLSRHeader setRecipients(Set<OLSRNode> recipients){
+		this.recipients = recipients;
+		this.encodedForwardingTable = null;
+		return this;
+	}
+
 	/**
 	 * @param srcAddress The srcAddress to set.
 	 */
@@ -117,43 +198,22 @@ public class OMOLSRHeader extends Header {
 
     @Override
 	public int serializedSize() {
-        int retval=Global.BYTE_SIZE + sizeOf(groupId) + sizeOf(srcAddress) + Global.INT_SIZE;
-        if(forwardingTable != null) {
-            for(Map.Entry<OLSRNode,HashSet<OLSRNode>> entry: forwardingTable.entrySet()) {
-                OLSRNode key=entry.getKey();
-                HashSet<OLSRNode> val=entry.getValue();
-                retval+=key.serializedSize();
-                int len=val != null && !val.isEmpty()? val.size() : 0;
-                retval+=Global.INT_SIZE;
-                if(len > 0) {
-                    for(OLSRNode n: val)
-                        retval+=n.serializedSize();
-                }
-            }
-        }
-        return retval;
+        return Global.BYTE_SIZE + sizeOf(groupId) + sizeOf(srcAddress) + getEncodedForwardingTable().length;
     }
 
     @Override
 	public void writeTo(DataOutput out) throws Exception {
+        byte[] encoded=getEncodedForwardingTable();
         out.writeByte(type);
         writeIpAddress(groupId, out);
         writeIpAddress(srcAddress, out);
-        out.writeInt(forwardingTable == null? 0 : forwardingTable.size());
-        if(forwardingTable != null) {
-            for(Map.Entry<OLSRNode,HashSet<OLSRNode>> entry: forwardingTable.entrySet()) {
-                OLSRNode key=entry.getKey();
-                HashSet<OLSRNode> val=entry.getValue();
-                key.writeTo(out);
-                int len=val != null && !val.isEmpty()? val.size() : 0;
-                out.writeInt(len);
-                if(len > 0) {
-                    for(OLSRNode n: val)
-                        n.writeTo(out);
-                }
-            }
-        }
-
+        out.write(encoded);
+        long size=Global.BYTE_SIZE + sizeOf(groupId) + sizeOf(srcAddress) + encoded.length;
+        writtenHeaders.incrementAndGet();
+        writtenBytes.addAndGet(size);
+        forwardingTableBytes.addAndGet(encoded.length);
+        long max;
+        while(size > (max=maxHeaderSize.get()) && !maxHeaderSize.compareAndSet(max, size));
     }
 
     @Override
@@ -161,19 +221,34 @@ public class OMOLSRHeader extends Header {
         type=in.readByte();
         groupId=readIpAddress(in);
         srcAddress=readIpAddress(in);
-        int len=in.readInt();
-        for(int i=0; i < len; i++) {
-            OLSRNode key=new OLSRNode();
-            key.readFrom(in);
+        int entries=readVarInt(in);
+        int numRecipients=readVarInt(in);
+        if(entries == 0 && numRecipients == 0)
+            return;
+        int addressLength=in.readUnsignedByte();
+        byte[] prefix=new byte[in.readUnsignedByte()];
+        in.readFully(prefix);
+        OLSRNode[] dictionary=new OLSRNode[readVarInt(in)];
+        for(int i=0; i < dictionary.length; i++) {
+            byte[] address=new byte[addressLength];
+            System.arraycopy(prefix, 0, address, 0, prefix.length);
+            in.readFully(address, prefix.length, addressLength - prefix.length);
+            dictionary[i]=new OLSRNode().setValue(InetAddress.getByAddress(address));
+        }
+        for(int i=0; i < entries; i++) {
+            OLSRNode key=dictionary[readVarInt(in)];
+            int len=readVarInt(in);
             HashSet<OLSRNode> vals=new HashSet<>();
-            for(int j=0; j < in.readInt(); j++) {
-                OLSRNode n=new OLSRNode();
-                n.readFrom(in);
-                vals.add(n);
-            }
+            for(int j=0; j < len; j++)
+                vals.add(dictionary[readVarInt(in)]);
             if(!vals.isEmpty())
                 forwardingTable.put(key, vals);
         }
+        if(numRecipients > 0) {
+            recipients=new HashSet<>();
+            for(int i=0; i < numRecipients; i++)
+                recipients.add(dictionary[readVarInt(in)]);
+        }
     }
 
     @Override
@@ -199,6 +274,9 @@ public class OMOLSRHeader extends Header {
 				}
 			}
 		}
+		if (recipients != null){
+			ret.append("+ Recipients of the broadcast: "+recipients+"\n");
+		}
 		if (type == CONTROL){
 			//ret.append(", something=" + something);
 		}
@@ -226,4 +304,126 @@ public class OMOLSRHeader extends Header {
 	    return Global.BYTE_SIZE + (addr ==null? 0 : addr.serializedSize());
     }
 
+    /**
+     * Encodes the forwarding table and the recipients (see the class comment). The addresses
+     * are written as 16 bytes if any of them is an IPv6 address (IPv4 addresses as IPv4-mapped ones)
+     */
+    protected static byte[] encode(HashMapSet<OLSRNode,OLSRNode> forwardingTable, Set<OLSRNode> recipients)
+      throws IOException {
+        ByteArrayOutputStream buffer=new ByteArrayOutputStream();
+        DataOutputStream out=new DataOutputStream(buffer);
+        int entries=forwardingTable == null? 0 : forwardingTable.size();
+        int numRecipients=recipients == null? 0 : recipients.size();
+        writeVarInt(entries, out);
+        writeVarInt(numRecipients, out);
+        if(entries == 0 && numRecipients == 0)
+            return buffer.toByteArray();
+        // Dictionary of the addresses, in preorder (each key followed by its set)
+        Map<InetAddress,Integer> indexes=new LinkedHashMap<>();
+        boolean ipv6=false;
+        if(forwardingTable != null) {
+            for(Map.Entry<OLSRNode,HashSet<OLSRNode>> entry: forwardingTable.entrySet()) {
+                ipv6|=addToDictionary(entry.getKey(), indexes);
+                if(entry.getValue() != null)
+                    for(OLSRNode n: entry.getValue())
+                        ipv6|=addToDictionary(n, indexes);
+            }
+        }
+        if(recipients != null)
+            for(OLSRNode n: recipients)
+                ipv6|=addToDictionary(n, indexes);
+        int addressLength=ipv6? Global.IPV6_SIZE : Global.IPV4_SIZE;
+        List<byte[]> addresses=new ArrayList<>(indexes.size());
+        for(InetAddress address: indexes.keySet())
+            addresses.add(toBytes(address, addressLength));
+        int prefixLength=addressLength;
+        byte[] first=addresses.get(0);
+        for(byte[] address: addresses)
+            while(prefixLength > 0 && !samePrefix(first, address, prefixLength))
+                prefixLength--;
+        out.writeByte(addressLength);
+        out.writeByte(prefixLength);
+        out.write(first, 0, prefixLength);
+        writeVarInt(addresses.size(), out);
+        for(byte[] address: addresses)
+            out.write(address, prefixLength, addressLength - prefixLength);
+        if(forwardingTable != null) {
+            for(Map.Entry<OLSRNode,HashSet<OLSRNode>> entry: forwardingTable.entrySet()) {
+                HashSet<OLSRNode> val=entry.getValue();
+                writeVarInt(indexes.get(entry.getKey().getAddress()), out);
+                writeVarInt(val == null? 0 : val.size(), out);
+                if(val != null)
+                    for(OLSRNode n: val)
+                        writeVarInt(indexes.get(n.getAddress()), out);
+            }
+        }
+        if(recipients != null)
+            for(OLSRNode n: recipients)
+                writeVarInt(indexes.get(n.getAddress()), out);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Reads an unsigned int written with 7 bits per byte (the high bit set in all but the last byte)
+     */
+    protected static int readVarInt(DataInput in) throws IOException {
+        int value=0;
+        for(int shift=0; shift < 32; shift+=7) {
+            int b=in.readUnsignedByte();
+            value|=(b & 0x7f) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed variable length int");
+    }
+
+    protected static void writeVarInt(int value, DataOutput out) throws IOException {
+        while((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value>>>=7;
+        }
+        out.writeByte(value);
+    }
+
+    private static boolean addToDictionary(OLSRNode node, Map<InetAddress,Integer> indexes) {
+        InetAddress address=node.getAddress();
+        if(!indexes.containsKey(address))
+            indexes.put(address, indexes.size());
+        return address instanceof Inet6Address;
+    }
+
+    private byte[] getEncodedForwardingTable() {
+        byte[] encoded=encodedForwardingTable;
+        if(encoded == null) {
+            try {
+                encoded=encode(forwardingTable, recipients);
+            }
+            catch(IOException e) {
+                // Not thrown when writing to a byte array
+                throw new IllegalStateException(e);
+            }
+            encodedForwardingTable=encoded;
+        }
+        return encoded;
+    }
+
+    private static boolean samePrefix(byte[] a, byte[] b, int length) {
+        for(int i=0; i < length; i++)
+            if(a[i] != b[i])
+                return false;
+        return true;
+    }
+
+    private static byte[] toBytes(InetAddress address, int length) {
+        byte[] bytes=address.getAddress();
+        if(bytes.length == length)
+            return bytes;
+        // IPv4-mapped IPv6 address, read back as an IPv4 address
+        byte[] mapped=new byte[length];
+        mapped[10]=(byte)0xff;
+        mapped[11]=(byte)0xff;
+        System.arraycopy(bytes, 0, mapped, length - bytes.length, bytes.length);
+        return mapped;
+    }
+
 }
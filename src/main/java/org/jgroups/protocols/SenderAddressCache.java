@@ -0,0 +1,96 @@
+package org.jgroups.protocols;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgroups.stack.IpAddress;
+
+/**
+ * Caches the {@link IpAddress} created for the sender of a received datagram, so that the receiver
+ * threads of {@link JOLSR_UDP} do not allocate a new address object for every packet. In a MANET
+ * the set of senders is the set of radio neighbours, which is small and changes slowly.<p>
+ * A sender is identified by its address and its port: a host sends from several sockets (e.g. the
+ * unicast and the multicast ones), so up to <tt>MAX_PORTS_PER_HOST</tt> ports are kept per address,
+ * the oldest being replaced when a new one is seen. The entries of an address are replaced as a whole
+ * (copy on write), so lookups do not allocate nor lock.<p>
+ * The cache is bounded: when it holds more than <tt>max_entries</tt> senders it is simply cleared.
+ */
+public class SenderAddressCache {
+
+    /** Default bound on the number of cached senders */
+    public static final int DEFAULT_MAX_ENTRIES=1024;
+
+    /** Max number of ports cached for the same address */
+    public static final int MAX_PORTS_PER_HOST=4;
+
+    private final Map<InetAddress,IpAddress[]> cache=new ConcurrentHashMap<>();
+
+    private final AtomicInteger size=new AtomicInteger();
+
+    private final int max_entries;
+
+
+    public SenderAddressCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public SenderAddressCache(int max_entries) {
+        this.max_entries=max_entries;
+    }
+
+
+    /**
+     * Returns the cached address for the given sender, creating it the first time it is seen
+     */
+    public IpAddress get(InetAddress sender_addr, int sender_port) {
+        IpAddress[] senders=cache.get(sender_addr);
+        if(senders != null) {
+            for(IpAddress sender : senders)
+                if(sender.getPort() == sender_port)
+                    return sender;
+        }
+        if(size.get() >= max_entries)
+            clear();
+        IpAddress sender=new IpAddress(sender_addr, sender_port);
+        IpAddress[] tmp;
+        if(senders == null) {
+            tmp=new IpAddress[]{sender};
+            size.incrementAndGet();
+        }
+        else if(senders.length < MAX_PORTS_PER_HOST) {
+            tmp=Arrays.copyOf(senders, senders.length + 1);
+            tmp[senders.length]=sender;
+            size.incrementAndGet();
+        }
+        else { // drop the oldest port
+            tmp=Arrays.copyOfRange(senders, 1, senders.length + 1);
+            tmp[senders.length - 1]=sender;
+        }
+        // a concurrent update of the same address may be lost, which only costs a new IpAddress later
+        cache.put(sender_addr, tmp);
+        return sender;
+    }
+
+    /**
+     * Returns the cached address for the socket address returned by a {@link java.nio.channels.DatagramChannel}
+     */
+    public IpAddress get(SocketAddress sender) {
+        InetSocketAddress tmp=(InetSocketAddress)sender;
+        return get(tmp.getAddress(), tmp.getPort());
+    }
+
+    /** Number of cached senders (address and port) */
+    public int size() {
+        return size.get();
+    }
+
+    public void clear() {
+        cache.clear();
+        size.set(0);
+    }
+}
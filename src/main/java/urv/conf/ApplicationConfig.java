@@ -153,6 +153,7 @@ public class ApplicationConfig {
 		"bind_port=\""+port+"\" "+
 		"tos=\"8\" " +
 		"port_range=\"1000\" " +
+		"use_nio=\""+PropertiesLoader.isNioTransport()+"\" " +
 		"ucast_recv_buf_size=\"640K\" " +
 		"ucast_send_buf_size=\"640K\" " +
 		"max_bundle_size=\"64K\" " +
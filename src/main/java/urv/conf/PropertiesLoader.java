@@ -31,6 +31,12 @@ public class PropertiesLoader {
     private static final String SENDING_PROB = "SENDING_PROB";
     private static final String APPLICATION = "APPLICATION";
     private static final String EMULATION_TASKS = "EMULATION_TASKS";
+    private static final String NIO_TRANSPORT = "NIO_TRANSPORT";
+    private static final String CONTROL_PACKET_SIZE = "CONTROL_PACKET_SIZE";
+    private static final String DIFFERENTIAL_TC = "DIFFERENTIAL_TC";
+    private static final String ADAPTIVE_INTERVALS = "ADAPTIVE_INTERVALS";
+    private static final String HELLO_INTERVAL_BOUNDS = "HELLO_INTERVAL_BOUNDS";
+    private static final String TC_INTERVAL_BOUNDS = "TC_INTERVAL_BOUNDS";
     
     //	CLASS FIELDS --
     
@@ -58,6 +64,12 @@ public class PropertiesLoader {
         defaults.setProperty(APPLICATION, "urv.app.samples.SimpleSenderApplication");
         defaults.setProperty(EMULATION_TASKS, "");
         defaults.setProperty(SENDING_PROB, "1.0");
+        defaults.setProperty(NIO_TRANSPORT, "false");
+        defaults.setProperty(CONTROL_PACKET_SIZE, "1400");
+        defaults.setProperty(DIFFERENTIAL_TC, "false");
+        defaults.setProperty(ADAPTIVE_INTERVALS, "false");
+        defaults.setProperty(HELLO_INTERVAL_BOUNDS, "1000,8000");
+        defaults.setProperty(TC_INTERVAL_BOUNDS, "2500,20000");
 
         props=new Properties(defaults);
         try {
@@ -91,6 +103,15 @@ public class PropertiesLoader {
     		return tasks.split(",");
     	}
     }
+    public static int getControlPacketSize() {
+        return Integer.valueOf(getInstance().props.getProperty(CONTROL_PACKET_SIZE));
+    }
+    /**
+     * Returns the minimum and maximum HELLO interval in milliseconds
+     */
+    public static int[] getHelloIntervalBounds() {
+        return parseBounds(getInstance().props.getProperty(HELLO_INTERVAL_BOUNDS));
+    }
     public static String getGraphFile() {
     	String graphFile = getInstance().props.getProperty(GRAPH_FILE);
     	if (graphFile.contains("\\"))
@@ -106,15 +127,30 @@ public class PropertiesLoader {
     public static float getSendingProb() {
         return Float.valueOf(getInstance().props.getProperty(SENDING_PROB));
     }
+    /**
+     * Returns the minimum and maximum TC interval in milliseconds
+     */
+    public static int[] getTcIntervalBounds() {
+        return parseBounds(getInstance().props.getProperty(TC_INTERVAL_BOUNDS));
+    }
     public static int getUnicastPort() {
         return Integer.valueOf(getInstance().props.getProperty(UNICAST_PORT));
     }
+    public static boolean isAdaptiveIntervals() {
+        return Boolean.valueOf(getInstance().props.getProperty(ADAPTIVE_INTERVALS));
+    }
     public static boolean isCommunicationLog() {
         return Boolean.valueOf(getInstance().props.getProperty(COMM_LOG));
     }
+    public static boolean isDifferentialTc() {
+        return Boolean.valueOf(getInstance().props.getProperty(DIFFERENTIAL_TC));
+    }
     public static boolean isDynamicCredit() {
 		return Boolean.valueOf(getInstance().props.getProperty(DYNAMIC_CREDIT));
 	}
+    public static boolean isNioTransport() {
+        return Boolean.valueOf(getInstance().props.getProperty(NIO_TRANSPORT));
+    }
     public static boolean isEmulated() {
         return Boolean.valueOf(getInstance().props.getProperty(EMULATED));
     }
@@ -148,4 +184,13 @@ public class PropertiesLoader {
 	private void load() throws IOException {
         props.load(new FileInputStream(fileName));
     }
+    /**
+     * Parses a "min,max" pair of values
+     */
+    private static int[] parseBounds(String bounds) {
+        String[] values = bounds.split(",");
+        int min = Integer.parseInt(values[0].trim());
+        int max = values.length>1 ? Integer.parseInt(values[1].trim()) : min;
+        return new int[]{min, max};
+    }
 }
\ No newline at end of file
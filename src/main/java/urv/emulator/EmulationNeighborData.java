@@ -48,6 +48,16 @@ public class EmulationNeighborData {
 		InetAddress address = node.getAddress();
 		table.put(address,neighborTable);
 	}
+	/**
+	 * Removes the table of the node, unless another table has
+	 * been registered for it afterwards
+	 * @param node
+	 * @param neighborTable
+	 */
+	public void unregisterNeighborTable(OLSRNode node, NeighborTable neighborTable){
+		InetAddress address = node.getAddress();
+		table.remove(address,neighborTable);
+	}
 	
 	//	ACCESS METHODS --
 	
@@ -84,7 +84,14 @@ public class Log {
 			_out("[INFO]"+string);
 		}
 	}
-	public String printLoggables(){
+	/**
+	 * Returns true if the INFO messages are written, so that the callers
+	 * can avoid building messages which would be discarded
+	 */
+	public boolean isInfoEnabled() {
+		return currentLevel<=INFO;
+	}
+	public synchronized String printLoggables(){
 		StringBuffer strBuffer = new StringBuffer();
 		Iterator<String> classNames = loggables.keySet().iterator();
 		while (classNames.hasNext()){
@@ -122,9 +129,18 @@ public class Log {
 	/**
 	 * Registers a loggable for the specified classname
 	 */
-	public void registerLoggable(String className, Loggable l){
+	public synchronized void registerLoggable(String className, Loggable l){
 		loggables.addToSet(className, l);
 	}
+	/**
+	 * Unregisters a loggable registered for the specified classname
+	 */
+	public synchronized void unregisterLoggable(String className, Loggable l){
+		loggables.removeFromSet(className, l);
+		if (loggables.getSet(className)!=null && loggables.getSet(className).isEmpty()){
+			loggables.remove(className);
+		}
+	}
 	public void warn(String string) {
 		if (currentLevel<=WARN){
 			_out("[WARN]"+string);
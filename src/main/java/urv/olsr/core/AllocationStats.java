@@ -0,0 +1,126 @@
+package urv.olsr.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import urv.log.Loggable;
+
+/**
+ * Counts the memory allocated by each phase of the periodic OLSR
+ * tasks (MPR computation, routing table computation, computation of
+ * the contracted graphs and dispatch of the topology events), so that
+ * an increase in the allocation rate of any of them can be detected
+ * in the log
+ *
+ * The allocated bytes are obtained from the JVM for the thread which
+ * executes the phase. If the JVM does not support it, only the number
+ * of executions of each phase is counted
+ */
+public class AllocationStats implements Loggable {
+
+	//	CONSTANTS --
+
+	public static final int MPR = 0;
+	public static final int ROUTING = 1;
+	public static final int CONTRACTED_GRAPH = 2;
+	public static final int EVENT_DISPATCH = 3;
+	private static final String[] PHASE_NAMES = {"mpr", "routing", "contracted_graph", "event_dispatch"};
+	private static final com.sun.management.ThreadMXBean threadBean = createThreadBean();
+
+	//	CLASS FIELDS --
+
+	private AtomicLongArray allocatedBytes = new AtomicLongArray(PHASE_NAMES.length);
+	private AtomicLongArray maxAllocatedBytes = new AtomicLongArray(PHASE_NAMES.length);
+	private AtomicLongArray executions = new AtomicLongArray(PHASE_NAMES.length);
+	private String name;
+
+	//	CONSTRUCTORS --
+
+	/**
+	 * @param name identifies the stats in the log (e.g. the local node)
+	 */
+	public AllocationStats(String name) {
+		this.name = name;
+	}
+
+	//	STATIC METHODS --
+
+	/**
+	 * Returns true if the JVM is able to count the bytes allocated by a thread
+	 */
+	public static boolean isSupported(){
+		return threadBean!=null;
+	}
+
+	//	OVERRIDDEN METHODS --
+
+	public String toString(){
+		StringBuffer buff = new StringBuffer();
+		buff.append("ALLOCATION_STATS["+name+"]\n");
+		for (int phase=0;phase<PHASE_NAMES.length;phase++){
+			long count = executions.get(phase);
+			long bytes = allocatedBytes.get(phase);
+			buff.append("\t"+PHASE_NAMES[phase]+": executions="+count);
+			if (isSupported()){
+				buff.append(" allocated="+bytes+" bytes avg="+(count==0 ? 0 : bytes/count)+
+						" bytes max="+maxAllocatedBytes.get(phase)+" bytes");
+			}
+			buff.append("\n");
+		}
+		return buff.toString();
+	}
+
+	//	PUBLIC METHODS --
+
+	/**
+	 * Marks the beginning of a phase in the current thread
+	 * @return the value that must be passed to stop()
+	 */
+	public long start(){
+		return isSupported() ? threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+	}
+	/**
+	 * Marks the end of a phase in the current thread
+	 * @param phase one of MPR, ROUTING, CONTRACTED_GRAPH or EVENT_DISPATCH
+	 * @param startValue the value returned by start()
+	 */
+	public void stop(int phase, long startValue){
+		executions.incrementAndGet(phase);
+		if (!isSupported()) return;
+		long bytes = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - startValue;
+		if (bytes<0) return;
+		allocatedBytes.addAndGet(phase, bytes);
+		long max = maxAllocatedBytes.get(phase);
+		while (bytes>max && !maxAllocatedBytes.compareAndSet(phase, max, bytes)){
+			max = maxAllocatedBytes.get(phase);
+		}
+	}
+
+	//	ACCESS METHODS --
+
+	public long getAllocatedBytes(int phase){
+		return allocatedBytes.get(phase);
+	}
+	public long getExecutions(int phase){
+		return executions.get(phase);
+	}
+	public long getMaxAllocatedBytes(int phase){
+		return maxAllocatedBytes.get(phase);
+	}
+
+	//	PRIVATE METHODS --
+
+	private static com.sun.management.ThreadMXBean createThreadBean(){
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+			if (!sunBean.isThreadAllocatedMemorySupported()) return null;
+			if (!sunBean.isThreadAllocatedMemoryEnabled()) sunBean.setThreadAllocatedMemoryEnabled(true);
+			return sunBean;
+		} catch (Throwable t) {
+			//Not available in this JVM
+			return null;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package urv.olsr.core;
+
+import java.util.Random;
+
+import urv.log.Loggable;
+
+/**
+ * Decides when the HELLO and TC messages are generated and which validity
+ * time they carry, according to the rate of changes observed in the
+ * neighbor table (HELLO and TC messages) and in the topology table (TC
+ * messages)
+ *
+ * The change rates are exponentially weighted moving averages (with a time
+ * constant of RATE_TIME_CONSTANT). The interval of each message is chosen so
+ * that about one change is observed per interval, bounded by the minimum and
+ * maximum intervals of the message. When the network is stable the intervals
+ * grow up to the maximum, but an interval can at most double from one message
+ * to the next one, so the validity time of a message (VALIDITY_FACTOR times its
+ * interval) always covers the next message. With equal bounds the intervals
+ * are fixed, as in RFC 3626
+ *
+ * As recommended in RFC 3626 (section 18.3), each message is generated a
+ * random time (up to MAX_JITTER_RATIO of its interval) before its interval
+ * has elapsed, so that neighbor nodes do not keep sending at the same time
+ *
+ * The emitted messages, the average intervals and the delay between a change
+ * and the next message of each type are kept to compare the overhead of the
+ * control messages with the time needed to advertise the changes
+ *
+ * This class is only used by the OLSR thread, apart from toString()
+ */
+public class EmissionScheduler implements Loggable {
+
+	//	CONSTANTS --
+
+	public static final int HELLO = 0;
+	public static final int TC = 1;
+	/**
+	 * Validity time of a message, in number of intervals
+	 */
+	public static final int VALIDITY_FACTOR = 4;
+	/**
+	 * Time constant (in milliseconds) of the average change rates
+	 */
+	public static final double RATE_TIME_CONSTANT = 10000;
+	/**
+	 * Maximum jitter, as a fraction of the interval (MAXJITTER = HELLO_INTERVAL/4)
+	 */
+	public static final double MAX_JITTER_RATIO = 0.25;
+	private static final String[] MESSAGE_NAMES = {"hello", "tc"};
+
+	//	CLASS FIELDS --
+
+	private final int[] minIntervals = new int[2];
+	private final int[] maxIntervals = new int[2];
+	private final int[] intervals = new int[2];
+	// Interval of the last message of each type
+	private final int[] lastIntervals = new int[2];
+	// Time elapsed since the last message of each type
+	private final long[] elapsed = new long[2];
+	// Time the next message of each type is advanced
+	private final long[] jitters = new long[2];
+	private final Random random = new Random();
+	// Average number of changes per millisecond
+	private double neighborChangeRate = 0;
+	private double topologyChangeRate = 0;
+	private long lastNeighborChanges = 0;
+	private long lastTopologyChanges = 0;
+	// Statistics
+	private long currentTime = 0;
+	private final long[] emittedMessages = new long[2];
+	private final long[] totalIntervals = new long[2];
+	// Time of the first change not advertised yet by each type of message, or -1
+	private final long[] pendingChangeTimes = {-1, -1};
+	private final long[] totalReactionDelays = new long[2];
+	private final long[] reactions = new long[2];
+
+	//	CONSTRUCTORS --
+
+	/**
+	 * @param helloBounds minimum and maximum HELLO interval in milliseconds
+	 * @param tcBounds minimum and maximum TC interval in milliseconds
+	 */
+	public EmissionScheduler(int[] helloBounds, int[] tcBounds) {
+		setBounds(HELLO, helloBounds);
+		setBounds(TC, tcBounds);
+	}
+
+	//	OVERRIDDEN METHODS --
+
+	public synchronized String toString(){
+		StringBuffer buff = new StringBuffer();
+		buff.append("EMISSION_SCHEDULER\n");
+		buff.append("\tneighbor_changes_per_s="+(float)(neighborChangeRate*1000)+
+				" topology_changes_per_s="+(float)(topologyChangeRate*1000)+"\n");
+		for (int type=0;type<MESSAGE_NAMES.length;type++){
+			long messages = emittedMessages[type];
+			buff.append("\t"+MESSAGE_NAMES[type]+": interval="+intervals[type]+" ms messages="+messages+
+					" messages_per_min="+(currentTime==0 ? 0 : (float)messages*60000/currentTime)+
+					" avg_interval="+(messages==0 ? 0 : totalIntervals[type]/messages)+" ms"+
+					" avg_reaction_delay="+(reactions[type]==0 ? 0 : totalReactionDelays[type]/reactions[type])+" ms\n");
+		}
+		return buff.toString();
+	}
+
+	//	PUBLIC METHODS --
+
+	/**
+	 * Must be invoked when a message of the given type has been generated
+	 * @param type HELLO or TC
+	 */
+	public synchronized void emitted(int type){
+		emittedMessages[type]++;
+		totalIntervals[type] += elapsed[type];
+		if (pendingChangeTimes[type]>=0){
+			totalReactionDelays[type] += currentTime-pendingChangeTimes[type];
+			reactions[type]++;
+			pendingChangeTimes[type] = -1;
+		}
+		elapsed[type] = 0;
+		lastIntervals[type] = intervals[type];
+		jitters[type] = nextJitter(type);
+	}
+	/**
+	 * Returns the time, in milliseconds, until a message of the given
+	 * type must be generated (0 if it is already due)
+	 * @param type HELLO or TC
+	 */
+	public synchronized long getDelay(int type){
+		return Math.max(0, intervals[type]-jitters[type]-elapsed[type]);
+	}
+	/**
+	 * Returns the validity time, in seconds, of a message of the
+	 * given type generated now
+	 * @param type HELLO or TC
+	 */
+	public synchronized double getValidityTime(int type){
+		return VALIDITY_FACTOR*intervals[type]/1000.0;
+	}
+	/**
+	 * Returns true if a message of the given type must be generated
+	 * @param type HELLO or TC
+	 */
+	public synchronized boolean isDue(int type){
+		return elapsed[type]>=intervals[type]-jitters[type];
+	}
+	/**
+	 * Advances the clock of the scheduler and updates the intervals
+	 * with the changes of the tables
+	 * @param time time elapsed since the last call, in milliseconds
+	 * @param neighborChanges changes of the neighbor table since it was created
+	 * @param topologyChanges changes of the topology table since it was created
+	 */
+	public synchronized void tick(long time, long neighborChanges, long topologyChanges){
+		if (time<=0) return;
+		currentTime += time;
+		elapsed[HELLO] += time;
+		elapsed[TC] += time;
+		long newNeighborChanges = neighborChanges-lastNeighborChanges;
+		long newTopologyChanges = topologyChanges-lastTopologyChanges;
+		lastNeighborChanges = neighborChanges;
+		lastTopologyChanges = topologyChanges;
+		double decay = Math.exp(-time/RATE_TIME_CONSTANT);
+		neighborChangeRate = neighborChangeRate*decay + newNeighborChanges/RATE_TIME_CONSTANT;
+		topologyChangeRate = topologyChangeRate*decay + newTopologyChanges/RATE_TIME_CONSTANT;
+		if (newNeighborChanges>0){
+			markPendingChange(HELLO);
+			markPendingChange(TC);
+		} else if (newTopologyChanges>0){
+			markPendingChange(TC);
+		}
+		updateInterval(HELLO, neighborChangeRate);
+		updateInterval(TC, neighborChangeRate+topologyChangeRate);
+	}
+
+	//	ACCESS METHODS --
+
+	public synchronized int getInterval(int type){
+		return intervals[type];
+	}
+	public synchronized long getEmittedMessages(int type){
+		return emittedMessages[type];
+	}
+
+	//	PRIVATE METHODS --
+
+	private void markPendingChange(int type){
+		if (pendingChangeTimes[type]<0) pendingChangeTimes[type] = currentTime;
+	}
+	private long nextJitter(int type){
+		return (long)(random.nextDouble()*MAX_JITTER_RATIO*intervals[type]);
+	}
+	private void setBounds(int type, int[] bounds){
+		minIntervals[type] = Math.max(1, Math.min(bounds[0], bounds[1]));
+		maxIntervals[type] = Math.max(bounds[0], bounds[1]);
+		intervals[type] = minIntervals[type];
+		lastIntervals[type] = minIntervals[type];
+		jitters[type] = nextJitter(type);
+	}
+	/**
+	 * Sets the interval which corresponds to one change per interval,
+	 * within the bounds of the message and at most twice the interval
+	 * of the last message
+	 */
+	private void updateInterval(int type, double changeRate){
+		double interval = changeRate>0 ? 1/changeRate : maxIntervals[type];
+		interval = Math.min(interval, 2.0*lastIntervals[type]);
+		intervals[type] = (int)Math.max(minIntervals[type], Math.min(maxIntervals[type], interval));
+	}
+}
@@ -1,25 +1,18 @@
 package urv.olsr.core;
 
-import java.util.Hashtable;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.BitSet;
 
-import urv.log.Log;
-import urv.olsr.data.LinkCode;
 import urv.olsr.data.OLSRNode;
+import urv.olsr.data.OLSRNodeRegistry;
 import urv.olsr.data.mpr.MprSet;
-import urv.olsr.data.mpr.OLSRPairSet;
 import urv.olsr.data.mpr.OLSRSet;
-import urv.olsr.data.neighbour.NeighborTable;
-import urv.olsr.data.neighbour.NeighborsOfNeighborsSet;
 import urv.olsr.data.topology.OLSRNodePair;
-import urv.olsr.util.Util;
-import urv.util.graph.HashMapSet;
-import urv.util.graph.NetworkGraph;
-import urv.util.graph.Weight;
 
 /**
- * Computes a new set of MPR with the information stored in the
- * neighbor table.
+ * Computes a new set of MPR with the information of the neighborhood
+ * stored in a TopologySnapshot. The new set is kept until publishMprSet()
+ * copies it to the MPR set of the node.
  * 
  * The MPR set MUST be calculated by a node in such a way that it,
    through the neighbors in the MPR-set, can reach all symmetric strict
@@ -43,60 +36,122 @@ import urv.util.graph.Weight;
    The MPR set can coincide with the entire symmetric neighbor set.
    This could be the case at network initialization (and will correspond
    to classic link-state routing).
+
+ * The selection is the greedy heuristic of RFC 3626 (section 8.3.1): first
+ * the neighbors which are the only way to reach some 2-hop neighbor, then,
+ * while there are uncovered 2-hop neighbors, the neighbor which covers most
+ * of them (the one with the highest degree in case of tie). Nodes are
+ * identified by their id in the node registry, so the neighborhood is kept
+ * as bitsets (the 2-hop neighbors covered by each neighbor and the neighbors
+ * covering each 2-hop neighbor) and the neighbors are kept in a bucket queue
+ * indexed by the number of uncovered 2-hop neighbors they reach, which is
+ * decremented as the 2-hop neighbors get covered.
+ *
+ * When the symmetric neighbors are the same as in the previous computation,
+ * no id has been reused by the registry in the meantime and the 2-hop
+ * neighbors of only one of them have changed, the previous
+ * MPR set is kept and just repaired: the changed neighbor is dropped if it
+ * is no longer needed, the greedy selection is run only for the 2-hop
+ * neighbors left uncovered, and the MPR made redundant by the new ones
+ * are dropped.
    
  * @author Marcel Arrufat Arias
  */
 public class MprComputationController {
 	
+	//	CONSTANTS --
+
+	private static final int NO_NEIGHBOR = -1;
+	private static final int FULL_COMPUTATION = -2;
+
 	//	CLASS FIELDS --
 
-	private NeighborTable neighborTable;
-	private NeighborsOfNeighborsSet neighborsOfNeighborsSet;
 	private MprSet mprSet;
-	//Additional fields needed for computation
-	private OLSRSet tmpNeighbors_N;
-	private OLSRSet tmpNeighOfNeigh_N2;
+	private OLSRNodeRegistry nodeRegistry;
 	private OLSRNode localNode;
-	private Hashtable<OLSRNode, Integer> neighborsDegree;
-	private NetworkGraph<OLSRNode,Weight> graph;
-	private Weight dummyWeight;
-	private OLSRSet tmpMprSet;
-	private HashMapSet<Integer,OLSRNode> reachabilityTable;	
-	private Log log = Log.getInstance();
+	private int localId;
+	// Generation of the registry when the ids were last registered
+	private int generation;
+	// Snapshot used by the current computation
+	private TopologySnapshot snapshot;
+	// Number of ids the arrays can hold
+	private int capacity = 0;
+	// Symmetric neighbors (N) and strict 2-hop neighbors (N2)
+	private BitSet neighbors = new BitSet();
+	private BitSet twoHopNeighbors = new BitSet();
+	// 2-hop neighbors covered by each neighbor, and neighbors covering each 2-hop neighbor
+	private BitSet[] covers = new BitSet[0];
+	private BitSet[] coveredBy = new BitSet[0];
+	// 2-hop neighbors whose coverers have been set, cleared in the next computation
+	private BitSet coveredTwoHops = new BitSet();
+	// Selected MPR
+	private BitSet selected = new BitSet();
+	private boolean initialized = false;
+	// Bucket queue: neighbors not selected yet, indexed by the number of uncovered 2-hop neighbors they reach
+	private BitSet[] buckets = new BitSet[0];
+	private int[] reachability = new int[0];
+	// Number of selected MPR covering each 2-hop neighbor
+	private int[] coverCount = new int[0];
+	// Temporal data structures
+	private BitSet tmpNeighbors = new BitSet();
+	private BitSet[] tmpCovers = new BitSet[0];
+	private BitSet uncovered = new BitSet();
+	private OLSRSet tmpMprSet = new OLSRSet();
 
 	//	CONSTRUCTORS --
 	
-	public MprComputationController(NeighborTable neighborTable, NeighborsOfNeighborsSet neighborsOfNeighborsSet, 
-			MprSet mprSet, OLSRNode localNode) {
-		this.neighborTable = neighborTable;
-		this.neighborsOfNeighborsSet = neighborsOfNeighborsSet;
+	/**
+	 * @param mprSet
+	 * @param nodeRegistry registry of the canonical nodes of the controller
+	 * @param localNode
+	 */
+	public MprComputationController(MprSet mprSet, OLSRNodeRegistry nodeRegistry, OLSRNode localNode) {
 		this.mprSet = mprSet;
-		this.localNode = localNode;		
-		this.tmpNeighbors_N = new OLSRSet();
-		this.tmpNeighOfNeigh_N2 = new OLSRSet();
-		this.neighborsDegree = new Hashtable<OLSRNode,Integer>();
-		this.graph = new NetworkGraph<OLSRNode,Weight>();
-		this.dummyWeight=new Weight();
-		this.dummyWeight.setValue(new Float(1));
-		this.tmpMprSet = new OLSRSet();
-		this.reachabilityTable = new HashMapSet<Integer,OLSRNode>();
-	}	
+		this.nodeRegistry = nodeRegistry;
+		this.localNode = localNode;
+		this.localId = nodeRegistry.getId(localNode);
+		this.generation = nodeRegistry.getGeneration();
+	}
+	
+	//	PUBLIC METHODS --
+	
 	/**
-	 * Compute a new MPR set
-	 *
+	 * Compute a new MPR set. The MPR set of the node is not modified
+	 * until publishMprSet() is invoked
+	 * @param snapshot state of the neighborhood
+	 * @return true if the computation was ok
 	 */
-	public synchronized boolean computeNewMprSet(){
+	public synchronized boolean computeNewMprSet(TopologySnapshot snapshot){
+		this.snapshot = snapshot;
 		try {			
-			createDataStructures();	
-			computeMPRSelectionAlgorithm();
-			//Store the information in the public mprSet
-			mprSet.setCopyOfSet(tmpMprSet);
+			int changedNeighbor = createDataStructures();
+			if (changedNeighbor==FULL_COMPUTATION){
+				computeMPRSelectionAlgorithm();
+			} else {
+				repairMPRSelection(changedNeighbor);
+			}
+			initialized = true;
+			tmpMprSet.clear();
+			for (int id=selected.nextSetBit(0);id>=0;id=selected.nextSetBit(id+1)){
+				//The selected nodes are symmetric neighbors, held by the snapshot
+				OLSRNode mpr = nodeRegistry.getNode(id);
+				if (mpr!=null) tmpMprSet.add(mpr);
+			}
 			return true;			
 		} catch (Exception e) {			
 			e.printStackTrace();
+			initialized = false;
 			return false;
+		} finally {
+			this.snapshot = null;
 		}
 	}
+	/**
+	 * Stores the last computed set in the public mprSet
+	 */
+	public synchronized void publishMprSet(){
+		mprSet.setCopyOfSet(tmpMprSet);
+	}
 	
 	//	ACCESS METHODS --
 	
@@ -110,144 +165,257 @@ public class MprComputationController {
 
 	//	PRIVATE METHODS --
 	
+	/**
+	 * Builds the bucket queue with the neighbors not selected yet
+	 * @return the highest reachability that a neighbor can have
+	 */
+	private int buildBucketQueue(){
+		int maxReachability = uncovered.cardinality();
+		if (buckets.length<=maxReachability){
+			buckets = Arrays.copyOf(buckets, Math.max(maxReachability+1, buckets.length*2));
+		}
+		for (int r=0;r<=maxReachability;r++){
+			if (buckets[r]==null) buckets[r] = new BitSet();
+			else buckets[r].clear();
+		}
+		for (int node=neighbors.nextSetBit(0);node>=0;node=neighbors.nextSetBit(node+1)){
+			if (selected.get(node)) continue;
+			int r = countUncovered(covers[node]);
+			reachability[node] = r;
+			buckets[r].set(node);
+		}
+		return maxReachability;
+	}
 	/**
 	 * Once the information is stored in the data structures decides 
 	 * which nodes will be selected to become MPR of the local node
-	 * @throws Exception 
 	 */
-	private void computeMPRSelectionAlgorithm() throws Exception{
-		
-		//Look for nodes in NoN which only have 1 neighbor, and this neighbor
-		//is a neighbor of the local node. That is, look for nodes in N2 which are 
-		//accessible just by one node in N
-		
-		//We will erase the 2-hop nodes which are accessible by a MPR 
-		Set<OLSRNode>nonAccessedNon = Util.copyNodeSet(tmpNeighOfNeigh_N2);		
-		for(OLSRNode non:tmpNeighOfNeigh_N2){
-			//Get neighbors of the node, and check Number of neighbors
-			Set<OLSRNode> list = graph.getNeighbours(non);
-			if (list==null){
-				System.out.println("************************ \nNode "+localNode+" could not find neighbors for node "+non);
-				System.out.println("************************ \nGraph is "+graph);
-				return;
+	private void computeMPRSelectionAlgorithm(){
+		selected.clear();
+		uncovered.clear();
+		uncovered.or(twoHopNeighbors);
+		selectGreedily();
+	}
+	private int countUncovered(BitSet set){
+		int count = 0;
+		for (int node=set.nextSetBit(0);node>=0;node=set.nextSetBit(node+1)){
+			if (uncovered.get(node)) count++;
+		}
+		return count;
+	}
+	/**
+	 * Reads the neighborhood of the snapshot and compares it with the
+	 * previous one
+	 * @return the only neighbor whose 2-hop neighbors have changed,
+	 * NO_NEIGHBOR if none has changed or FULL_COMPUTATION if the MPR
+	 * set must be computed from scratch
+	 */
+	private int createDataStructures(){
+		//A1.Initialize neighbor set
+		tmpNeighbors.clear();
+		for (OLSRNode node:snapshot.getSymNeighbors()){
+			tmpNeighbors.set(nodeRegistry.getId(node));
+		}
+		for (OLSRNode node:snapshot.getSymNeighbors()){
+			for (OLSRNode twoHop:snapshot.getNeighborsOf(node)){
+				nodeRegistry.getId(twoHop);
 			}
-			int numNeighbours = list.size();
-			if (numNeighbours==0){
-				log.fatal("Error on adding edges to graph. Will now exit");
+		}
+		for (OLSRNodePair pair:snapshot.getTwoHopPairs()){
+			nodeRegistry.getId(pair.getAdvertised());
+		}
+		//The previous neighborhood may refer to ids which now belong to other nodes
+		int currentGeneration = nodeRegistry.getGeneration();
+		boolean idsReused = currentGeneration!=generation;
+		generation = currentGeneration;
+		ensureCapacity();
+		//A2.2-hop neighbors covered by each neighbor. Conditions:
+		//Exclude the local node
+		//Exclude local node's symm. neighbours
+		for (OLSRNode neighbor:snapshot.getSymNeighbors()){
+			BitSet set = tmpCovers[nodeRegistry.getId(neighbor)];
+			set.clear();
+			for (OLSRNode twoHop:snapshot.getNeighborsOf(neighbor)){
+				int id = nodeRegistry.getId(twoHop);
+				if (id!=localId && !tmpNeighbors.get(id)) set.set(id);
 			}
-			else if (numNeighbours==1){
-				OLSRNode node = list.iterator().next();
-				if (tmpNeighbors_N.contains(node)){
-					//This neighbor of us allows us access to a 2-hop neighbor which is isolated
-					tmpMprSet.add(node);
-					//The 2-hop neighbor is now accessible, so remove it from the list 
-					nonAccessedNon.remove(non);
+		}
+		int changedNeighbor = NO_NEIGHBOR;
+		if (!initialized || idsReused || !tmpNeighbors.equals(neighbors)){
+			changedNeighbor = FULL_COMPUTATION;
+		} else {
+			for (int node=tmpNeighbors.nextSetBit(0);node>=0;node=tmpNeighbors.nextSetBit(node+1)){
+				if (!tmpCovers[node].equals(covers[node])){
+					changedNeighbor = changedNeighbor==NO_NEIGHBOR ? node : FULL_COMPUTATION;
+					if (changedNeighbor==FULL_COMPUTATION) break;
 				}
 			}
 		}
-		//Now, while there are still nodes in N2 (NoNset)
-		while (!nonAccessedNon.isEmpty()){
-			//compute reachability for each neighbor
-			int maxReachability = 0;
-			reachabilityTable.clear();
-			for(OLSRNode node:tmpNeighbors_N){
-				Set<OLSRNode> nonList = graph.getNeighbours(node);
-				//For each NoN of the current node, check if they have still to be accessed
-				int reachability=0;				
-				for(OLSRNode non:nonList){
-					if (nonAccessedNon.contains(non)){
-						reachability++;
-						if (reachability>maxReachability){
-							maxReachability=reachability;
-						}							
-					}
-				}
-				reachabilityTable.addToSet(new Integer(reachability),node);
-			}			
-			if (maxReachability==0){
-				//Something went wrong or we do not have information on the tables
-				return;
+		// The new neighborhood replaces the previous one
+		BitSet[] oldCovers = covers;
+		covers = tmpCovers;
+		tmpCovers = oldCovers;
+		neighbors.clear();
+		neighbors.or(tmpNeighbors);
+		//A3.Initialize N2 set, with the 2-hop neighbors that can be reached.
+		//The coverers are cleared for every 2-hop neighbor set in the previous
+		//computation, even the ones which were not in N2
+		for (int node=coveredTwoHops.nextSetBit(0);node>=0;node=coveredTwoHops.nextSetBit(node+1)){
+			coveredBy[node].clear();
+		}
+		coveredTwoHops.clear();
+		twoHopNeighbors.clear();
+		for (OLSRNodePair pair:snapshot.getTwoHopPairs()){
+			twoHopNeighbors.set(nodeRegistry.getId(pair.getAdvertised()));
+		}
+		for (int node=neighbors.nextSetBit(0);node>=0;node=neighbors.nextSetBit(node+1)){
+			BitSet set = covers[node];
+			for (int twoHop=set.nextSetBit(0);twoHop>=0;twoHop=set.nextSetBit(twoHop+1)){
+				coveredBy[twoHop].set(node);
+				coveredTwoHops.set(twoHop);
 			}
-			//Find the node with maximum reachability
-			Set<OLSRNode> nodeList = reachabilityTable.get(new Integer(maxReachability));
-			int maxDegree=0;
-			OLSRNode nodeSelectedNewMPR = null;
-			for (OLSRNode node:nodeList){				
-				if (neighborsDegree.get(node)==null) 
-					throw new Exception("Error: Possible data inconsistency");
-				int degree = neighborsDegree.get(node).intValue();
-				if (degree>maxDegree){
-					maxDegree=degree;
-					nodeSelectedNewMPR = (OLSRNode)node;
-				}
+		}
+		twoHopNeighbors.and(coveredTwoHops);
+		return changedNeighbor;
+	}
+	/**
+	 * Grows the arrays so that they can hold all the ids of the registry
+	 */
+	private void ensureCapacity(){
+		int size = nodeRegistry.size();
+		if (size<=capacity) return;
+		int newCapacity = Math.max(size, capacity*2);
+		covers = grow(covers, newCapacity);
+		tmpCovers = grow(tmpCovers, newCapacity);
+		coveredBy = grow(coveredBy, newCapacity);
+		reachability = Arrays.copyOf(reachability, newCapacity);
+		coverCount = Arrays.copyOf(coverCount, newCapacity);
+		capacity = newCapacity;
+	}
+	private static BitSet[] grow(BitSet[] sets, int newCapacity){
+		BitSet[] newSets = Arrays.copyOf(sets, newCapacity);
+		for (int i=sets.length;i<newCapacity;i++){
+			newSets[i] = new BitSet();
+		}
+		return newSets;
+	}
+	/**
+	 * Returns true if all the 2-hop neighbors of the set are covered by more than one MPR
+	 */
+	private boolean isRedundant(BitSet set){
+		for (int twoHop=set.nextSetBit(0);twoHop>=0;twoHop=set.nextSetBit(twoHop+1)){
+			if (twoHopNeighbors.get(twoHop) && coverCount[twoHop]<2) return false;
+		}
+		return true;
+	}
+	/**
+	 * Drops the MPR whose 2-hop neighbors are all covered by other MPR,
+	 * starting with the ones with the lowest degree
+	 */
+	private void removeRedundantMPR(){
+		for (int node=selected.nextSetBit(0);node>=0;node=selected.nextSetBit(node+1)){
+			BitSet set = covers[node];
+			for (int twoHop=set.nextSetBit(0);twoHop>=0;twoHop=set.nextSetBit(twoHop+1)){
+				coverCount[twoHop]++;
 			}
-			//TODO: if nodeSelected=null, error or break loop
-			tmpMprSet.add(nodeSelectedNewMPR);
-			//Remove the nodes from N2 (nonAccessedNon) that the selectedMPR gives access to 
-			OLSRSet non = neighborTable.getEntry(nodeSelectedNewMPR).getNeighborsOfNeighbors();
-			for (OLSRNode node:non){
-				if (nonAccessedNon.contains(node)){					
-					nonAccessedNon.remove(node);
+		}
+		int maxDegree = 0;
+		for (int node=selected.nextSetBit(0);node>=0;node=selected.nextSetBit(node+1)){
+			maxDegree = Math.max(maxDegree, covers[node].cardinality());
+		}
+		for (int degree=0;degree<=maxDegree;degree++){
+			for (int node=selected.nextSetBit(0);node>=0;node=selected.nextSetBit(node+1)){
+				BitSet set = covers[node];
+				if (set.cardinality()!=degree || !isRedundant(set)) continue;
+				selected.clear(node);
+				for (int twoHop=set.nextSetBit(0);twoHop>=0;twoHop=set.nextSetBit(twoHop+1)){
+					coverCount[twoHop]--;
 				}
 			}
 		}
+		Arrays.fill(coverCount, 0);
 	}
 	/**
-	 * Creates all needed data structures for MPRs selection 
-	 *
+	 * Keeps the previous MPR set, dropping the changed neighbor if the 2-hop
+	 * neighbors it covers are covered by other MPR, and selects new MPR for
+	 * the 2-hop neighbors left uncovered
+	 * @param changedNeighbor the neighbor whose 2-hop neighbors have changed, or NO_NEIGHBOR
 	 */
-	private void createDataStructures() {		 
-		//A1.Initialize neighbor set
-		tmpNeighbors_N=neighborTable.getCopyOfSymNeighbors();
-		//A2.Initialize NoN set. Conditions:
-		//Exclude the local node
-		//Exclude local node's symm. neighbours
-		tmpNeighOfNeigh_N2.clear();
-		//Empty temporal MprSet
-		tmpMprSet.clear();
-		//Empty reachability table
-		reachabilityTable.clear();
-		for (OLSRNodePair nodePair:(OLSRPairSet)neighborsOfNeighborsSet.clone()){
-			OLSRNode node = nodePair.getAdvertised();
-			if (!node.equals(localNode) && !isSymNeighbor(node)){
-				tmpNeighOfNeigh_N2.add(node);
+	private void repairMPRSelection(int changedNeighbor){
+		selected.and(neighbors);
+		uncovered.clear();
+		uncovered.or(twoHopNeighbors);
+		for (int node=selected.nextSetBit(0);node>=0;node=selected.nextSetBit(node+1)){
+			if (node!=changedNeighbor) uncovered.andNot(covers[node]);
+		}
+		if (changedNeighbor!=NO_NEIGHBOR && selected.get(changedNeighbor)){
+			if (!covers[changedNeighbor].intersects(uncovered)){
+				selected.clear(changedNeighbor);
+			} else {
+				uncovered.andNot(covers[changedNeighbor]);
 			}
-		}		
-		//B1. To ease detection of isolated nodes, we will create a backup graph to store 2hop neighbor network
-		graph.clear();		
-		//B2.Calculate D(y) for all nodes in tmpNeighbors_N
-		//D(y) =  Node degree of a neighbor of y, excluding all members of tmpNeighbors_N and the localNode
-		//that is, neighbors of my neighbours which are neither neighbors of mine nor myself
-		neighborsDegree.clear();		
-		for(OLSRNode node:tmpNeighbors_N){
-			//Add an edge between the source and each neighbor (2, since the graph is directed)
-			graph.addEdge(localNode,node,dummyWeight);
-			graph.addEdge(node,localNode,dummyWeight);			
-			//For every neighbor, count neighbors that follow the conditions
-			OLSRSet list = (OLSRSet)neighborTable.getEntry(node).getNeighborsOfNeighbors().clone();
-			int degree=0;
-			for (OLSRNode tmpNeighbour:list){
-				if (!tmpNeighbour.equals(localNode)&&!tmpNeighbors_N.contains(tmpNeighbour)){
-					graph.addEdge(node,tmpNeighbour,dummyWeight);
-					graph.addEdge(tmpNeighbour,node,dummyWeight);
-					degree++;
-				}
+		}
+		selectGreedily();
+		removeRedundantMPR();
+	}
+	/**
+	 * Selects the neighbor as MPR and covers its 2-hop neighbors. If the
+	 * bucket queue has been built, the reachability of the neighbors which
+	 * also cover them is decremented
+	 */
+	private void select(int node, boolean queueBuilt){
+		selected.set(node);
+		if (queueBuilt) buckets[reachability[node]].clear(node);
+		BitSet set = covers[node];
+		for (int twoHop=set.nextSetBit(0);twoHop>=0;twoHop=set.nextSetBit(twoHop+1)){
+			if (!uncovered.get(twoHop)) continue;
+			uncovered.clear(twoHop);
+			if (!queueBuilt) continue;
+			BitSet coverers = coveredBy[twoHop];
+			for (int other=coverers.nextSetBit(0);other>=0;other=coverers.nextSetBit(other+1)){
+				if (selected.get(other)) continue;
+				int r = reachability[other];
+				buckets[r].clear(other);
+				buckets[r-1].set(other);
+				reachability[other] = r-1;
 			}
-			//Store degree info
-			neighborsDegree.put(node,new Integer(degree));
 		}
-	}	
+	}
 	/**
-	 * Checks if the node is a symmetric neighbor of the local node
-	 * @param node
-	 * @return
+	 * Selects MPR until all the uncovered 2-hop neighbors are covered
 	 */
-	private boolean isSymNeighbor(OLSRNode node) {
-		//The node does not have an entry in the table
-		if (neighborTable.getEntry(node)==null) return false;
-		
-		LinkCode linkStatus = neighborTable.getEntry(node).getLinkCode();
-		if (linkStatus.getLinkType()==LinkCode.SYM_NEIGH || linkStatus.getLinkType()==LinkCode.MPR_NEIGH) return true;
-		else return false;
+	private void selectGreedily(){
+		if (uncovered.isEmpty()) return;
+		//Look for nodes in N2 which are accessible just by one node in N
+		for (int twoHop=uncovered.nextSetBit(0);twoHop>=0;twoHop=uncovered.nextSetBit(twoHop+1)){
+			BitSet coverers = coveredBy[twoHop];
+			int node = coverers.nextSetBit(0);
+			if (node>=0 && coverers.nextSetBit(node+1)<0 && !selected.get(node)){
+				select(node, false);
+			}
+		}
+		//Now, while there are still nodes in N2, select the neighbor with maximum reachability
+		int maxReachability = buildBucketQueue();
+		while (!uncovered.isEmpty()){
+			while (maxReachability>0 && buckets[maxReachability].isEmpty()){
+				maxReachability--;
+			}
+			if (maxReachability==0){
+				//Something went wrong or we do not have information on the tables
+				return;
+			}
+			//Among them, the node with maximum degree
+			BitSet candidates = buckets[maxReachability];
+			int maxDegree = -1;
+			int nodeSelectedNewMPR = -1;
+			for (int node=candidates.nextSetBit(0);node>=0;node=candidates.nextSetBit(node+1)){
+				int degree = covers[node].cardinality();
+				if (degree>maxDegree){
+					maxDegree = degree;
+					nodeSelectedNewMPR = node;
+				}
+			}
+			select(nodeSelectedNewMPR, true);
+		}
 	}
 }
\ No newline at end of file
@@ -2,14 +2,14 @@ package urv.olsr.core;
 
 import org.jgroups.Message;
 import org.jgroups.stack.IpAddress;
-import urv.conf.ApplicationConfig;
 import urv.conf.PropertiesLoader;
 import urv.emulator.EmulationNeighborData;
 import urv.log.Log;
+import urv.log.Loggable;
 import urv.olsr.data.OLSRNode;
+import urv.olsr.data.OLSRNodeRegistry;
 import urv.olsr.data.SequenceNumber;
 import urv.olsr.data.duplicate.DuplicateTable;
-import urv.olsr.data.duplicate.DuplicateTableEntry;
 import urv.olsr.data.mpr.MprSelectorSet;
 import urv.olsr.data.mpr.MprSet;
 import urv.olsr.data.neighbour.NeighborTable;
@@ -22,8 +22,11 @@ import urv.olsr.handlers.TcMessageHandler;
 import urv.olsr.mcast.MulticastGroupsTable;
 import urv.olsr.mcast.MulticastNetworkGraph;
 import urv.olsr.mcast.MulticastNetworkGraphComputationController;
+import urv.olsr.mcast.TopologyEventDispatcher;
 import urv.olsr.mcast.TopologyInformationSender;
 import urv.olsr.message.*;
+import urv.util.graph.NetworkGraph;
+import urv.util.graph.Weight;
 
 import java.net.InetAddress;
 import java.util.HashMap;
@@ -42,7 +45,6 @@ public class OLSRController implements TopologyInformationSender{
 	// Static variable to store different instances of the controller (for emulation purposes)
 	private static final Map<OLSRNode,OLSRController> table = new HashMap<>();
 	
-	private final Map<String,OLSRMessageUpper> olsrUpperTable = new HashMap<>();
 	private final OLSRNode localNode;
 	private final OLSRMessageSender messageSender;
 	//Handlers
@@ -52,7 +54,10 @@ public class OLSRController implements TopologyInformationSender{
 	private OLSRThread olsrThread;	
 	//Factories
 	private OLSRPacketFactory olsrPacketFactory;	
+	private OLSRPacketAggregator packetAggregator;
+	private EmissionScheduler emissionScheduler;
 	//Data
+	private OLSRNodeRegistry nodeRegistry;
 	private NeighborTable neighborTable;
 	private MprSet mprSet;
 	private MprSelectorSet mprSelectorSet;
@@ -62,10 +67,13 @@ public class OLSRController implements TopologyInformationSender{
 	private MulticastGroupsTable multicastGroupsTable;	
 	private TopologyInformationBaseTable topologyTable;
 	private DuplicateTable duplicateTable;
+	private AllocationStats allocationStats;
 	// ComputationControllers
 	private MprComputationController mprComputationController;
 	private RoutingTableComputationController routingTableComputationController;
 	private MulticastNetworkGraphComputationController multicastNetworkGraphComputationController;
+	// Protocol stacks of the groups and their topology events
+	private TopologyEventDispatcher topologyEventDispatcher;
 	private final Log log = Log.getInstance();
 	
 	//	CONSTRUCTORS --
@@ -96,16 +104,10 @@ public class OLSRController implements TopologyInformationSender{
 	
 	/**
 	 * This methods is used to send topology events to the above layer.
+	 * Only the stacks whose contracted graph has changed receive an event
 	 */
 	public void sendTopologyInformationEvent() {
-		for (Map.Entry<String,OLSRMessageUpper> stringOLSRMessageUpperEntry : olsrUpperTable.entrySet()){
-			OLSRMessageUpper upper =stringOLSRMessageUpperEntry.getValue();
-			upper.passUpdateEvent(multicastNetworkGraph.computeContractedGraph(stringOLSRMessageUpperEntry.getKey()), routingTable);
-		}		
-		//An UpdateEvent is a periodic result of catching and computing all topology information
-		//for a while. After take the result, call to the garbage collector to improve the use of memory
-		//into the whole protocol stack.
-		System.gc();
+		topologyEventDispatcher.dispatch();
 	}
 	
 	//	PUBLIC METHODS --
@@ -120,86 +122,50 @@ public class OLSRController implements TopologyInformationSender{
 		
 		Object obj = msg.getObject();
 		if (obj instanceof OLSRPacket){
-
-			OLSRPacket olsrPacket = (OLSRPacket)obj;
-			OLSRMessage content = olsrPacket.getContent();
-			
-			if (olsrPacket.getOriginator().equals(localNode) || olsrPacket.getTtl()<=0){
-				return; // If ttl<=0 or the message was sent by the receiving node, the message is discarded
-			}					
-			// Checking the DuplicateSet:
-			if (duplicateTable.containsSameAddrSeq(olsrPacket.getOriginator(),olsrPacket.getMessageSequenceNumber())){
-				// The message has already been completely processed and must not be processed again
-			}else {		
-				if (olsrPacket.getMessageType()==OLSRPacket.HELLO_MESSAGE){
-					// Process the Hello Message	
-					helloMessageHandler.handleHelloMessage(olsrPacket.getOriginator(), (HelloMessage)content, olsrPacket.getVTime());
-				} else if (olsrPacket.getMessageType()==OLSRPacket.TC_MESSAGE){
-					//Continue passing the TC Message to the rest of the network
-					defaultForwardingAlgorithm(src,olsrPacket);
-					//Process TC Message
-					tcMessageHandler.handleTcMessage(olsrPacket.getOriginator(),src,(TcMessage)content,olsrPacket.getVTime());	
-					//Try to update the originator's node bandwidth in case it has changed
-					if (PropertiesLoader.isDynamicCredit() &&
-							PropertiesLoader.isThroughputOptimizationNetworkSelfKnowledgementEnabled()){
-						updateBwOfOriginatorNodeInDataStructures(olsrPacket);
-					}
-				} else {
-					log.warn("ERROR: incoming message of unknown type");
-				}
+			handleIncomingPacket(src,(OLSRPacket)obj);
+		} else if (obj instanceof OLSRPacketBundle){
+			for (OLSRPacket olsrPacket:((OLSRPacketBundle)obj).getPackets()){
+				handleIncomingPacket(src,olsrPacket);
 			}
 		}else {
 			log.warn("ERROR: incoming packet of unknown type "+ obj.getClass());
 		}
 	}
 	/**
-	 * This method uses the routing table to determine 
+	 * Forwards a data message received from another node towards its final
+	 * destination. The received message is reused: only its destination
+	 * is changed to the next hop, and its OLSRHeader is kept
+	 * @param msg
+	 * @param dest final destination of the message
+	 * @return the result of sending the message down, or null if there is no route
+	 */
+	public Object forwardDataMessage(Message msg, OLSRNode dest) {
+		OLSRNode nextHop = getNextHop(dest);
+		if (nextHop==null) return null;
+		msg.setDest(new IpAddress(nextHop.getAddress(),((IpAddress)msg.getDest()).getPort()));
+		if (log.isInfoEnabled()){
+			logRedirection(msg, nextHop, dest);
+		}
+		return messageSender.forwardDataMessage(msg);
+	}
+	/**
+	 * This method uses the routing table to determine the next hop of a message
+	 * sent by the local node
 	 * @param msg
 	 * @param dest
 	 * @param mcast_addr_name
 	 * @return message with the destination address of the following node towards the real destination node
 	 */
 	public Object handleOutgoingDataMessage(Message msg, OLSRNode dest, String mcast_addr_name) {		
-		OLSRNode nextHop = null;
-		IpAddress newDest = null;
+		OLSRNode nextHop = getNextHop(dest);
+		if (nextHop==null) return null;
 		//Important, get a message copy! When we change the DST address, it may affect other protocols
 		Message msgCopy=msg.copy();		
-		try {
-			//If we aren't the final destination of the message
-			if (!dest.equals(localNode)){
-				RoutingTableEntry routingTableEntry = routingTable.getRoutingTableEntry(dest);
-				if (routingTableEntry!=null){
-					//Determine the next node in the way of the destination
-					nextHop = routingTableEntry.getNextAddr();
-				}else {
-					//Log a failure related with the routing table
-					Log.getInstance().warn("Cannot route this message!");
-					Log.getInstance().increaseLostDataMessage();
-					return null;
-				}
-			} else {
-				//Continue redirecting the message to the next hop
-				nextHop = dest;				
-			}
-				
-			// TODO Here, we use the destination port as the port of the next hop...
-			newDest = new IpAddress(nextHop.getAddress(),((IpAddress)msgCopy.getDest()).getPort()); 
-			msgCopy.setDest(newDest);
-			
-			InetAddress srcAddr = null;
-			if (msgCopy.getSrc()==null){
-				srcAddr = localNode.getAddress();
-			} else {
-				srcAddr = ((IpAddress)msgCopy.getSrc()).getIpAddress();
-			}
-			//Log information about the redirection of a message
-			Log.getInstance().info(srcAddr.getHostAddress()+"-->...-->"+
-					localNode.getAddress().getHostAddress()+"--> "+
-					nextHop.getAddress().getHostAddress()+"-->...-->"+
-					dest.getAddress().getHostAddress());
-		} catch (Exception e){
-			e.printStackTrace();
-		}		
+		// TODO Here, we use the destination port as the port of the next hop...
+		msgCopy.setDest(new IpAddress(nextHop.getAddress(),((IpAddress)msgCopy.getDest()).getPort()));
+		if (log.isInfoEnabled()){
+			logRedirection(msgCopy, nextHop, dest);
+		}
 		return messageSender.sendDataMessage(msgCopy,dest,mcast_addr_name);
 	}	
 	/**
@@ -209,11 +175,26 @@ public class OLSRController implements TopologyInformationSender{
 	 * @param olsrProtocol
 	 */
 	public void registerMessageUpper(String mcast_addr_name,OLSRMessageUpper olsrProtocol) {
-		olsrUpperTable.put(mcast_addr_name,olsrProtocol);
+		synchronized (OLSRController.class) {
+			topologyEventDispatcher.register(mcast_addr_name,olsrProtocol);
+		}
 	}
 	public void registerMulticastGroup(String mcast_addr_name) {
 		multicastGroupsTable.registerMulticastGroup(localNode,mcast_addr_name);		
 	}
+	/**
+	 * Forwards a data message broadcast by a one-hop neighbor to the protocol
+	 * stack of its group. The message is discarded if the local node does not
+	 * have a stack for the group
+	 * @param msg
+	 * @param mcastAddr
+	 */
+	public void sendBroadcastMessageToStack(Message msg, String mcastAddr) {
+		OLSRMessageUpper upper = topologyEventDispatcher.getUpper(mcastAddr);
+		if (upper!=null){
+			upper.sendMessageUp(msg);
+		}
+	}
 	public void sendExtraTCMessage() {
 		olsrThread.setExtraTCMessage(true);
 	}
@@ -224,13 +205,34 @@ public class OLSRController implements TopologyInformationSender{
 	 * @param mcastAddr
 	 */
 	public void sendMessageToStack(Message msg, String mcastAddr) {		
-		if (olsrUpperTable.get(mcastAddr)!=null){
-			olsrUpperTable.get(mcastAddr).sendMessageUp(msg);
+		OLSRMessageUpper upper = topologyEventDispatcher.getUpper(mcastAddr);
+		if (upper!=null){
+			upper.sendMessageUp(msg);
 		}else{			
 			System.err.println("Error: Could not send the message to the selected protocol stack");
 			System.err.println("There is no OLSR protocol registered in the OLSRUpperTable");
 		}		
 	}
+	/**
+	 * Unregisters the OLSR protocol of the given protocol stack. When the
+	 * last one is unregistered, the OLSR thread is stopped and the controller
+	 * is discarded (a new one will be created if the node starts OLSR again)
+	 * @param mcast_addr_name
+	 */
+	public void unregisterMessageUpper(String mcast_addr_name) {
+		synchronized (OLSRController.class) {
+			topologyEventDispatcher.unregister(mcast_addr_name);
+			if (!topologyEventDispatcher.isEmpty()) return;
+			if (table.get(localNode)==this) table.remove(localNode);
+		}
+		olsrThread.stop();
+		EmulationNeighborData.getInstance().unregisterNeighborTable(localNode,neighborTable);
+		//The controller is discarded, so the log must not keep its tables
+		Log logger = Log.getInstance();
+		for (Loggable loggable:getLoggables()){
+			logger.unregisterLoggable(loggable.getClass().getName(), loggable);
+		}
+	}
 	public void unregisterMulticastGroup(String mcast_addr_name) {
 		multicastGroupsTable.unregisterMulticastGroup(localNode,mcast_addr_name);
 	}
@@ -318,10 +320,8 @@ public class OLSRController implements TopologyInformationSender{
 			// 1-hop neighborhood, the message can be forwarded			
 			OLSRNode originator = olsrPacket.getOriginator();
 			SequenceNumber seqNumber = olsrPacket.getMessageSequenceNumber();			
-			if (duplicateTable.containsSameAddrSeq(originator,seqNumber)){
-				if (duplicateTable.isRetransmitted(originator,seqNumber)){
-					return false; // The message will not be retransmitted again
-				}
+			if (duplicateTable.isRetransmitted(originator,seqNumber)){
+				return false; // The message will not be retransmitted again
 			}
 			boolean willRetransmit = false;
 			if (mprSelectorSet.contains(src)){ // If the sender is an MPR selector, the message is forwarded
@@ -330,21 +330,76 @@ public class OLSRController implements TopologyInformationSender{
 				}
 			}			
 			// Updating DuplicateSet
-			DuplicateTableEntry newEntry = new DuplicateTableEntry(originator,seqNumber);
-			
-			// TODO update expiring time
-			duplicateTable.addEntryWithTimestamp(newEntry, willRetransmit, DuplicateTable.DUP_HOLD_TIME);
+			duplicateTable.addDuplicateTuple(originator, seqNumber, willRetransmit);
 			// Retransmission
 			if (willRetransmit){
 				olsrPacket.decreaseTtl();
 				olsrPacket.increaseHopCount();				
-				Message msg = new Message(ApplicationConfig.BROADCAST_ADDRESS,olsrPacket);
-				messageSender.sendControlMessage(msg);
+				//The message is sent with the messages generated in the next tick
+				packetAggregator.send(olsrPacket);
 				return true;
 			}
 		}
 		return false;
 	}	
+	/**
+	 * Returns the next hop towards the destination, or null if there is
+	 * no route (the message is then counted as lost)
+	 * @param dest
+	 */
+	private OLSRNode getNextHop(OLSRNode dest){
+		//If we are the final destination, the message is redirected to ourselves
+		if (dest.equals(localNode)) return dest;
+		RoutingTableEntry routingTableEntry = routingTable.getRoutingTableEntry(dest);
+		if (routingTableEntry==null){
+			//Log a failure related with the routing table
+			log.warn("Cannot route this message!");
+			log.increaseLostDataMessage();
+			return null;
+		}
+		//Determine the next node in the way of the destination
+		return routingTableEntry.getNextAddr();
+	}
+	/**
+	 * Returns the objects of the controller registered in the log
+	 */
+	private Loggable[] getLoggables(){
+		return new Loggable[]{neighborTable, routingTable, topologyTable, mprSet, multicastNetworkGraph,
+				multicastGroupsTable, allocationStats, packetAggregator, emissionScheduler};
+	}
+	/**
+	 * Processes a single OLSR packet (received alone or in a bundle)
+	 * @param src the hop immediately before
+	 * @param olsrPacket
+	 */
+	private void handleIncomingPacket(OLSRNode src, OLSRPacket olsrPacket){
+		OLSRMessage content = olsrPacket.getContent();
+		
+		if (olsrPacket.getOriginator().equals(localNode) || olsrPacket.getTtl()<=0){
+			return; // If ttl<=0 or the message was sent by the receiving node, the message is discarded
+		}					
+		// Checking the DuplicateSet:
+		if (duplicateTable.containsSameAddrSeq(olsrPacket.getOriginator(),olsrPacket.getMessageSequenceNumber())){
+			// The message has already been completely processed and must not be processed again
+		}else {		
+			if (olsrPacket.getMessageType()==OLSRPacket.HELLO_MESSAGE){
+				// Process the Hello Message	
+				helloMessageHandler.handleHelloMessage(olsrPacket.getOriginator(), (HelloMessage)content, olsrPacket.getVTime());
+			} else if (olsrPacket.getMessageType()==OLSRPacket.TC_MESSAGE){
+				//Continue passing the TC Message to the rest of the network
+				defaultForwardingAlgorithm(src,olsrPacket);
+				//Process TC Message
+				tcMessageHandler.handleTcMessage(olsrPacket.getOriginator(),src,(TcMessage)content,olsrPacket.getVTime());	
+				//Try to update the originator's node bandwidth in case it has changed
+				if (PropertiesLoader.isDynamicCredit() &&
+						PropertiesLoader.isThroughputOptimizationNetworkSelfKnowledgementEnabled()){
+					updateBwOfOriginatorNodeInDataStructures(olsrPacket);
+				}
+			} else {
+				log.warn("ERROR: incoming message of unknown type");
+			}
+		}
+	}
 	/**
 	 * Creates all necessary data structures and it also 
 	 * should launch threads for data dissemination
@@ -352,15 +407,17 @@ public class OLSRController implements TopologyInformationSender{
 	 */
 	private void initialize(){		
 		// Initialize data structures
+		this.nodeRegistry = new OLSRNodeRegistry(localNode);
 		this.neighborsOfNeighborsSet = new NeighborsOfNeighborsSet();
-		this.neighborTable = new NeighborTable(localNode,neighborsOfNeighborsSet);
+		this.neighborTable = new NeighborTable(localNode,neighborsOfNeighborsSet,nodeRegistry);
 		this.mprSet = new MprSet(localNode);
 		this.mprSelectorSet = new MprSelectorSet(localNode);
 		this.duplicateTable = new DuplicateTable(localNode);
 		this.routingTable = new RoutingTable(localNode);		
-		this.topologyTable = new TopologyInformationBaseTable(localNode);		
+		this.topologyTable = new TopologyInformationBaseTable(localNode,nodeRegistry);		
 		this.multicastGroupsTable = new MulticastGroupsTable();
 		this.multicastNetworkGraph = new MulticastNetworkGraph(multicastGroupsTable,localNode);
+		this.allocationStats = new AllocationStats(localNode.getAddress().getHostAddress());
 				
 		// Emulation structures (Not needed on real execution)
 		EmulationNeighborData.getInstance().registerNeighborTable(localNode,neighborTable);
@@ -368,32 +425,47 @@ public class OLSRController implements TopologyInformationSender{
 		// Controllers and information processors 
 		this.helloMessageHandler = new HelloMessageHandler(neighborTable,localNode);
 		this.helloMessageHandler.registerMprSelectorSet(mprSelectorSet);		
-		this.mprComputationController = new MprComputationController(neighborTable,neighborsOfNeighborsSet,mprSet,localNode);
-		this.routingTableComputationController = new RoutingTableComputationController(neighborTable, routingTable, 
-				topologyTable, neighborsOfNeighborsSet, localNode);		
+		this.mprComputationController = new MprComputationController(mprSet,nodeRegistry,localNode);
+		this.routingTableComputationController = new RoutingTableComputationController(routingTable,nodeRegistry,localNode);		
 		this.tcMessageHandler = new TcMessageHandler(topologyTable,neighborTable,multicastGroupsTable);		
-		this.multicastNetworkGraphComputationController = new MulticastNetworkGraphComputationController(multicastNetworkGraph,
-				neighborTable,topologyTable,localNode);		
+		this.multicastNetworkGraphComputationController = new MulticastNetworkGraphComputationController(multicastNetworkGraph,localNode);
+		this.topologyEventDispatcher = new TopologyEventDispatcher(multicastNetworkGraph,routingTable,allocationStats);		
 		
 		// Factories		
 		this.olsrPacketFactory = new OLSRPacketFactory(localNode);
+		this.packetAggregator = new OLSRPacketAggregator(messageSender,PropertiesLoader.getControlPacketSize());
+		if (PropertiesLoader.isAdaptiveIntervals()){
+			this.emissionScheduler = new EmissionScheduler(PropertiesLoader.getHelloIntervalBounds(),
+					PropertiesLoader.getTcIntervalBounds());
+		} else {
+			this.emissionScheduler = new EmissionScheduler(new int[]{OLSRThread.HELLO_INTERVAL, OLSRThread.HELLO_INTERVAL},
+					new int[]{OLSRThread.TC_INTERVAL, OLSRThread.TC_INTERVAL});
+		}
 		
 		// Registering loggable classes
 		Log logger = Log.getInstance();
-		logger.registerLoggable(this.neighborTable.getClass().getName(), this.neighborTable);
-		logger.registerLoggable(this.routingTable.getClass().getName(), this.routingTable);
-		logger.registerLoggable(this.topologyTable.getClass().getName(), this.topologyTable);
-		logger.registerLoggable(this.mprSet.getClass().getName(), this.mprSet);
-		logger.registerLoggable(this.multicastNetworkGraph.getClass().getName(), this.multicastNetworkGraph);
-		logger.registerLoggable(this.multicastGroupsTable.getClass().getName(),this.multicastGroupsTable);
+		for (Loggable loggable:getLoggables()){
+			logger.registerLoggable(loggable.getClass().getName(), loggable);
+		}
 		
 		// Periodic thread
-		this.olsrThread = new OLSRThread(messageSender, neighborTable, mprComputationController,
+		this.olsrThread = new OLSRThread(packetAggregator, neighborTable, neighborsOfNeighborsSet, mprComputationController,
 										 routingTableComputationController, mprSelectorSet, olsrPacketFactory,
 										 topologyTable, duplicateTable, this,
-										 multicastNetworkGraphComputationController, multicastGroupsTable, localNode);
+										 multicastNetworkGraphComputationController, multicastGroupsTable, localNode,
+										 allocationStats, emissionScheduler);
 		this.olsrThread.start();		
 	}
+	/**
+	 * Logs information about the redirection of a message
+	 */
+	private void logRedirection(Message msg, OLSRNode nextHop, OLSRNode dest){
+		InetAddress srcAddr = msg.getSrc()==null ? localNode.getAddress() : ((IpAddress)msg.getSrc()).getIpAddress();
+		log.info(srcAddr.getHostAddress()+"-->...-->"+
+				localNode.getAddress().getHostAddress()+"--> "+
+				nextHop.getAddress().getHostAddress()+"-->...-->"+
+				dest.getAddress().getHostAddress());
+	}
 	/**
 	 * This method updates the bandwidth of the main data structures when the originator
 	 * node of the TcMessage has a different bw
@@ -407,15 +479,18 @@ public class OLSRController implements TopologyInformationSender{
 		OLSRNode unUpdatedNeighbor = routingTable.getRoutingTableEntry(packet.getOriginator()).getDestAddr();
 		boolean isBwOfOriginatorNodeChanged = unUpdatedNeighbor.getBandwithCoefficient()>
 			packet.getOriginator().getBandwithCoefficient();
-		//If its value has changed, update the bandwidth everywhere
+		//If its value has changed, replace the canonical instance of the node everywhere
 		if (isBwOfOriginatorNodeChanged){
-			neighborTable.updateBwOf(packet.getOriginator());			
-			mprSet.updateBwOf(packet.getOriginator());			
-			mprSelectorSet.updateBwOf(packet.getOriginator());			
-			neighborsOfNeighborsSet.updateBwOf(packet.getOriginator());			
-			multicastGroupsTable.updateBwOf(packet.getOriginator());			
-			multicastNetworkGraph.updateBwOf(packet.getOriginator());			
-			routingTable.updateBwOf(packet.getOriginator());
+			OLSRNode updatedNode = nodeRegistry.updateBandwidth(packet.getOriginator());
+			//The graph is updated before the tables set their flags, so the
+			//recomputation they trigger dispatches the new bandwidth
+			multicastNetworkGraph.updateBwOf(updatedNode);			
+			neighborTable.updateBwOf(updatedNode);			
+			mprSet.updateBwOf(updatedNode);			
+			mprSelectorSet.updateBwOf(updatedNode);			
+			neighborsOfNeighborsSet.updateBwOf(updatedNode);			
+			multicastGroupsTable.updateBwOf(updatedNode);			
+			routingTable.updateBwOf(updatedNode);
 		}		
 	}
 }
\ No newline at end of file
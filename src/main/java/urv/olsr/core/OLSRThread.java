@@ -1,40 +1,73 @@
 package urv.olsr.core;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import urv.olsr.data.OLSRNode;
+import urv.olsr.data.TableChangeListener;
 import urv.olsr.data.duplicate.DuplicateTable;
 import urv.olsr.data.mpr.MprSelectorSet;
 import urv.olsr.data.mpr.MprSet;
 import urv.olsr.data.neighbour.NeighborTable;
+import urv.olsr.data.neighbour.NeighborsOfNeighborsSet;
 import urv.olsr.data.topology.TopologyInformationBaseTable;
 import urv.olsr.mcast.TopologyInformationSender;
 import urv.olsr.mcast.MulticastGroupsTable;
 import urv.olsr.mcast.MulticastNetworkGraphComputationController;
-import urv.olsr.message.OLSRMessageSender;
+import urv.olsr.message.OLSRPacketAggregator;
 import urv.olsr.message.OLSRPacketFactory;
+import urv.olsr.message.ValidityTime;
 import urv.olsr.message.generator.HelloMessageGenerator;
 import urv.olsr.message.generator.TcMessageGenerator;
 
 /**
- * This class is used to execute the OLSR tasks periodically
- * 
+ * This class is used to execute the OLSR tasks. All of them are executed
+ * in a single thread, so they never run concurrently:
+ *
+ * - Every BASE_TIME, the expiring tables are processed and the messages
+ *   forwarded since the last time are sent.
+ * - Each HELLO and TC message is generated by a one-shot task, scheduled
+ *   when the previous message of its type is sent, at the time given by
+ *   the EmissionScheduler (its interval minus a random jitter). If the
+ *   interval shrinks meanwhile, because the tables change, the task is
+ *   scheduled again earlier; if it grows, the task waits again when it runs.
+ * - The MPR set, the routing table and the multicast network graph are
+ *   recomputed as soon as the flags of the tables are set (the tables
+ *   notify this class, see TableChangeListener). Several changes notified
+ *   before the recomputation starts are handled by a single recomputation.
+ *   The three computations work on the same TopologySnapshot and run at the
+ *   same time (in the common fork-join pool); their results are published
+ *   together once all of them have finished, so the MPR set, the routing
+ *   table and the graph always correspond to the same state of the tables.
+ * - The extra TC messages are generated as soon as they are requested.
+ *
+ * The thread is created by start() and finished by stop()
+ *
  * @author Gerard Paris Aixala
  *
  */
-public class OLSRThread extends Thread {
+public class OLSRThread implements TableChangeListener {
 
 	//	CONSTANTS --
-	
+
 	private static final int BASE_TIME = 100; // 100 ms
-	private static final int HELLO_INTERVAL 	= BASE_TIME*20;
-	private static final int TC_INTERVAL 		= BASE_TIME*50;
-	private static final int INTERVAL_LCM 		= BASE_TIME*90;
-	public static final int TC_MESSAGE_VALIDITY_TIME  = (4*TC_INTERVAL)/1000; //Time in seconds
-	public static final int HELLO_MESSAGE_VALIDITY_TIME = (4*HELLO_INTERVAL)/1000; //Time in seconds
+	public static final int HELLO_INTERVAL 	= BASE_TIME*20;
+	public static final int TC_INTERVAL 		= BASE_TIME*50;
+	private static final int STOP_TIMEOUT = 1000; // 1 s
 
 	//	CLASS FIELDS --
-	
-	private OLSRMessageSender olsrMessageSender;
+
+	private OLSRPacketAggregator packetAggregator;
 	private NeighborTable neighborTable;
+	private NeighborsOfNeighborsSet neighborsOfNeighborsSet;
 	private DuplicateTable duplicateTable;
 	private TopologyInformationBaseTable topologyTable;
 	private MulticastGroupsTable multicastGroupsTable;
@@ -45,114 +78,317 @@ public class OLSRThread extends Thread {
 	private HelloMessageGenerator helloMessageGenerator;
 	private TcMessageGenerator tcMessageGenerator;
 	private TopologyInformationSender controllerUpper;
-	private boolean extraTCMessage = false;
+	private AllocationStats allocationStats;
+	private EmissionScheduler emissionScheduler;
+	private OLSRNode localNode;
+	private ScheduledExecutorService executor = null;
+	private long timeBefore;
+	// Last time the clock of the emission scheduler was advanced
+	private long emissionTimeBefore;
+	// Pending emission task of each type of message, and the time it runs at
+	private final ScheduledFuture<?>[] emissions = new ScheduledFuture<?>[2];
+	private final long[] emissionTimes = new long[2];
+	private final Runnable[] emissionTasks = {new EmissionTask(EmissionScheduler.HELLO),
+			new EmissionTask(EmissionScheduler.TC)};
+	private final AtomicBoolean recomputationPending = new AtomicBoolean(false);
+	private final AtomicBoolean extraTCMessagePending = new AtomicBoolean(false);
+	private final Runnable periodicTask = new Runnable(){
+		public void run(){
+			try {
+				processPeriodicTasks();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	};
+	private final Runnable recomputationTask = new Runnable(){
+		public void run(){
+			recomputationPending.set(false);
+			try {
+				recompute();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	};
+	private final Runnable extraTCMessageTask = new Runnable(){
+		public void run(){
+			extraTCMessagePending.set(false);
+			try {
+				tcMessageGenerator.generateAndSend(new ValidityTime(emissionScheduler.getValidityTime(EmissionScheduler.TC)));
+				packetAggregator.flush();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	};
 
 	//	CONSTRUCTORS --
-	
-	public OLSRThread(OLSRMessageSender sender, NeighborTable neighborTable, MprComputationController mprComputationController,
+
+	public OLSRThread(OLSRPacketAggregator packetAggregator, NeighborTable neighborTable, NeighborsOfNeighborsSet neighborsOfNeighborsSet,
+			MprComputationController mprComputationController,
 			RoutingTableComputationController routingTableComputationController, MprSelectorSet mprSelectorSet,
 			OLSRPacketFactory olsrPacketFactory, TopologyInformationBaseTable topologyTable, DuplicateTable duplicateTable,
 			TopologyInformationSender controllerUpper, MulticastNetworkGraphComputationController multicastNetworkGraphComputationController,
-			MulticastGroupsTable multicastGroupsTable, OLSRNode localNode){
-		this.olsrMessageSender = sender;
+			MulticastGroupsTable multicastGroupsTable, OLSRNode localNode, AllocationStats allocationStats,
+			EmissionScheduler emissionScheduler){
+		this.packetAggregator = packetAggregator;
 		this.neighborTable = neighborTable;
+		this.neighborsOfNeighborsSet = neighborsOfNeighborsSet;
 		this.mprComputationController = mprComputationController;
 		this.routingTableComputationController = routingTableComputationController;
 		this.topologyTable = topologyTable;
 		this.duplicateTable = duplicateTable;
-		this.helloMessageGenerator = new HelloMessageGenerator(sender, neighborTable, olsrPacketFactory);
-		this.tcMessageGenerator  = new TcMessageGenerator(sender, mprSelectorSet, olsrPacketFactory, multicastGroupsTable, localNode);
+		this.helloMessageGenerator = new HelloMessageGenerator(packetAggregator, neighborTable, olsrPacketFactory);
+		this.tcMessageGenerator  = new TcMessageGenerator(packetAggregator, mprSelectorSet, olsrPacketFactory, multicastGroupsTable, localNode);
 		this.controllerUpper = controllerUpper;
 		this.multicastNetworkGraphComputationController = multicastNetworkGraphComputationController;
 		this.multicastGroupsTable = multicastGroupsTable;
+		this.allocationStats = allocationStats;
+		this.emissionScheduler = emissionScheduler;
+		this.localNode = localNode;
+		neighborTable.setChangeListener(this);
+		topologyTable.setChangeListener(this);
+		multicastGroupsTable.setChangeListener(this);
 	}
-	
+
 	//	OVERRIDDEN METHODS --
-	
-	public void run(){
-		int countHello = 0;
-		int countTc = 0;
-		int count = 0;
 
-		long timeBefore = System.currentTimeMillis();
-		long timeNow;
-		long diff;
+	/**
+	 * Schedules a recomputation, unless there is already one waiting
+	 */
+	public void onTableChanged() {
+		scheduleRecomputation(0);
+	}
 
-		while(true){
-			try {
-				// Wait the BASE_TIME defined interval to execute the process again
-				Thread.sleep(BASE_TIME);
-				timeNow = System.currentTimeMillis();
-				diff = timeNow-timeBefore;
-
-				// Recalculation of the time elapsed between executions
-				count += diff;
-				countHello += diff;
-				countTc += diff;
-				timeBefore = timeNow;
-
-				neighborTable.decreaseTimeAndProcessEntries(diff);
-				duplicateTable.decreaseTimeAndProcessEntries(diff);
-				topologyTable.decreaseTimeAndProcessEntries(diff);
-				
-				// MPR recomputation
-				if (neighborTable.isRecomputeMprFlag()){
-					//If the computation was ok, there is no need to recompute again
-					if (mprComputationController.computeNewMprSet()==true){
-						neighborTable.setRecomputeMprFlag(false);
-						MprSet mprSet = mprComputationController.getMprSet();
-						neighborTable.onMPRSetChange(mprSet);
-					}
-				}
-				// Routing Table recomputation
-				if (neighborTable.isNeighborTableChangedFlag() || topologyTable.isTopologyTableChangedFlag()){
-					
-					neighborTable.setNeighborTableChangedFlag(false);
-					topologyTable.setTopologyTableChangedFlag(false);
-					// MulticastNetworkGraph recomputation
-					multicastGroupsTable.setMulticastGroupsTableChangedFlag(false);
-					multicastNetworkGraphComputationController.computeNewMulticastNetworkGraph();
-					// Report event up to the stacks (networkGraph)
-					controllerUpper.sendTopologyInformationEvent();
-					routingTableComputationController.computeNewRoutingTable();
-				}
-				if (multicastGroupsTable.isMulticastGroupsTableChangedFlag()){					
-					multicastGroupsTable.setMulticastGroupsTableChangedFlag(false);
-					multicastNetworkGraphComputationController.computeNewMulticastNetworkGraph();
-					// Report event up to the stacks (networkGraph)
-					controllerUpper.sendTopologyInformationEvent();
-				}
-				// Generation of HELLO Messages
-				if (countHello >= HELLO_INTERVAL){
-					helloMessageGenerator.generateAndSend();
-					countHello = countHello % HELLO_INTERVAL;
-				}
-				// Generation of TC messages
-				if (countTc >= TC_INTERVAL){
-					tcMessageGenerator.generateAndSend();
-					countTc = countTc % TC_INTERVAL;
-					extraTCMessage = false;
-				} else if (extraTCMessage){
-					tcMessageGenerator.generateAndSend();
-					extraTCMessage = false;
-				}
-				if (count >= INTERVAL_LCM) {
-					// As Log is a Singleton class... maybe we only need a node to invoke printLoggables()
-					// Solution: printLoggables is now invoked from another thread!!!!!
-					//Log.getInstance().printLoggables();
-					count = count % INTERVAL_LCM;
-				}
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			} catch (Exception e1) {
-				e1.printStackTrace();
+	//	PUBLIC METHODS --
+
+	/**
+	 * Starts the thread which executes the OLSR tasks
+	 */
+	public synchronized void start(){
+		if (executor!=null) return;
+		ScheduledThreadPoolExecutor newExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory(){
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "OLSRThread-"+localNode);
 			}
+		});
+		newExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		executor = newExecutor;
+		timeBefore = System.currentTimeMillis();
+		emissionTimeBefore = timeBefore;
+		executor.scheduleWithFixedDelay(periodicTask, BASE_TIME, BASE_TIME, TimeUnit.MILLISECONDS);
+		scheduleEmission(EmissionScheduler.HELLO, timeBefore, emissionScheduler.getDelay(EmissionScheduler.HELLO));
+		scheduleEmission(EmissionScheduler.TC, timeBefore, emissionScheduler.getDelay(EmissionScheduler.TC));
+		// The tables may have changed before the thread was started
+		onTableChanged();
+	}
+	/**
+	 * Stops the thread, waiting for the task being executed (if any) to finish
+	 */
+	public void stop(){
+		ScheduledExecutorService oldExecutor;
+		synchronized (this) {
+			oldExecutor = executor;
+			executor = null;
+		}
+		if (oldExecutor==null) return;
+		oldExecutor.shutdownNow();
+		try {
+			oldExecutor.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
-	
+
 	//	ACCESS METHODS --
-	
+
+	/**
+	 * Requests a TC message to be generated now, besides the periodic ones
+	 * @param value
+	 */
 	public void setExtraTCMessage(boolean value){
-		extraTCMessage  = value;
+		if (value && extraTCMessagePending.compareAndSet(false, true)){
+			if (submit(extraTCMessageTask, 0)==null) extraTCMessagePending.set(false);
+		}
+	}
+
+	//	PRIVATE METHODS --
+
+	private void processPeriodicTasks(){
+		long timeNow = System.currentTimeMillis();
+		long diff = timeNow-timeBefore;
+		timeBefore = timeNow;
+
+		neighborTable.decreaseTimeAndProcessEntries(diff);
+		duplicateTable.decreaseTimeAndProcessEntries(diff);
+		topologyTable.decreaseTimeAndProcessEntries(diff);
+		advanceEmissionClock(timeNow);
+		// The changes of the tables may have shortened the intervals
+		for (int type=EmissionScheduler.HELLO;type<=EmissionScheduler.TC;type++){
+			long delay = emissionScheduler.getDelay(type);
+			if (timeNow+delay<emissionTimes[type]) scheduleEmission(type, timeNow, delay);
+		}
+		// The messages forwarded since the last time are sent together
+		packetAggregator.flush();
+	}
+	private void advanceEmissionClock(long timeNow){
+		emissionScheduler.tick(timeNow-emissionTimeBefore, neighborTable.getChangeCount(), topologyTable.getChangeCount());
+		emissionTimeBefore = timeNow;
+	}
+	/**
+	 * Generates the message of the given type if it is due, and schedules the next one
+	 */
+	private void emit(int type){
+		long timeNow = System.currentTimeMillis();
+		long delay = BASE_TIME;
+		try {
+			advanceEmissionClock(timeNow);
+			if (emissionScheduler.isDue(type)){
+				ValidityTime validityTime = new ValidityTime(emissionScheduler.getValidityTime(type));
+				if (type==EmissionScheduler.HELLO) helloMessageGenerator.generateAndSend(validityTime);
+				else tcMessageGenerator.generateAndSend(validityTime);
+				emissionScheduler.emitted(type);
+				packetAggregator.flush();
+			}
+			delay = emissionScheduler.getDelay(type);
+		} finally {
+			// A failed emission is tried again later
+			scheduleEmission(type, timeNow, delay);
+		}
+	}
+	private void recompute(){
+		final boolean mprNeeded = neighborTable.isRecomputeMprFlag();
+		final boolean neighborhoodChanged = neighborTable.isNeighborTableChangedFlag();
+		boolean routesNeeded = neighborhoodChanged || topologyTable.isTopologyTableChangedFlag();
+		boolean graphNeeded = routesNeeded || multicastGroupsTable.isMulticastGroupsTableChangedFlag();
+		if (!mprNeeded && !graphNeeded) return;
+		// The flags are cleared before taking the snapshot, so any later change
+		// schedules a new recomputation
+		neighborTable.setRecomputeMprFlag(false);
+		neighborTable.setNeighborTableChangedFlag(false);
+		topologyTable.setTopologyTableChangedFlag(false);
+		multicastGroupsTable.setMulticastGroupsTableChangedFlag(false);
+		final TopologySnapshot snapshot = TopologySnapshot.take(neighborTable, neighborsOfNeighborsSet, topologyTable);
+		// The changes drained by the snapshot must reach the routing table
+		if (!snapshot.getAddedTopologyPairs().isEmpty() || !snapshot.getRemovedTopologyPairs().isEmpty()){
+			routesNeeded = true;
+			graphNeeded = true;
+		}
+		// MPR and multicast network graph computations run in the pool,
+		// the routing table is computed meanwhile in this thread
+		ForkJoinTask<Boolean> mprTask = null;
+		ForkJoinTask<Boolean> graphTask = null;
+		if (mprNeeded){
+			mprTask = ForkJoinPool.commonPool().submit(new Callable<Boolean>(){
+				public Boolean call(){
+					long start = allocationStats.start();
+					boolean computed = mprComputationController.computeNewMprSet(snapshot);
+					allocationStats.stop(AllocationStats.MPR, start);
+					return computed;
+				}
+			});
+		}
+		if (graphNeeded){
+			graphTask = ForkJoinPool.commonPool().submit(new Callable<Boolean>(){
+				public Boolean call(){
+					multicastNetworkGraphComputationController.computeNewMulticastNetworkGraph(snapshot);
+					return true;
+				}
+			});
+		}
+		boolean mprComputed;
+		try {
+			if (routesNeeded){
+				long start = allocationStats.start();
+				routingTableComputationController.computeNewRoutingTable(snapshot, neighborhoodChanged);
+				allocationStats.stop(AllocationStats.ROUTING, start);
+			}
+			mprComputed = mprTask!=null && mprTask.join();
+			if (graphTask!=null) graphTask.join();
+		} catch (RuntimeException e){
+			// Nothing is published: the flags are set again, so the
+			// computations are repeated later with a new snapshot (the
+			// recomputation is scheduled first, so setting the flags
+			// does not schedule an immediate one). A failed routing
+			// computation has lost the drained topology changes, so the
+			// controller rebuilds all the routes in the next run
+			scheduleRecomputation(BASE_TIME);
+			if (mprNeeded) neighborTable.setRecomputeMprFlag(true);
+			if (neighborhoodChanged) neighborTable.setNeighborTableChangedFlag(true);
+			if (routesNeeded) topologyTable.setTopologyTableChangedFlag(true);
+			if (graphNeeded) multicastGroupsTable.setMulticastGroupsTableChangedFlag(true);
+			throw e;
+		}
+
+		// Publication of the results
+		if (mprComputed){
+			mprComputationController.publishMprSet();
+			MprSet mprSet = mprComputationController.getMprSet();
+			neighborTable.onMPRSetChange(mprSet);
+		} else if (mprNeeded){
+			// Try again later
+			scheduleRecomputation(BASE_TIME);
+			neighborTable.setRecomputeMprFlag(true);
+		}
+		if (routesNeeded){
+			routingTableComputationController.publishRoutingTable();
+		}
+		if (graphNeeded){
+			multicastNetworkGraphComputationController.copyGraph();
+			// Report event up to the stacks (networkGraph)
+			controllerUpper.sendTopologyInformationEvent();
+		}
+	}
+	/**
+	 * Replaces the pending emission task of the given type of message
+	 * @param timeNow
+	 * @param delay in ms
+	 */
+	private void scheduleEmission(int type, long timeNow, long delay){
+		if (emissions[type]!=null) emissions[type].cancel(false);
+		emissionTimes[type] = timeNow+delay;
+		emissions[type] = submit(emissionTasks[type], delay);
+	}
+	/**
+	 * Schedules a recomputation, unless one is already pending
+	 * @param delay in ms
+	 */
+	private void scheduleRecomputation(int delay){
+		if (recomputationPending.compareAndSet(false, true)){
+			if (submit(recomputationTask, delay)==null) recomputationPending.set(false);
+		}
+	}
+	/**
+	 * Submits the task to the thread, if it has been started and not stopped
+	 * @return the scheduled task, or null if it has not been submitted
+	 */
+	private synchronized ScheduledFuture<?> submit(Runnable task, long delay){
+		if (executor==null) return null;
+		try {
+			return executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			return null;
+		}
+	}
+
+	//	PRIVATE CLASSES --
+
+	/**
+	 * One-shot task which generates a HELLO or TC message
+	 */
+	private class EmissionTask implements Runnable {
+		private final int type;
+
+		EmissionTask(int type){
+			this.type = type;
+		}
+		public void run(){
+			try {
+				emit(type);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
 	}
-}
\ No newline at end of file
+}
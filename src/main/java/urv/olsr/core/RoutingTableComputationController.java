@@ -1,14 +1,18 @@
 package urv.olsr.core;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
 import urv.olsr.data.OLSRNode;
-import urv.olsr.data.mpr.OLSRPairSet;
-import urv.olsr.data.mpr.OLSRSet;
-import urv.olsr.data.neighbour.NeighborTable;
-import urv.olsr.data.neighbour.NeighborsOfNeighborsSet;
+import urv.olsr.data.OLSRNodeRegistry;
 import urv.olsr.data.routing.RoutingTable;
 import urv.olsr.data.routing.RoutingTableEntry;
 import urv.olsr.data.topology.OLSRNodePair;
-import urv.olsr.data.topology.TopologyInformationBaseTable;
 
 /**
  * Each node maintains a routing table which allows it to route data,
@@ -62,108 +66,419 @@ import urv.olsr.data.topology.TopologyInformationBaseTable;
    as N_neighbor_main_addr and Z as N_2hop_addr, and the arcs U -> V,
    where there exists an entry in the topology set with V as T_dest_addr
    and U as T_last_addr.
-   
+
+ * The graph is kept as an adjacency index (successors and predecessors of
+ * each node) together with the current shortest path tree, so that a change
+ * in the topology set only updates the routes which depend on it: a new arc
+ * is relaxed with a BFS from its target, and a lost arc only recomputes the
+ * subtree of the shortest path tree hanging from it. Changes in the
+ * neighborhood rebuild the whole tree with a single BFS. Only the entries
+ * which have actually changed are published to the routing table.
+ * Nodes are identified by their id in the node registry of the controller,
+ * so the graph and the tree are kept in arrays and bitsets indexed by id.
+ * When the registry reuses ids, the whole tree is rebuilt.
+ * The routes are computed from a TopologySnapshot and the changes are kept
+ * until publishRoutingTable() copies them to the routing table.
+
  * @author Marcel Arrufat Arias
  */
 public class RoutingTableComputationController {
 
+	//	CONSTANTS --
+
+	private static final int NO_ROUTE = -1;
+
 	//	CLASS FIELDS --
 	
 	private RoutingTable routingTable;
-	private NeighborTable neighborTable;
 	private OLSRNode localNode;
-	private TopologyInformationBaseTable topologyTable;
-	private NeighborsOfNeighborsSet neighborsOfNeighborsSet;	
+	private OLSRNodeRegistry nodeRegistry;
+	private int localId;
+	// Generation of the registry when the ids were last registered
+	private int generation;
+	// Number of ids the arrays can hold
+	private int capacity = 0;
+	// Arcs local node -> symmetric neighbors and symmetric neighbors -> 2-hop neighbors
+	private BitSet[] neighborhoodArcs = new BitSet[0];
+	private BitSet[] reverseNeighborhoodArcs = new BitSet[0];
+	// Arcs last hop -> destination from the topology set
+	private BitSet[] topologyArcs = new BitSet[0];
+	private BitSet[] reverseTopologyArcs = new BitSet[0];
+	// Current shortest path tree
+	private int[] hops = new int[0];
+	private int[] parent = new int[0];
+	private int[] nextHop = new int[0];
+	private BitSet[] children = new BitSet[0];
+	private boolean initialized = false;
+	// Destinations whose route has changed since the last publication
+	private BitSet changedDestinations = new BitSet();
+	// Snapshot used by the current computation
+	private TopologySnapshot snapshot;
 	// Temporal data structures
-	private RoutingTable tmpRoutingTable;
-	private OLSRSet tmpSymNeighbors;
-	private OLSRPairSet tmpNoNs;
-	private TopologyInformationBaseTable tmpTopologyTable;
+	private int[] oldHops = new int[0];
+	private int[] oldNextHop = new int[0];
+	private int[] queue = new int[0];
+	private BitSet tmpSubtree = new BitSet();
 	
 	//	CONSTRUCTORS --
 		
-	public RoutingTableComputationController(NeighborTable neighborTable,RoutingTable routingTable, 
-			TopologyInformationBaseTable topologyTable, NeighborsOfNeighborsSet neighborsOfNeighborsSet, OLSRNode localNode) {		
-		this.neighborTable = neighborTable;
+	/**
+	 * @param routingTable
+	 * @param nodeRegistry registry of the canonical nodes of the controller
+	 * @param localNode
+	 */
+	public RoutingTableComputationController(RoutingTable routingTable, OLSRNodeRegistry nodeRegistry, OLSRNode localNode) {		
 		this.routingTable = routingTable;
-		this.neighborsOfNeighborsSet = neighborsOfNeighborsSet;
-		this.topologyTable = topologyTable;
-		this.localNode = localNode;		
-		tmpRoutingTable = new RoutingTable(localNode);
+		this.localNode = localNode;
+		this.nodeRegistry = nodeRegistry;
+		this.localId = nodeRegistry.getId(localNode);
+		this.generation = nodeRegistry.getGeneration();
 	}
 	
 	//	PUBLIC METHODS --
 	
-	public void computeNewRoutingTable(){		
-		createDataStructures();
-		computeRoutingTableAlgorithm();
-		copyRoutingTable();
+	/**
+	 * Computes the new routes. If the neighborhood has not changed since
+	 * the last computation, only the changes of the topology set are applied.
+	 * The routing table is not modified until publishRoutingTable() is invoked.
+	 * If the computation fails, the changes drained by the snapshot are lost and
+	 * the tree may be half updated, so the next computation rebuilds all the routes
+	 * @param snapshot state of the neighborhood and of the topology set
+	 * @param neighborhoodChanged whether the neighbor or 2-hop neighbor sets have changed
+	 */
+	public synchronized void computeNewRoutingTable(TopologySnapshot snapshot, boolean neighborhoodChanged){
+		this.snapshot = snapshot;
+		try {
+			if (neighborhoodChanged || !initialized){
+				recomputeAllRoutes();
+			} else {
+				updateRoutes();
+			}
+		} catch (RuntimeException e) {
+			initialized = false;
+			throw e;
+		} finally {
+			this.snapshot = null;
+		}
+	}
+	/**
+	 * Copies the routes changed by the last computations to the routing table
+	 */
+	public synchronized void publishRoutingTable(){
+		publishChanges();
 	}
 	
 	//	PRIVATE METHODS --
 	
+	private void addTopologyArc(int lastAddr, int destAddr){
+		if (lastAddr==localId || destAddr==localId) return;
+		indexArc(topologyArcs, reverseTopologyArcs, lastAddr, destAddr);
+		relax(lastAddr, destAddr);
+	}
+	private static void clearAll(BitSet[] sets){
+		for (BitSet set:sets){
+			if (set!=null) set.clear();
+		}
+	}
 	/**
-	 * Computes a new routing table in order to be able to send 
-	 * messages in a efficient way
+	 * Collects the given node and all its descendants in the shortest path tree
 	 */
-	private void computeRoutingTableAlgorithm() {		
-		//2. For each SYM Neigh add to the table
-		for(OLSRNode destAddr:tmpSymNeighbors){
-			//Neighbors are located at one hop
-			tmpRoutingTable.addRoutingTableEntry(destAddr,destAddr,1);
-		}
-		//3a. For each 2-hop neighbor, add entry neighbor<-->2-hop neighbor
-		for (OLSRNodePair pair:tmpNoNs){
-			OLSRNode neigh = pair.getOriginator();
-			OLSRNode non = pair.getAdvertised();
-			//The 2-hop neighbor should not be the localNode or a 1-hop neighbor
-			if (!non.equals(localNode)&& !tmpSymNeighbors.contains(non)){				
-				//If the entry does not exist or there are a more efficient route to arrive at the same destination, add entry
-				RoutingTableEntry oldEntry = tmpRoutingTable.getRoutingTableEntry(non);
-				if (oldEntry == null){
-					tmpRoutingTable.addRoutingTableEntry(non,neigh,2);
+	private BitSet collectSubtree(int root){
+		BitSet subtree = tmpSubtree;
+		subtree.clear();
+		int head = 0, tail = 0;
+		queue[tail++] = root;
+		subtree.set(root);
+		while (head<tail){
+			int node = queue[head++];
+			BitSet nodeChildren = children[node];
+			if (nodeChildren==null) continue;
+			for (int child=nodeChildren.nextSetBit(0);child>=0;child=nodeChildren.nextSetBit(child+1)){
+				if (!subtree.get(child)){
+					subtree.set(child);
+					queue[tail++] = child;
 				}
 			}
-		}		
-		//3b Process topology table entries		
-		int hops=2;		
-		boolean entryAdded;
-		
-		do {
-			entryAdded=false;			
-			for (OLSRNodePair pair:tmpTopologyTable.keySet()){
-				//Advertised is the destAddr
-				//Originator is the last hop to get to Advertised				
-				OLSRNode destAddr = pair.getAdvertised();
-				OLSRNode lastAddr = pair.getOriginator();				
-				//If the destAddr does not have an entry in the routing table and
-				//lastAddr has one entry whose distance is equal to hops
-				if (tmpRoutingTable.getRoutingTableEntry(destAddr)==null && tmpRoutingTable.getRoutingTableEntry(lastAddr)!=null){					
-					if (tmpRoutingTable.getRoutingTableEntry(lastAddr).getHops()==hops){
-						if (!destAddr.equals(localNode)){
-							tmpRoutingTable.addRoutingTableEntry(destAddr,tmpRoutingTable.getRoutingTableEntry(lastAddr).getNextAddr(),hops+1);
-							entryAdded=true;								
-						}
-					}
+		}
+		return subtree;
+	}
+	/**
+	 * Grows the arrays so that they can hold all the ids of the registry
+	 */
+	private void ensureCapacity(){
+		int size = nodeRegistry.size();
+		if (size<=capacity) return;
+		int newCapacity = Math.max(size, capacity*2);
+		neighborhoodArcs = Arrays.copyOf(neighborhoodArcs, newCapacity);
+		reverseNeighborhoodArcs = Arrays.copyOf(reverseNeighborhoodArcs, newCapacity);
+		topologyArcs = Arrays.copyOf(topologyArcs, newCapacity);
+		reverseTopologyArcs = Arrays.copyOf(reverseTopologyArcs, newCapacity);
+		children = Arrays.copyOf(children, newCapacity);
+		hops = grow(hops, newCapacity);
+		parent = grow(parent, newCapacity);
+		nextHop = grow(nextHop, newCapacity);
+		oldHops = grow(oldHops, newCapacity);
+		oldNextHop = grow(oldNextHop, newCapacity);
+		queue = new int[newCapacity];
+		capacity = newCapacity;
+	}
+	private static int[] grow(int[] array, int newCapacity){
+		int[] newArray = Arrays.copyOf(array, newCapacity);
+		Arrays.fill(newArray, array.length, newCapacity, NO_ROUTE);
+		return newArray;
+	}
+	/**
+	 * Checks whether the arc u->v gives a shorter route to v and, in such case,
+	 * replaces the route to v
+	 * @return true if the route to v has changed
+	 */
+	private boolean improve(int u, int v){
+		if (v==localId || hops[u]==NO_ROUTE) return false;
+		if (hops[v]!=NO_ROUTE && hops[v]<=hops[u]+1) return false;
+		setRoute(v, hops[u]+1, u);
+		changedDestinations.set(v);
+		return true;
+	}
+	private static void indexArc(BitSet[] arcs, BitSet[] reverseArcs, int from, int to){
+		if (arcs[from]==null) arcs[from] = new BitSet();
+		if (reverseArcs[to]==null) reverseArcs[to] = new BitSet();
+		arcs[from].set(to);
+		reverseArcs[to].set(from);
+	}
+	private static boolean isArc(BitSet[] arcs, int from, int to){
+		return arcs[from]!=null && arcs[from].get(to);
+	}
+	private void publishChanges() {
+		if (changedDestinations.isEmpty()) return;
+		List<RoutingTableEntry> updated = new ArrayList<RoutingTableEntry>();
+		List<OLSRNode> removed = new ArrayList<OLSRNode>();
+		for (int dest=changedDestinations.nextSetBit(0);dest>=0;dest=changedDestinations.nextSetBit(dest+1)){
+			//The canonical nodes are shared with the routing table, so no copy is needed
+			OLSRNode destNode = nodeRegistry.getNode(dest);
+			//An evicted node is no longer in the routing table nor in the topology
+			if (destNode==null) continue;
+			OLSRNode nextNode = hops[dest]==NO_ROUTE ? null : nodeRegistry.getNode(nextHop[dest]);
+			if (nextNode==null){
+				removed.add(destNode);
+			} else {
+				updated.add(new RoutingTableEntry(destNode,nextNode,hops[dest]));
+			}
+		}
+		changedDestinations.clear();
+		routingTable.updateEntries(updated, removed);
+	}
+	/**
+	 * Rebuilds the adjacency index and the shortest path tree with a
+	 * BFS from the local node, and records which routes have changed
+	 */
+	private void recomputeAllRoutes(){
+		Set<OLSRNode> symNeighbors = snapshot.getSymNeighbors();
+		List<OLSRNodePair> nons = snapshot.getTwoHopPairs();
+		List<OLSRNodePair> pairs = snapshot.getTopologyPairs();
+
+		clearAll(neighborhoodArcs);
+		clearAll(reverseNeighborhoodArcs);
+		clearAll(topologyArcs);
+		clearAll(reverseTopologyArcs);
+		//Register the ids of the nodes before indexing the arcs
+		for (OLSRNode neigh:symNeighbors) nodeRegistry.getId(neigh);
+		for (OLSRNodePair pair:nons) nodeRegistry.getId(pair.getAdvertised());
+		for (OLSRNodePair pair:pairs){
+			nodeRegistry.getId(pair.getOriginator());
+			nodeRegistry.getId(pair.getAdvertised());
+		}
+		boolean idsReused = updateGeneration();
+		ensureCapacity();
+		//2. Arcs to the symmetric neighbors
+		for (OLSRNode neigh:symNeighbors){
+			indexArc(neighborhoodArcs, reverseNeighborhoodArcs, localId, nodeRegistry.getId(neigh));
+		}
+		//3a. Arcs from the symmetric neighbors to the 2-hop neighbors
+		for (OLSRNodePair pair:nons){
+			if (symNeighbors.contains(pair.getOriginator()) && !pair.getAdvertised().equals(localNode)){
+				indexArc(neighborhoodArcs, reverseNeighborhoodArcs, 
+						nodeRegistry.getId(pair.getOriginator()), nodeRegistry.getId(pair.getAdvertised()));
+			}
+		}
+		//3b. Arcs from the topology set
+		for (OLSRNodePair pair:pairs){
+			int lastAddr = nodeRegistry.getId(pair.getOriginator());
+			int destAddr = nodeRegistry.getId(pair.getAdvertised());
+			if (lastAddr!=localId && destAddr!=localId){
+				indexArc(topologyArcs, reverseTopologyArcs, lastAddr, destAddr);
+			}
+		}
+		//Keep the old routes to find out which ones have changed
+		int[] tmp = oldHops; oldHops = hops; hops = tmp;
+		tmp = oldNextHop; oldNextHop = nextHop; nextHop = tmp;
+		Arrays.fill(hops, NO_ROUTE);
+		Arrays.fill(parent, NO_ROUTE);
+		Arrays.fill(nextHop, NO_ROUTE);
+		clearAll(children);
+		hops[localId] = 0;
+		int head = 0, tail = 0;
+		queue[tail++] = localId;
+		while (head<tail){
+			int node = queue[head++];
+			for (int succ=nextSuccessor(node, 0);succ>=0;succ=nextSuccessor(node, succ+1)){
+				if (hops[succ]==NO_ROUTE){
+					setRoute(succ, hops[node]+1, node);
+					queue[tail++] = succ;
 				}
 			}
-			//Increase the number of hops
-			hops++;
-		} while(entryAdded);		
+		}
+		for (int dest=0;dest<capacity;dest++){
+			//The old routes are not reliable after a failed computation, and they may belong
+			//to other nodes if the ids have been reused, so every route is published again
+			if (dest!=localId && (!initialized || idsReused
+					|| hops[dest]!=oldHops[dest] || nextHop[dest]!=oldNextHop[dest])){
+				changedDestinations.set(dest);
+			}
+		}
+		initialized = true;
 	}
-	private void copyRoutingTable() {		 
-		routingTable.setCopyOfTable(tmpRoutingTable);
+	/**
+	 * Returns the first successor of the node (in the neighborhood or in the
+	 * topology set) whose id is equal or greater than fromId, or -1 if none
+	 */
+	private int nextSuccessor(int node, int fromId){
+		int a = neighborhoodArcs[node]==null ? -1 : neighborhoodArcs[node].nextSetBit(fromId);
+		int b = topologyArcs[node]==null ? -1 : topologyArcs[node].nextSetBit(fromId);
+		if (a<0) return b;
+		if (b<0) return a;
+		return Math.min(a, b);
 	}
 	/**
-	 * Empties the used datastructures
-	 *
+	 * Propagates the improvement that the arc u->v may give
+	 * to v and to the nodes reached through v
 	 */
-	private void createDataStructures() {
-		tmpSymNeighbors = neighborTable.getCopyOfSymNeighbors();
-		tmpNoNs = (OLSRPairSet)neighborsOfNeighborsSet.clone();
-		tmpTopologyTable = (TopologyInformationBaseTable)topologyTable.clone();
-		//1. All the entries are removed
-		tmpRoutingTable.clear();		
-		// TODO Should we clone the topologyTable??		
-	}
-}
\ No newline at end of file
+	private void relax(int u, int v){
+		if (!improve(u, v)) return;
+		int head = 0, tail = 0;
+		queue[tail++] = v;
+		while (head<tail){
+			int node = queue[head++];
+			for (int succ=nextSuccessor(node, 0);succ>=0;succ=nextSuccessor(node, succ+1)){
+				//A node can only be improved once per relaxation, as the BFS visits it in order
+				if (improve(node, succ)) queue[tail++] = succ;
+			}
+		}
+	}
+	private void removeTopologyArc(int lastAddr, int destAddr){
+		if (topologyArcs[lastAddr]!=null) topologyArcs[lastAddr].clear(destAddr);
+		if (reverseTopologyArcs[destAddr]!=null) reverseTopologyArcs[destAddr].clear(lastAddr);
+		//The arc may still exist in the neighborhood
+		if (isArc(neighborhoodArcs, lastAddr, destAddr)) return;
+		if (hops[destAddr]!=NO_ROUTE && parent[destAddr]==lastAddr){
+			repairSubtree(destAddr);
+		}
+	}
+	/**
+	 * The arc to the given node in the shortest path tree has disappeared: the
+	 * routes of its subtree are discarded and recomputed (Dijkstra restricted to
+	 * the subtree) from the nodes whose routes are still valid
+	 */
+	private void repairSubtree(int root){
+		BitSet subtree = collectSubtree(root);
+		for (int node=subtree.nextSetBit(0);node>=0;node=subtree.nextSetBit(node+1)){
+			oldHops[node] = hops[node];
+			oldNextHop[node] = nextHop[node];
+			children[parent[node]].clear(node);
+			if (children[node]!=null) children[node].clear();
+			hops[node] = parent[node] = nextHop[node] = NO_ROUTE;
+		}
+		PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>(subtree.cardinality(), Candidate.BY_HOPS);
+		for (int node=subtree.nextSetBit(0);node>=0;node=subtree.nextSetBit(node+1)){
+			addCandidates(candidates, reverseNeighborhoodArcs[node], node);
+			addCandidates(candidates, reverseTopologyArcs[node], node);
+		}
+		while (!candidates.isEmpty()){
+			Candidate candidate = candidates.poll();
+			if (hops[candidate.node]!=NO_ROUTE) continue;
+			setRoute(candidate.node, candidate.hops, candidate.parent);
+			for (int succ=nextSuccessor(candidate.node, 0);succ>=0;succ=nextSuccessor(candidate.node, succ+1)){
+				if (subtree.get(succ) && hops[succ]==NO_ROUTE){
+					candidates.add(new Candidate(succ, candidate.node, candidate.hops+1));
+				}
+			}
+		}
+		for (int node=subtree.nextSetBit(0);node>=0;node=subtree.nextSetBit(node+1)){
+			if (hops[node]!=oldHops[node] || nextHop[node]!=oldNextHop[node]) changedDestinations.set(node);
+		}
+	}
+	private void addCandidates(PriorityQueue<Candidate> candidates, BitSet predecessors, int node){
+		if (predecessors==null) return;
+		for (int pred=predecessors.nextSetBit(0);pred>=0;pred=predecessors.nextSetBit(pred+1)){
+			if (hops[pred]!=NO_ROUTE) candidates.add(new Candidate(node, pred, hops[pred]+1));
+		}
+	}
+	private void setRoute(int dest, int destHops, int destParent){
+		if (parent[dest]!=NO_ROUTE) children[parent[dest]].clear(dest);
+		hops[dest] = destHops;
+		parent[dest] = destParent;
+		nextHop[dest] = destParent==localId ? dest : nextHop[destParent];
+		if (children[destParent]==null) children[destParent] = new BitSet();
+		children[destParent].set(dest);
+	}
+	/**
+	 * Stores the current generation of the registry
+	 * @return true if some ids have been reused since the previous call
+	 */
+	private boolean updateGeneration(){
+		int current = nodeRegistry.getGeneration();
+		boolean changed = current!=generation;
+		generation = current;
+		return changed;
+	}
+	/**
+	 * Applies the pairs added to and removed from the topology set since
+	 * the last computation. If there are too many of them, a whole
+	 * recomputation is cheaper
+	 */
+	private void updateRoutes(){
+		Set<OLSRNodePair> tmpAddedPairs = snapshot.getAddedTopologyPairs();
+		Set<OLSRNodePair> tmpRemovedPairs = snapshot.getRemovedTopologyPairs();
+		if (tmpAddedPairs.size()+tmpRemovedPairs.size() > snapshot.getTopologyPairs().size()/2+1){
+			recomputeAllRoutes();
+			return;
+		}
+		for (OLSRNodePair pair:tmpAddedPairs){
+			nodeRegistry.getId(pair.getOriginator());
+			nodeRegistry.getId(pair.getAdvertised());
+		}
+		//The tree may refer to ids which now belong to other nodes
+		if (nodeRegistry.getGeneration()!=generation){
+			recomputeAllRoutes();
+			return;
+		}
+		ensureCapacity();
+		for (OLSRNodePair pair:tmpRemovedPairs){
+			removeTopologyArc(nodeRegistry.getId(pair.getOriginator()), nodeRegistry.getId(pair.getAdvertised()));
+		}
+		for (OLSRNodePair pair:tmpAddedPairs){
+			addTopologyArc(nodeRegistry.getId(pair.getOriginator()), nodeRegistry.getId(pair.getAdvertised()));
+		}
+	}
+
+	//	INNER CLASSES --
+
+	/**
+	 * Tentative route used while repairing a subtree
+	 */
+	private static class Candidate {
+		static final Comparator<Candidate> BY_HOPS = new Comparator<Candidate>(){
+			public int compare(Candidate c1, Candidate c2) {
+				return c1.hops - c2.hops;
+			}
+		};
+		final int node;
+		final int parent;
+		final int hops;
+
+		Candidate(int node, int parent, int hops){
+			this.node = node;
+			this.parent = parent;
+			this.hops = hops;
+		}
+	}
+}
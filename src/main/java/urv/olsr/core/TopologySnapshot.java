@@ -0,0 +1,130 @@
+package urv.olsr.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import urv.olsr.data.OLSRNode;
+import urv.olsr.data.mpr.OLSRSet;
+import urv.olsr.data.neighbour.NeighborTable;
+import urv.olsr.data.neighbour.NeighborTableEntry;
+import urv.olsr.data.neighbour.NeighborsOfNeighborsSet;
+import urv.olsr.data.topology.OLSRNodePair;
+import urv.olsr.data.topology.TopologyInformationBaseTable;
+
+/**
+ * Immutable copy of the neighborhood and of the topology set, taken before
+ * recomputing the MPR set, the routing table and the multicast network
+ * graph. The three computations may run at the same time, and all of them
+ * work on the same state instead of reading (and copying) the tables on
+ * their own
+ *
+ * The snapshot also contains the pairs added to and removed from the
+ * topology set since the previous snapshot, which are drained from the
+ * table when the snapshot is taken
+ */
+public class TopologySnapshot {
+
+	//	CLASS FIELDS --
+
+	private final Set<OLSRNode> symNeighbors;
+	// Neighbors of each symmetric neighbor, as advertised in its HELLO messages
+	private final Map<OLSRNode,Set<OLSRNode>> neighborsOfNeighbors;
+	private final List<OLSRNodePair> twoHopPairs;
+	private final List<OLSRNodePair> topologyPairs;
+	private final Set<OLSRNodePair> addedTopologyPairs;
+	private final Set<OLSRNodePair> removedTopologyPairs;
+
+	//	CONSTRUCTORS --
+
+	private TopologySnapshot(Set<OLSRNode> symNeighbors, Map<OLSRNode,Set<OLSRNode>> neighborsOfNeighbors,
+			List<OLSRNodePair> twoHopPairs, List<OLSRNodePair> topologyPairs,
+			Set<OLSRNodePair> addedTopologyPairs, Set<OLSRNodePair> removedTopologyPairs) {
+		this.symNeighbors = Collections.unmodifiableSet(symNeighbors);
+		this.neighborsOfNeighbors = Collections.unmodifiableMap(neighborsOfNeighbors);
+		this.twoHopPairs = Collections.unmodifiableList(twoHopPairs);
+		this.topologyPairs = Collections.unmodifiableList(topologyPairs);
+		this.addedTopologyPairs = Collections.unmodifiableSet(addedTopologyPairs);
+		this.removedTopologyPairs = Collections.unmodifiableSet(removedTopologyPairs);
+	}
+
+	//	STATIC METHODS --
+
+	/**
+	 * Copies the current state of the tables and drains the changes of
+	 * the topology set
+	 * @param neighborTable
+	 * @param neighborsOfNeighborsSet
+	 * @param topologyTable
+	 * @return the snapshot
+	 */
+	public static TopologySnapshot take(NeighborTable neighborTable, NeighborsOfNeighborsSet neighborsOfNeighborsSet,
+			TopologyInformationBaseTable topologyTable){
+		OLSRSet symNeighbors;
+		Map<OLSRNode,Set<OLSRNode>> neighborsOfNeighbors = new HashMap<OLSRNode,Set<OLSRNode>>();
+		List<OLSRNodePair> twoHopPairs;
+		List<OLSRNodePair> topologyPairs;
+		Set<OLSRNodePair> added = new HashSet<OLSRNodePair>();
+		Set<OLSRNodePair> removed = new HashSet<OLSRNodePair>();
+		// Everything is read under the lock of the neighbor table, which also
+		// guards the updates of the 2-hop neighbor set, so the three parts of
+		// the snapshot correspond to the same state. The topology table is
+		// never locked before the neighbor table, so nesting its lock is safe
+		synchronized (neighborTable.getLock()) {
+			symNeighbors = neighborTable.getCopyOfSymNeighbors();
+			for (OLSRNode neighbor:symNeighbors){
+				NeighborTableEntry entry = neighborTable.getEntry(neighbor);
+				neighborsOfNeighbors.put(neighbor, Collections.unmodifiableSet(
+						new HashSet<OLSRNode>(entry.getNeighborsOfNeighbors())));
+			}
+			twoHopPairs = neighborsOfNeighborsSet.getPairs();
+			topologyPairs = topologyTable.getPairsAndDrainChanges(added, removed);
+		}
+		return new TopologySnapshot(symNeighbors, neighborsOfNeighbors, twoHopPairs, topologyPairs, added, removed);
+	}
+
+	//	ACCESS METHODS --
+
+	/**
+	 * @return the pairs added to the topology set since the previous snapshot
+	 */
+	public Set<OLSRNodePair> getAddedTopologyPairs() {
+		return addedTopologyPairs;
+	}
+	/**
+	 * Returns the neighbors of the given symmetric neighbor, or an empty
+	 * set if it is not a symmetric neighbor
+	 * @param neighbor
+	 */
+	public Set<OLSRNode> getNeighborsOf(OLSRNode neighbor) {
+		Set<OLSRNode> neighbors = neighborsOfNeighbors.get(neighbor);
+		return neighbors==null ? Collections.<OLSRNode>emptySet() : neighbors;
+	}
+	/**
+	 * @return the pairs removed from the topology set since the previous snapshot
+	 */
+	public Set<OLSRNodePair> getRemovedTopologyPairs() {
+		return removedTopologyPairs;
+	}
+	/**
+	 * @return the symmetric neighbors of the local node
+	 */
+	public Set<OLSRNode> getSymNeighbors() {
+		return symNeighbors;
+	}
+	/**
+	 * @return the pairs (symmetric neighbor, 2-hop neighbor)
+	 */
+	public List<OLSRNodePair> getTwoHopPairs() {
+		return twoHopPairs;
+	}
+	/**
+	 * @return the pairs (last hop, destination) of the topology set
+	 */
+	public List<OLSRNodePair> getTopologyPairs() {
+		return topologyPairs;
+	}
+}
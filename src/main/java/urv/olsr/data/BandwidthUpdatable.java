@@ -3,6 +3,9 @@ package urv.olsr.data;
 /**
  * This interface is implemented by the data structures
  * that can update the bandwidth of its internal nodes.
+ * The nodes held by the structure may be canonical instances
+ * (see OLSRNodeRegistry), which are immutable, so they are
+ * replaced by the given node instead of being modified
  *  
  * @author Raul Gracia
  *
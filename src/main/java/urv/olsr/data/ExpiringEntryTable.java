@@ -1,47 +1,79 @@
 package urv.olsr.data;
 
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 /**
  * Table which stores some information that may eventually expire
  * if no updates are received during a certain time span
  * The access to the table is synchronized
- * 
+ *
+ * Expiration times are kept in a hashed timer wheel: each entry is
+ * linked into the slot of the tick in which it expires, so adding,
+ * refreshing or removing an entry is O(1) and every call to
+ * decreaseTimeAndProcessEntries only visits the slots of the elapsed
+ * ticks instead of decrementing a counter in every entry of the table
+ *
  * @author Marcel Arrufat Arias
  */
-public abstract class ExpiringEntryTable <K,V> extends Hashtable<K,Integer>{
-	
+public abstract class ExpiringEntryTable <K,V> {
+
+	//	CONSTANTS --
+
+	/**
+	 * Resolution of the timer wheel in milliseconds
+	 */
+	public static final int TICK_DURATION = 100;
+	/**
+	 * Number of slots of the timer wheel (power of two). With the default
+	 * resolution it covers 51.2 seconds, longer than any validity time used
+	 * by OLSR, so most entries are only visited when they expire
+	 */
+	public static final int WHEEL_SIZE = 512;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
 	//	CLASS FIELDS --
-	
+
 	//Key will be OLSRNode and V NeighbourTableEntry
-	private Hashtable<K,V> dataTable; 
+	private Hashtable<K,V> dataTable;
+	private HashMap<K,Timeout<K>> timeouts;
+	//First timeout of each slot of the wheel
+	private List<Timeout<K>> wheel;
+	//Time elapsed since the table was created, as told by decreaseTimeAndProcessEntries
+	private long currentTime = 0;
+	private long currentTick = 0;
+	private KeySet keySet;
 	private Object lock = new Object();
-	
+	//Number of entries added or removed since the table was created
+	private long changeCount = 0;
+
 	//	CONSTRUCTORS --
-	
+
 	/**
-	 * Creates a new table that will remove an entry which
-	 * has not receive an update in <code>expiringTime</code>
-	 * milliseconds 
-	 * @param expiringTime
+	 * Creates a new empty table. Entries are removed when their
+	 * validity time, given when they are added or updated, expires
 	 */
 	public ExpiringEntryTable() {
 		super();
-		dataTable = new Hashtable<K,V>();	
-	}	
-	
-	//	OVERRIDDEN METHODS --
-	
-	public Set<K> keySet(){		
-		return dataTable.keySet();		
+		dataTable = new Hashtable<K,V>();
+		timeouts = new HashMap<K,Timeout<K>>();
+		wheel = new ArrayList<Timeout<K>>(Collections.<Timeout<K>>nCopies(WHEEL_SIZE, null));
+		keySet = new KeySet();
 	}
+
+	//	OVERRIDDEN METHODS --
+
 	public String toString(){
 		StringBuffer buff = new StringBuffer();
 		synchronized (lock) {
 			for (K key:dataTable.keySet()){
-				buff.append(key+" (t="+super.get(key)+")\n");
+				buff.append(key+" (t="+getRemainingTime(key)+")\n");
 				buff.append("\t"+getEntry(key));
 				buff.append("\n");
 			}
@@ -49,9 +81,9 @@ public abstract class ExpiringEntryTable <K,V> extends Hashtable<K,Integer>{
 		buff.append("\n");
 		return buff.toString();
 	}
-	
+
 	//	PUBLIC METHODS --
-	
+
 	/**
 	 * Adds a new entry in the table
 	 * Mark the entry as information up-to-date
@@ -59,43 +91,64 @@ public abstract class ExpiringEntryTable <K,V> extends Hashtable<K,Integer>{
 	 * @param value
 	 * @param timestamp the validity time of this entry in milliseconds
 	 */
-	public void addEntryWithTimestamp(K key,V value,int timestamp){		
+	public void addEntryWithTimestamp(K key,V value,int timestamp){
+		synchronized (lock) {
+			if (dataTable.put(key, value) == null) entryAdded(key);
+			schedule(key, timestamp);
+		}
+	}
+	/**
+	 * Returns true if there is an entry for the given key
+	 * @param key
+	 */
+	public boolean containsKey(Object key){
 		synchronized (lock) {
-			dataTable.put(key, value);
-			//TODO: check the value of timestamp is correct
-			this.put(key, timestamp);
+			return dataTable.containsKey(key);
 		}
 	}
 	/**
-	 * Decreases the valid time for all entries and
-	 * removes the ones which exceed the maximum time
-	 * @param refreshTime
+	 * Advances the clock of the table and removes the entries
+	 * whose validity time has expired. The table is notified
+	 * (onTableChange) once if any entry has been removed
+	 * @param refreshTime time elapsed since the last call, in milliseconds
 	 */
 	public void decreaseTimeAndProcessEntries(long refreshTime){
-		
+		boolean changed = false;
 		synchronized (lock) {
-			Iterator<K> it = this.keySet().iterator();
-			while (it.hasNext()) {
-				K key = it.next(); 
-				
-				int currentTime = this.get(key).intValue();
-				currentTime -= refreshTime;
-
-				// Remove if current time has exceeded max time
-				if (currentTime <= 0) {
-					it.remove();
-					V value= dataTable.remove(key);
-					onTableChange(); // TODO Should we call this method??
-				}
-				// Or update currentTime
-				else {
-					this.put(key, new Integer(currentTime));
+			currentTime += refreshTime;
+			long targetTick = currentTime / TICK_DURATION;
+			//If more than a whole turn has elapsed, every slot has to be visited once
+			long ticks = Math.min(targetTick - currentTick, WHEEL_SIZE);
+			for (long tick = currentTick + 1; tick <= currentTick + ticks; tick++) {
+				Timeout<K> timeout = wheel.get((int)(tick & WHEEL_MASK));
+				while (timeout != null) {
+					Timeout<K> next = timeout.next;
+					// Remove if current time has exceeded max time
+					if (timeout.deadline <= currentTime) {
+						unlink(timeout);
+						timeouts.remove(timeout.key);
+						dataTable.remove(timeout.key);
+						entryRemoved(timeout.key);
+						changed = true;
+					}
+					timeout = next;
 				}
 			}
+			currentTick = targetTick;
+		}
+		if (changed) onTableChange();
+	}
+	/**
+	 * Returns the number of entries added to or removed from the table
+	 * (including the expired ones) since it was created
+	 */
+	public long getChangeCount(){
+		synchronized (lock) {
+			return changeCount;
 		}
 	}
 	/**
-	 * Return the entry corresponding with 
+	 * Return the entry corresponding with
 	 * the given key
 	 * @param key
 	 */
@@ -106,7 +159,29 @@ public abstract class ExpiringEntryTable <K,V> extends Hashtable<K,Integer>{
 		}
 		return value;
 	}
-	public abstract void onTableChange();	
+	/**
+	 * Returns the time (in milliseconds) until the entry expires,
+	 * or -1 if there is no entry for the given key
+	 * @param key
+	 */
+	public long getRemainingTime(K key){
+		synchronized (lock) {
+			Timeout<K> timeout = timeouts.get(key);
+			return timeout == null ? -1 : timeout.deadline - currentTime;
+		}
+	}
+	public boolean isEmpty(){
+		return dataTable.isEmpty();
+	}
+	/**
+	 * Returns a view of the keys of the table. Removing a key through
+	 * the iterator of the view removes the whole entry.
+	 * The lock of the table should be held while iterating
+	 */
+	public Set<K> keySet(){
+		return keySet;
+	}
+	public abstract void onTableChange();
 	/**
 	 * Overwrite an existing entry in the table
 	 * Mark the entry as information up-to-date
@@ -116,31 +191,158 @@ public abstract class ExpiringEntryTable <K,V> extends Hashtable<K,Integer>{
 	 */
 	public void overwriteEntryWithTimestamp(K key,V value,int timestamp){
 		addEntryWithTimestamp(key, value, timestamp);
-	}	
+	}
 	/**
 	 * Removes an entry from the table
 	 * @param key
 	 */
-	public void removeEntry(K key){		
+	public void removeEntry(K key){
 		synchronized (lock) {
-			dataTable.remove(key);
-			this.remove(key);
+			if (dataTable.remove(key) != null) entryRemoved(key);
+			cancel(key);
 		}
 	}
+	public int size(){
+		return dataTable.size();
+	}
+	/**
+	 * Sets a new validity time for an existing entry
+	 * @param key
+	 * @param msec the new validity time in milliseconds
+	 */
 	public void updateTimestampInEntry(K key,int msec){
 		synchronized (lock) {
-			Integer i = this.get(key);
-			i = new Integer(msec);
-			this.put(key,i);
+			if (dataTable.containsKey(key)){
+				schedule(key, msec);
+			}
 		}
 	}
-	
+
 	//	ACCESS METHODS --
-	
+
 	/**
 	 * @return Returns the lock.
 	 */
 	public Object getLock() {
 		return lock;
 	}
-}
\ No newline at end of file
+
+	//	PROTECTED METHODS --
+
+	/**
+	 * Invoked, holding the lock of the table, when a new key is added
+	 * @param key
+	 */
+	protected void onEntryAdded(K key){}
+	/**
+	 * Invoked, holding the lock of the table, when a key is removed
+	 * or its entry expires
+	 * @param key
+	 */
+	protected void onEntryRemoved(K key){}
+
+	//	PRIVATE METHODS --
+
+	private void cancel(Object key){
+		Timeout<K> timeout = timeouts.remove(key);
+		if (timeout != null) unlink(timeout);
+	}
+	private void entryAdded(K key){
+		changeCount++;
+		onEntryAdded(key);
+	}
+	private void entryRemoved(K key){
+		changeCount++;
+		onEntryRemoved(key);
+	}
+	/**
+	 * Links the timeout into the slot of the first tick
+	 * processed after its deadline
+	 */
+	private void link(Timeout<K> timeout){
+		long tick = (timeout.deadline + TICK_DURATION - 1) / TICK_DURATION;
+		if (tick <= currentTick) tick = currentTick + 1;
+		timeout.slot = (int)(tick & WHEEL_MASK);
+		timeout.prev = null;
+		timeout.next = wheel.get(timeout.slot);
+		if (timeout.next != null) timeout.next.prev = timeout;
+		wheel.set(timeout.slot, timeout);
+	}
+	private void schedule(K key, int msec){
+		Timeout<K> timeout = timeouts.get(key);
+		if (timeout == null){
+			timeout = new Timeout<K>(key);
+			timeouts.put(key, timeout);
+		} else {
+			unlink(timeout);
+		}
+		timeout.deadline = currentTime + Math.max(msec, 0);
+		link(timeout);
+	}
+	private void unlink(Timeout<K> timeout){
+		if (timeout.prev != null) timeout.prev.next = timeout.next;
+		else wheel.set(timeout.slot, timeout.next);
+		if (timeout.next != null) timeout.next.prev = timeout.prev;
+		timeout.prev = timeout.next = null;
+	}
+
+	//	INNER CLASSES --
+
+	/**
+	 * Expiration time of an entry, linked in a slot of the wheel
+	 */
+	private static class Timeout<K> {
+		final K key;
+		long deadline;
+		int slot;
+		Timeout<K> prev;
+		Timeout<K> next;
+
+		Timeout(K key){
+			this.key = key;
+		}
+	}
+	/**
+	 * Key view which keeps the timer wheel in sync when
+	 * entries are removed through its iterator
+	 */
+	private class KeySet extends AbstractSet<K> {
+
+		public boolean contains(Object key){
+			return dataTable.containsKey(key);
+		}
+		public Iterator<K> iterator(){
+			final Iterator<K> it = dataTable.keySet().iterator();
+			return new Iterator<K>(){
+				private K last;
+
+				public boolean hasNext(){
+					return it.hasNext();
+				}
+				public K next(){
+					last = it.next();
+					return last;
+				}
+				public void remove(){
+					synchronized (lock) {
+						it.remove();
+						cancel(last);
+						entryRemoved(last);
+					}
+				}
+			};
+		}
+		@SuppressWarnings("unchecked")
+		public boolean remove(Object key){
+			synchronized (lock) {
+				boolean existed = dataTable.remove(key) != null;
+				cancel(key);
+				if (existed) entryRemoved((K)key);
+				return existed;
+			}
+		}
+		public int size(){
+			return dataTable.size();
+		}
+	}
+}
@@ -3,27 +3,41 @@ package urv.olsr.data;
 import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.stack.IpAddress;
+import org.jgroups.util.Bits;
 import org.jgroups.util.SizeStreamable;
 import urv.conf.PropertiesLoader;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.net.Inet6Address;
 import java.net.InetAddress;
-import java.nio.ByteBuffer;
 
 /**
  * Object that represents a node in a network based in OLSR protocol.
  * OLSR does not make any assumption about node addresses, other than
  * that each node is assumed to have a unique IP address.
  * 
+ * The serialized node starts with a flags byte, followed by the address (4 bytes,
+ * or 16 for IPv6). The bandwidth information is only written when it has been
+ * set (it is 0 unless the throughput optimizations are enabled), with the
+ * capacities encoded as variable length longs.
+ * 
  * @author Marcel Arrufat Arias
  * @author Raul Gracia Tinedo
  */
 public class OLSRNode implements SizeStreamable {
 
+	//	CONSTANTS --
+	
+	//Flags of the serialized node
+	private static final int IPV6_FLAG = 1;
+	private static final int BANDWIDTH_FLAG = 2;
+
 	//	CLASS FIELDS --
 	
 	private InetAddress address;
+	//JGroups address of the node, created when it is first requested
+	private volatile Address jgroupsAddress;
 	//Bandwidth information about each node
 	private float bandwithCoefficient;
 	private long bwBytesCapacity;
@@ -32,6 +46,15 @@ public class OLSRNode implements SizeStreamable {
 	//	CONSTRUCTORS --
 	
 	public OLSRNode() {}
+	
+	private OLSRNode(OLSRNode node) {
+		this.address = node.address;
+		synchronized (node) {
+			this.bandwithCoefficient = node.bandwithCoefficient;
+			this.bwBytesCapacity = node.bwBytesCapacity;
+			this.bwMessagesCapacity = node.bwMessagesCapacity;
+		}
+	}
 
     //	ACCESS METHODS --
 
@@ -42,8 +65,17 @@ public class OLSRNode implements SizeStreamable {
         return address;
     }
 
+    /**
+     * Returns the JGroups address of the node. The same instance is returned
+     * every time, so it must not be modified
+     */
     public Address getJGroupsAddress(){
-        return new IpAddress(address, PropertiesLoader.getUnicastPort());
+        Address jgroupsAddress = this.jgroupsAddress;
+        if (jgroupsAddress==null){
+            jgroupsAddress = new IpAddress(address, PropertiesLoader.getUnicastPort());
+            this.jgroupsAddress = jgroupsAddress;
+        }
+        return jgroupsAddress;
     }
 
     public synchronized float getBandwithCoefficient() {
@@ -69,6 +101,7 @@ public class OLSRNode implements SizeStreamable {
     }
     public OLSRNode setValue(InetAddress address) {
         this.address = address;
+        this.jgroupsAddress = null;
         return this;
     }
 
@@ -87,6 +120,14 @@ public class OLSRNode implements SizeStreamable {
         node.setBwBytesCapacity(this.bwBytesCapacity);
         node.setBwMessagesCapacity(this.bwMessagesCapacity);
         return node;
+    }
+    /**
+     * Returns an immutable copy of the node: its address and bandwidth
+     * can not be changed, so it can be shared by different holders
+     * (see OLSRNodeRegistry). The copies of an immutable node are mutable
+     */
+    public OLSRNode immutableCopy(){
+        return this instanceof ImmutableOLSRNode ? this : new ImmutableOLSRNode(this);
     }
 	public boolean equals(Object obj){
 		OLSRNode node = (OLSRNode)obj;
@@ -99,36 +140,42 @@ public class OLSRNode implements SizeStreamable {
 	}
 
 
-    public int serializedSize() {
-        return Global.INT_SIZE *2 + Global.LONG_SIZE * 2;
+    public synchronized int serializedSize() {
+        int size = Global.BYTE_SIZE + (address instanceof Inet6Address ? Global.IPV6_SIZE : Global.IPV4_SIZE);
+        if (hasBandwidth()){
+            size += Global.FLOAT_SIZE + Bits.size(bwBytesCapacity) + Bits.size(bwMessagesCapacity);
+        }
+        return size;
     }
 
     public void readFrom(DataInput in) throws Exception {
-        byte[] a = new byte[4]; // 4 bytes (IPv4)
-        in.readFully(a, 0, 4);
+        int flags = in.readByte();
+        byte[] a = new byte[(flags & IPV6_FLAG)!=0 ? Global.IPV6_SIZE : Global.IPV4_SIZE];
+        in.readFully(a);
         this.address=InetAddress.getByAddress(a);
-        in.readFully(a, 0, 4);	//read the bandwidth coefficient, 4 bytes
-        this.bandwithCoefficient = ByteBuffer.wrap(a).getFloat();
-        a = new byte[8];
-        in.readFully(a, 0, 8);	//read the bytes capacity, 8 bytes
-        this.bwBytesCapacity = ByteBuffer.wrap(a).getLong();
-        in.readFully(a, 0, 8);	//read the messages capacity, 8 bytes
-        this.bwMessagesCapacity = ByteBuffer.wrap(a).getLong();
+        this.jgroupsAddress=null;
+        synchronized (this) {
+            if ((flags & BANDWIDTH_FLAG)!=0){
+                this.bandwithCoefficient = in.readFloat();
+                this.bwBytesCapacity = Bits.readLong(in);
+                this.bwMessagesCapacity = Bits.readLong(in);
+            } else {
+                this.bandwithCoefficient = 0;
+                this.bwBytesCapacity = 0;
+                this.bwMessagesCapacity = 0;
+            }
+        }
 	}
 
-	// todo: handle IPv6, too. Method serializedSize() needs to be changed as well
-    public void writeTo(DataOutput out) throws Exception {
-        byte[] a = address.getAddress();  // 4 bytes (IPv4)
-        out.write(a, 0, a.length);
-        ByteBuffer byteBuffer = ByteBuffer.allocate(4);
-        byte[] b = byteBuffer.putFloat(bandwithCoefficient).array();
-        out.write(b);
-        byteBuffer = ByteBuffer.allocate(8);
-        b = byteBuffer.putLong(bwBytesCapacity).array();
-        out.write(b);
-        byteBuffer = ByteBuffer.allocate(8);
-        b = byteBuffer.putLong(bwMessagesCapacity).array();
-        out.write(b);
+    public synchronized void writeTo(DataOutput out) throws Exception {
+        boolean bandwidth = hasBandwidth();
+        out.writeByte((address instanceof Inet6Address ? IPV6_FLAG : 0) | (bandwidth ? BANDWIDTH_FLAG : 0));
+        out.write(address.getAddress());
+        if (bandwidth){
+            out.writeFloat(bandwithCoefficient);
+            Bits.writeLong(bwBytesCapacity, out);
+            Bits.writeLong(bwMessagesCapacity, out);
+        }
     }
 
     public String toString(){
@@ -136,5 +183,40 @@ public class OLSRNode implements SizeStreamable {
                              address.toString(), bwBytesCapacity, bwMessagesCapacity, bandwithCoefficient);
     }
 
+    //	PRIVATE METHODS --
+
+    private boolean hasBandwidth(){
+        return bandwithCoefficient!=0 || bwBytesCapacity!=0 || bwMessagesCapacity!=0;
+    }
+
+    //	PRIVATE CLASSES --
 
+    /**
+     * Node whose mutators throw an UnsupportedOperationException
+     */
+    private static final class ImmutableOLSRNode extends OLSRNode {
+
+        ImmutableOLSRNode(OLSRNode node){
+            super(node);
+        }
+
+        public OLSRNode setBandwithCoefficient(float bandwithCoefficient) {
+            throw new UnsupportedOperationException("immutable node "+getAddress());
+        }
+        public OLSRNode setBwBytesCapacity(long bwBytesCapacity) {
+            throw new UnsupportedOperationException("immutable node "+getAddress());
+        }
+        public OLSRNode setBwMessagesCapacity(long bwMessagesCapacity) {
+            throw new UnsupportedOperationException("immutable node "+getAddress());
+        }
+        public OLSRNode setValue(InetAddress address) {
+            throw new UnsupportedOperationException("immutable node "+getAddress());
+        }
+        public void updateBandwidth(OLSRNode updatedNode) {
+            throw new UnsupportedOperationException("immutable node "+getAddress());
+        }
+        public void readFrom(DataInput in) throws Exception {
+            throw new UnsupportedOperationException("immutable node "+getAddress());
+        }
+    }
 }
\ No newline at end of file
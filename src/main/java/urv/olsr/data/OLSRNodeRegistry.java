@@ -0,0 +1,166 @@
+package urv.olsr.data;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.WeakHashMap;
+
+/**
+ * Registry of the nodes known by an OLSR controller. Each node gets a
+ * canonical instance, shared by all the data structures of the controller
+ * instead of keeping a copy of the node in each of them, and a dense
+ * integer id (0, 1, 2...) which can be used to index arrays and bitsets
+ *
+ * Canonical instances are immutable (see OLSRNode.immutableCopy()). When
+ * the bandwidth of a node changes, a new canonical instance replaces the
+ * previous one, keeping the same id, and the holders of the previous
+ * instance replace it with the new one (see BandwidthUpdatable)
+ *
+ * The registry only keeps weak references to the canonical instances, so
+ * a node is evicted once no data structure refers to it any more (except
+ * the local node, which is never evicted). The ids of the evicted nodes
+ * are given to the nodes registered later, so the ids stay bounded by the
+ * number of nodes known at the same time. Each time an id is reused the
+ * generation of the registry grows: a holder of ids which finds a new
+ * generation must not trust the ids it kept, as they may refer to a
+ * different node now, and rebuilds its state from the canonical nodes
+ */
+public class OLSRNodeRegistry {
+
+	//	CLASS FIELDS --
+
+	private WeakHashMap<OLSRNode,Registration> ids = new WeakHashMap<OLSRNode,Registration>();
+	//Registration of each id, null once the node has been evicted
+	private ArrayList<Registration> nodes = new ArrayList<Registration>();
+	private ReferenceQueue<OLSRNode> evicted = new ReferenceQueue<OLSRNode>();
+	//Ids of the evicted nodes, given to the next registered nodes
+	private BitSet freeIds = new BitSet();
+	//Number of times an id has been reused
+	private int generation = 0;
+	//Strong reference to the canonical local node
+	private OLSRNode localNode;
+
+	//	CONSTRUCTORS --
+
+	/**
+	 * @param localNode the local node, which is registered and never evicted
+	 */
+	public OLSRNodeRegistry(OLSRNode localNode) {
+		this.localNode = intern(localNode);
+	}
+
+	//	PUBLIC METHODS --
+
+	/**
+	 * Returns the id of the node, registering it if it was unknown
+	 * @param node
+	 * @return the id of the node
+	 */
+	public synchronized int getId(OLSRNode node){
+		return register(node).id;
+	}
+	/**
+	 * Returns the generation of the registry, which changes each
+	 * time the id of an evicted node is given to another node
+	 */
+	public synchronized int getGeneration(){
+		expungeEvicted();
+		return generation;
+	}
+	/**
+	 * Returns the canonical instance of the node with the given id,
+	 * or null if the node has been evicted
+	 * @param id
+	 */
+	public synchronized OLSRNode getNode(int id){
+		Registration registration = nodes.get(id);
+		return registration==null ? null : registration.get();
+	}
+	/**
+	 * Returns the canonical instance of the given node, registering
+	 * it if it was unknown
+	 * @param node
+	 */
+	public synchronized OLSRNode intern(OLSRNode node){
+		Registration registration = register(node);
+		OLSRNode canonical = registration.get();
+		//A new canonical instance may be collected as soon as it is registered,
+		//since nobody refers to it yet: register it again with the same id
+		return canonical!=null ? canonical : replace(node, registration.id);
+	}
+	/**
+	 * Returns the upper bound (exclusive) of the ids given so far
+	 */
+	public synchronized int size(){
+		return nodes.size();
+	}
+	/**
+	 * Replaces the canonical instance of the node by an immutable copy
+	 * of the given one, which carries the new bandwidth information
+	 * @param node
+	 * @return the new canonical instance
+	 */
+	public synchronized OLSRNode updateBandwidth(OLSRNode node){
+		OLSRNode canonical = replace(node, register(node).id);
+		if (canonical.equals(localNode)) localNode = canonical;
+		return canonical;
+	}
+
+	//	PRIVATE METHODS --
+
+	/**
+	 * Frees the ids of the nodes which have been garbage collected
+	 */
+	private void expungeEvicted(){
+		Registration registration;
+		while ((registration = (Registration)evicted.poll())!=null){
+			if (nodes.get(registration.id)==registration){
+				nodes.set(registration.id, null);
+				freeIds.set(registration.id);
+			}
+		}
+	}
+	private Registration register(OLSRNode node){
+		expungeEvicted();
+		Registration registration = ids.get(node);
+		if (registration==null){
+			OLSRNode canonical = node.immutableCopy();
+			int id = freeIds.nextSetBit(0);
+			if (id<0){
+				registration = new Registration(canonical, nodes.size(), evicted);
+				nodes.add(registration);
+			} else {
+				freeIds.clear(id);
+				registration = new Registration(canonical, id, evicted);
+				nodes.set(id, registration);
+				generation++;
+			}
+			ids.put(canonical, registration);
+		}
+		return registration;
+	}
+	private OLSRNode replace(OLSRNode node, int id){
+		OLSRNode canonical = node.immutableCopy();
+		Registration registration = new Registration(canonical, id, evicted);
+		//The key is removed first, as put() would keep the previous instance as the key
+		ids.remove(canonical);
+		ids.put(canonical, registration);
+		nodes.set(id, registration);
+		return canonical;
+	}
+
+	//	PRIVATE CLASSES --
+
+	/**
+	 * Weak reference to the canonical instance of a node, with its id
+	 */
+	private static class Registration extends WeakReference<OLSRNode> {
+		final int id;
+
+		Registration(OLSRNode node, int id, ReferenceQueue<OLSRNode> queue){
+			super(node, queue);
+			this.id = id;
+		}
+	}
+}
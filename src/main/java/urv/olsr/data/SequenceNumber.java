@@ -111,4 +111,13 @@ public class SequenceNumber implements Serializable,Streamable,Comparable{
 			seqNumber = 0;
 		}
 	}
+
+	//	ACCESS METHODS --
+
+	/**
+	 * @return the sequence number as an integer between 0 and 65535
+	 */
+	public int getValue(){
+		return seqNumber;
+	}
 }
\ No newline at end of file
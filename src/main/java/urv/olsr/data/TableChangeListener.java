@@ -0,0 +1,12 @@
+package urv.olsr.data;
+
+/**
+ * This interface is implemented by the classes which must be notified
+ * when the information of a table changes, e.g. to recompute the MPR
+ * set or the routing table without waiting for the next periodic check
+ */
+public interface TableChangeListener {
+
+	public void onTableChanged();
+
+}
@@ -31,11 +31,17 @@ import urv.olsr.data.SequenceNumber;
    which sent the message.  The term "Receiving Interface Address" will
    be used for the address of the interface of the node which received
    the message.
+
+ * The tuples are kept per originator (see SequenceWindow): each originator
+ * has a bitmap with its last sequence numbers, which expires DUP_HOLD_TIME
+ * after the last message recorded from it. Checking and recording a message
+ * only needs a lookup of the originator, and no object is allocated unless
+ * the originator is new or has restarted its sequence numbers.
    
  * @author Gerard Paris Aixala
  *
  */
-public class DuplicateTable extends ExpiringEntryTable<DuplicateTableEntry,Boolean>{
+public class DuplicateTable extends ExpiringEntryTable<OLSRNode,SequenceWindow>{
 
 	//	CONSTANTS --
 	
@@ -64,17 +70,33 @@ public class DuplicateTable extends ExpiringEntryTable<DuplicateTableEntry,Boole
 	
 	//	PUBLIC METHODS --
 	
+	/**
+	 * Records the message in the duplicate set, and sets the
+	 * expiration time of the tuples of its originator
+	 * @param originator
+	 * @param seqNumber
+	 * @param retransmitted whether the message will be retransmitted
+	 */
+	public void addDuplicateTuple(OLSRNode originator, SequenceNumber seqNumber, boolean retransmitted){
+		synchronized (getLock()) {
+			SequenceWindow window = getEntry(originator);
+			if (window==null){
+				window = new SequenceWindow(seqNumber.getValue());
+			}
+			window.record(seqNumber.getValue(), retransmitted);
+			addEntryWithTimestamp(originator, window, DUP_HOLD_TIME);
+		}
+	}
 	public boolean containsSameAddrSeq(OLSRNode originator, SequenceNumber messageSequenceNumber) {
-		if (super.containsKey(new DuplicateTableEntry(originator,messageSequenceNumber))){
-			return true;
+		synchronized (getLock()) {
+			SequenceWindow window = getEntry(originator);
+			return window!=null && window.contains(messageSequenceNumber.getValue());
 		}
-		return false;
 	}
 	public boolean isRetransmitted(OLSRNode originator, SequenceNumber seqNumber) {
-		DuplicateTableEntry tmp = new DuplicateTableEntry(originator,seqNumber);
-		if (containsKey(tmp)){
-			return ((Boolean)getEntry(tmp)).booleanValue();
+		synchronized (getLock()) {
+			SequenceWindow window = getEntry(originator);
+			return window!=null && window.isRetransmitted(seqNumber.getValue());
 		}
-		return false;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package urv.olsr.data.duplicate;
+
+import java.util.Arrays;
+
+/**
+ * Duplicate tuples of a single originator. Instead of one tuple per message,
+ * the last WINDOW_SIZE sequence numbers (up to the highest one received) are
+ * kept in two bitmaps, indexed by the sequence number modulo WINDOW_SIZE: one
+ * for the received messages and another one for the retransmitted ones.
+ *
+ * Sequence numbers are compared with wrap-around (RFC 3626, section 19): a
+ * number is newer than the highest one if it is ahead of it by less than
+ * half the sequence number space. A newer number moves the window (which
+ * is emptied if it jumps further than WINDOW_SIZE). An older number which
+ * is behind the window has not been recorded, as in RFC 3626, but it does
+ * not move the window back either: it is recorded in a second window,
+ * which replaces this one when RESTART_THRESHOLD different numbers have
+ * been recorded in it before any newer number arrives. So an originator
+ * which restarts its sequence numbers gets a new window after a few
+ * messages, while a late message does not disturb the current window
+ */
+public class SequenceWindow {
+
+	//	CONSTANTS --
+
+	/**
+	 * Number of sequence numbers kept (multiple of 64)
+	 */
+	public static final int WINDOW_SIZE = 256;
+	/**
+	 * Number of different sequence numbers behind the window, without a
+	 * newer one in between, which make the window restart from them
+	 */
+	public static final int RESTART_THRESHOLD = 3;
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+	private static final int SEQUENCE_NUMBERS = 65536;
+
+	//	CLASS FIELDS --
+
+	private int highest;
+	private final long[] received = new long[WINDOW_SIZE/64];
+	private final long[] retransmitted = new long[WINDOW_SIZE/64];
+	// Numbers behind the window recorded since the last newer number, or null
+	private SequenceWindow restart;
+	private int restartCount = 0;
+
+	//	CONSTRUCTORS --
+
+	/**
+	 * Creates an empty window which ends at the given sequence number
+	 * @param seqNumber
+	 */
+	public SequenceWindow(int seqNumber) {
+		this.highest = seqNumber;
+	}
+
+	//	OVERRIDDEN METHODS --
+
+	public String toString(){
+		int count = 0;
+		for (int i=0;i<received.length;i++){
+			count += Long.bitCount(received[i]);
+		}
+		return "[highest="+highest+" received="+count+"]";
+	}
+
+	//	PUBLIC METHODS --
+
+	/**
+	 * Returns true if the message with the given sequence number has been recorded
+	 * @param seqNumber
+	 */
+	public boolean contains(int seqNumber){
+		if (isBehindWindow(seqNumber)) return restart!=null && restart.contains(seqNumber);
+		return isInWindow(seqNumber) && get(received, seqNumber);
+	}
+	/**
+	 * Returns true if the message with the given sequence number has
+	 * been recorded as retransmitted
+	 * @param seqNumber
+	 */
+	public boolean isRetransmitted(int seqNumber){
+		if (isBehindWindow(seqNumber)) return restart!=null && restart.isRetransmitted(seqNumber);
+		return isInWindow(seqNumber) && get(retransmitted, seqNumber);
+	}
+	/**
+	 * Records the message with the given sequence number, moving the
+	 * window if it is newer than the highest sequence number. Sequence
+	 * numbers behind the window are recorded apart, and the window restarts
+	 * from them once there are RESTART_THRESHOLD of them
+	 * @param seqNumber
+	 * @param isRetransmitted whether the message will be retransmitted
+	 */
+	public void record(int seqNumber, boolean isRetransmitted){
+		int distance = distance(seqNumber);
+		if (distance<=-WINDOW_SIZE){
+			recordBehindWindow(seqNumber, isRetransmitted);
+			return;
+		}
+		if (distance>0){
+			restart = null;
+			if (distance<WINDOW_SIZE){
+				for (int seq=highest+1;seq!=highest+distance+1;seq++){
+					clear(seq);
+				}
+			} else {
+				Arrays.fill(received, 0);
+				Arrays.fill(retransmitted, 0);
+			}
+			highest = seqNumber;
+		}
+		set(received, seqNumber, true);
+		set(retransmitted, seqNumber, isRetransmitted);
+	}
+
+	//	PRIVATE METHODS --
+
+	private void clear(int seqNumber){
+		set(received, seqNumber, false);
+		set(retransmitted, seqNumber, false);
+	}
+	/**
+	 * Returns the distance from the highest sequence number to the given
+	 * one, between -SEQUENCE_NUMBERS/2 and SEQUENCE_NUMBERS/2-1 (wrap-around
+	 * as defined in RFC 3626, section 19)
+	 */
+	private int distance(int seqNumber){
+		int distance = (seqNumber - highest) & (SEQUENCE_NUMBERS - 1);
+		return distance>=SEQUENCE_NUMBERS/2 ? distance-SEQUENCE_NUMBERS : distance;
+	}
+	private static boolean get(long[] bitmap, int seqNumber){
+		int bit = seqNumber & WINDOW_MASK;
+		return (bitmap[bit>>>6] & (1L<<bit))!=0;
+	}
+	private boolean isBehindWindow(int seqNumber){
+		return distance(seqNumber)<=-WINDOW_SIZE;
+	}
+	private boolean isInWindow(int seqNumber){
+		int distance = distance(seqNumber);
+		return distance<=0 && distance>-WINDOW_SIZE;
+	}
+	/**
+	 * Records a sequence number behind the window in the restart window,
+	 * which replaces this one when it has got enough numbers
+	 */
+	private void recordBehindWindow(int seqNumber, boolean isRetransmitted){
+		if (restart==null || restart.isBehindWindow(seqNumber)){
+			restart = new SequenceWindow(seqNumber);
+			restartCount = 0;
+		}
+		if (!restart.contains(seqNumber)) restartCount++;
+		restart.record(seqNumber, isRetransmitted);
+		if (restartCount>=RESTART_THRESHOLD){
+			highest = restart.highest;
+			System.arraycopy(restart.received, 0, received, 0, received.length);
+			System.arraycopy(restart.retransmitted, 0, retransmitted, 0, retransmitted.length);
+			restart = null;
+		}
+	}
+	private static void set(long[] bitmap, int seqNumber, boolean value){
+		int bit = seqNumber & WINDOW_MASK;
+		if (value) bitmap[bit>>>6] |= 1L<<bit;
+		else bitmap[bit>>>6] &= ~(1L<<bit);
+	}
+}
@@ -1,6 +1,9 @@
 package urv.olsr.data.mpr;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import urv.olsr.data.BandwidthUpdatable;
@@ -60,31 +63,47 @@ public class OLSRPairSet extends HashSet<OLSRNodePair> implements BandwidthUpdat
 	}
 	public void updateBwOf(OLSRNode node){	
 		synchronized (lock) {
-			for (OLSRNodePair pair : this){
+			//Pairs are immutable, so the pairs of the node are replaced
+			List<OLSRNodePair> updated = new ArrayList<OLSRNodePair>();
+			Iterator<OLSRNodePair> it = iterator();
+			while (it.hasNext()){
+				OLSRNodePair pair = it.next();
 				if (pair.getOriginator().equals(node)){
-					pair.getOriginator().updateBandwidth(node);
+					it.remove();
+					updated.add(new OLSRNodePair(node,pair.getAdvertised()));
 				}else if (pair.getAdvertised().equals(node)){
-					pair.getAdvertised().updateBandwidth(node);
+					it.remove();
+					updated.add(new OLSRNodePair(pair.getOriginator(),node));
 				}
 			}
+			super.addAll(updated);
 		}
 	}
 	
 	//	PUBLIC METHODS --
 	
+	/**
+	 * Returns a new list with the pairs of the set. Pairs are
+	 * immutable, so they are shared instead of cloned
+	 * @return
+	 */
+	public List<OLSRNodePair> getPairs(){
+		synchronized (lock) {
+			return new ArrayList<OLSRNodePair>(this);
+		}
+	}
 	/**
 	 * Adds all elements to the data set
 	 * The data elements cannot be retrieved during
-	 * the copy operation
+	 * the copy operation. Pairs are immutable, so they are
+	 * shared with the given set
 	 * @param list
 	 */
 	public void setCopyOfSet(Set<OLSRNodePair> set){
 		
 		synchronized (lock) {
 			super.clear();
-			for(OLSRNodePair node:set){
-				this.add((OLSRNodePair)node.clone());
-			}
+			super.addAll(set);
 		}
 	}
 }
\ No newline at end of file
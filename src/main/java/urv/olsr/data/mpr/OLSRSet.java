@@ -66,9 +66,8 @@ public class OLSRSet extends HashSet<OLSRNode> implements BandwidthUpdatable {
 	@Override
 	public void updateBwOf(OLSRNode node) {
 		synchronized (lock) {
-			for(OLSRNode currentNode : this){
-				if (currentNode.equals(node)) currentNode.updateBandwidth(node);
-			}
+			//Nodes are equal if they have the same address
+			if (remove(node)) add(node);
 		}		
 	}	
 	
@@ -5,6 +5,8 @@ import urv.olsr.data.BandwidthUpdatable;
 import urv.olsr.data.ExpiringEntryTable;
 import urv.olsr.data.LinkCode;
 import urv.olsr.data.OLSRNode;
+import urv.olsr.data.OLSRNodeRegistry;
+import urv.olsr.data.TableChangeListener;
 import urv.olsr.data.mpr.MprSet;
 import urv.olsr.data.mpr.OLSRPairSet;
 import urv.olsr.data.mpr.OLSRSet;
@@ -32,6 +34,8 @@ public class NeighborTable extends ExpiringEntryTable<OLSRNode,NeighborTableEntr
 	private boolean neighborTableChangedFlag;
 	private NeighborsOfNeighborsSet neighborsOfNeighborsSet;
 	private OLSRPairSet tmpNoNSet;
+	private OLSRNodeRegistry nodeRegistry;
+	private TableChangeListener changeListener;
 	
 	//	CONSTRUCTORS --
 	
@@ -40,11 +44,13 @@ public class NeighborTable extends ExpiringEntryTable<OLSRNode,NeighborTableEntr
 	 * storing all information about neighbors
 	 * @param localNode 
 	 * @param neighborsOfNeighborsSet 
+	 * @param nodeRegistry registry of the canonical nodes of the controller
 	 *
 	 */
-	public NeighborTable(OLSRNode localNode, NeighborsOfNeighborsSet neighborsOfNeighborsSet) {
+	public NeighborTable(OLSRNode localNode, NeighborsOfNeighborsSet neighborsOfNeighborsSet, OLSRNodeRegistry nodeRegistry) {
 		this.localNode = localNode;
 		this.neighborsOfNeighborsSet = neighborsOfNeighborsSet;
+		this.nodeRegistry = nodeRegistry;
 		//Temporary storage of NoNs
 		tmpNoNSet = new OLSRPairSet();
 	}	
@@ -56,9 +62,9 @@ public class NeighborTable extends ExpiringEntryTable<OLSRNode,NeighborTableEntr
 	}
 	public void updateBwOf(OLSRNode originatorNode) {
 		synchronized (super.getLock()){
-			//Update the node in the keySet
+			//Replace the node of the entry, the keys are only used for lookups
 			if (getEntry(originatorNode)!=null){
-				getEntry(originatorNode).getNeighbor().updateBandwidth(originatorNode);
+				getEntry(originatorNode).setNeighbor(originatorNode);
 				//Update all the references to the node to update
 				neighborsOfNeighborsSet.updateBwOf(originatorNode);
 				//notify changes are performed
@@ -98,16 +104,18 @@ public class NeighborTable extends ExpiringEntryTable<OLSRNode,NeighborTableEntr
 	//	PUBLIC METHODS --
 	
 	/**
-	 * Adds a new entry to the table
+	 * Adds a new entry to the table. The node is stored
+	 * as its canonical instance
 	 * @param node
 	 * @param entry
 	 */	
 	public void addNeighborEntryWithTimestamp(OLSRNode node,NeighborTableEntry entry,int expiringTime){
-		super.addEntryWithTimestamp(node,entry,expiringTime);
+		super.addEntryWithTimestamp(nodeRegistry.intern(node),entry,expiringTime);
 	}
 	/**
 	 * Returns a new hello message from the information stored in the
-	 * neighbor table
+	 * neighbor table. The message refers to the nodes of the table,
+	 * which are not copied since the message is serialized right away
 	 * @return HelloMessage
 	 */
 	public HelloMessage createHelloMessage(){
@@ -116,7 +124,7 @@ public class NeighborTable extends ExpiringEntryTable<OLSRNode,NeighborTableEntr
 			for (OLSRNode node:this.keySet()){
 				NeighborTableEntry entry = getEntry(node);
 				
-				map.addToSet((LinkCode)(entry.getLinkCode().clone()),(OLSRNode)node.copy());
+				map.addToSet((LinkCode)(entry.getLinkCode().clone()),entry.getNeighbor());
 			}
 		}
 		HelloMessage hm = new HelloMessage(map);
@@ -144,17 +152,19 @@ public class NeighborTable extends ExpiringEntryTable<OLSRNode,NeighborTableEntr
 		return copy;
 	}
 	/**
-	 * Returns a copy of a set containing all the neighbors of
-	 * the node
+	 * Returns a new set containing all the symmetric neighbors of
+	 * the node. The set contains the canonical instances of the
+	 * nodes, which are shared with the rest of data structures
 	 * @return OLSRSet
 	 */
 	public OLSRSet getCopyOfSymNeighbors(){
 		OLSRSet copy = new OLSRSet();
 		synchronized (super.getLock()) {
 			for(OLSRNode node:this.keySet()){
-				LinkCode status = this.getEntry(node).getLinkCode();
+				NeighborTableEntry entry = this.getEntry(node);
+				LinkCode status = entry.getLinkCode();
 				if (status.getNeighborType()==LinkCode.MPR_NEIGH || status.getNeighborType()==LinkCode.SYM_NEIGH)
-					copy.add((OLSRNode)node.copy());
+					copy.add(entry.getNeighbor());
 			}
 		}
 		return copy;
@@ -211,6 +221,12 @@ public class NeighborTable extends ExpiringEntryTable<OLSRNode,NeighborTableEntr
 	public OLSRNode getLocalNode() {
 		return localNode;
 	}	
+	/**
+	 * @return Returns the registry of the canonical nodes.
+	 */
+	public OLSRNodeRegistry getNodeRegistry() {
+		return nodeRegistry;
+	}
 	/**
 	 * @return Returns the neighborTableChangedFlag.
 	 */
@@ -229,11 +245,19 @@ public class NeighborTable extends ExpiringEntryTable<OLSRNode,NeighborTableEntr
 	 */
 	public synchronized void setNeighborTableChangedFlag(boolean neighborTableChanged) {
 		this.neighborTableChangedFlag = neighborTableChanged;
+		if (neighborTableChanged && changeListener!=null) changeListener.onTableChanged();
 	}
 	/**
 	 * @param recomputeMPR The recomputeMPR to set.
 	 */
 	public synchronized void  setRecomputeMprFlag(boolean recomputeMPR) {
 		this.recomputeMprFlag = recomputeMPR;
+		if (recomputeMPR && changeListener!=null) changeListener.onTableChanged();
+	}
+	/**
+	 * @param changeListener notified when any of the flags is set
+	 */
+	public void setChangeListener(TableChangeListener changeListener) {
+		this.changeListener = changeListener;
 	}
 }
\ No newline at end of file
@@ -1,62 +1,74 @@
 package urv.olsr.data.routing;
 
-import java.util.Hashtable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import urv.log.Loggable;
 import urv.olsr.data.BandwidthUpdatable;
 import urv.olsr.data.OLSRNode;
 
 /**
- * Contains routing information. It defines which is the next intermediate 
- * node A that should receive the message when we want to deliver 
- * a message to node B 
- * 
+ * Contains routing information. It defines which is the next intermediate
+ * node A that should receive the message when we want to deliver
+ * a message to node B
+ *
+ * The routes are published as an immutable snapshot through a volatile
+ * reference: lookups from the data path never take a lock, and every
+ * modification builds a new snapshot (copy-on-write) which shares the
+ * entries that have not changed with the previous one
+ *
  * @author Marcel Arrufat Arias
  */
 public class RoutingTable implements Loggable, BandwidthUpdatable{
 
 	//	CLASS FIELDS --
-	
-	private Hashtable<OLSRNode,RoutingTableEntry> routingTable;
+
+	private volatile Map<OLSRNode,RoutingTableEntry> routingTable;
+	//Serializes the writers, readers use the current snapshot
 	private Object lock = new Object();
 	private OLSRNode localNode;
-	
+
 	//	CONSTRUCTORS --
-	
+
 	public RoutingTable(OLSRNode localNode) {
-		routingTable = new Hashtable<OLSRNode,RoutingTableEntry>();
+		routingTable = Collections.emptyMap();
 		this.localNode = localNode;
 	}
-	
+
 	//	OVERRIDDEN METHODS --
-	
+
 	public String toString(){
 		StringBuffer buff = new StringBuffer();
 		buff.append("ROUTING_TABLE["+localNode+"]\n");
-		synchronized (lock) {
-			for(OLSRNode node:this.routingTable.keySet()){
-				RoutingTableEntry entry = this.routingTable.get(node);
-				buff.append("\tDest:["+entry.getDestAddr()+"]-NextHop ["+entry.getNextAddr()+"] hops = "+entry.getHops()+
-						" bw_coefficient of last hop = "+entry.getNextAddr().getBandwithCoefficient()+"\n");
-			}
-		}		
-		return buff.toString();		
+		for(RoutingTableEntry entry:routingTable.values()){
+			buff.append("\tDest:["+entry.getDestAddr()+"]-NextHop ["+entry.getNextAddr()+"] hops = "+entry.getHops()+
+					" bw_coefficient of last hop = "+entry.getNextAddr().getBandwithCoefficient()+"\n");
+		}
+		return buff.toString();
 	}
 	@Override
 	public void updateBwOf(OLSRNode node) {
-		synchronized (lock) {			
-			for (OLSRNode keyNode : routingTable.keySet()){
-				if (keyNode.equals(node)) keyNode.updateBandwidth(node);
-			}
-			RoutingTableEntry entryForOriginator = getRoutingTableEntry(node);
-			if (entryForOriginator!=null){
-				entryForOriginator.getDestAddr().updateBandwidth(node);
+		//Entries are immutable, so the updated entries are published in a new snapshot.
+		//The routes to the node and the ones through it refer to the new canonical node
+		synchronized (lock) {
+			if (!routingTable.containsKey(node)) return;
+			Map<OLSRNode,RoutingTableEntry> newRoutingTable = new HashMap<OLSRNode,RoutingTableEntry>(routingTable);
+			for (RoutingTableEntry entry:routingTable.values()){
+				if (entry.getDestAddr().equals(node) || entry.getNextAddr().equals(node)){
+					//The key is replaced too, as it is the node of the entry
+					newRoutingTable.remove(entry.getDestAddr());
+					RoutingTableEntry updated = entry.withBandwidthOf(node);
+					newRoutingTable.put(updated.getDestAddr(), updated);
+				}
 			}
+			publish(newRoutingTable);
 		}
 	}
-	
+
 	//	PUBLIC METHODS --
-	
+
 	/**
 	 * Adds a new entry to the routing table
 	 * @param destAddr
@@ -65,39 +77,77 @@ public class RoutingTable implements Loggable, BandwidthUpdatable{
 	 */
 	public void addRoutingTableEntry(OLSRNode destAddr,OLSRNode nextAddr, int hops){
 		synchronized (lock) {
-			routingTable.put(destAddr,new RoutingTableEntry(destAddr,nextAddr,hops));
+			Map<OLSRNode,RoutingTableEntry> newRoutingTable = new HashMap<OLSRNode,RoutingTableEntry>(routingTable);
+			newRoutingTable.put(destAddr,new RoutingTableEntry(destAddr,nextAddr,hops));
+			publish(newRoutingTable);
 		}
 	}
 	/**
 	 * Empties the routing table
 	 *
 	 */
-	public void clear(){	
-		routingTable.clear();
-	}	
+	public void clear(){
+		synchronized (lock) {
+			routingTable = Collections.emptyMap();
+		}
+	}
 	/**
-	 * Obtains an entry from the routing table
+	 * Obtains an entry from the routing table. This method does not
+	 * block, it reads the last published snapshot
 	 * @param node
 	 * @return
 	 */
-	public RoutingTableEntry getRoutingTableEntry(OLSRNode node){		
-		synchronized (lock) {
-			return routingTable.get(node);
-		}		
+	public RoutingTableEntry getRoutingTableEntry(OLSRNode node){
+		return routingTable.get(node);
+	}
+	/**
+	 * Returns the current routes as an immutable snapshot, which
+	 * is not affected by later changes in the table
+	 * @return
+	 */
+	public Map<OLSRNode,RoutingTableEntry> getSnapshot(){
+		return routingTable;
 	}
 	/**
 	 * Copies an existing routing table, which is calculated in another
-	 * thread, to the current table
+	 * thread, to the current table. Entries equal to the current ones
+	 * are kept, so they are shared between snapshots
 	 * @param tmpRoutingTable
 	 */
 	public void setCopyOfTable(RoutingTable tmpRoutingTable) {
-		Hashtable<OLSRNode,RoutingTableEntry> newRoutingTable = new Hashtable<OLSRNode,RoutingTableEntry>();
-		synchronized (lock) {			
-			for (OLSRNode node:tmpRoutingTable.routingTable.keySet()){
-				newRoutingTable.put((OLSRNode)node.copy(), (RoutingTableEntry)tmpRoutingTable.routingTable.get(node).clone());
+		Map<OLSRNode,RoutingTableEntry> source = tmpRoutingTable.getSnapshot();
+		synchronized (lock) {
+			Map<OLSRNode,RoutingTableEntry> newRoutingTable = new HashMap<OLSRNode,RoutingTableEntry>(source.size()*4/3+1);
+			for (RoutingTableEntry entry:source.values()){
+				RoutingTableEntry current = routingTable.get(entry.getDestAddr());
+				newRoutingTable.put(entry.getDestAddr(), entry.sameRouteAs(current) ? current : entry);
 			}
 			//Change the reference of the object
-			this.routingTable = newRoutingTable;
-		}		
-	}		
-}
\ No newline at end of file
+			publish(newRoutingTable);
+		}
+	}
+	/**
+	 * Applies the result of a new computation, which only contains
+	 * the destinations whose route has changed
+	 * @param updated new entries for the destinations whose route has changed
+	 * @param removed destinations which are no longer reachable
+	 */
+	public void updateEntries(Collection<RoutingTableEntry> updated, Collection<OLSRNode> removed) {
+		synchronized (lock) {
+			Map<OLSRNode,RoutingTableEntry> newRoutingTable = new HashMap<OLSRNode,RoutingTableEntry>(routingTable);
+			for (OLSRNode node:removed){
+				newRoutingTable.remove(node);
+			}
+			for (RoutingTableEntry entry:updated){
+				newRoutingTable.put(entry.getDestAddr(), entry);
+			}
+			publish(newRoutingTable);
+		}
+	}
+
+	//	PRIVATE METHODS --
+
+	private void publish(Map<OLSRNode,RoutingTableEntry> newRoutingTable){
+		routingTable = Collections.unmodifiableMap(newRoutingTable);
+	}
+}
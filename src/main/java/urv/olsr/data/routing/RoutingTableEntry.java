@@ -4,6 +4,8 @@ import urv.olsr.data.OLSRNode;
 
 /**
  * Data unit to store the route between to neighbor nodes.
+ * Entries are immutable, so they can be shared between
+ * snapshots of the routing table
  * 
  * @author Marcel Arrufat Arias
  */
@@ -11,15 +13,12 @@ public class RoutingTableEntry {
 
 	//	CLASS FIELDS --
 	
-	private OLSRNode destAddr;
-	private OLSRNode nextAddr;
-	private int	hops;
+	private final OLSRNode destAddr;
+	private final OLSRNode nextAddr;
+	private final int hops;
 
 	//	CONSTRUCTORS --
 	
-	public RoutingTableEntry() {
-		super();
-	}
 	/**
 	 * @param destAddr
 	 * @param nextAddr
@@ -37,6 +36,28 @@ public class RoutingTableEntry {
 		return new RoutingTableEntry((OLSRNode)destAddr.copy(), (OLSRNode)nextAddr.copy(), hops);
 	}
 	
+	//	PUBLIC METHODS --
+	
+	/**
+	 * Returns true if the given entry describes the same route
+	 * (destination, next hop and distance) as this one
+	 * @param entry
+	 */
+	public boolean sameRouteAs(RoutingTableEntry entry){
+		return entry!=null && hops==entry.hops && destAddr.equals(entry.destAddr) && nextAddr.equals(entry.nextAddr);
+	}
+	
+	/**
+	 * Returns a new entry for the same route which refers to the given
+	 * canonical node, with its new bandwidth information, as destination
+	 * and as next hop wherever they are equal to it. This entry is not modified
+	 * @param node
+	 */
+	public RoutingTableEntry withBandwidthOf(OLSRNode node){
+		return new RoutingTableEntry(destAddr.equals(node) ? node : destAddr,
+				nextAddr.equals(node) ? node : nextAddr, hops);
+	}
+	
 	//	ACESS METHODS --
 	
 	/**
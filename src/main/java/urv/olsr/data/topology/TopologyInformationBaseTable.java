@@ -1,9 +1,17 @@
 package urv.olsr.data.topology;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import urv.log.Loggable;
 import urv.olsr.data.ExpiringEntryTable;
 import urv.olsr.data.OLSRNode;
+import urv.olsr.data.OLSRNodeRegistry;
 import urv.olsr.data.SequenceNumber;
+import urv.olsr.data.TableChangeListener;
+import urv.util.graph.HashMapSet;
 
 /**
  * This class contains information about the received TC_Messages
@@ -29,24 +37,35 @@ public class TopologyInformationBaseTable extends ExpiringEntryTable<OLSRNodePai
 
 	//	CLASS FIELDS --
 	
-	private static final long serialVersionUID = 1L;
 	private boolean topologyTableChangedFlag;
+	private TableChangeListener changeListener;
 	private OLSRNode localNode;
+	private OLSRNodeRegistry nodeRegistry;
+	// Pairs added and removed since the changes were last drained
+	private Set<OLSRNodePair> addedPairs = new HashSet<OLSRNodePair>();
+	private Set<OLSRNodePair> removedPairs = new HashSet<OLSRNodePair>();
+	// Pairs of the table indexed by originator, so that the entries of an
+	// originator are found without going through the whole table
+	private HashMapSet<OLSRNode,OLSRNodePair> pairsByOriginator = new HashMapSet<OLSRNode,OLSRNodePair>();
+	// Originators whose last entry has been removed since they were last drained
+	private Set<OLSRNode> removedOriginators = new HashSet<OLSRNode>();
 	
 	//	CONSTRUCTORS --
 	
 	/** 
-	 * @param expiringTime
+	 * @param localNode
+	 * @param nodeRegistry registry of the canonical nodes of the controller
 	 */
-	public TopologyInformationBaseTable(OLSRNode localNode) {
+	public TopologyInformationBaseTable(OLSRNode localNode, OLSRNodeRegistry nodeRegistry) {
 		this.localNode = localNode;
+		this.nodeRegistry = nodeRegistry;
 	}
 	
 	//	OVERRIDDEN METHODS --
 	
 	public Object clone(){
 		//Get the lock and copy all the info
-		TopologyInformationBaseTable topologyTable = new TopologyInformationBaseTable(localNode);		
+		TopologyInformationBaseTable topologyTable = new TopologyInformationBaseTable(localNode,nodeRegistry);		
 		synchronized (super.getLock()) {
 			//Copy all the entries
 			for (OLSRNodePair pair :this.keySet()){
@@ -72,7 +91,7 @@ public class TopologyInformationBaseTable extends ExpiringEntryTable<OLSRNodePai
 			synchronized (super.getLock()) {
 				for (OLSRNodePair pair : this.keySet()) {
 	
-					buff.append("\t[" + pair + "] : ansn=" + this.getEntry(pair) + " (t="+super.get(pair)+")" + "\n");
+					buff.append("\t[" + pair + "] : ansn=" + this.getEntry(pair) + " (t="+getRemainingTime(pair)+")" + "\n");
 				}
 			}
 		}
@@ -82,37 +101,174 @@ public class TopologyInformationBaseTable extends ExpiringEntryTable<OLSRNodePai
 	//	PUBLIC METHODS --
 	
 	/**
-	 * Adds a new entry to the table
+	 * Adds a new entry to the table. The nodes are stored
+	 * as their canonical instances
 	 * @param node
 	 * @param entry
 	 */
 	public void addTopologyInformationBaseEntry(OLSRNode originator,OLSRNode advertisedNode,SequenceNumber seqNum,int expiringTime){
+		originator = nodeRegistry.intern(originator);
+		advertisedNode = nodeRegistry.intern(advertisedNode);
 		OLSRNodePair pair = new OLSRNodePair(originator,advertisedNode);
 		super.addEntryWithTimestamp(pair,new TopologyInformationBaseEntry(originator,advertisedNode,seqNum),expiringTime);
 		setTopologyTableChangedFlag(true);
 	}
 	/**
-	 * Removes all entries of the table from the given originator
+	 * Moves the pairs added to and removed from the table since the last
+	 * call (or since the last getPairsAndDrainChanges) to the given sets
+	 * @param added
+	 * @param removed
+	 */
+	public void drainChanges(Set<OLSRNodePair> added, Set<OLSRNodePair> removed){
+		synchronized (super.getLock()) {
+			added.addAll(addedPairs);
+			removed.addAll(removedPairs);
+			addedPairs.clear();
+			removedPairs.clear();
+		}
+	}
+	/**
+	 * Returns the originators whose entries have all been removed (or have
+	 * expired) since the last call, and which have not got new ones
+	 */
+	public Set<OLSRNode> drainRemovedOriginators(){
+		synchronized (super.getLock()) {
+			Set<OLSRNode> originators = new HashSet<OLSRNode>();
+			for (OLSRNode originator : removedOriginators){
+				if (!pairsByOriginator.containsKey(originator)) originators.add(originator);
+			}
+			removedOriginators.clear();
+			return originators;
+		}
+	}
+	/**
+	 * Returns a new list with all the pairs of the table
+	 */
+	public List<OLSRNodePair> getPairs(){
+		synchronized (super.getLock()) {
+			return new ArrayList<OLSRNodePair>(this.keySet());
+		}
+	}
+	/**
+	 * Returns a new list with all the pairs of the table and moves the
+	 * pairs added and removed since the last call to the given sets, all
+	 * of it atomically
+	 * @param added
+	 * @param removed
+	 */
+	public List<OLSRNodePair> getPairsAndDrainChanges(Set<OLSRNodePair> added, Set<OLSRNodePair> removed){
+		synchronized (super.getLock()) {
+			drainChanges(added, removed);
+			return new ArrayList<OLSRNodePair>(this.keySet());
+		}
+	}
+	/**
+	 * Returns a new list with the pairs of the given originator
 	 * @param originator
 	 */
-	public void removeOldEntriesForOriginator(OLSRNode originator){
+	public List<OLSRNodePair> getPairsOf(OLSRNode originator){
 		synchronized (super.getLock()) {
-			for (OLSRNodePair pair:this.keySet()){
-				if (pair.getOriginator().equals(originator)){
-					super.removeEntry(pair);
+			Set<OLSRNodePair> pairs = pairsByOriginator.getSet(originator);
+			return pairs==null ? new ArrayList<OLSRNodePair>() : new ArrayList<OLSRNodePair>(pairs);
+		}
+	}
+	/**
+	 * Removes the entries of the given originator whose sequence
+	 * number is older than the given one
+	 * @param originator
+	 * @param seqNum
+	 */
+	public void removeEntriesOlderThan(OLSRNode originator, SequenceNumber seqNum){
+		synchronized (super.getLock()) {
+			for (OLSRNodePair pair : getPairsOf(originator)){
+				if (getEntry(pair).getSeqNum().compareTo(seqNum)<0){
+					removeEntry(pair);
 					setTopologyTableChangedFlag(true);
 				}
 			}
 		}
 	}
+	/**
+	 * Removes all entries of the table from the given originator
+	 * @param originator
+	 */
+	public void removeOldEntriesForOriginator(OLSRNode originator){
+		synchronized (super.getLock()) {
+			for (OLSRNodePair pair : getPairsOf(originator)){
+				removeEntry(pair);
+				setTopologyTableChangedFlag(true);
+			}
+		}
+	}
+	/**
+	 * Removes the entry of the given pair, if it exists
+	 * @param originator
+	 * @param advertisedNode
+	 */
+	public void removeTopologyInformationBaseEntry(OLSRNode originator,OLSRNode advertisedNode){
+		OLSRNodePair pair = new OLSRNodePair(originator,advertisedNode);
+		synchronized (super.getLock()) {
+			if (containsKey(pair)){
+				removeEntry(pair);
+				setTopologyTableChangedFlag(true);
+			}
+		}
+	}
+	/**
+	 * Sets a new validity time for all the entries of the given originator
+	 * @param originator
+	 * @param expiringTime
+	 */
+	public void updateTimestampsOf(OLSRNode originator,int expiringTime){
+		synchronized (super.getLock()) {
+			Set<OLSRNodePair> pairs = pairsByOriginator.getSet(originator);
+			if (pairs==null) return;
+			for (OLSRNodePair pair : pairs){
+				updateTimestampInEntry(pair,expiringTime);
+			}
+		}
+	}
 	
+	//	PROTECTED METHODS --
+
+	@Override
+	protected void onEntryAdded(OLSRNodePair pair) {
+		if (!removedPairs.remove(pair)) addedPairs.add(pair);
+		pairsByOriginator.addToSet(pair.getOriginator(), pair);
+	}
+	@Override
+	protected void onEntryRemoved(OLSRNodePair pair) {
+		if (!addedPairs.remove(pair)) removedPairs.add(pair);
+		Set<OLSRNodePair> pairs = pairsByOriginator.getSet(pair.getOriginator());
+		if (pairs!=null){
+			pairs.remove(pair);
+			if (pairs.isEmpty()){
+				pairsByOriginator.remove(pair.getOriginator());
+				removedOriginators.add(pair.getOriginator());
+			}
+		}
+	}
+
 	//	ACCESS METHODS --
 	
+	/**
+	 * @return Returns the registry of the canonical nodes.
+	 */
+	public OLSRNodeRegistry getNodeRegistry() {
+		return nodeRegistry;
+	}
 	/**
 	 * @param topologyTableChangedFlag The topologyTableChangedFlag to set.
 	 */
 	public synchronized void setTopologyTableChangedFlag(boolean topologyTableChangedFlag) {
 		this.topologyTableChangedFlag = topologyTableChangedFlag;
+		if (topologyTableChangedFlag && changeListener!=null) changeListener.onTableChanged();
+	}
+	/**
+	 * @param changeListener notified when the topologyTableChangedFlag is set
+	 */
+	public void setChangeListener(TableChangeListener changeListener) {
+		this.changeListener = changeListener;
 	}
 	/**
 	 * @return Returns the topologyTableChangedFlag.
@@ -4,6 +4,7 @@ import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
 import urv.olsr.data.LinkCode;
 import urv.olsr.data.OLSRNode;
+import urv.olsr.data.OLSRNodeRegistry;
 import urv.olsr.data.mpr.MprSelectorSet;
 import urv.olsr.data.mpr.OLSRSet;
 import urv.olsr.data.neighbour.NeighborTable;
@@ -121,7 +122,11 @@ public class HelloMessageHandler {
 		log.debug("** Received HELLO Message at "+localOLSRNode +" from "+source);
 		//We must synchronize the whole process, since different HelloMessages may arrive at a time
 		synchronized (lock) {
-			newChanges=false;			
+			newChanges=false;
+			//Use the canonical instances of the nodes, shared with the rest of tables
+			OLSRNodeRegistry nodeRegistry = neighborTable.getNodeRegistry();
+			source = nodeRegistry.intern(source);
+
 			//Empty temporal sets for MPR and MPRSelectors and 2-hop neighbors
 			preHandleMessage();
 			
@@ -159,7 +164,7 @@ public class HelloMessageHandler {
 					}					
 					//Add the entry as 2 hop neighbour
 					if (linkStatus.getNeighborType()!=LinkCode.NOT_NEIGH){
-						listAdd.add(node);						
+						listAdd.add(nodeRegistry.intern(node));						
 					}
 					//Remove 2 hop neighbours that are set to NOT_NEIGH
 					else if (linkStatus.getNeighborType()==LinkCode.NOT_NEIGH){
@@ -16,7 +16,7 @@ import urv.olsr.mcast.MulticastGroupsTable;
 import urv.olsr.message.TcMessage;
 import urv.olsr.message.ValidityTime;
 
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.Set;
 
 /**
@@ -73,6 +73,16 @@ import java.util.Set;
                     T_seq       = ANSN,
 
                     T_time      = current time + validity time.
+
+ * Differential TC messages carry the neighbors added and removed since the
+ * last full TC message of the originator (the base ANSN). The changes of the
+ * last differential message applied are kept for each originator, so only
+ * the difference between both differential messages is applied to the
+ * topology set. If the base ANSN is not the ANSN of the last full message
+ * received (a full message has been lost), the changes are applied as they
+ * are until the next full message restores the whole advertised set. The
+ * state of an originator is discarded once all its tuples have been removed
+ * from the topology set.
                     
  * @author Marcel Arrufat Arias
  */
@@ -84,6 +94,8 @@ public class TcMessageHandler {
 	private NeighborTable neighborTable;
 	private MulticastGroupsTable multicastGroupsTable;	
 	private Object lock = new Object();	
+	// Last full TC message and changes applied since then, for each originator
+	private HashMap<OLSRNode,DifferentialState> differentialStates = new HashMap<OLSRNode,DifferentialState>();
 	protected final Log log=LogFactory.getLog(getClass());
 	
 	//	CONSTRUCTORS --
@@ -102,6 +114,10 @@ public class TcMessageHandler {
 		//We must synchronize the whole process, since different TcMessages may arrive at a time
 		log.debug("** Received TC Message from "+originatorNode+ " and src :"+srcNode);
 		synchronized (lock) {
+			//Forget the originators which are no longer in the topology set
+			for (OLSRNode originator : topologyTable.drainRemovedOriginators()){
+				differentialStates.remove(originator);
+			}
 			SequenceNumber seqNum = tcMessage.getAnsn();
 			OLSRSet set = tcMessage.getAdvertisedNeighbors();
 			
@@ -116,47 +132,97 @@ public class TcMessageHandler {
 				log.debug("["+neighborTable.getLocalNode()+"] ERROR: the src of the message ("+srcNode+") is not in the neighbour table.");
 				return;
 			}
-			//2 & 3. Loop for all nodes and remove entries with SeqNum older than the current message
-			synchronized (topologyTable.getLock()) {
-				Iterator<OLSRNodePair> it = topologyTable.keySet().iterator();
-				boolean newChanges = false;
-				while(it.hasNext()) {
-					//if the entry corresponds to the node that sent the TcMessage
-					//Check the seqNum
-					OLSRNodePair pair = it.next();
-					if (pair.getOriginator().equals(originatorNode)){
-						//if the current seqNum is greater, remove entry
-						if (topologyTable.getEntry(pair).getSeqNum().compareTo(seqNum)<0){
-							it.remove();
-							topologyTable.remove(pair); // NEW ADDED
-							newChanges =true;
-						}
-						//if the SeqNum in the table is greater than the received, it means that
-						//we received a disordered packet --> discard packet 
-						else if (topologyTable.getEntry(pair).getSeqNum().compareTo(seqNum)>0){
-							continue;
-						}
-					}
-				}
-				if (newChanges) topologyTable.setTopologyTableChangedFlag(true); // NEW ADDED
-			}
 			int time = (int)(vTime.getVTime()*1000);
-			//4. Add new entries or update old ones
-			for (OLSRNode advertised : set) {
-				OLSRNodePair pair = new OLSRNodePair(originatorNode, advertised);
-				TopologyInformationBaseEntry entry = topologyTable.getEntry(pair);
-				//If the entry already exists, update the timeStamp
-				if (entry!=null){
-					topologyTable.updateTimestampInEntry(pair,time);
-				}else{
-					//Create a new entry
-					//TODO: decide how we will handle validity time
-					topologyTable.addTopologyInformationBaseEntry(originatorNode,advertised,seqNum,time);
-				}			
+			if (tcMessage.isDifferential()){
+				handleDifferentialTcMessage(originatorNode, tcMessage, time);
+			} else {
+				//2 & 3. Remove the entries of the originator with SeqNum older than the current message
+				topologyTable.removeEntriesOlderThan(originatorNode, seqNum);
+				//4. Add new entries or update old ones
+				for (OLSRNode advertised : set) {
+					addOrUpdateEntry(originatorNode, advertised, seqNum, time);
+				}
+				differentialStates.put(originatorNode, new DifferentialState(seqNum));
 			}
 			// MulticastGroups Information:
 			Set<MulticastAddress> joinedGroups = tcMessage.getJoinedMulticastGroups();			
 			multicastGroupsTable.updateMulticastGroups(originatorNode, joinedGroups);		
 		}
 	}
-}
\ No newline at end of file
+
+	//	PRIVATE METHODS --
+
+	private void addOrUpdateEntry(OLSRNode originatorNode, OLSRNode advertised, SequenceNumber seqNum, int time){
+		OLSRNodePair pair = new OLSRNodePair(originatorNode, advertised);
+		TopologyInformationBaseEntry entry = topologyTable.getEntry(pair);
+		//If the entry already exists, update the timeStamp
+		if (entry!=null){
+			topologyTable.updateTimestampInEntry(pair,time);
+		}else{
+			//Create a new entry
+			topologyTable.addTopologyInformationBaseEntry(originatorNode,advertised,seqNum,time);
+		}
+	}
+	private void handleDifferentialTcMessage(OLSRNode originatorNode, TcMessage tcMessage, int time){
+		SequenceNumber seqNum = tcMessage.getAnsn();
+		OLSRSet added = tcMessage.getAddedNeighbors();
+		OLSRSet removed = tcMessage.getRemovedNeighbors();
+		DifferentialState state = differentialStates.get(originatorNode);
+		if (state==null || !state.fullAnsn.equals(tcMessage.getBaseAnsn())){
+			if (state!=null && state.fullAnsn.compareTo(tcMessage.getBaseAnsn())>0){
+				//Changes relative to an older full message
+				return;
+			}
+			//The base full message has not been received: apply the changes
+			//as they are, the next full message will resynchronize the set
+			log.debug("Differential TC from "+originatorNode+" with unknown base ANSN "+tcMessage.getBaseAnsn());
+			for (OLSRNode node : removed){
+				topologyTable.removeTopologyInformationBaseEntry(originatorNode, node);
+			}
+			for (OLSRNode node : added){
+				addOrUpdateEntry(originatorNode, node, seqNum, time);
+			}
+			return;
+		}
+		if (state.lastAnsn.compareTo(seqNum)>0){
+			//Received out of order
+			return;
+		}
+		//Undo the changes of the previous differential message which are not in this one
+		for (OLSRNode node : state.lastAdded){
+			if (!added.contains(node)) topologyTable.removeTopologyInformationBaseEntry(originatorNode, node);
+		}
+		for (OLSRNode node : state.lastRemoved){
+			if (!removed.contains(node)) addOrUpdateEntry(originatorNode, node, seqNum, time);
+		}
+		for (OLSRNode node : removed){
+			if (!state.lastRemoved.contains(node)) topologyTable.removeTopologyInformationBaseEntry(originatorNode, node);
+		}
+		for (OLSRNode node : added){
+			if (!state.lastAdded.contains(node)) addOrUpdateEntry(originatorNode, node, seqNum, time);
+		}
+		//The message also refreshes the links of the full message still advertised
+		topologyTable.updateTimestampsOf(originatorNode, time);
+		state.lastAnsn = seqNum;
+		state.lastAdded = added;
+		state.lastRemoved = removed;
+	}
+
+	//	PRIVATE CLASSES --
+
+	/**
+	 * ANSN of the last full TC message received from an originator and
+	 * changes of the last differential message applied since then
+	 */
+	private static class DifferentialState {
+		SequenceNumber fullAnsn;
+		SequenceNumber lastAnsn;
+		OLSRSet lastAdded = new OLSRSet();
+		OLSRSet lastRemoved = new OLSRSet();
+
+		DifferentialState(SequenceNumber fullAnsn){
+			this.fullAnsn = fullAnsn;
+			this.lastAnsn = fullAnsn;
+		}
+	}
+}
@@ -6,6 +6,7 @@ import java.util.Set;
 import urv.log.Loggable;
 import urv.olsr.data.BandwidthUpdatable;
 import urv.olsr.data.OLSRNode;
+import urv.olsr.data.TableChangeListener;
 import urv.util.graph.HashMapSet;
 
 /**
@@ -21,6 +22,7 @@ public class MulticastGroupsTable implements Loggable, BandwidthUpdatable{
 
 	private HashMapSet<OLSRNode,MulticastAddress> table = new HashMapSet<OLSRNode,MulticastAddress>();
 	private boolean multicastGroupsTableChangedFlag;	
+	private TableChangeListener changeListener;
 	private Object lock = new Object();
 	
 	//	CONSTRUCTORS --
@@ -43,9 +45,9 @@ public class MulticastGroupsTable implements Loggable, BandwidthUpdatable{
 	@Override
 	public void updateBwOf(OLSRNode node) {
 		synchronized (lock) {
-			for (OLSRNode currentNode : table.keySet()){
-				if (currentNode.equals(node)) currentNode.updateBandwidth(node);
-			}
+			//put() would keep the previous key, so the entry is removed first
+			HashSet<MulticastAddress> groups = table.remove(node);
+			if (groups!=null) table.put(node, groups);
 			setMulticastGroupsTableChangedFlag(true);
 		}
 	}
@@ -65,7 +67,7 @@ public class MulticastGroupsTable implements Loggable, BandwidthUpdatable{
 			Set<OLSRNode> groupMembers = new HashSet<OLSRNode>();
 			for (OLSRNode node : table.keySet()){
 				if (table.get(node).contains(mcastAddress)){
-					groupMembers.add((OLSRNode)node.copy());
+					groupMembers.add(node);
 				}
 			}
 			return groupMembers;
@@ -123,5 +125,12 @@ public class MulticastGroupsTable implements Loggable, BandwidthUpdatable{
 	public void setMulticastGroupsTableChangedFlag(
 			boolean multicastGroupsTableChangedFlag) {
 		this.multicastGroupsTableChangedFlag = multicastGroupsTableChangedFlag;
+		if (multicastGroupsTableChangedFlag && changeListener!=null) changeListener.onTableChanged();
+	}
+	/**
+	 * @param changeListener notified when the multicastGroupsTableChangedFlag is set
+	 */
+	public void setChangeListener(TableChangeListener changeListener) {
+		this.changeListener = changeListener;
 	}
 }
\ No newline at end of file
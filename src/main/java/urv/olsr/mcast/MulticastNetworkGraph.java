@@ -1,13 +1,15 @@
 package urv.olsr.mcast;
 
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 
 import urv.log.Loggable;
 import urv.olsr.data.BandwidthUpdatable;
 import urv.olsr.data.OLSRNode;
 import urv.util.graph.Edge;
+import urv.util.graph.GraphContraction;
 import urv.util.graph.NetworkGraph;
 import urv.util.graph.Weight;
 
@@ -24,6 +26,8 @@ public class MulticastNetworkGraph implements Loggable, BandwidthUpdatable{
 	private OLSRNode localNode;	
 	private Object lock = new Object();
 	private Weight dummyWeight = new Weight();
+	// Last contracted graph computed for each group
+	private Map<String,ContractedGraph> contractedGraphs = new HashMap<String,ContractedGraph>();
 	
 	//	CONSTRUCTORS --
 	
@@ -55,6 +59,11 @@ public class MulticastNetworkGraph implements Loggable, BandwidthUpdatable{
 			if (localNode.equals(node)) localNode.updateBandwidth(node);
 			graph.updateBwOf(node);
 		}		
+		//The graph has been updated in place, so the contracted graphs
+		//computed from it hold the previous instance of the node
+		synchronized(contractedGraphs){
+			contractedGraphs.clear();
+		}
 	}		
 	@Override
 	public Object clone(){
@@ -88,79 +97,40 @@ public class MulticastNetworkGraph implements Loggable, BandwidthUpdatable{
 		graph.addNode(localNode2);	
 	}		
 	/**
-	 * Computes the contracted graph for the specified group
+	 * Computes the contracted graph for the specified group. If neither the
+	 * network graph nor the members of the group have changed since the last
+	 * computation for this group, the previous result is returned, so the
+	 * returned graph must not be modified
 	 */
 	public NetworkGraph<OLSRNode,Weight> computeContractedGraph(String mcastAddr){
-		
-		NetworkGraph<OLSRNode,Weight> newGraph = (NetworkGraph<OLSRNode,Weight>)this.graph.clone();
-		newGraph.assignWeightToAllEdges(new Float(1.0f));
-		//CHANGED 08-04-21: add local node in case there is only 1 host running
-		newGraph.addNode(localNode);		
-		Set<OLSRNode> groupNodes = getGroupMembers(mcastAddr);		
-		Set<OLSRNode> nodes = new HashSet<OLSRNode>();
-		for (Edge e:this.graph.getEdges()){
-			if (!nodes.contains(e.getSource())){
-				nodes.add((OLSRNode)e.getSource());
-			}
-			if (!nodes.contains(e.getTarget())){
-				nodes.add((OLSRNode)e.getTarget());
-			}
-		}		
-		for(OLSRNode node : nodes){
-		// 1. For each node that does not belong to the group...
-			if (!groupNodes.contains(node)){			
-				// 2. Obtain edges where this node is the src or the target
-				LinkedList<Edge> nodeEdges = (LinkedList<Edge>)newGraph.getEdges(node);			
-				// 3. Obtain the neighbors of this node
-				Set<OLSRNode> neighs = newGraph.getLinkedNodes(node);
-				if (neighs==null){
-					continue;
-				} else { 
-					//Do nothing() 					
-				}
-				// 4. Double loop for the neighbors
-				for(OLSRNode ni: neighs){
-					for(OLSRNode nj: neighs){			
-						// 5. If neighbors are not the same...
-						if (!ni.equals(nj)){							
-							// 6. Create an edge between them with the weight = sum(edges to node), unless
-							// an edge with less than or equal weight already exists
-							
-							// 6.1 Obtain an edge that links ni to node, and nj to node
-							Edge niEdge = newGraph.getEdgeBetween(ni,node);
-							Edge njEdge = newGraph.getEdgeBetween(nj,node);							
-							if (!niEdge.getWeight().isSet()){
-								niEdge.getWeight().setValue(new Float(1.0f));
-							}
-							if (!njEdge.getWeight().isSet()){
-								njEdge.getWeight().setValue(new Float(1.0f));
-							}							
-							// 6.2 Obtain the weight 
-							Weight newWeight = Weight.add(niEdge.getWeight(), njEdge.getWeight());							
-							// 6.3 Check the existance of an edge between both nodes
-							Edge existingEdge = newGraph.getEdgeBetween(ni,nj);							
-							if (existingEdge==null){
-								newGraph.addEdge(ni, nj, newWeight);
-							} else if (newWeight.compareTo(existingEdge.getWeight())<0){
-								newGraph.removeEdges(ni,nj);
-								newGraph.addEdge(ni, nj, newWeight);
-							}							
-						}
-					}
-				}
-				// 7. Remove the edges where this node is the src or the target
-				newGraph.removeEdges(node);
+		NetworkGraph<OLSRNode,Weight> currentGraph;
+		synchronized(lock){
+			currentGraph = graph;
+		}
+		Set<OLSRNode> groupNodes = getGroupMembers(mcastAddr);
+		synchronized(contractedGraphs){
+			ContractedGraph cached = contractedGraphs.get(mcastAddr);
+			if (cached!=null && cached.source==currentGraph && cached.members.equals(groupNodes)){
+				return cached.result;
 			}
-		}		
-		return newGraph;	
+		}
+		NetworkGraph<OLSRNode,Weight> newGraph = computeContractedGraph(currentGraph, groupNodes);
+		synchronized(contractedGraphs){
+			contractedGraphs.put(mcastAddr, new ContractedGraph(currentGraph, groupNodes, newGraph));
+		}
+		return newGraph;
 	}	
 	/**
-	 * This method only copies the reference of the network graph (not the multicastGroupsTable)
+	 * This method only copies the reference of the network graph (not the multicastGroupsTable).
+	 * If the new graph has the same topology as the current one, the current graph is kept,
+	 * so the contracted graphs already computed remain valid
 	 */
 	public void setCopyOfGraph(MulticastNetworkGraph newGraph){	
 		// TODO At this moment, the copy is only an update of the references
 		synchronized(lock){
-			graph = newGraph.graph;
+			if (!graph.hasSameTopology(newGraph.graph)){
+				graph = newGraph.graph;
+			}
 		}
 	}
 	
@@ -181,4 +151,49 @@ public class MulticastNetworkGraph implements Loggable, BandwidthUpdatable{
 	public MulticastGroupsTable getMulticastGroupsTable() {
 		return multicastGroupsTable;
 	}
+	
+	//	PRIVATE METHODS --
+	
+	/**
+	 * Removes from the graph the nodes which are not members of the group,
+	 * linking the members through the removed nodes (see {@link GraphContraction}).
+	 * As in the previous node by node elimination, the nodes without links
+	 * are kept
+	 */
+	private NetworkGraph<OLSRNode,Weight> computeContractedGraph(NetworkGraph<OLSRNode,Weight> graph, Set<OLSRNode> groupNodes){
+		NetworkGraph<OLSRNode,Weight> newGraph = GraphContraction.contract(graph, groupNodes);
+		Set<OLSRNode> linkedNodes = new HashSet<OLSRNode>();
+		for (Edge<?> e:graph.getEdges()){
+			linkedNodes.add((OLSRNode)e.getSource());
+			linkedNodes.add((OLSRNode)e.getTarget());
+		}
+		for (OLSRNode node:graph.getNodeList()){
+			if (!linkedNodes.contains(node)){
+				newGraph.addNode(node);
+			}
+		}
+		//CHANGED 08-04-21: add local node in case there is only 1 host running
+		if (!linkedNodes.contains(localNode)){
+			newGraph.addNode(localNode);
+		}
+		return newGraph;	
+	}
+	
+	//	INNER CLASSES --
+	
+	/**
+	 * Contracted graph of a group, together with the network
+	 * graph and the members it was computed from
+	 */
+	private static class ContractedGraph {
+		final NetworkGraph<OLSRNode,Weight> source;
+		final Set<OLSRNode> members;
+		final NetworkGraph<OLSRNode,Weight> result;
+		
+		ContractedGraph(NetworkGraph<OLSRNode,Weight> source, Set<OLSRNode> members, NetworkGraph<OLSRNode,Weight> result){
+			this.source = source;
+			this.members = members;
+			this.result = result;
+		}
+	}
 }
\ No newline at end of file
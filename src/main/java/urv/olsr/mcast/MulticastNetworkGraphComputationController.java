@@ -1,15 +1,18 @@
 package urv.olsr.mcast;
 
+import java.util.Set;
+
+import urv.olsr.core.TopologySnapshot;
 import urv.olsr.data.OLSRNode;
-import urv.olsr.data.mpr.OLSRSet;
-import urv.olsr.data.neighbour.NeighborTable;
 import urv.olsr.data.topology.OLSRNodePair;
-import urv.olsr.data.topology.TopologyInformationBaseTable;
 
 /**
  * This class contains a graph representation of the nodes neighborhood and
  * their joined multicast groups.
  * 
+ * The graph is computed from a TopologySnapshot and it is not visible
+ * until copyGraph() is invoked.
+ * 
  * @author Gerard Paris Aixala
  *
  */
@@ -19,39 +22,42 @@ public class MulticastNetworkGraphComputationController{
 	
 	private MulticastNetworkGraph multicastNetworkGraph; //Includes multicastGroupTable
 	private OLSRNode localNode;
-	private NeighborTable neighborTable;
-	private TopologyInformationBaseTable topologyTable;	
 	// Temporal data structures
 	private MulticastNetworkGraph tmpGraph;
-	private OLSRSet tmpSymNeighbors;
-	private TopologyInformationBaseTable tmpTopologyTable;	
+	private TopologySnapshot snapshot;
 	
 	//	CONSTRUCTORS --
 	
 	public MulticastNetworkGraphComputationController(MulticastNetworkGraph multicastNetworkGraph,
-			NeighborTable neighborTable,TopologyInformationBaseTable topologyTable, OLSRNode localNode){
+			OLSRNode localNode){
 		this.multicastNetworkGraph = multicastNetworkGraph;
-		this.neighborTable = neighborTable;
-		this.topologyTable = topologyTable;
 		this.localNode = localNode;		
 	}	
 	
 	//	PUBLIC METHODS --
 	
-	public void computeNewMulticastNetworkGraph(){
+	/**
+	 * Computes a new graph from the snapshot. The graph is not visible
+	 * until copyGraph() is invoked
+	 * @param snapshot
+	 */
+	public synchronized void computeNewMulticastNetworkGraph(TopologySnapshot snapshot){
+		this.snapshot = snapshot;
 		createDataStructures();
 		populateGraph();
-		copyGraph();		
+		this.snapshot = null;
 	}
-	public void copyGraph(){
+	public synchronized void copyGraph(){
 		multicastNetworkGraph.setCopyOfGraph(tmpGraph);
 	}	
-	public void createDataStructures(){		
+	
+	//	PRIVATE METHODS --
+	
+	private void createDataStructures(){		
 		tmpGraph = new MulticastNetworkGraph(); // Only the network graph is initialized		
-		tmpSymNeighbors = neighborTable.getCopyOfSymNeighbors();
-		tmpTopologyTable = (TopologyInformationBaseTable) topologyTable.clone();		
 	}
-	public void populateGraph(){		
+	private void populateGraph(){		
+		Set<OLSRNode> tmpSymNeighbors = snapshot.getSymNeighbors();
 		//Add local node
 		tmpGraph.addNode(localNode);		
 		//Adding symmetric neighbors and NoN
@@ -59,15 +65,14 @@ public class MulticastNetworkGraphComputationController{
 			//Add an edge between the source and each neighbor (2, since the graph is directed)
 			tmpGraph.addEdges(localNode,node);			
 			//For every neighbor, add NoNs
-			OLSRSet list = (OLSRSet)neighborTable.getEntry(node).getNeighborsOfNeighbors().clone();
-			for (OLSRNode tmpNeighbour:list){
+			for (OLSRNode tmpNeighbour:snapshot.getNeighborsOf(node)){
 				if (!tmpNeighbour.equals(localNode) && !tmpSymNeighbors.contains(tmpNeighbour)){
 					tmpGraph.addEdges(node,tmpNeighbour);
 				}
 			}
 		}		
 		// Adding edges from topologyTable
-		for (OLSRNodePair pair:tmpTopologyTable.keySet()){
+		for (OLSRNodePair pair:snapshot.getTopologyPairs()){
 			// With topology information, only an edge is added (directed graph)
 			tmpGraph.addEdge(pair.getOriginator(),pair.getAdvertised());
 		}
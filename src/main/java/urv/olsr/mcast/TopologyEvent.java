@@ -93,4 +93,11 @@ public class TopologyEvent extends View implements Serializable{
 	public OMOLSRNetworkGraph getOMOLSRNetworkGraph () {
 		return omolsrNetworkGraph;
 	}
+	/**
+	 * Returns the routing table of the node, which is updated in place
+	 * when the routes change
+	 */
+	public RoutingTable getRoutingTable () {
+		return routingTable;
+	}
 }
\ No newline at end of file
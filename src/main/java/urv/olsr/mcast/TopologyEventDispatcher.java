@@ -0,0 +1,153 @@
+package urv.olsr.mcast;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import urv.olsr.core.AllocationStats;
+import urv.olsr.data.OLSRNode;
+import urv.olsr.data.routing.RoutingTable;
+import urv.olsr.message.OLSRMessageUpper;
+import urv.util.graph.NetworkGraph;
+import urv.util.graph.Weight;
+
+/**
+ * Registry of the protocol stacks (one per multicast group) which share the
+ * OLSR controller of a node, and dispatcher of their topology events.
+ *
+ * When the topology changes, the contracted graph of each group is computed
+ * (in the common fork-join pool, one task per group), and the event is only
+ * passed up to the stacks whose contracted graph is different from the one
+ * of their last event, either in its edges or in the bandwidth of its nodes
+ * (which the tree strategies may use). The contracted graph of a group is not computed again
+ * if neither the network graph nor the members of the group have changed
+ * (see MulticastNetworkGraph.computeContractedGraph)
+ *
+ * The registry can be accessed from any thread; dispatch() is only invoked
+ * by the OLSR thread
+ */
+public class TopologyEventDispatcher {
+
+	//	CLASS FIELDS --
+
+	private final Map<String,OLSRMessageUpper> uppers = new ConcurrentHashMap<String,OLSRMessageUpper>();
+	// Contracted graph passed up in the last event of each group
+	private final Map<String,NetworkGraph<OLSRNode,Weight>> dispatchedGraphs =
+		new ConcurrentHashMap<String,NetworkGraph<OLSRNode,Weight>>();
+	// Copies of the nodes of the last event of each group, with the bandwidth
+	// they had then, since some nodes (the local one) are updated in place
+	private final Map<String,Map<OLSRNode,OLSRNode>> dispatchedNodes =
+		new ConcurrentHashMap<String,Map<OLSRNode,OLSRNode>>();
+	private final MulticastNetworkGraph multicastNetworkGraph;
+	private final RoutingTable routingTable;
+	private final AllocationStats allocationStats;
+
+	//	CONSTRUCTORS --
+
+	public TopologyEventDispatcher(MulticastNetworkGraph multicastNetworkGraph, RoutingTable routingTable,
+			AllocationStats allocationStats) {
+		this.multicastNetworkGraph = multicastNetworkGraph;
+		this.routingTable = routingTable;
+		this.allocationStats = allocationStats;
+	}
+
+	//	PUBLIC METHODS --
+
+	/**
+	 * Passes a topology event up to the stacks of the groups whose
+	 * contracted graph has changed since their last event
+	 */
+	public void dispatch(){
+		List<String> groups = new ArrayList<String>(uppers.keySet());
+		List<ForkJoinTask<NetworkGraph<OLSRNode,Weight>>> tasks =
+			new ArrayList<ForkJoinTask<NetworkGraph<OLSRNode,Weight>>>(groups.size());
+		for (final String group:groups){
+			tasks.add(ForkJoinPool.commonPool().submit(new Callable<NetworkGraph<OLSRNode,Weight>>(){
+				public NetworkGraph<OLSRNode,Weight> call(){
+					long start = allocationStats.start();
+					NetworkGraph<OLSRNode,Weight> contractedGraph = multicastNetworkGraph.computeContractedGraph(group);
+					allocationStats.stop(AllocationStats.CONTRACTED_GRAPH, start);
+					return contractedGraph;
+				}
+			}));
+		}
+		for (int i=0;i<groups.size();i++){
+			String group = groups.get(i);
+			NetworkGraph<OLSRNode,Weight> contractedGraph = tasks.get(i).join();
+			NetworkGraph<OLSRNode,Weight> lastGraph = dispatchedGraphs.get(group);
+			if (lastGraph!=null && lastGraph.hasSameEdges(contractedGraph)
+					&& hasSameBandwidth(dispatchedNodes.get(group), contractedGraph)) continue;
+			OLSRMessageUpper upper = uppers.get(group);
+			// The stack may have been unregistered meanwhile
+			if (upper==null) continue;
+			dispatchedGraphs.put(group, contractedGraph);
+			dispatchedNodes.put(group, copyNodes(contractedGraph));
+			long start = allocationStats.start();
+			upper.passUpdateEvent(contractedGraph, routingTable);
+			allocationStats.stop(AllocationStats.EVENT_DISPATCH, start);
+		}
+	}
+	/**
+	 * Returns the protocol stack registered for the group, or null
+	 * @param mcastAddr
+	 */
+	public OLSRMessageUpper getUpper(String mcastAddr){
+		return uppers.get(mcastAddr);
+	}
+	public boolean isEmpty(){
+		return uppers.isEmpty();
+	}
+	/**
+	 * Registers the protocol stack of a group. The next dispatch
+	 * passes an event up to it, even if the topology has not changed
+	 * @param mcastAddr
+	 * @param upper
+	 */
+	public void register(String mcastAddr, OLSRMessageUpper upper){
+		dispatchedGraphs.remove(mcastAddr);
+		dispatchedNodes.remove(mcastAddr);
+		uppers.put(mcastAddr, upper);
+	}
+	/**
+	 * Unregisters the protocol stack of a group
+	 * @param mcastAddr
+	 */
+	public void unregister(String mcastAddr){
+		uppers.remove(mcastAddr);
+		dispatchedGraphs.remove(mcastAddr);
+		dispatchedNodes.remove(mcastAddr);
+	}
+
+	//	PRIVATE METHODS --
+
+	/**
+	 * Returns copies of the nodes of the graph, indexed by themselves
+	 */
+	private static Map<OLSRNode,OLSRNode> copyNodes(NetworkGraph<OLSRNode,Weight> graph){
+		Map<OLSRNode,OLSRNode> nodes = new HashMap<OLSRNode,OLSRNode>();
+		for (OLSRNode node:graph.getNodeList()){
+			OLSRNode copy = node.copy();
+			nodes.put(copy, copy);
+		}
+		return nodes;
+	}
+	/**
+	 * Returns true if the nodes of the graph have the same bandwidth
+	 * information as the given copies
+	 */
+	private static boolean hasSameBandwidth(Map<OLSRNode,OLSRNode> nodes, NetworkGraph<OLSRNode,Weight> graph){
+		if (nodes==null) return false;
+		for (OLSRNode node:graph.getNodeList()){
+			OLSRNode copy = nodes.get(node);
+			if (copy==null || node.getBandwithCoefficient()!=copy.getBandwithCoefficient()
+					|| node.getBwBytesCapacity()!=copy.getBwBytesCapacity()
+					|| node.getBwMessagesCapacity()!=copy.getBwMessagesCapacity()) return false;
+		}
+		return true;
+	}
+}
@@ -32,11 +32,11 @@ public class HelloMessage implements OLSRMessage/*Serializable,*/{
 	//	OVERRIDDEN METHODS --
 	
 	public void readFrom(DataInput in) throws Exception {
-		int mapSize = in.readByte();	// Added by URV to the standard implementation
+		int mapSize = in.readUnsignedByte();	// Added by URV to the standard implementation
 		for (int i=0;i<mapSize;i++){
 			LinkCode linkCode = new LinkCode();
 			linkCode.readFrom(in);			
-			byte size = in.readByte();
+			int size = in.readUnsignedByte();
 			for (int j=0;j<size;j++){
 				OLSRNode node = new OLSRNode();
 				node.readFrom(in);
@@ -27,4 +27,11 @@ public interface OLSRMessageSender {
 	 * @param mcast_addr_name 
 	 */
 	Object sendDataMessage(Message msg, OLSRNode finalDest, String mcast_addr_name);
+
+	/**
+	 * Forwards an OLSR data message received from another node. The message
+	 * already carries its OLSRHeader, which must be kept as it is
+	 * @param msg The received message including the next hop address as the destination address
+	 */
+	Object forwardDataMessage(Message msg);
 }
@@ -6,6 +6,7 @@ import urv.olsr.data.SequenceNumber;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -49,10 +50,15 @@ public class OLSRPacket implements Streamable, Serializable{
 	
 	/* Considerations:
 	 * - Each OLSR packet will contain a single message, 
-	 *   so we avoid packet length and packet sequence number.
+	 *   so we avoid packet length and packet sequence number
+	 *   (several packets can be sent together in an OLSRPacketBundle).
+	 * - The 4 most significant bits of the message type byte carry the
+	 *   version of the encoding, so that packets written with another
+	 *   encoding are rejected instead of being misread.
 	 */
 	public static final int HELLO_MESSAGE = 1;
 	public static final int TC_MESSAGE = 2;	
+	public static final int VERSION = 2;
 	private int messageType;
 	private ValidityTime vTime;
 	private OLSRNode originator;
@@ -94,7 +100,11 @@ public class OLSRPacket implements Streamable, Serializable{
 	//	OVERRIDDEN METHODS --
 	
 	public void readFrom(DataInput in) throws Exception {
-		messageType = (int)in.readByte();
+		int typeAndVersion = in.readUnsignedByte();
+		if (typeAndVersion>>4 != VERSION){
+			throw new IOException("Unsupported OLSR packet version "+(typeAndVersion>>4));
+		}
+		messageType = typeAndVersion & 0x0F;
 		
 		vTime = new ValidityTime(0.0); 
 		vTime.readFrom(in);
@@ -129,7 +139,7 @@ public class OLSRPacket implements Streamable, Serializable{
 		this.ttl = ttl;
 	}
 	public void writeTo(DataOutput out) throws Exception {
-		out.writeByte(messageType);
+		out.writeByte(VERSION<<4 | messageType);
 		vTime.writeTo(out);
 		originator.writeTo(out);
 		out.writeByte(ttl);
@@ -0,0 +1,110 @@
+package urv.olsr.message;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jgroups.Message;
+
+import urv.conf.ApplicationConfig;
+import urv.log.Log;
+import urv.log.Loggable;
+
+/**
+ * Aggregation stage for the OLSR control packets. Instead of sending each
+ * packet in its own datagram, the packets are queued until flush() is invoked
+ * (at the end of each tick of the OLSR thread) and then sent together in an
+ * OLSRPacketBundle. If the queued packets would exceed the maximum packet size,
+ * the packets queued so far are sent first.
+ *
+ * A single queued packet is sent as a plain OLSRPacket, as before. A maximum
+ * packet size of 0 disables the aggregation (each packet is sent immediately)
+ */
+public class OLSRPacketAggregator implements Loggable {
+
+	//	CLASS FIELDS --
+
+	private final OLSRMessageSender messageSender;
+	private final int maxPacketSize;
+	private OLSRPacketBundle pending = new OLSRPacketBundle();
+	private final Object lock = new Object();
+	// Statistics
+	private final AtomicLong queuedPackets = new AtomicLong();
+	private final AtomicLong sentDatagrams = new AtomicLong();
+
+	//	CONSTRUCTORS --
+
+	/**
+	 * @param messageSender
+	 * @param maxPacketSize maximum size in bytes of the OLSR packets sent in
+	 * a datagram (0 to disable the aggregation)
+	 */
+	public OLSRPacketAggregator(OLSRMessageSender messageSender, int maxPacketSize) {
+		this.messageSender = messageSender;
+		this.maxPacketSize = maxPacketSize;
+	}
+
+	//	OVERRIDDEN METHODS --
+
+	public String toString(){
+		long packets = queuedPackets.get();
+		long datagrams = sentDatagrams.get();
+		return "OLSR_PACKET_AGGREGATOR\n\tpackets="+packets+" datagrams="+datagrams+
+			" packets_per_datagram="+(datagrams==0 ? 0 : (float)packets/datagrams)+"\n";
+	}
+
+	//	PUBLIC METHODS --
+
+	/**
+	 * Sends all the queued packets
+	 */
+	public void flush(){
+		OLSRPacketBundle bundle;
+		synchronized (lock) {
+			if (pending.isEmpty()) return;
+			bundle = pending;
+			pending = new OLSRPacketBundle();
+		}
+		send(bundle);
+	}
+	/**
+	 * Queues the packet, which will be sent in the next flush()
+	 * @param packet
+	 */
+	public void send(OLSRPacket packet){
+		queuedPackets.incrementAndGet();
+		if (maxPacketSize<=0){
+			sendPacket(packet);
+			return;
+		}
+		OLSRPacketBundle fullBundle = null;
+		synchronized (lock) {
+			try {
+				if (!pending.add(packet, maxPacketSize)){
+					fullBundle = pending;
+					pending = new OLSRPacketBundle();
+					pending.add(packet, maxPacketSize);
+				}
+			} catch (Exception e) {
+				Log.getInstance().warn("Could not serialize an OLSR packet: "+e);
+				return;
+			}
+		}
+		if (fullBundle!=null){
+			send(fullBundle);
+		}
+	}
+
+	//	PRIVATE METHODS --
+
+	private void send(OLSRPacketBundle bundle){
+		if (bundle.size()==1){
+			sendPacket(bundle.getPackets().get(0));
+		} else {
+			sentDatagrams.incrementAndGet();
+			messageSender.sendControlMessage(new Message(ApplicationConfig.BROADCAST_ADDRESS, bundle));
+		}
+	}
+	private void sendPacket(OLSRPacket packet){
+		sentDatagrams.incrementAndGet();
+		messageSender.sendControlMessage(new Message(ApplicationConfig.BROADCAST_ADDRESS, packet));
+	}
+}
@@ -0,0 +1,111 @@
+package urv.olsr.message;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.Streamable;
+
+/**
+ * Several OLSR packets sent in a single transmission. RFC 3626 allows a
+ * packet to carry more than one message; as our OLSRPacket carries a single
+ * message (with its own header), this class groups several of them so that
+ * the HELLO, TC and forwarded TC messages generated at the same time share
+ * a datagram.
+ *
+ * When the bundle is built, each packet is serialized as soon as it is added,
+ * so the size of the bundle is known before it is sent and the packets are
+ * not serialized again
+ */
+public class OLSRPacketBundle implements Streamable, Serializable {
+
+	//	CONSTANTS --
+
+	private static final long serialVersionUID = 1L;
+	/**
+	 * Bytes written before the packets (the number of packets)
+	 */
+	public static final int HEADER_SIZE = 2;
+
+	//	CLASS FIELDS --
+
+	private List<OLSRPacket> packets = new ArrayList<OLSRPacket>();
+	// Serialized packets (only when the bundle has been built locally)
+	private transient ByteArrayDataOutputStream encodedPackets = null;
+
+	//	CONSTRUCTORS --
+
+	public OLSRPacketBundle(){
+		// Needed for Streamable
+	}
+
+	//	OVERRIDDEN METHODS --
+
+	public void readFrom(DataInput in) throws Exception {
+		int numPackets = in.readUnsignedShort();
+		packets = new ArrayList<OLSRPacket>(numPackets);
+		for (int i=0;i<numPackets;i++){
+			OLSRPacket packet = new OLSRPacket();
+			packet.readFrom(in);
+			packets.add(packet);
+		}
+	}
+	public void writeTo(DataOutput out) throws Exception {
+		out.writeShort(packets.size());
+		if (encodedPackets!=null){
+			out.write(encodedPackets.buffer(), 0, encodedPackets.position());
+		} else {
+			for (OLSRPacket packet:packets){
+				packet.writeTo(out);
+			}
+		}
+	}
+
+	//	PUBLIC METHODS --
+
+	/**
+	 * Adds the packet to the bundle if the serialized bundle does not exceed
+	 * the given size. The first packet is always added, whatever its size
+	 * @param packet
+	 * @param maxSize maximum size in bytes of the serialized bundle
+	 * @return true if the packet has been added
+	 */
+	public boolean add(OLSRPacket packet, int maxSize) throws Exception {
+		if (encodedPackets==null){
+			encodedPackets = new ByteArrayDataOutputStream(Math.max(maxSize, 64));
+		}
+		int position = encodedPackets.position();
+		packet.writeTo(encodedPackets);
+		if (!packets.isEmpty() && getSerializedSize()>maxSize){
+			encodedPackets.position(position);
+			return false;
+		}
+		packets.add(packet);
+		return true;
+	}
+	/**
+	 * Returns the size in bytes of the serialized bundle (only known
+	 * for bundles built locally)
+	 */
+	public int getSerializedSize(){
+		return HEADER_SIZE + (encodedPackets==null ? 0 : encodedPackets.position());
+	}
+	public boolean isEmpty(){
+		return packets.isEmpty();
+	}
+	public int size(){
+		return packets.size();
+	}
+
+	//	ACCESS METHODS --
+
+	/**
+	 * @return the packets of the bundle, in the order they were added
+	 */
+	public List<OLSRPacket> getPackets() {
+		return packets;
+	}
+}
@@ -25,16 +25,32 @@ import java.util.Set;
    when links are removed from the advertised neighbor set; the ANSN
    number SHOULD be incremented when links are added to the advertised
    neighbor set.
+
+   A TC message can also be differential: instead of the whole advertised
+   neighbor set, it carries the neighbors added to and removed from the
+   set advertised in the last full TC message, whose ANSN is sent as the
+   base ANSN. The changes are always relative to the last full message,
+   so a lost differential message does not need to be retransmitted.
    
  * @author Gerard Paris Aixala
  *
  */
 public class TcMessage implements OLSRMessage,Serializable{
 
+	//	CONSTANTS --
+
+	public static final int FULL = 0;
+	public static final int DIFFERENTIAL = 1;
+
 	//	CLASS FIELDS --
 
+	private int type = FULL;
 	private SequenceNumber ansn;
 	private OLSRSet advertisedNeighbors = new OLSRSet();
+	//Only for differential messages
+	private SequenceNumber baseAnsn;
+	private OLSRSet addedNeighbors = new OLSRSet();
+	private OLSRSet removedNeighbors = new OLSRSet();
 	//Added to spread information about the joined multicast groups
 	private Set<MulticastAddress> joinedMulticastGroups = new HashSet<MulticastAddress>();
 
@@ -46,20 +62,37 @@ public class TcMessage implements OLSRMessage,Serializable{
 		this.ansn = ansn;
 		this.advertisedNeighbors = advertisedNeighbours;
 	}
+	/**
+	 * Creates a differential message
+	 * @param ansn the current ANSN
+	 * @param baseAnsn the ANSN of the last full message
+	 * @param addedNeighbors neighbors advertised now but not in the last full message
+	 * @param removedNeighbors neighbors advertised in the last full message but not now
+	 */
+	public TcMessage(SequenceNumber ansn, SequenceNumber baseAnsn, OLSRSet addedNeighbors, OLSRSet removedNeighbors){
+		this.type = DIFFERENTIAL;
+		this.ansn = ansn;
+		this.baseAnsn = baseAnsn;
+		this.addedNeighbors = addedNeighbors;
+		this.removedNeighbors = removedNeighbors;
+	}
 	
 	//	OVERRIDDEN METHODS --
 	
 	public void readFrom(DataInput in) throws Exception {
+		type = in.readUnsignedByte();
 		ansn = new SequenceNumber(0);
 		ansn.readFrom(in);
-		int listSize = in.readByte(); // Added by URV to the standard implementation
-		for (int i=0;i<listSize;i++){
-			OLSRNode node = new OLSRNode();
-			node.readFrom(in);
-			advertisedNeighbors.add(node);
+		if (type==DIFFERENTIAL){
+			baseAnsn = new SequenceNumber(0);
+			baseAnsn.readFrom(in);
+			readNodes(in, addedNeighbors);
+			readNodes(in, removedNeighbors);
+		} else {
+			readNodes(in, advertisedNeighbors);
 		}
 		//Joined Multicast Groups
-		int setSize = in.readByte();
+		int setSize = in.readUnsignedByte();
 		for (int i=0;i<setSize;i++){
 			MulticastAddress mcastAddr = new MulticastAddress();
 			mcastAddr.readFrom(in);
@@ -70,21 +103,25 @@ public class TcMessage implements OLSRMessage,Serializable{
 		StringBuffer buf = new StringBuffer();
 
 		buf.append("ANSN="+ansn);
-		buf.append(" [");
-		boolean more = false;
-		for (OLSRNode node : advertisedNeighbors){
-			if (more) buf.append(", ");
-			buf.append(node);
-			more = true;
+		if (type==DIFFERENTIAL){
+			buf.append(" BASE_ANSN="+baseAnsn);
+			appendNodes(buf, " +", addedNeighbors);
+			appendNodes(buf, " -", removedNeighbors);
+		} else {
+			appendNodes(buf, " ", advertisedNeighbors);
 		}
-		buf.append("]\n");
+		buf.append("\n");
 		return buf.toString();
 	}
 	public void writeTo(DataOutput out) throws Exception {
+		out.writeByte(type);
 		ansn.writeTo(out);
-		out.writeByte(advertisedNeighbors.size()); // Added by URV to the standard implementation
-		for (OLSRNode node : advertisedNeighbors){
-			node.writeTo(out);
+		if (type==DIFFERENTIAL){
+			baseAnsn.writeTo(out);
+			writeNodes(out, addedNeighbors);
+			writeNodes(out, removedNeighbors);
+		} else {
+			writeNodes(out, advertisedNeighbors);
 		}
 		// Joined Multicast Groups
 		out.writeByte(joinedMulticastGroups.size());
@@ -93,6 +130,16 @@ public class TcMessage implements OLSRMessage,Serializable{
 		}
 	}
 	
+	//	PUBLIC METHODS --
+
+	/**
+	 * @return true if the message only carries the changes since the
+	 * last full message
+	 */
+	public boolean isDifferential(){
+		return type==DIFFERENTIAL;
+	}
+
 	//	ACCESS METHODS --
 	
 	public void setJoinedMulticastGroups(Set<MulticastAddress> joinedMulticastGroups){
@@ -104,6 +151,27 @@ public class TcMessage implements OLSRMessage,Serializable{
 	public OLSRSet getAdvertisedNeighbors() {
 		return advertisedNeighbors;
 	}
+	/**
+	 * @return Returns the neighbors added since the last full message
+	 * (differential messages only).
+	 */
+	public OLSRSet getAddedNeighbors() {
+		return addedNeighbors;
+	}
+	/**
+	 * @return Returns the neighbors removed since the last full message
+	 * (differential messages only).
+	 */
+	public OLSRSet getRemovedNeighbors() {
+		return removedNeighbors;
+	}
+	/**
+	 * @return Returns the ANSN of the last full message (differential
+	 * messages only).
+	 */
+	public SequenceNumber getBaseAnsn() {
+		return baseAnsn;
+	}
 	/**
 	 * @return Returns the ansn.
 	 */
@@ -116,4 +184,31 @@ public class TcMessage implements OLSRMessage,Serializable{
 	public Set<MulticastAddress> getJoinedMulticastGroups() {
 		return joinedMulticastGroups;
 	}
-}
\ No newline at end of file
+
+	//	PRIVATE METHODS --
+
+	private void appendNodes(StringBuffer buf, String prefix, OLSRSet nodes){
+		buf.append(prefix+"[");
+		boolean more = false;
+		for (OLSRNode node : nodes){
+			if (more) buf.append(", ");
+			buf.append(node);
+			more = true;
+		}
+		buf.append("]");
+	}
+	private void readNodes(DataInput in, OLSRSet nodes) throws Exception {
+		int listSize = in.readUnsignedByte(); // Added by URV to the standard implementation
+		for (int i=0;i<listSize;i++){
+			OLSRNode node = new OLSRNode();
+			node.readFrom(in);
+			nodes.add(node);
+		}
+	}
+	private void writeNodes(DataOutput out, OLSRSet nodes) throws Exception {
+		out.writeByte(nodes.size()); // Added by URV to the standard implementation
+		for (OLSRNode node : nodes){
+			node.writeTo(out);
+		}
+	}
+}
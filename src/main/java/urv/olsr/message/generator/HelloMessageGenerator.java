@@ -1,13 +1,9 @@
 package urv.olsr.message.generator;
 
-import org.jgroups.Message;
-
-import urv.conf.ApplicationConfig;
-import urv.olsr.core.OLSRThread;
 import urv.olsr.data.neighbour.NeighborTable;
 import urv.olsr.message.HelloMessage;
-import urv.olsr.message.OLSRMessageSender;
 import urv.olsr.message.OLSRPacket;
+import urv.olsr.message.OLSRPacketAggregator;
 import urv.olsr.message.OLSRPacketFactory;
 import urv.olsr.message.ValidityTime;
 
@@ -122,25 +118,27 @@ public class HelloMessageGenerator{
 
 	//	CLASS FIELDS --
 	
-	private OLSRMessageSender messageSender;
+	private OLSRPacketAggregator packetAggregator;
 	private NeighborTable neighborTable;
 	private OLSRPacketFactory olsrPacketFactory;
 
 	//	CONSTRUCTORS --
 	
-	public HelloMessageGenerator(OLSRMessageSender messageSender,NeighborTable table, OLSRPacketFactory olsrPacketFactory) {
-		this.messageSender = messageSender;
+	public HelloMessageGenerator(OLSRPacketAggregator packetAggregator,NeighborTable table, OLSRPacketFactory olsrPacketFactory) {
+		this.packetAggregator = packetAggregator;
 		this.neighborTable = table;
 		this.olsrPacketFactory = olsrPacketFactory;
 	}
 	
 	//	PUBLIC METHODS --
 	
-	public void generateAndSend(){
+	/**
+	 * Generates the message and queues it to be sent
+	 * @param validityTime validity time of the message
+	 */
+	public void generateAndSend(ValidityTime validityTime){
 		HelloMessage helloMsg = neighborTable.createHelloMessage();
-		ValidityTime HELLO_MESSAGE_VALIDITY_TIME = new ValidityTime(OLSRThread.HELLO_MESSAGE_VALIDITY_TIME); // TODO define it correctly
-		OLSRPacket olsrPacket = olsrPacketFactory.getOlsrPacket(OLSRPacket.HELLO_MESSAGE, HELLO_MESSAGE_VALIDITY_TIME, 1, helloMsg);
-		Message msg = new Message(ApplicationConfig.BROADCAST_ADDRESS,olsrPacket);
-		messageSender.sendControlMessage(msg);
+		OLSRPacket olsrPacket = olsrPacketFactory.getOlsrPacket(OLSRPacket.HELLO_MESSAGE, validityTime, 1, helloMsg);
+		packetAggregator.send(olsrPacket);
 	}
 }
\ No newline at end of file
@@ -1,14 +1,13 @@
 package urv.olsr.message.generator;
 
-import org.jgroups.Message;
-
-import urv.conf.ApplicationConfig;
-import urv.olsr.core.OLSRThread;
+import urv.conf.PropertiesLoader;
 import urv.olsr.data.OLSRNode;
+import urv.olsr.data.SequenceNumber;
 import urv.olsr.data.mpr.MprSelectorSet;
+import urv.olsr.data.mpr.OLSRSet;
 import urv.olsr.mcast.MulticastGroupsTable;
-import urv.olsr.message.OLSRMessageSender;
 import urv.olsr.message.OLSRPacket;
+import urv.olsr.message.OLSRPacketAggregator;
 import urv.olsr.message.OLSRPacketFactory;
 import urv.olsr.message.TcMessage;
 import urv.olsr.message.ValidityTime;
@@ -39,39 +38,91 @@ import urv.olsr.message.ValidityTime;
    is detected and this change can be attributed to a link failure, a
    TC-message SHOULD be transmitted after an interval shorter than
    TC_INTERVAL.
+
+ * When differential TC messages are enabled, a full TC message is sent
+ * every FULL_TC_PERIOD messages and the other ones only carry the
+ * neighbors added to and removed from the set of the last full message.
+ * A full message is also sent when the changes are not smaller than the
+ * whole set.
    
  * @author Gerard Paris Aixala
  *
  */
 public class TcMessageGenerator{
 	
+	//	CONSTANTS --
+
+	/**
+	 * Number of TC messages between two full TC messages (including the
+	 * full one) when differential TC messages are enabled
+	 */
+	public static final int FULL_TC_PERIOD = 4;
+
 	//	CLASS FIELDS --
 
-	private OLSRMessageSender messageSender;
+	private OLSRPacketAggregator packetAggregator;
 	private MprSelectorSet mprSelectorSet;
 	private OLSRPacketFactory olsrPacketFactory;
 	private MulticastGroupsTable multicastGroupsTable;
 	private OLSRNode localNode;
+	private boolean differentialTc;
+	// Advertised set and ANSN of the last full TC message
+	private OLSRSet lastFullSet = null;
+	private SequenceNumber lastFullAnsn = null;
+	private int messagesSinceFull = 0;
 	
 	//	CONSTRUCTORS --
 
-	public TcMessageGenerator(OLSRMessageSender messageSender,MprSelectorSet mprSelectorSet, OLSRPacketFactory olsrPacketFactory,
+	public TcMessageGenerator(OLSRPacketAggregator packetAggregator,MprSelectorSet mprSelectorSet, OLSRPacketFactory olsrPacketFactory,
 			MulticastGroupsTable multicastGroupsTable,OLSRNode localNode) {
-		this.messageSender = messageSender;
+		this.packetAggregator = packetAggregator;
 		this.mprSelectorSet = mprSelectorSet;
 		this.olsrPacketFactory = olsrPacketFactory;
 		this.multicastGroupsTable = multicastGroupsTable;
 		this.localNode = localNode;
+		this.differentialTc = PropertiesLoader.isDifferentialTc();
 	}
 	
 	//	PUBLIC METHODS --
 	
-	public void generateAndSend(){
+	/**
+	 * Generates the message and queues it to be sent
+	 * @param validityTime validity time of the message
+	 */
+	public void generateAndSend(ValidityTime validityTime){
 		TcMessage tcMsg = mprSelectorSet.createTcMessage();
+		if (differentialTc) tcMsg = toDifferentialIfSmaller(tcMsg);
 		tcMsg.setJoinedMulticastGroups(multicastGroupsTable.getJoinedMulticastGroups(localNode));
-		ValidityTime TC_MESSAGE_VALIDITY_TIME = new ValidityTime(OLSRThread.TC_MESSAGE_VALIDITY_TIME); // TODO define it correctly
-		OLSRPacket olsrPacket = olsrPacketFactory.getOlsrPacket(OLSRPacket.TC_MESSAGE, TC_MESSAGE_VALIDITY_TIME, 32, tcMsg);
-		Message msg = new Message(ApplicationConfig.BROADCAST_ADDRESS,olsrPacket);
-		messageSender.sendControlMessage(msg);
+		OLSRPacket olsrPacket = olsrPacketFactory.getOlsrPacket(OLSRPacket.TC_MESSAGE, validityTime, 32, tcMsg);
+		packetAggregator.send(olsrPacket);
+	}
+
+	//	PRIVATE METHODS --
+
+	/**
+	 * Returns the differential message with the changes since the last full
+	 * message, or the given full message if it is time to send a full one
+	 * or the changes are not smaller than the whole set
+	 */
+	private TcMessage toDifferentialIfSmaller(TcMessage fullMsg){
+		OLSRSet current = fullMsg.getAdvertisedNeighbors();
+		if (lastFullSet!=null && messagesSinceFull<FULL_TC_PERIOD-1){
+			OLSRSet added = new OLSRSet();
+			OLSRSet removed = new OLSRSet();
+			for (OLSRNode node : current){
+				if (!lastFullSet.contains(node)) added.add(node);
+			}
+			for (OLSRNode node : lastFullSet){
+				if (!current.contains(node)) removed.add(node);
+			}
+			if (added.size()+removed.size()<current.size()){
+				messagesSinceFull++;
+				return new TcMessage(fullMsg.getAnsn(), lastFullAnsn, added, removed);
+			}
+		}
+		lastFullSet = current;
+		lastFullAnsn = fullMsg.getAnsn();
+		messagesSinceFull = 0;
+		return fullMsg;
 	}
-}
\ No newline at end of file
+}
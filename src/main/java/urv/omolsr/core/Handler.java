@@ -5,4 +5,10 @@ package urv.omolsr.core;
  */
 public interface Handler extends UnicastHandlerListener{
 
+	/**
+	 * Sets the minimum number of virtual neighbors one hop away needed to
+	 * send a message to them by local broadcast (0 disables local broadcast)
+	 * @param num
+	 */
+	public void setBroadcastMinNeighbours(int num);
 }
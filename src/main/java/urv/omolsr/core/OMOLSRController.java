@@ -4,8 +4,10 @@ import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
 import org.jgroups.protocols.OMOLSR;
 import urv.olsr.data.OLSRNode;
+import urv.olsr.data.routing.RoutingTable;
 import urv.omolsr.data.OMOLSRData;
 import urv.omolsr.data.OMOLSRNetworkGraph;
+import urv.omolsr.tree.TreeStrategy;
 
 /**
  * @author Marcel Arrufat Arias
@@ -29,8 +31,14 @@ public class OMOLSRController {
 	
 	//	CONSTRUCTORS --
 	
-	public OMOLSRController(OMOLSR omolsr,OLSRNode localNode) {		
-		this.data = new OMOLSRData(localNode);
+	/**
+	 * @param omolsr
+	 * @param localNode
+	 * @param treeStrategy Computes the tree along which the messages of the
+	 * group are sent
+	 */
+	public OMOLSRController(OMOLSR omolsr,OLSRNode localNode,TreeStrategy treeStrategy) {		
+		this.data = new OMOLSRData(localNode,treeStrategy);
 		this.handler = new StandardHandler(omolsr,data,localNode);
 	}	
 	
@@ -58,11 +66,18 @@ public class OMOLSRController {
 	public void unregisterOmcastProtocol(String groupId){
 		//TODO: nothing special to do here
 	}	
-	/*//DO NOT REMOVE: may be used later in OMOLSR
-	 * 	public void registerBroadcastMinNeighbour(String groupId, int num){
-		handler.registerBroadcastMinNeighbour(groupId,num);
-	}*/
+	/**
+	 * Sets the minimum number of virtual neighbors one hop away needed to
+	 * send a message to them by local broadcast (0 disables local broadcast)
+	 * @param num
+	 */
+	public void setBroadcastMinNeighbours(int num){
+		handler.setBroadcastMinNeighbours(num);
+	}
 	public void updateMulticastNetworkGraph(OMOLSRNetworkGraph multicastNetworkGraph) {		
 		data.updateOMOLSRNetworkGraph(multicastNetworkGraph);		
 	}
+	public void updateRoutingTable(RoutingTable routingTable) {
+		data.setRoutingTable(routingTable);
+	}
 }
\ No newline at end of file
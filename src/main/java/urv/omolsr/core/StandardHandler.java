@@ -6,6 +6,7 @@ import org.jgroups.logging.LogFactory;
 import org.jgroups.protocols.Constants;
 import org.jgroups.protocols.OMOLSR;
 import org.jgroups.protocols.OMOLSRHeader;
+import urv.conf.ApplicationConfig;
 import urv.olsr.data.OLSRNode;
 import urv.omolsr.data.OMOLSRData;
 import urv.util.graph.HashMapSet;
@@ -24,7 +25,8 @@ public class StandardHandler implements Handler {
 	//	CLASS FIELDS --
 	private final OMOLSRData data;
 	private final OLSRNode localOLSRNode;
-	private final Map<String,Integer> broadcastMinNeigbour = new HashMap<>();
+	// Minimum number of virtual neighbors one hop away to send by local broadcast
+	private volatile int broadcastMinNeighbours;
 	private final OMOLSR protocolCallback;
 	protected final Log log = LogFactory.getLog(this.getClass());
 
@@ -46,11 +48,10 @@ public class StandardHandler implements Handler {
 	 */
 	public boolean handleIncomingDataMessage(Message msg) {
 		try{
-			//1. Get information of nodes which should receive the message
-			Set<OLSRNode> virtualNeighbors = data.getVirtualNeighbors(localOLSRNode);
-			//2. Send the message to the neighbors we have to send the message
-			//	 as it is indicated in the forwarding table
-			sendForwardedMessageToVirtualNeighbors(msg.copy());
+			//Send the message to the neighbors we have to send the message
+			//as it is indicated in the forwarding table
+			//(OMOLSR.up passes a copy of the received message, which can be reused)
+			sendForwardedMessageToVirtualNeighbors(msg);
 		}catch (Exception e) {
 		   e.printStackTrace();
 		}
@@ -66,23 +67,24 @@ public class StandardHandler implements Handler {
 	public void handleOutgoingDataMessage(Message msg){
 		//1. Get information of nodes which should receive the message
 		Set<OLSRNode> virtualNeighbors = data.getVirtualNeighbors(localOLSRNode);
-		//2. Send the message to all of them
-		sendOutgoingMessageToVirtualNeighbors(msg.copy(),virtualNeighbors);
+		//2. Send the message to all of them (the copies share the payload of msg,
+		//	 which is not modified, since the upper layers may keep it)
+		sendOutgoingMessageToVirtualNeighbors(msg,virtualNeighbors);
 		//3. Send the message to ourselves
-		sendMessageToOurSelves(msg.copy());
+		sendMessageToOurSelves(msg);
 	}
 	
-	//	PUBLIC METHODS --
-	
 	/**
-	 * Register information about the minimun number of neighbours needed to
-	 * perform local broadcast
-	 * @param groupId
+	 * Sets the minimum number of virtual neighbors one hop away needed to
+	 * send a message to them by local broadcast (0 disables local broadcast).
+	 * The handler serves the protocol stack of a single group
 	 * @param num
 	 */
-	public void registerBroadcastMinNeighbour(String groupId, int num){
-		broadcastMinNeigbour.put(groupId, num);
+	public void setBroadcastMinNeighbours(int num){
+		broadcastMinNeighbours = num;
 	}
+	
+	//	PUBLIC METHODS --
 
 
 	/**
@@ -107,6 +109,25 @@ public class StandardHandler implements Handler {
 	
 	//	PRIVATE METHODS --
 	
+	/**
+	 * Sends a copy of the message to each destination, with the given header.
+	 * The copies share the payload and the header (which is serialized once),
+	 * and only have their own destination and array of headers
+	 * @param msg
+	 * @param header
+	 * @param destinations
+	 * @param lastUse if true, the message itself is sent to the last destination
+	 * instead of a copy, so it must not be used afterwards
+	 */
+	private void fanOut(Message msg, OMOLSRHeader header, Collection<OLSRNode> destinations, boolean lastUse) {
+		int pending = destinations.size();
+		for (OLSRNode destination:destinations){
+			Message msgCopy = (lastUse && --pending==0) ? msg : msg.copy();
+			msgCopy.putHeader(Constants.OMOLSR_ID,header);
+			msgCopy.setDest(destination.getJGroupsAddress());
+			protocolCallback.down(msgCopy);
+		}
+	}
 	/**
 	 * Forwards the message to the rest of nodes (virtual neighbors) that have not
 	 * received the message yet
@@ -142,36 +163,30 @@ public class StandardHandler implements Handler {
 			newOmolsrHeader.setSrcAddress(omolsrHeader.getSrcAddress());
 			newOmolsrHeader.setGroupId(omolsrHeader.groupId);
 
-			//Once we have the headers, we can send a message to each virtualNeighbor
-			//Add header info
-			msg.putHeader(Constants.OMOLSR_ID,newOmolsrHeader);
-
-			for (OLSRNode vnToForwardMessage:virtualNeighborsToForwardSet){
-				Message msgCopy = msg.copy();
-				msgCopy.setDest(vnToForwardMessage.getJGroupsAddress());
-				protocolCallback.down(msgCopy);
-
-			}
 			//	TODO: We must maybe check that all pending nodes will receive the
 			//	message. All nodes in the node set should be virtualneighbors or
 			//  non virtualneighbors that are in one of the nonVntoForwardSet
 
 			//	if there are remaining nodes, the local node will send a unicast message to
 			//	these nodes
-
+			List<OLSRNode> remainingNodes = new ArrayList<>();
 			for (OLSRNode n:nodeSet){
 				if (!nodeIsInHeaders(headers,n) && !virtualNeighborsToForwardSet.contains(n)){
-					Message msgCopy = msg.copy();
-					OMOLSRHeader newOmolsrHeader2 = new OMOLSRHeader();
-					newOmolsrHeader2.setType(OMOLSRHeader.DATA);
-					newOmolsrHeader2.setSrcAddress(omolsrHeader.getSrcAddress());
-					newOmolsrHeader2.setGroupId(omolsrHeader.groupId);
-					msgCopy.putHeader(Constants.OMOLSR_ID, newOmolsrHeader2);
-					msgCopy.setDest(n.getJGroupsAddress());
-					System.err.println("OMOLSR: Sending msg specifically to remaining node (otherwise would not receive the message)");
-					protocolCallback.down(msgCopy);
+					if (log.isDebugEnabled())
+						log.debug("OMOLSR: Sending msg specifically to remaining node "+n+" (otherwise would not receive the message)");
+					remainingNodes.add(n);
 				}
 			}
+			//Once we have the headers, we can send a message to each virtualNeighbor.
+			//The message is ours, so the last copy is the message itself
+			sendToVirtualNeighbors(msg,newOmolsrHeader,virtualNeighborsToForwardSet,remainingNodes.isEmpty());
+			if (!remainingNodes.isEmpty()){
+				OMOLSRHeader newOmolsrHeader2 = new OMOLSRHeader();
+				newOmolsrHeader2.setType(OMOLSRHeader.DATA);
+				newOmolsrHeader2.setSrcAddress(omolsrHeader.getSrcAddress());
+				newOmolsrHeader2.setGroupId(omolsrHeader.groupId);
+				fanOut(msg,newOmolsrHeader2,remainingNodes,true);
+			}
 		}
 	}
 	/**
@@ -216,28 +231,51 @@ public class StandardHandler implements Handler {
 		omolsrHeader.setSrcAddress(localOLSRNode.getJGroupsAddress());
 		omolsrHeader.setGroupId(msg.getDest());
 
-		//Set the header on the message
-		msg.putHeader(Constants.OMOLSR_ID,omolsrHeader);
-
 		//Send a copy of the message to all the virtual neighbors
-		for (OLSRNode node:virtualNeighbors){
-			Message msgCopy = msg.copy();
-			//System.out.println("Src: "+localOLSRNode+" setting dest as "+node.getJGroupsAddress());
-			msgCopy.setDest(node.getJGroupsAddress());
-			protocolCallback.down(msgCopy);
-		}
+		sendToVirtualNeighbors(msg,omolsrHeader,virtualNeighbors,false);
 		/* ****** ADDED NEW ******* */
 		Set<OLSRNode> temporalNodes = data.getTemporalNodes();
-		for(OLSRNode n:temporalNodes){
-			Message msgCopy = msg.copy();
+		if (!temporalNodes.isEmpty()){
 			OMOLSRHeader omolsrHeader2 = new OMOLSRHeader();
 			omolsrHeader2.setType(OMOLSRHeader.DATA);
 			omolsrHeader2.setSrcAddress(localOLSRNode.getJGroupsAddress());
 			omolsrHeader2.setGroupId(msg.getDest());
-			msgCopy.putHeader(Constants.OMOLSR_ID,omolsrHeader2);
-			msgCopy.setDest(n.getJGroupsAddress());
-			protocolCallback.down(msgCopy);
+			fanOut(msg,omolsrHeader2,temporalNodes,false);
 		}
 		/* ****** ADDED NEW ******* */
 	}	
-}
\ No newline at end of file
+	/**
+	 * Sends the message to the virtual neighbors. If at least broadcastMinNeighbours
+	 * of them are one hop away, they receive a single copy sent by local broadcast,
+	 * whose header lists them as its recipients (the other nodes which receive it
+	 * discard it), and only the rest receive a unicast copy
+	 * @param msg
+	 * @param header
+	 * @param virtualNeighbors
+	 * @param lastUse if true, the message itself is sent instead of the last copy
+	 */
+	private void sendToVirtualNeighbors(Message msg, OMOLSRHeader header, Set<OLSRNode> virtualNeighbors, boolean lastUse) {
+		int minNeighbours = broadcastMinNeighbours;
+		Set<OLSRNode> oneHopNeighbors = minNeighbours>0 ?
+				data.getOneHopNeighborsExistingInSet(virtualNeighbors) : Collections.<OLSRNode>emptySet();
+		if (minNeighbours<=0 || oneHopNeighbors.size()<minNeighbours){
+			fanOut(msg,header,virtualNeighbors,lastUse);
+			return;
+		}
+		List<OLSRNode> unicastNeighbors = new ArrayList<>();
+		for (OLSRNode n:virtualNeighbors){
+			if (!oneHopNeighbors.contains(n)) unicastNeighbors.add(n);
+		}
+		OMOLSRHeader broadcastHeader = new OMOLSRHeader();
+		broadcastHeader.setForwardingTable(header.getForwardingTable());
+		broadcastHeader.setType(header.type);
+		broadcastHeader.setSrcAddress(header.getSrcAddress());
+		broadcastHeader.setGroupId(header.groupId);
+		broadcastHeader.setRecipients(oneHopNeighbors);
+		Message broadcastMsg = (lastUse && unicastNeighbors.isEmpty()) ? msg : msg.copy();
+		broadcastMsg.putHeader(Constants.OMOLSR_ID,broadcastHeader);
+		broadcastMsg.setDest(ApplicationConfig.BROADCAST_ADDRESS);
+		protocolCallback.down(broadcastMsg);
+		fanOut(msg,header,unicastNeighbors,lastUse);
+	}
+}
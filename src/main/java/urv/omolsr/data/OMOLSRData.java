@@ -3,13 +3,28 @@ package urv.omolsr.data;
 import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
 import urv.olsr.data.OLSRNode;
+import urv.olsr.data.routing.RoutingTable;
+import urv.olsr.data.routing.RoutingTableEntry;
+import urv.omolsr.tree.TreeStrategies;
+import urv.omolsr.tree.TreeStrategy;
 import urv.util.graph.HashMapSet;
 import urv.util.graph.NetworkGraph;
 import urv.util.graph.Weight;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class handles all the data related to the construction of the multicast
@@ -17,6 +32,11 @@ import java.util.Set;
  * each multicast group, as well as link state table for each group. OMCastData 
  * also provides methods to obtain the headers of the messages that must be forwarded.  
  * 
+ * The MST and the forwarding information of a new graph are computed in a background
+ * thread, and the messages are always sent with the last published ones, so the
+ * data path never waits for a computation. The tree rooted at the local node is
+ * computed with the tree strategy of the group (the minimum spanning tree by default)
+ * 
  * @author Gerard Paris Aixala
  * @author Marcel Arrufat Arias
  *
@@ -26,20 +46,53 @@ public class OMOLSRData{
 	// CLASS FIELDS --
 	
 	private static final int VALIDITY_TIME = 10000; // 10 sec
-	private OMOLSRNetworkGraph omolsrNetworkGraph = null;	
-	private NetworkGraph<OLSRNode,Weight> mstNetworkGraph = null;
+	private static final int MAX_CACHED_FORWARDING_HEADERS = 256;
+	// Time after which the idle thread that computes the MST is stopped
+	private static final long MST_THREAD_KEEP_ALIVE = 30000;
+	// Current graph, published together with its version, which is
+	// incremented every time a new graph is installed
+	private volatile InstalledGraph installedGraph;
+	// Graph with only the local node, installed while the received
+	// graphs do not contain the local node
+	private final OMOLSRNetworkGraph localNodeGraph;
+	// Forwarding information computed from the current graph
+	private volatile ForwardingState forwardingState = null;
+	// Computes the forwarding information of the new graphs
+	private final ExecutorService mstExecutor;
+	private final AtomicBoolean forwardingStateUpdatePending = new AtomicBoolean(false);
 	private TemporalNodeTable temporalNodes = new TemporalNodeTable();
 	private Object temp = new Object();	
 	private OLSRNode localNode;
+	// Computes the tree along which the messages are sent
+	private volatile TreeStrategy treeStrategy;
+	// Routes of the node, used to know which nodes are one hop away
+	private volatile RoutingTable routingTable;
 	protected final Log log = LogFactory.getLog(this.getClass());
 	
 	//	CONSTRUCTORS --
 	
-	public OMOLSRData(OLSRNode localNode){
+	public OMOLSRData(final OLSRNode localNode){
+		this(localNode, TreeStrategies.DEFAULT);
+	}
+	public OMOLSRData(final OLSRNode localNode, TreeStrategy treeStrategy){
 		this.localNode = localNode;
+		this.treeStrategy = treeStrategy;
 		NetworkGraph<OLSRNode,Weight> graph = new NetworkGraph<OLSRNode,Weight>();
 		graph.addNode(localNode);
-		omolsrNetworkGraph = new OMOLSRNetworkGraph(graph);		
+		localNodeGraph = new OMOLSRNetworkGraph(graph);
+		installedGraph = new InstalledGraph(localNodeGraph, 0);
+		//The graph with only the local node is published right away
+		forwardingState = createForwardingState(installedGraph, treeStrategy);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, MST_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "OMOLSR-MST-"+localNode.getAddress().getHostAddress());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		mstExecutor = executor;
 		/* ***** ADDED NEW ***** */
 		new Thread(){
 			public void run(){
@@ -66,34 +119,65 @@ public class OMOLSRData{
 	
 	public String toString(){
 		StringBuffer buf = new StringBuffer();
-		if (omolsrNetworkGraph!=null){
-			buf.append("OMOLSR NETWORK GRAPH: \n"+omolsrNetworkGraph.toString());
-		}
-		if (mstNetworkGraph!=null){
-			buf.append("MST NETWORK GRAPH: \n"+mstNetworkGraph.toString());
+		buf.append("OMOLSR NETWORK GRAPH: \n"+installedGraph.graph.toString());
+		ForwardingState state = forwardingState;
+		if (state!=null){
+			buf.append("MST NETWORK GRAPH ("+state.treeStrategy+", version "+state.version+"): \n"+state.mst.toString());
 		}
 		return buf.toString();		
 	}
 	
 	//	PUBLIC METHODS --
 	
+	/**
+	 * Computes the MST and the forwarding information for the current graph,
+	 * unless they have already been computed for it, and waits until they
+	 * have been published. The messages do not need it, they are sent with
+	 * the last published information
+	 */
 	public void computeMST(){
-		mstNetworkGraph = omolsrNetworkGraph.computeMinimumSpanningTree(localNode);
+		try {
+			mstExecutor.submit(new Runnable(){
+				public void run(){
+					updateForwardingState();
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			log.warn("Could not compute the MST", e.getCause());
+		}
 	}	
+	/**
+	 * Returns the version of the current graph, which changes every time
+	 * a new graph is installed
+	 */
+	public int getGraphVersion(){
+		return installedGraph.version;
+	}
 	public Set<OLSRNode> getGroupNodes(){
-		return omolsrNetworkGraph.getGroupNodes();
+		return installedGraph.graph.getGroupNodes();
 	}	
+	public TreeStrategy getTreeStrategy(){
+		return treeStrategy;
+	}
 	/**
 	 * Returns the header that must be set in each message when forwarding a multicast message
 	 * IMPORTANT: now all nodes receive exactly the same header (broadcast reminiscence), although 
-	 * it should only receive
+	 * it should only receive. The headers are shared by the messages, so they can not be modified
 	 * @param virtualNeighborsToForwardSet
 	 * @param nonVirtualNeighborsToForwardSet
 	 * @return
 	 */
 	public HashMapSet<OLSRNode, OLSRNode> getHeadersForForwardingNodes(Set<OLSRNode> virtualNeighborsToForwardSet, Set<OLSRNode> nonVirtualNeighborsToForwardSet){
-
-		HashMapSet<OLSRNode,OLSRNode> forwardingTable = new HashMapSet<OLSRNode,OLSRNode>();
+		//The same headers are usually requested for every message of a source,
+		//so they are kept while the graph does not change
+		ForwardingState state = getForwardingState();
+		ForwardingKey key = new ForwardingKey(virtualNeighborsToForwardSet, nonVirtualNeighborsToForwardSet);
+		HashMapSet<OLSRNode,OLSRNode> forwardingTable = state.forwardingHeaders.get(key);
+		if (forwardingTable!=null) return forwardingTable;
+		//The sets of the key are not copied, they are created for each message
+		forwardingTable = new HashMapSet<OLSRNode,OLSRNode>();
 		
 		for (OLSRNode vnToForwardMessage:virtualNeighborsToForwardSet){			
 			//Get all the "children" of the virtualNeighbor in the network graph
@@ -106,7 +190,10 @@ public class OMOLSRData{
 			for (OLSRNode nonVntoForward:nonVntoForwardSet){				
 				forwardingTable.addToSet(vnToForwardMessage,nonVntoForward);
 			}			
-		}		
+		}
+		forwardingTable = HashMapSet.unmodifiableCopy(forwardingTable);
+		if (state.forwardingHeaders.size()>=MAX_CACHED_FORWARDING_HEADERS) state.forwardingHeaders.clear();
+		state.forwardingHeaders.put(key, forwardingTable);
 		return forwardingTable;
 
 	}	
@@ -114,19 +201,16 @@ public class OMOLSRData{
 	//For each neighbor that we have that is in the list of nodes which should receive the message, add info to headers
 	/* END NEW OMOLSR */
 	/**
-	 * Obtains the headers to be sent into a multicast message
+	 * Obtains the headers to be sent into a multicast message. The headers of
+	 * the local node are computed once per graph and shared by all the
+	 * messages, so they can not be modified
 	 * @param localOLSRNode
 	 * @return 
 	 */
 	public HashMapSet<OLSRNode, OLSRNode> getHeadersForSource(OLSRNode localOLSRNode) {
-		HashMapSet<OLSRNode, OLSRNode> headers = new HashMapSet<OLSRNode, OLSRNode>();		
-		//Get virtual neighbors
-		Set<OLSRNode> virtualNeighbors = getMstNetworkGraph().getLinkedNodes(localOLSRNode);
-		//For each virtual neighbor, get subtree and add it to the list for this virtual neighbor
-		for (OLSRNode virtualNeighbor:virtualNeighbors){
-			headers.putSet(virtualNeighbor,getMstNetworkGraph().getSubtree(virtualNeighbor));
-		}		
-		return headers;
+		ForwardingState state = getForwardingState();
+		if (localOLSRNode.equals(localNode)) return state.sourceHeaders;
+		return computeHeadersForSource(state, localOLSRNode);
 	}	
 	/**
 	 * Returns a set of node which are not virtualneighbors of the given node and also 
@@ -136,7 +220,7 @@ public class OMOLSRData{
 	 * @return
 	 */
 	public Set<OLSRNode> getNonVirtualNeighborsExistingInSet(OLSRNode localOLSRNode, HashSet<OLSRNode> nodeSet) {
-		Set<OLSRNode> neighborSet = omolsrNetworkGraph.getVirtualNeighbors(localOLSRNode);
+		Set<OLSRNode> neighborSet = getVirtualNeighbors(localOLSRNode);
 		//Store the matching nodes in here
 		Set<OLSRNode> resultSet = new HashSet<OLSRNode>();
 		for (OLSRNode node:nodeSet){
@@ -154,7 +238,8 @@ public class OMOLSRData{
 	 * @return
 	 */
 	public Set<OLSRNode> getNonVirtualNeighborsInSubtree(Set<OLSRNode> nonVirtualNeighborsToForwardSet, OLSRNode directDestinationNode) {
-		Set<OLSRNode> subtreeNodes = getMstNetworkGraph().getSubtree(directDestinationNode);
+		ForwardingState state = getForwardingState();
+		Set<OLSRNode> subtreeNodes = state.graph.getSubtree(localNode, directDestinationNode, state.treeStrategy);
 		Set<OLSRNode> nonVirtualNeighborsInSubtreeSet = new HashSet<OLSRNode>();
 		for (OLSRNode nodeToForward:nonVirtualNeighborsToForwardSet){
 			//Add the node to the set if 
@@ -164,6 +249,24 @@ public class OMOLSRData{
 		}
 		return nonVirtualNeighborsInSubtreeSet;
 	}
+	/**
+	 * Returns the nodes of the given collection which are one-hop neighbors
+	 * of the local node, according to its current routes
+	 * @param nodes
+	 * @return
+	 */
+	public Set<OLSRNode> getOneHopNeighborsExistingInSet(Collection<OLSRNode> nodes){
+		Set<OLSRNode> resultSet = new HashSet<OLSRNode>();
+		RoutingTable routes = routingTable;
+		if (routes==null) return resultSet;
+		for (OLSRNode node:nodes){
+			RoutingTableEntry entry = routes.getRoutingTableEntry(node);
+			if (entry!=null && entry.getHops()==1){
+				resultSet.add(node);
+			}
+		}
+		return resultSet;
+	}
 	public Set<OLSRNode> getTemporalNodes(){
 		Set<OLSRNode> retVal = new HashSet<OLSRNode>();
 		synchronized(temp){
@@ -173,8 +276,15 @@ public class OMOLSRData{
 		}
 		return retVal;
 	}
+	/**
+	 * Returns the virtual neighbors of the node. The neighbors of the local
+	 * node are computed once per graph and shared, so they can not be modified
+	 * @param node
+	 * @return
+	 */
 	public Set<OLSRNode> getVirtualNeighbors(OLSRNode node){		
-		return omolsrNetworkGraph.getVirtualNeighbors(node);		
+		if (node.equals(localNode)) return getForwardingState().virtualNeighbors;
+		return installedGraph.graph.getVirtualNeighbors(node);		
 	}
 	/**
 	 * Returns a set of node which are virtualneighbors of the given node and also 
@@ -184,7 +294,7 @@ public class OMOLSRData{
 	 * @return
 	 */
 	public Set<OLSRNode> getVirtualNeighborsExistingInSet(OLSRNode localOLSRNode, HashSet<OLSRNode> nodeSet) {
-		Set<OLSRNode> neighborSet = omolsrNetworkGraph.getVirtualNeighbors(localOLSRNode);
+		Set<OLSRNode> neighborSet = getVirtualNeighbors(localOLSRNode);
 		//Store the matching nodes in here
 		Set<OLSRNode> resultSet = new HashSet<OLSRNode>();
 		for (OLSRNode node:nodeSet){
@@ -194,15 +304,40 @@ public class OMOLSRData{
 		}		
 		return resultSet;
 	}
-	public void updateOMOLSRNetworkGraph(OMOLSRNetworkGraph omolsrNetworkGraph) {		
+	/**
+	 * Sets the routing table of the node (it is updated in place by OLSR,
+	 * so it only has to be set once)
+	 * @param routingTable
+	 */
+	public void setRoutingTable(RoutingTable routingTable) {
+		this.routingTable = routingTable;
+	}
+	/**
+	 * Sets the strategy which computes the tree of the local node. The
+	 * forwarding information of the current graph is computed again with it
+	 * @param treeStrategy
+	 */
+	public synchronized void setTreeStrategy(TreeStrategy treeStrategy) {
+		if (this.treeStrategy==treeStrategy) return;
+		this.treeStrategy = treeStrategy;
+		scheduleForwardingStateUpdate();
+	}
+	/**
+	 * Installs a new graph. The cached forwarding information is discarded,
+	 * unless the new graph is the one already installed
+	 * @param omolsrNetworkGraph
+	 */
+	public synchronized void updateOMOLSRNetworkGraph(OMOLSRNetworkGraph omolsrNetworkGraph) {		
+		InstalledGraph current = installedGraph;
+		if (omolsrNetworkGraph.hasSameGraph(current.graph)) return;
 		// NEW: Added to avoid problems with non-initialized graphs
 		if (omolsrNetworkGraph.getVirtualNeighbors(localNode)==null){
-			NetworkGraph<OLSRNode,Weight> graph = new NetworkGraph<OLSRNode,Weight>();
-			graph.addNode(localNode);
-			this.omolsrNetworkGraph = new OMOLSRNetworkGraph(graph);
+			//The graph with only the local node is always the same one
+			if (current.graph==localNodeGraph) return;
+			omolsrNetworkGraph = localNodeGraph;
 		}else{			
 			/* ************* ADDED NEW ************** */
-			Set<OLSRNode> oldNodeSet = this.omolsrNetworkGraph.getGroupNodes();
+			Set<OLSRNode> oldNodeSet = current.graph.getGroupNodes();
 			Set<OLSRNode> newNodeSet = omolsrNetworkGraph.getGroupNodes();
 			
 			synchronized(temp){
@@ -222,15 +357,117 @@ public class OMOLSRData{
 				}
 			}
 			/* ************************************** */			
-			this.omolsrNetworkGraph = omolsrNetworkGraph;
-		}		
+		}
+		installedGraph = new InstalledGraph(omolsrNetworkGraph, current.version+1);
+		scheduleForwardingStateUpdate();
 	}	
 	
 	//	PRIVATE METHODS --
 	
-	private NetworkGraph<OLSRNode, Weight> getMstNetworkGraph() {
-		if (mstNetworkGraph==null)
-			computeMST();
-		return mstNetworkGraph;
+	private HashMapSet<OLSRNode, OLSRNode> computeHeadersForSource(ForwardingState state, OLSRNode sourceNode) {
+		HashMapSet<OLSRNode, OLSRNode> headers = new HashMapSet<OLSRNode, OLSRNode>();		
+		//Get virtual neighbors
+		Set<OLSRNode> virtualNeighbors = state.mst.getLinkedNodes(sourceNode);
+		//For each virtual neighbor, get subtree and add it to the list for this virtual neighbor
+		for (OLSRNode virtualNeighbor:virtualNeighbors){
+			headers.putSet(virtualNeighbor,new HashSet<OLSRNode>(state.graph.getSubtree(localNode, virtualNeighbor, state.treeStrategy)));
+		}		
+		return headers;
+	}
+	private ForwardingState createForwardingState(InstalledGraph installed, TreeStrategy treeStrategy) {
+		ForwardingState state = new ForwardingState(installed, treeStrategy);
+		state.sourceHeaders = HashMapSet.unmodifiableCopy(computeHeadersForSource(state, localNode));
+		return state;
+	}
+	/**
+	 * Returns the last published forwarding information, which may belong
+	 * to a previous graph while the one of the current graph is computed
+	 */
+	private ForwardingState getForwardingState() {
+		return forwardingState;
+	}
+	/**
+	 * Schedules the computation of the forwarding information of the current
+	 * graph in the background thread, unless it is already scheduled
+	 */
+	private void scheduleForwardingStateUpdate() {
+		if (!forwardingStateUpdatePending.compareAndSet(false, true)) return;
+		mstExecutor.execute(new Runnable(){
+			public void run(){
+				updateForwardingState();
+			}
+		});
+	}
+	/**
+	 * Computes and publishes the forwarding information of the current graph.
+	 * It is only invoked from the background thread, so the states are
+	 * published in the order of the graphs
+	 */
+	private void updateForwardingState() {
+		//A graph installed from now on schedules a new update
+		forwardingStateUpdatePending.set(false);
+		InstalledGraph installed = installedGraph;
+		TreeStrategy strategy = treeStrategy;
+		if (forwardingState.version==installed.version && forwardingState.treeStrategy==strategy) return;
+		forwardingState = createForwardingState(installed, strategy);
+	}
+	
+	//	INNER CLASSES --
+	
+	/**
+	 * Graph installed in the node, with its version
+	 */
+	private static class InstalledGraph {
+		final OMOLSRNetworkGraph graph;
+		final int version;
+		
+		InstalledGraph(OMOLSRNetworkGraph graph, int version){
+			this.graph = graph;
+			this.version = version;
+		}
+	}
+	/**
+	 * Tree of the local node and forwarding information derived from it for
+	 * one version of the graph. It is replaced, never modified, when a new
+	 * graph is installed or the tree strategy changes
+	 */
+	private class ForwardingState {
+		final OMOLSRNetworkGraph graph;
+		final int version;
+		final TreeStrategy treeStrategy;
+		final NetworkGraph<OLSRNode,Weight> mst;
+		final Set<OLSRNode> virtualNeighbors;
+		final Map<ForwardingKey,HashMapSet<OLSRNode,OLSRNode>> forwardingHeaders = 
+			new ConcurrentHashMap<ForwardingKey,HashMapSet<OLSRNode,OLSRNode>>();
+		HashMapSet<OLSRNode,OLSRNode> sourceHeaders;
+		
+		ForwardingState(InstalledGraph installed, TreeStrategy treeStrategy){
+			this.graph = installed.graph;
+			this.version = installed.version;
+			this.treeStrategy = treeStrategy;
+			this.mst = graph.computeTree(localNode, treeStrategy);
+			Set<OLSRNode> neighbors = graph.getVirtualNeighbors(localNode);
+			this.virtualNeighbors = neighbors==null ? Collections.<OLSRNode>emptySet() : 
+				Collections.unmodifiableSet(new HashSet<OLSRNode>(neighbors));
+		}
+	}
+	/**
+	 * Sets of nodes from which the forwarding headers are computed
+	 */
+	private static class ForwardingKey {
+		final Set<OLSRNode> virtualNeighbors;
+		final Set<OLSRNode> nonVirtualNeighbors;
+		
+		ForwardingKey(Set<OLSRNode> virtualNeighbors, Set<OLSRNode> nonVirtualNeighbors){
+			this.virtualNeighbors = virtualNeighbors;
+			this.nonVirtualNeighbors = nonVirtualNeighbors;
+		}
+		public boolean equals(Object obj){
+			ForwardingKey key = (ForwardingKey)obj;
+			return virtualNeighbors.equals(key.virtualNeighbors) && nonVirtualNeighbors.equals(key.nonVirtualNeighbors);
+		}
+		public int hashCode(){
+			return virtualNeighbors.hashCode()+31*nonVirtualNeighbors.hashCode();
+		}
 	}
-}
\ No newline at end of file
+}
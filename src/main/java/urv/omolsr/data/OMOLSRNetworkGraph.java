@@ -1,9 +1,15 @@
 package urv.omolsr.data;
 
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import urv.olsr.data.OLSRNode;
+import urv.omolsr.tree.TreeStrategies;
+import urv.omolsr.tree.TreeStrategy;
 import urv.omolsr.util.GraphUtils;
 import urv.util.graph.NetworkGraph;
 import urv.util.graph.Weight;
@@ -20,21 +26,93 @@ public class OMOLSRNetworkGraph implements Serializable {
 	
 	public static GraphUtils<OLSRNode,Weight> graphUtils = new GraphUtils<OLSRNode,Weight>();
 	private NetworkGraph<OLSRNode,Weight> graph; 
+	// Bandwidth coefficients of the nodes when the graph was wrapped. A new
+	// graph is installed when the bandwidth of the nodes changes, so the trees
+	// of this one are computed with the coefficients it was wrapped with, even
+	// if a node (such as the local node) is updated in place later
+	private Map<OLSRNode,Float> coefficients = new HashMap<OLSRNode,Float>();
+	// Trees computed from the graph (and their subtrees), kept until the graph
+	// is replaced
+	private Map<TreeKey,NetworkGraph<OLSRNode,Weight>> trees =
+		new ConcurrentHashMap<TreeKey,NetworkGraph<OLSRNode,Weight>>();
+	private Map<TreeKey,Map<OLSRNode,Set<OLSRNode>>> subtrees =
+		new ConcurrentHashMap<TreeKey,Map<OLSRNode,Set<OLSRNode>>>();
 	
 	//	CONSTRUCTORS --
 	
 	public OMOLSRNetworkGraph(NetworkGraph<OLSRNode,Weight> graph){
 		this.graph = graph;
+		for (OLSRNode node:graph.getNodeList()){
+			coefficients.put(node, node.getBandwithCoefficient());
+		}
 	}	
 	
 	//	PUBLIC METHODS --
 	
+	/**
+	 * Returns the minimum spanning tree rooted at the given node. The tree
+	 * is computed once and shared, so it must not be modified
+	 * @param localNode
+	 * @return
+	 */
 	public NetworkGraph<OLSRNode,Weight> computeMinimumSpanningTree(OLSRNode localNode){
-		return graphUtils.computeMinimumSpanningTree(graph,localNode);
+		return computeTree(localNode, TreeStrategies.MINIMUM_SPANNING_TREE);
+	}
+	/**
+	 * Returns the tree rooted at the given node computed with the strategy.
+	 * The tree is computed once and shared, so it must not be modified
+	 * @param root
+	 * @param strategy
+	 * @return
+	 */
+	public NetworkGraph<OLSRNode,Weight> computeTree(OLSRNode root, TreeStrategy strategy){
+		return computeTree(new TreeKey(strategy, root));
 	}	
 	public Set<OLSRNode> getGroupNodes(){
 		return graph.getNodeList();
 	}	
+	/**
+	 * Returns the nodes under the given node in the minimum spanning tree
+	 * rooted at root. The set is computed once and shared, so it must not
+	 * be modified
+	 * @param root
+	 * @param node
+	 * @return
+	 */
+	public Set<OLSRNode> getSubtree(OLSRNode root, OLSRNode node){
+		return getSubtree(root, node, TreeStrategies.MINIMUM_SPANNING_TREE);
+	}
+	/**
+	 * Returns the nodes under the given node in the tree rooted at root
+	 * computed with the strategy. The set is computed once and shared, so
+	 * it must not be modified
+	 * @param root
+	 * @param node
+	 * @param strategy
+	 * @return
+	 */
+	public Set<OLSRNode> getSubtree(OLSRNode root, OLSRNode node, TreeStrategy strategy){
+		final TreeKey key = new TreeKey(strategy, root);
+		Map<OLSRNode,Set<OLSRNode>> treeSubtrees = subtrees.computeIfAbsent(key,
+				new Function<TreeKey,Map<OLSRNode,Set<OLSRNode>>>(){
+			public Map<OLSRNode,Set<OLSRNode>> apply(TreeKey k){
+				return new ConcurrentHashMap<OLSRNode,Set<OLSRNode>>();
+			}
+		});
+		return treeSubtrees.computeIfAbsent(node, new Function<OLSRNode,Set<OLSRNode>>(){
+			public Set<OLSRNode> apply(OLSRNode n){
+				return computeTree(key).getSubtree(n);
+			}
+		});
+	}
+	/**
+	 * Returns true if both objects wrap the same graph
+	 * @param other
+	 * @return
+	 */
+	public boolean hasSameGraph(OMOLSRNetworkGraph other){
+		return other!=null && graph==other.graph;
+	}
 	/**
 	 * This method retrieves the lowest credit capacity in bytes of the
 	 * nodes in the route to the targetNode (included)
@@ -64,6 +142,13 @@ public class OMOLSRNetworkGraph implements Serializable {
 	
 	//	PRIVATE METHODS --
 	
+	private NetworkGraph<OLSRNode,Weight> computeTree(TreeKey key){
+		return trees.computeIfAbsent(key, new Function<TreeKey,NetworkGraph<OLSRNode,Weight>>(){
+			public NetworkGraph<OLSRNode,Weight> apply(TreeKey k){
+				return k.strategy.computeTree(graph, k.root, coefficients);
+			}
+		});
+	}
 	/**
 	 * Find the shortest route to the target node, retrieving the number of hops
 	 * and the lowest credit
@@ -97,14 +182,14 @@ public class OMOLSRNetworkGraph implements Serializable {
 					targetNode.getBwBytesCapacity() : localNode.getBwBytesCapacity()) : 
 				targetNode.getBwBytesCapacity();
 		long[] result = new long[] {++hops, minCreditBetweenNeighborAndTarget};		
-		//Compute the MST for localNode
-		NetworkGraph<OLSRNode, Weight> mst = graphUtils.computeMinimumSpanningTree(getNetworkGraphCopy() ,localNode);
+		//Get the MST for localNode (computed only once for each node)
+		NetworkGraph<OLSRNode, Weight> mst = computeMinimumSpanningTree(localNode);
 		long[] branchResult = null;
 		if (!mst.areNeighbours(localNode, targetNode)){
 			branchResult = new long[2];
 			for (OLSRNode scaningNode : mst.getNeighbours(localNode)){
 				//If the target node doesn't belong to this tree, exit
-				if (!mst.getSubtree(scaningNode).contains(targetNode)) continue;
+				if (!getSubtree(localNode, scaningNode).contains(targetNode)) continue;
 				// Update the lowest capacity, if necessary
 				long[] tmpNeighborBranchResult = findRecursivelyLowestBandwidthInBytesOfRouteTo(scaningNode, targetNode, hops);
 				if (branchResult[1] == 0){
@@ -120,4 +205,27 @@ public class OMOLSRNetworkGraph implements Serializable {
 		}
 		return result;
 	}
-}
\ No newline at end of file
+	
+	//	INNER CLASSES --
+	
+	/**
+	 * Key of a tree: the strategy and the root
+	 */
+	private static class TreeKey {
+		final TreeStrategy strategy;
+		final OLSRNode root;
+		
+		TreeKey(TreeStrategy strategy, OLSRNode root){
+			this.strategy = strategy;
+			this.root = root;
+		}
+		public boolean equals(Object obj){
+			if (!(obj instanceof TreeKey)) return false;
+			TreeKey other = (TreeKey)obj;
+			return strategy==other.strategy && root.equals(other.root);
+		}
+		public int hashCode(){
+			return 31*strategy.hashCode()+root.hashCode();
+		}
+	}
+}
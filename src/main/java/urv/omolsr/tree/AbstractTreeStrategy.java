@@ -0,0 +1,27 @@
+package urv.omolsr.tree;
+
+/**
+ * Base of the tree strategies, which are identified by the name used to
+ * select them (see TreeStrategies)
+ */
+public abstract class AbstractTreeStrategy implements TreeStrategy {
+
+	//	CLASS FIELDS --
+
+	private final String name;
+
+	//	CONSTRUCTORS --
+
+	protected AbstractTreeStrategy(String name) {
+		this.name = name;
+	}
+
+	//	OVERRIDDEN METHODS --
+
+	public String getName(){
+		return name;
+	}
+	public String toString(){
+		return name;
+	}
+}
@@ -0,0 +1,31 @@
+package urv.omolsr.tree;
+
+import java.util.Map;
+
+import urv.olsr.data.OLSRNode;
+import urv.omolsr.data.OMOLSRNetworkGraph;
+import urv.util.graph.NetworkGraph;
+import urv.util.graph.Weight;
+
+/**
+ * Minimum spanning tree of the group (the lowest total number of hops of the
+ * links of the tree), which is shared by all the sources, except for the
+ * edges of equal weight. It needs the fewest transmissions per message, but
+ * the path from the source to a member may be much longer than the route
+ * between them
+ */
+public class MinimumSpanningTreeStrategy extends AbstractTreeStrategy {
+
+	//	CONSTRUCTORS --
+
+	public MinimumSpanningTreeStrategy() {
+		super("mst");
+	}
+
+	//	OVERRIDDEN METHODS --
+
+	public NetworkGraph<OLSRNode,Weight> computeTree(NetworkGraph<OLSRNode,Weight> graph, OLSRNode root,
+			Map<OLSRNode,Float> coefficients){
+		return OMOLSRNetworkGraph.graphUtils.computeMinimumSpanningTree(graph, root);
+	}
+}
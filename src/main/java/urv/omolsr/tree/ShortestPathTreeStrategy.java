@@ -0,0 +1,30 @@
+package urv.omolsr.tree;
+
+import java.util.Map;
+
+import urv.olsr.data.OLSRNode;
+import urv.omolsr.data.OMOLSRNetworkGraph;
+import urv.util.graph.NetworkGraph;
+import urv.util.graph.Weight;
+
+/**
+ * Source-specific shortest path tree: every member receives the messages of
+ * the source along a path with the fewest hops through the group, so the
+ * delivery latency is the lowest at the cost of more transmissions than the
+ * minimum spanning tree
+ */
+public class ShortestPathTreeStrategy extends AbstractTreeStrategy {
+
+	//	CONSTRUCTORS --
+
+	public ShortestPathTreeStrategy() {
+		super("spt");
+	}
+
+	//	OVERRIDDEN METHODS --
+
+	public NetworkGraph<OLSRNode,Weight> computeTree(NetworkGraph<OLSRNode,Weight> graph, OLSRNode root,
+			Map<OLSRNode,Float> coefficients){
+		return OMOLSRNetworkGraph.graphUtils.computeShortestPathTree(graph, root);
+	}
+}
@@ -0,0 +1,51 @@
+package urv.omolsr.tree;
+
+/**
+ * Available tree strategies, selected by name (tree_strategy property of
+ * the OMOLSR protocol of each group)
+ */
+public class TreeStrategies {
+
+	//	CONSTANTS --
+
+	public static final TreeStrategy MINIMUM_SPANNING_TREE = new MinimumSpanningTreeStrategy();
+	public static final TreeStrategy SHORTEST_PATH_TREE = new ShortestPathTreeStrategy();
+	public static final TreeStrategy WIDEST_PATH_TREE = new WidestPathTreeStrategy();
+	/**
+	 * Strategy used when none is selected
+	 */
+	public static final TreeStrategy DEFAULT = MINIMUM_SPANNING_TREE;
+
+	private static final TreeStrategy[] STRATEGIES =
+		{MINIMUM_SPANNING_TREE, SHORTEST_PATH_TREE, WIDEST_PATH_TREE};
+
+	//	CONSTRUCTORS --
+
+	private TreeStrategies() {}
+
+	//	STATIC METHODS --
+
+	/**
+	 * Returns the strategy with the given name (case is ignored)
+	 * @param name mst, spt or widest
+	 * @throws IllegalArgumentException if there is no strategy with that name
+	 */
+	public static TreeStrategy forName(String name){
+		for (TreeStrategy strategy:STRATEGIES){
+			if (strategy.getName().equalsIgnoreCase(name.trim())) return strategy;
+		}
+		throw new IllegalArgumentException("Unknown tree strategy: "+name+
+				" (valid strategies: "+names()+")");
+	}
+	/**
+	 * Returns the names of the strategies, separated by commas
+	 */
+	public static String names(){
+		StringBuilder names = new StringBuilder();
+		for (TreeStrategy strategy:STRATEGIES){
+			if (names.length()>0) names.append(",");
+			names.append(strategy.getName());
+		}
+		return names.toString();
+	}
+}
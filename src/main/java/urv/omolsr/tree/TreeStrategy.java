@@ -0,0 +1,37 @@
+package urv.omolsr.tree;
+
+import java.util.Map;
+
+import urv.olsr.data.OLSRNode;
+import urv.util.graph.NetworkGraph;
+import urv.util.graph.Weight;
+
+/**
+ * Computes the tree over the contracted graph of a multicast group along
+ * which the messages of a node are sent to the rest of the group. Every
+ * node computes the tree rooted at itself: the source assigns to each of its
+ * children in the tree the nodes of its subtree, and each forwarding node
+ * splits them again with its own tree.
+ * 
+ * The weight of an edge of the contracted graph is the number of hops between
+ * both members. The implementations must not keep state between computations,
+ * since a single instance is shared by all the groups
+ */
+public interface TreeStrategy {
+
+	/**
+	 * Computes the tree of the graph rooted at the given node. The weights
+	 * of the edges of the returned tree are not meaningful
+	 * @param graph The contracted graph of the group
+	 * @param root
+	 * @param coefficients bandwidth coefficient of each node of the graph, read
+	 * when the graph was built, which the strategy may ignore
+	 * @return the computed spanning tree
+	 */
+	public NetworkGraph<OLSRNode,Weight> computeTree(NetworkGraph<OLSRNode,Weight> graph, OLSRNode root,
+			Map<OLSRNode,Float> coefficients);
+	/**
+	 * Returns the name used to select the strategy (see TreeStrategies)
+	 */
+	public String getName();
+}
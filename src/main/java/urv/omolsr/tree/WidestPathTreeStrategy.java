@@ -0,0 +1,36 @@
+package urv.omolsr.tree;
+
+import java.util.Map;
+
+import urv.olsr.data.OLSRNode;
+import urv.omolsr.data.OMOLSRNetworkGraph;
+import urv.util.graph.NetworkGraph;
+import urv.util.graph.Weight;
+
+/**
+ * Source-specific widest path tree: every member receives the messages of the
+ * source along the path whose most loaded forwarding member is the least loaded
+ * one (a member linked to the source is always reached directly). The
+ * load of a member is its bandwidth coefficient, which grows as its capacity
+ * decreases (see OLSR.updateBandwidth). Among the paths with the same bottleneck,
+ * the one with the fewest hops is chosen, so without bandwidth information (all
+ * the coefficients are 0) it is a shortest path tree.
+ * 
+ * The non-member nodes between two members are not in the contracted graph,
+ * so only the coefficients of the members are taken into account
+ */
+public class WidestPathTreeStrategy extends AbstractTreeStrategy {
+
+	//	CONSTRUCTORS --
+
+	public WidestPathTreeStrategy() {
+		super("widest");
+	}
+
+	//	OVERRIDDEN METHODS --
+
+	public NetworkGraph<OLSRNode,Weight> computeTree(NetworkGraph<OLSRNode,Weight> graph, OLSRNode root,
+			Map<OLSRNode,Float> coefficients){
+		return OMOLSRNetworkGraph.graphUtils.computeWidestPathTree(graph, root, coefficients);
+	}
+}
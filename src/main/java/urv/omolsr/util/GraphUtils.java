@@ -1,24 +1,41 @@
 package urv.omolsr.util;
 
-import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import urv.util.graph.GraphException;
+import urv.util.graph.Edge;
+import urv.util.graph.IndexedMinHeap;
 import urv.util.graph.NetworkGraph;
 import urv.util.graph.Weight;
 
 /**
  * This class is used to compute the minimum spanning tree
  * for a network graph, that represents a multicast group. We
- * find this tree using the Prim's Algorithm.
+ * find this tree using the Prim's Algorithm. The shortest path
+ * tree and the widest path tree of a source are grown in the
+ * same way, with Dijkstra's algorithm.
+ * 
+ * The nodes of the graph are mapped to consecutive ids and the
+ * edges to an adjacency list with their weights, so the algorithm
+ * runs in O(E log V) with an indexed binary heap. All the state
+ * of a computation is local, so several trees can be computed
+ * at the same time with the same instance
  * 
  * @author Gerard Paris Aixala
  *
  */
 public class GraphUtils<N,W> {
 
+	//	CONSTANTS --
+	
+	// Priority of the nodes reached through an edge
+	private static final int PRIM = 0;
+	private static final int DIJKSTRA = 1;
+	private static final int MINIMAX = 2;
+	
 	//	CLASS FIELDS --
 	
 	final Weight dummyWeight = new Weight();
@@ -31,7 +48,7 @@ public class GraphUtils<N,W> {
 	 * @param source The source node to compute the tree from
 	 * @return the computed spanning tree
 	 */
-	public synchronized NetworkGraph<N,W> computeMinimumSpanningTree(NetworkGraph<N, W> graph, N source){
+	public NetworkGraph<N,W> computeMinimumSpanningTree(NetworkGraph<N, W> graph, N source){
 		/* 
 		 * Prim's Algorithm: http://en.wikipedia.org/wiki/Prim's_algorithm
 		 * 
@@ -42,56 +59,136 @@ public class GraphUtils<N,W> {
 	          o Add v to V', add (u,v) to E'
 	     * Output: G(V',E') is the minimal spanning tree
 		 */
-		NetworkGraph<N,W> mst = new NetworkGraph<N, W>();
-		
-		Hashtable<N,Integer> distances = new Hashtable<N,Integer>();
-		Hashtable<N,Boolean> visited  = new Hashtable<N,Boolean>();
-		
-		String graphStr = graph.toString();
-		// Initialize distances & visited
+		return computeTree(graph, source, PRIM, null);
+	}
+	/**
+	 * Computes the tree of the shortest paths (lowest sum of weights) from the
+	 * source node to every node of the graph, with Dijkstra's algorithm
+	 * @param graph A network graph
+	 * @param source The source node to compute the tree from
+	 * @return the computed spanning tree
+	 */
+	public NetworkGraph<N,W> computeShortestPathTree(NetworkGraph<N, W> graph, N source){
+		return computeTree(graph, source, DIJKSTRA, null);
+	}
+	/**
+	 * Computes the tree of the paths from the source node to every node of the
+	 * graph whose highest cost of the intermediate nodes is the lowest, i.e. the
+	 * widest paths when the cost of a node is the inverse of its capacity (the
+	 * source and the target are in every path, so their costs are not counted).
+	 * Among the paths with the same highest cost, the one with the lowest sum
+	 * of weights is preferred
+	 * @param graph A network graph
+	 * @param source The source node to compute the tree from
+	 * @param nodeCosts cost of each node (nodes without cost count as 0)
+	 * @return the computed spanning tree
+	 */
+	public NetworkGraph<N,W> computeWidestPathTree(NetworkGraph<N, W> graph, N source, Map<N,Float> nodeCosts){
+		return computeTree(graph, source, MINIMAX, nodeCosts);
+	}
+	
+	//	PRIVATE METHODS --
+	
+	/**
+	 * Grows a tree from the source node, adding each time the node with the lowest
+	 * priority, linked to the node from which that priority was obtained. The
+	 * priority of a node reached through an edge is the weight of the edge (Prim),
+	 * the distance to the source (Dijkstra) or the highest cost of the nodes
+	 * between it and the source, with ties broken by the distance (minimax)
+	 */
+	private NetworkGraph<N,W> computeTree(NetworkGraph<N, W> graph, N source, int mode, Map<N,Float> nodeCosts){
 		Set<N> nodeList = graph.getNodeList();
+		// Map the nodes to ids
+		ArrayList<N> nodes = new ArrayList<N>(nodeList.size()+1);
+		HashMap<N,Integer> ids = new HashMap<N,Integer>(nodeList.size()*4/3+2);
 		for (N n : nodeList){
-			graphStr+="\nIterated on node "+n;
-			distances.put(n, new Integer(Integer.MAX_VALUE));
-			visited.put(n, new Boolean(Boolean.FALSE));
-		}		
-		// Source node distance
-		distances.put(source, new Integer(0));
-
-		try {			
-			for (int i=0;i<distances.size();i++){				
-				// get closest vertex to visit from the visited nodes
-				final N next = minVertex(distances, visited);
-				visited.put(next, new Boolean(true));
-				
-				final Set<N> neighbors = getNonVisitedNeighbors(graph, next,visited);
-				for(N nj : neighbors){
-					// Get weight between new selected node and all neighbours
-					int d = 0;
-					if (graph.getEdgeBetween(next, nj)!=null){
-						d = graph.getEdgeBetween(next, nj).getWeight().getValue().intValue();
-					} else {
-						d = graph.getEdgeBetween(nj, next).getWeight().getValue().intValue();
-					}					
-					// Update distances from neighbours to new selected node
-					if (distances.get(nj).intValue() > d) {
-						distances.put(nj, d);
-						mst.removeEdgesWithTarget(nj);
-						mst.addEdge(next, nj, dummyWeight);					
-					}		
-				}					
+			ids.put(n, nodes.size());
+			nodes.add(n);
+		}
+		if (!ids.containsKey(source)){
+			ids.put(source, nodes.size());
+			nodes.add(source);
+		}
+		// Adjacency list (edges are taken as undirected)
+		int[][] adjacency = new int[nodes.size()][];
+		float[][] weights = new float[nodes.size()][];
+		int[] degree = new int[nodes.size()];
+		List<Edge<?>> edges = new ArrayList<Edge<?>>();
+		for (Edge<?> e : graph.getEdges()){
+			edges.add(e);
+		}
+		for (Edge<?> e : edges){
+			degree[ids.get(e.getSource())]++;
+			degree[ids.get(e.getTarget())]++;
+		}
+		for (int i=0;i<nodes.size();i++){
+			adjacency[i] = new int[degree[i]];
+			weights[i] = new float[degree[i]];
+			degree[i] = 0;
+		}
+		for (Edge<?> e : edges){
+			int u = ids.get(e.getSource());
+			int v = ids.get(e.getTarget());
+			float w = getWeight(e);
+			adjacency[u][degree[u]] = v;
+			weights[u][degree[u]++] = w;
+			adjacency[v][degree[v]] = u;
+			weights[v][degree[v]++] = w;
+		}
+		float[] costs = new float[nodes.size()];
+		if (nodeCosts!=null){
+			for (int i=0;i<nodes.size();i++){
+				Float cost = nodeCosts.get(nodes.get(i));
+				costs[i] = cost==null ? 0 : cost.floatValue();
+			}
+		}
+		// Nodes are added to the tree in order, linked to their parent
+		int[] parents = new int[nodes.size()];
+		// Distance from the source through the parent of each node
+		double[] distances = new double[nodes.size()];
+		boolean[] visited = new boolean[nodes.size()];
+		int[] order = new int[nodes.size()];
+		int visitedCount = 0;
+		IndexedMinHeap heap = new IndexedMinHeap(nodes.size());
+		int sourceId = ids.get(source);
+		parents[sourceId] = -1;
+		heap.decreasePriority(sourceId, 0);
+		while (!heap.isEmpty()){
+			// get closest vertex to visit from the visited nodes
+			int next = heap.poll();
+			visited[next] = true;
+			order[visitedCount++] = next;
+			// Update priorities of the neighbours through the new selected node
+			for (int k=0;k<adjacency[next].length;k++){
+				int nj = adjacency[next][k];
+				if (visited[nj]) continue;
+				double distance = distances[next]+weights[next][k];
+				double priority;
+				switch (mode){
+					case DIJKSTRA: priority = distance; break;
+					case MINIMAX: priority = next==sourceId ? 0 : Math.max(heap.getPriority(next), costs[next]); break;
+					default: priority = weights[next][k];
+				}
+				boolean tie = mode==MINIMAX && heap.contains(nj) && priority==heap.getPriority(nj)
+						&& distance<distances[nj];
+				if (heap.decreasePriority(nj, priority) || tie){
+					parents[nj] = next;
+					distances[nj] = distance;
+				}
 			}
-		} catch (Exception e) {
-			System.err.println("This error has already implemented a solution for this error");
-			e.printStackTrace();			
+		}
+		if (visitedCount<nodes.size()){
+			//When this is happenning, we are working with a non connected graph
 			//return an empty graph or a graph with all nodes at 1-hop 
 			return getMstAfterError(source,nodeList);
 		}
-		return mst;
+		NetworkGraph<N,W> tree = new NetworkGraph<N, W>();
+		for (int i=1;i<visitedCount;i++){
+			tree.addEdge(nodes.get(parents[order[i]]), nodes.get(order[i]), dummyWeight);
+		}
+		return tree;
 	}
 	
-	//	PRIVATE METHODS --
-	
 	/**
 	 * Returns an graph when an error has ocurred in MST computation.
 	 * Tipically will return a graph with all nodes located at one hop
@@ -110,48 +207,11 @@ public class GraphUtils<N,W> {
 		return mst;
 	}
 	/**
-	 * Returns a list of non-visited neighbors of the specified node
-	 * @param graph The reference graph
-	 * @param node 
-	 * @param visited
-	 * @return
-	 */
-	private synchronized Set<N> getNonVisitedNeighbors(NetworkGraph<N, W> graph, N node, Hashtable<N, Boolean> visited) {
-		Set<N> neighbors = (HashSet<N>) graph.getLinkedNodes(node);		
-		// Remove visited neighbors
-		Iterator<N> it = neighbors.iterator();
-		while(it.hasNext()){
-			N n = it.next();
-			if (((Boolean)visited.get(n)).booleanValue()==true){
-				it.remove();
-			}
-		}
-		return neighbors;
-	}	
-	/**
-	 * Returns the non-visited node with the minimum distance in the table.
-	 * @param distances
-	 * @param visitedNodes
-	 * @return 
-	 * @throws Exception 
+	 * Returns the weight of the edge. Edges without weight count as 1, the
+	 * weight given to them when the contracted graph is computed
 	 */
-	private synchronized N minVertex(Hashtable<N,Integer> distances, Hashtable<N,Boolean> visitedNodes) throws GraphException {
-		int minDistance = Integer.MAX_VALUE;
-		N minNode = null;
-		
-		for (N node : distances.keySet()){
-			boolean visited = ((Boolean)visitedNodes.get(node)).booleanValue();
-			int distance = ((Integer)distances.get(node)).intValue();
-			if (visited==false && distance < minDistance){
-				minNode = node;
-				minDistance = distance;
-			}
-		}
-		if (minNode==null){
-			//When this is happenning, we are working with a non connected graph
-			//Raise exception and terminate computation
-			throw new GraphException("Graph error exception. We are working with a non connected graph.");
-		}
-		return minNode;
-	}	
-}
\ No newline at end of file
+	private float getWeight(Edge<?> e){
+		Weight weight = e.getWeight();
+		return (weight==null || !weight.isSet()) ? 1.0f : weight.getValue().floatValue();
+	}
+}
@@ -34,6 +34,9 @@ public class Edge<N> implements Serializable {
 		Edge<N> e = (Edge<N>)obj;		
 		return this.source.equals(e.source) && this.target.equals(e.target);
 	}	
+	public int hashCode(){
+		return 31*source.hashCode()+target.hashCode();
+	}
 	public String toString(){
 		return "src-dst: "+source+"-"+target+" W:"+weight;
 	}
@@ -0,0 +1,111 @@
+package urv.util.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Computes the contracted graph of a set of members: a graph whose nodes
+ * are the members and in which two members are linked if they are
+ * connected in the original graph through a path whose intermediate nodes
+ * are not members. The weight of the link is the number of hops of the
+ * shortest of such paths. The edges of the original graph are taken as
+ * undirected and with weight 1
+ *
+ * This is the graph obtained by removing the non-member nodes one by one
+ * and linking the neighbors of each removed node, but it is computed with
+ * a BFS from each member that only goes through non-member nodes, that is,
+ * in O(members x edges)
+ */
+public class GraphContraction {
+
+	//	CONSTRUCTORS --
+
+	private GraphContraction() {}
+
+	//	STATIC METHODS --
+
+	/**
+	 * Computes the contracted graph of the given members. The members which
+	 * are not in the graph are ignored. Each link is added as two directed
+	 * edges, each one with its own weight
+	 * @param graph the original graph
+	 * @param members the nodes which are kept in the contracted graph
+	 * @return a new graph containing only members
+	 */
+	public static <N,W> NetworkGraph<N,W> contract(NetworkGraph<N,W> graph, Set<N> members){
+		// Map the nodes to ids and build an undirected adjacency list
+		List<N> nodes = new ArrayList<N>(graph.getNodeList());
+		HashMap<N,Integer> ids = new HashMap<N,Integer>(nodes.size()*4/3+1);
+		for (N node:nodes){
+			ids.put(node, ids.size());
+		}
+		//The edges are copied once, so both passes see the same ones
+		List<Edge<?>> edges = new ArrayList<Edge<?>>();
+		for (Edge<?> e:graph.getEdges()){
+			edges.add(e);
+		}
+		int[] degree = new int[nodes.size()];
+		for (Edge<?> e:edges){
+			degree[ids.get(e.getSource())]++;
+			degree[ids.get(e.getTarget())]++;
+		}
+		int[][] adjacency = new int[nodes.size()][];
+		for (int i=0;i<nodes.size();i++){
+			adjacency[i] = new int[degree[i]];
+			degree[i] = 0;
+		}
+		for (Edge<?> e:edges){
+			int u = ids.get(e.getSource());
+			int v = ids.get(e.getTarget());
+			adjacency[u][degree[u]++] = v;
+			adjacency[v][degree[v]++] = u;
+		}
+		boolean[] isMember = new boolean[nodes.size()];
+		for (N member:members){
+			Integer id = ids.get(member);
+			if (id!=null) isMember[id] = true;
+		}
+
+		NetworkGraph<N,W> contracted = new NetworkGraph<N,W>();
+		int[] distances = new int[nodes.size()];
+		int[] visitedBy = new int[nodes.size()];
+		int[] queue = new int[nodes.size()];
+		Arrays.fill(visitedBy, -1);
+		for (int source=0;source<nodes.size();source++){
+			if (!isMember[source]) continue;
+			contracted.addNode(nodes.get(source));
+			// BFS from the member, which only expands non-member nodes
+			int head = 0, tail = 0;
+			queue[tail++] = source;
+			visitedBy[source] = source;
+			distances[source] = 0;
+			while (head<tail){
+				int node = queue[head++];
+				for (int next:adjacency[node]){
+					if (visitedBy[next]==source) continue;
+					visitedBy[next] = source;
+					distances[next] = distances[node]+1;
+					if (isMember[next]){
+						// Each link is added once, from the member with the lowest id
+						if (next>source){
+							contracted.addEdge(nodes.get(source), nodes.get(next), createWeight(distances[next]));
+							contracted.addEdge(nodes.get(next), nodes.get(source), createWeight(distances[next]));
+						}
+					} else {
+						queue[tail++] = next;
+					}
+				}
+			}
+		}
+		return contracted;
+	}
+
+	//	PRIVATE METHODS --
+
+	private static Weight createWeight(int hops){
+		return new Weight().setValue(Float.valueOf(hops));
+	}
+}
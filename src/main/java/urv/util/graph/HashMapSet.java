@@ -1,7 +1,14 @@
 package urv.util.graph;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * This class offers methods to store elements in 
@@ -80,4 +87,115 @@ public class HashMapSet<K,V> extends HashMap<K,HashSet<V>>{
 			this.put(key,l);
 		}
 	}
+	
+	//	STATIC METHODS --
+	
+	/**
+	 * Returns a copy of the given map which can not be modified, nor can
+	 * its sets, so it can be shared between different users
+	 * @param map
+	 * @return
+	 */
+	public static <K,V> HashMapSet<K,V> unmodifiableCopy(Map<K,? extends Set<V>> map){
+		return new UnmodifiableHashMapSet<K,V>(map);
+	}
+	
+	//	PRIVATE CLASSES --
+	
+	/**
+	 * HashMapSet whose mutators throw an UnsupportedOperationException
+	 */
+	private static class UnmodifiableHashMapSet<K,V> extends HashMapSet<K,V>{
+		private static final long serialVersionUID=-3161470745826946510L;
+		
+		UnmodifiableHashMapSet(Map<K,? extends Set<V>> map){
+			for (Map.Entry<K,? extends Set<V>> entry:map.entrySet()){
+				super.put(entry.getKey(), new UnmodifiableHashSet<V>(entry.getValue()));
+			}
+		}
+		public void clear(){
+			throw new UnsupportedOperationException();
+		}
+		public HashSet<V> compute(K key, BiFunction<? super K,? super HashSet<V>,? extends HashSet<V>> function){
+			throw new UnsupportedOperationException();
+		}
+		public HashSet<V> computeIfAbsent(K key, Function<? super K,? extends HashSet<V>> function){
+			throw new UnsupportedOperationException();
+		}
+		public HashSet<V> computeIfPresent(K key, BiFunction<? super K,? super HashSet<V>,? extends HashSet<V>> function){
+			throw new UnsupportedOperationException();
+		}
+		public Set<Map.Entry<K,HashSet<V>>> entrySet(){
+			return Collections.unmodifiableSet(super.entrySet());
+		}
+		public Set<K> keySet(){
+			return Collections.unmodifiableSet(super.keySet());
+		}
+		public HashSet<V> merge(K key, HashSet<V> value, BiFunction<? super HashSet<V>,? super HashSet<V>,? extends HashSet<V>> function){
+			throw new UnsupportedOperationException();
+		}
+		public HashSet<V> put(K key, HashSet<V> value){
+			throw new UnsupportedOperationException();
+		}
+		public void putAll(Map<? extends K,? extends HashSet<V>> map){
+			throw new UnsupportedOperationException();
+		}
+		public HashSet<V> putIfAbsent(K key, HashSet<V> value){
+			throw new UnsupportedOperationException();
+		}
+		public HashSet<V> remove(Object key){
+			throw new UnsupportedOperationException();
+		}
+		public boolean remove(Object key, Object value){
+			throw new UnsupportedOperationException();
+		}
+		public HashSet<V> replace(K key, HashSet<V> value){
+			throw new UnsupportedOperationException();
+		}
+		public boolean replace(K key, HashSet<V> oldValue, HashSet<V> newValue){
+			throw new UnsupportedOperationException();
+		}
+		public void replaceAll(BiFunction<? super K,? super HashSet<V>,? extends HashSet<V>> function){
+			throw new UnsupportedOperationException();
+		}
+		public Collection<HashSet<V>> values(){
+			return Collections.unmodifiableCollection(super.values());
+		}
+	}
+	/**
+	 * HashSet whose mutators throw an UnsupportedOperationException
+	 */
+	private static class UnmodifiableHashSet<V> extends HashSet<V>{
+		private static final long serialVersionUID=6243826361583370297L;
+		
+		UnmodifiableHashSet(Set<V> set){
+			super(Math.max((int)(set.size()/.75f)+1, 16));
+			for (V value:set){
+				super.add(value);
+			}
+		}
+		public boolean add(V value){
+			throw new UnsupportedOperationException();
+		}
+		public void clear(){
+			throw new UnsupportedOperationException();
+		}
+		public Iterator<V> iterator(){
+			final Iterator<V> it = super.iterator();
+			return new Iterator<V>(){
+				public boolean hasNext(){
+					return it.hasNext();
+				}
+				public V next(){
+					return it.next();
+				}
+				public void remove(){
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+		public boolean remove(Object value){
+			throw new UnsupportedOperationException();
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+package urv.util.graph;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of integer ids (0..capacity-1) ordered by a priority,
+ * which keeps the position of each id in the heap so that the priority
+ * of an id already in the heap can be decreased in O(log n). This is
+ * the priority queue needed by Prim's and Dijkstra's algorithms
+ *
+ * This class is not thread safe
+ */
+public class IndexedMinHeap {
+
+	//	CLASS FIELDS --
+
+	private int[] heap;
+	// Position of each id in the heap, or -1 if it is not in the heap
+	private int[] positions;
+	private double[] priorities;
+	private int size = 0;
+
+	//	CONSTRUCTORS --
+
+	/**
+	 * @param capacity number of ids (ids go from 0 to capacity-1)
+	 */
+	public IndexedMinHeap(int capacity) {
+		heap = new int[capacity];
+		positions = new int[capacity];
+		priorities = new double[capacity];
+		Arrays.fill(positions, -1);
+	}
+
+	//	PUBLIC METHODS --
+
+	public boolean contains(int id){
+		return positions[id]>=0;
+	}
+	/**
+	 * Inserts the id with the given priority or, if it is already in the
+	 * heap with a higher priority, decreases its priority
+	 * @param id
+	 * @param priority
+	 * @return true if the id has been inserted or its priority decreased
+	 */
+	public boolean decreasePriority(int id, double priority){
+		if (positions[id]<0){
+			heap[size] = id;
+			positions[id] = size;
+			priorities[id] = priority;
+			siftUp(size++);
+			return true;
+		}
+		if (priority<priorities[id]){
+			priorities[id] = priority;
+			siftUp(positions[id]);
+			return true;
+		}
+		return false;
+	}
+	public double getPriority(int id){
+		return priorities[id];
+	}
+	public boolean isEmpty(){
+		return size==0;
+	}
+	/**
+	 * Removes the id with the lowest priority from the heap
+	 * @return the removed id
+	 */
+	public int poll(){
+		int min = heap[0];
+		positions[min] = -1;
+		size--;
+		if (size>0){
+			heap[0] = heap[size];
+			positions[heap[0]] = 0;
+			siftDown(0);
+		}
+		return min;
+	}
+	public int size(){
+		return size;
+	}
+
+	//	PRIVATE METHODS --
+
+	private void siftDown(int pos){
+		int id = heap[pos];
+		while (true){
+			int child = 2*pos+1;
+			if (child>=size) break;
+			if (child+1<size && priorities[heap[child+1]]<priorities[heap[child]]) child++;
+			if (priorities[heap[child]]>=priorities[id]) break;
+			heap[pos] = heap[child];
+			positions[heap[pos]] = pos;
+			pos = child;
+		}
+		heap[pos] = id;
+		positions[id] = pos;
+	}
+	private void siftUp(int pos){
+		int id = heap[pos];
+		while (pos>0){
+			int parent = (pos-1)/2;
+			if (priorities[heap[parent]]<=priorities[id]) break;
+			heap[pos] = heap[parent];
+			positions[heap[pos]] = pos;
+			pos = parent;
+		}
+		heap[pos] = id;
+		positions[id] = pos;
+	}
+}
@@ -3,11 +3,16 @@ package urv.util.graph;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import urv.olsr.data.BandwidthUpdatable;
@@ -17,6 +22,15 @@ import urv.olsr.data.OLSRNode;
  * This class represents file network in edge-list terms
  * A node list is also stored, necessary for mapping from file to net ids 
  * 
+ * The edges are stored in two adjacency maps, indexed by node and then by
+ * the other end of the edge: one with the outgoing edges of each node and one
+ * with the incoming edges. There is at most one edge from a node to another one,
+ * so looking up, adding or removing an edge costs O(1).
+ * 
+ * A clone shares the adjacency of each node with the original graph. The
+ * adjacency of a node is copied by the first graph that modifies it, so cloning
+ * costs O(nodes) instead of O(edges)
+ * 
  * @author Marcel Arrufat
  *
  */
@@ -24,31 +38,35 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 
 	//	CLASS FIELDS --
 	
-	private LinkedList<Edge> edges = null;
-	private Set<N> nodes = null;
-	//Map which contains a list of nodes (neighbours) for each node in the network
-	//This is an static approach, since we cannot remove edges from the graph, and hence we
-	//cannot remove neighbours
-	private HashMapSet<N,N> neighbourList = new HashMapSet<N,N>();
+	//Outgoing and incoming edges of each node, indexed by the other end of the edge.
+	//Every node of the graph has an entry in both maps
+	private LinkedHashMap<N,Adjacency<N>> outgoing = new LinkedHashMap<N,Adjacency<N>>();
+	private LinkedHashMap<N,Adjacency<N>> incoming = new LinkedHashMap<N,Adjacency<N>>();
+	private int edgeCount = 0;
+	//Owner of the adjacencies which can be modified in place (those not shared with a clone)
+	private LockObject owner = new LockObject();
+	//List of edges copied by getEdges(), discarded when the graph changes
+	private transient volatile List<Edge> edgeList = null;
 	private LockObject lock = new LockObject();
 	
 	//	CONSTRUCTORS --
 	
 	public NetworkGraph(){	
-		nodes = new HashSet<N>();
-		edges = new LinkedList<Edge>();
 	}
 	
 	//	OVERRIDDEN METHODS --
 	
 	@Override
 	public Object clone(){
-		NetworkGraph newGraph = new NetworkGraph();	
+		NetworkGraph<N,W> newGraph = new NetworkGraph<N,W>();	
 		synchronized (lock) {	
-			for (Edge e:this.edges){
-				newGraph.addEdge(e.getSource(),e.getTarget(),e.getWeight());
-				// Nodes and neighbors automatically added by addEdge
-			}	
+			newGraph.outgoing = new LinkedHashMap<N,Adjacency<N>>(outgoing);
+			newGraph.incoming = new LinkedHashMap<N,Adjacency<N>>(incoming);
+			newGraph.edgeCount = edgeCount;
+			newGraph.edgeList = edgeList;
+			//The adjacencies are now shared with the clone, so they
+			//must be copied before being modified by this graph
+			owner = new LockObject();
 		}
 		return newGraph;
 	}	
@@ -60,17 +78,17 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 		StringBuffer buffer = new StringBuffer();
 		synchronized (lock) {
 		buffer.append("Nodes:"+"\n");
-			for (N n:nodes){
+			for (N n:outgoing.keySet()){
 				buffer.append("\t"+n.toString()+"\n");
 			}	
 			buffer.append("Edges:"+"\n");
-			for (Edge e: edges){
+			for (Edge e: getEdgeSnapshot()){
 				buffer.append("\t"+e.toString()+"\n");
 			}			
 			buffer.append("Neighbours:"+"\n");
-			for (N n:neighbourList.keySet()){
-				buffer.append("\t"+n.toString()+": ");
-				for (N noN:neighbourList.getSet(n)){
+			for (Map.Entry<N,Adjacency<N>> entry:outgoing.entrySet()){
+				buffer.append("\t"+entry.getKey().toString()+": ");
+				for (N noN:entry.getValue().keySet()){
 					buffer.append(noN+" ");
 				}
 				buffer.append("\n");
@@ -78,44 +96,40 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 			return buffer.toString();
 		}
 	}	
+	/**
+	 * Updates the bandwidth of the node. The graph keeps a single instance
+	 * of each node (the one used by its edges), which is replaced by the
+	 * given node together with the edges of the node
+	 */
 	@Override
 	public void updateBwOf(OLSRNode node) {
 		synchronized (lock) {
-			for (OLSRNode currentNode : (Set<OLSRNode>) getNodeList()){
-				if (currentNode.equals(node)){
-					currentNode.updateBandwidth(node);
-					break;
-				}
-			}	
-			for (Edge<OLSRNode> edge : getEdges()){
-				if (edge.getSource().equals(node)) edge.getSource().updateBandwidth(node);
-				if (edge.getTarget().equals(node)) edge.getTarget().updateBandwidth(node);
+			Adjacency<N> adjacency = outgoing.get(node);
+			if (adjacency!=null && adjacency.node instanceof OLSRNode){
+				replaceNode(adjacency.node, (N)node);
 			}
-			for (OLSRNode currentNode : (Set<OLSRNode>) neighbourList.keySet()){
-				if (currentNode.equals(node)) currentNode.updateBandwidth(node);
-				for (OLSRNode noN : (HashSet<OLSRNode>) neighbourList.getSet((N) node)){
-					if (noN.equals(node)) noN.updateBandwidth(node);
-				}
-			}	
 		}		
 	}
 	
 	//	PUBLIC METHODS --
 	
 	/**
-	 * Add a new (directed) Edge to the network structure
+	 * Add a new (directed) Edge to the network structure. If there was already
+	 * an edge from source to target, it is replaced
 	 * @param source
 	 * @param target
 	 * @param weight
 	 */
 	public void addEdge(N source, N target, Weight weight){
 		synchronized (lock) {
-			edges.add(new Edge<N>(source,target,weight));			
-			neighbourList.addToSet(source,target);
-			if (!nodes.contains(source))
-				nodes.add(source);
-			if (!nodes.contains(target))
-				nodes.add(target);
+			source = addNodeInternal(source);
+			target = addNodeInternal(target);
+			Edge<N> edge = new Edge<N>(source,target,weight);
+			if (getModifiable(outgoing,source).put(target,edge)==null){
+				edgeCount++;
+			}
+			getModifiable(incoming,target).put(source,edge);
+			edgeList = null;
 		}
 	}	
 	/**
@@ -125,10 +139,7 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	 */
 	public void addNode(N node){
 		synchronized (lock) {
-			if (!nodes.contains(node))
-				nodes.add(node);
-			if (!neighbourList.containsKey(node))
-				neighbourList.putSet(node,new HashSet<N>());
+			addNodeInternal(node);
 		}		
 	}	
 	/**
@@ -139,8 +150,7 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	 */
 	public boolean areLinked(N node1, N node2){
 		synchronized (lock) {
-			return neighbourList.existsInList(node1,node2) ||
-				neighbourList.existsInList(node2,node1);
+			return areNeighbours(node1,node2) || areNeighbours(node2,node1);
 		}		
 	}
 	/**
@@ -151,11 +161,12 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	 */
 	public boolean areNeighbours(N node1, N node2) {		
 		synchronized (lock) {
-			return neighbourList.existsInList(node1,node2);
+			Adjacency<N> adjacency = outgoing.get(node1);
+			return adjacency!=null && adjacency.containsKey(node2);
 		}
 	}
 	public void assignWeightToAllEdges(Float float1) {
-		for (Edge e:this.edges){
+		for (Edge e:getEdgeSnapshot()){
 			e.getWeight().setValue(float1);
 		}
 	}
@@ -165,32 +176,34 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	 */
 	public void clear(){		
 		synchronized (lock) {
-			nodes.clear();
-			edges.clear();
-			neighbourList.clear();
+			outgoing = new LinkedHashMap<N,Adjacency<N>>();
+			incoming = new LinkedHashMap<N,Adjacency<N>>();
+			edgeCount = 0;
+			edgeList = null;
 		}		
 	}	
+	/**
+	 * Returns the edge from node1 to node2 or, if it does not exist,
+	 * the edge from node2 to node1
+	 */
 	public Edge getEdgeBetween(N node1, N node2) {
 		synchronized (lock) {
-			for(Edge e:edges){
-				if (e.getSource().equals(node1) && e.getTarget().equals(node2)){
-					return e;
-				}
-				else if (e.getSource().equals(node2) && e.getTarget().equals(node1)){
-					return e;
-				}
+			Adjacency<N> adjacency = outgoing.get(node1);
+			Edge e = adjacency==null ? null : adjacency.get(node2);
+			if (e==null){
+				adjacency = outgoing.get(node2);
+				e = adjacency==null ? null : adjacency.get(node1);
 			}
+			return e;
 		}
-		return null;
 	}	
 	/**
-	 * Return edge list from actual network graph
+	 * Return edge list from actual network graph. The list is a copy,
+	 * so it can be modified and it is not updated when the graph changes
 	 * @return
 	 */
 	public LinkedList<Edge> getEdges(){		
-		synchronized (lock) {
-			return this.edges;
-		}
+		return new LinkedList<Edge>(getEdgeSnapshot());
 	}	
 	/**
 	 * Return edge list where the node n is the source or the target
@@ -199,11 +212,13 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	public LinkedList<Edge> getEdges(N node){
 		LinkedList<Edge> edgeList = new LinkedList<Edge>(); 
 		synchronized (lock) {
-			for(Edge e:edges){
-				if (e.getSource().equals(node) || e.getTarget().equals(node)){
-					edgeList.add(e);
-				}
-			}			
+			Adjacency<N> out = outgoing.get(node);
+			if (out==null) return edgeList;
+			edgeList.addAll(out.values());
+			for (Edge e:incoming.get(node).values()){
+				//A loop is already in the outgoing edges
+				if (!e.getSource().equals(node)) edgeList.add(e);
+			}
 		}
 		return edgeList;
 	}	
@@ -216,24 +231,24 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	public Set<N> getLinkedNodes(N node1) {
 		Set<N> linkedNodes = new HashSet<N>();		
 		synchronized (lock) {
-			for (N n:this.nodes){
-				if (neighbourList.existsInList(n,node1) ||
-						neighbourList.existsInList(node1,n)){
-					linkedNodes.add(n);
-				}
+			Adjacency<N> out = outgoing.get(node1);
+			if (out!=null){
+				linkedNodes.addAll(out.keySet());
+				linkedNodes.addAll(incoming.get(node1).keySet());
 			}
 			return linkedNodes;
 		}		
 	}	
 	/**
-	 * Returns a list of neighbours of the current node
+	 * Returns a list of neighbours of the current node, or null if
+	 * the node is not in the graph. The set can not be modified
 	 * @param node1
 	 * @return
 	 */
 	public Set<N> getNeighbours(N node1) {
 		synchronized (lock) {
-			Set<N> nodeList = neighbourList.getSet(node1);
-			return nodeList;
+			Adjacency<N> adjacency = outgoing.get(node1);
+			return adjacency==null ? null : Collections.unmodifiableSet(adjacency.keySet());
 		}		
 	}	
 	/**
@@ -243,16 +258,17 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	 */
 	public int getNetworkSize(){
 		synchronized (lock) {
-			return this.nodes.size();
+			return outgoing.size();
 		}
 	}
 	/**
-	 * Return node list from actual network graph
+	 * Return node list from actual network graph. The set is a copy,
+	 * so it can be modified and it is not updated when the graph changes
 	 * @return
 	 */
 	public Set<N> getNodeList(){
 		synchronized (lock) {
-			return this.nodes;
+			return new LinkedHashSet<N>(outgoing.keySet());
 		}
 	}	
 	/**
@@ -263,12 +279,49 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	 */
 	public HashSet<N> getSubtree(N node1) {
 		synchronized (lock) {
-			HashSet<N> set = getNeighborsRecursively(node1,0);
-			//The head of the tree was already added, we must skip it
+			HashSet<N> set = new HashSet<N>();
+			LinkedList<N> pending = new LinkedList<N>();
+			pending.add(node1);
+			while (!pending.isEmpty()){
+				Adjacency<N> adjacency = outgoing.get(pending.removeFirst());
+				if (adjacency==null) continue;
+				for (N child:adjacency.keySet()){
+					if (set.add(child)) pending.add(child);
+				}
+			}
+			//The head of the tree is not part of the subtree
 			set.remove(node1);
 			return set;
 		} 
 	}
+	/**
+	 * Checks whether both graphs have the same nodes, the same
+	 * neighbours for each node and the same weight in each edge.
+	 * As in hasSameTopology, the clones of the graphs are compared
+	 * @param other
+	 * @return
+	 */
+	public boolean hasSameEdges(NetworkGraph<N,W> other){
+		if (other==this) return true;
+		NetworkGraph<N,W> snapshot = (NetworkGraph<N,W>)clone();
+		NetworkGraph<N,W> otherSnapshot = (NetworkGraph<N,W>)other.clone();
+		return snapshot.sameTopologyAs(otherSnapshot) && snapshot.sameWeightsAs(otherSnapshot);
+	}
+	/**
+	 * Checks whether both graphs have the same nodes and the same
+	 * neighbours for each node. Weights are not compared. Each graph
+	 * is cloned under its own lock and the clones are compared without
+	 * holding any lock, so two graphs can be compared from both sides
+	 * at the same time
+	 * @param other
+	 * @return
+	 */
+	public boolean hasSameTopology(NetworkGraph<N,W> other){
+		if (other==this) return true;
+		NetworkGraph<N,W> snapshot = (NetworkGraph<N,W>)clone();
+		NetworkGraph<N,W> otherSnapshot = (NetworkGraph<N,W>)other.clone();
+		return snapshot.sameTopologyAs(otherSnapshot);
+	}
 	/**
 	 * Removes an edge from the graph
 	 * @param src
@@ -276,14 +329,11 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	 * @param w
 	 */	
 	public void removeEdge(N src, N dst, Weight w) {
-		Edge<N> edge = new Edge<N>(src,dst,w);
 		synchronized (lock) {
-			if (edges.contains(edge)){
+			if (areNeighbours(src,dst)){
 				//remove the edge
-				System.out.println("\t\tRemoving from graph");
-				edges.remove(edge);
-				//They are not neighbors anymore
-				neighbourList.removeFromBothSets(src,dst);
+				removeEdgeInternal(src,dst);
+				edgeList = null;
 			}
 		}
 	}	
@@ -294,19 +344,17 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	 */
 	public void removeEdges(N node){		
 		synchronized (lock) {
-			Iterator<Edge> it = edges.iterator();
-			while(it.hasNext()){
-				Edge e = it.next();
-				if (e.getSource().equals(node)){ 
-					it.remove();
-					neighbourList.removeFromSet(node,(N)e.getTarget());
-				}
-				else if (e.getTarget().equals(node)){
-					it.remove();
-					neighbourList.removeFromSet((N)e.getSource(),node);
-				}
+			Adjacency<N> out = outgoing.remove(node);
+			Adjacency<N> in = incoming.remove(node);
+			if (out==null) return;
+			for (N target:out.keySet()){
+				if (!target.equals(node)) getModifiable(incoming,target).remove(node);
+			}
+			for (N source:in.keySet()){
+				if (!source.equals(node)) getModifiable(outgoing,source).remove(node);
 			}
-			nodes.remove(node);			
+			edgeCount -= out.size()+in.size()-(out.containsKey(node) ? 1 : 0);
+			edgeList = null;
 		}
 	}
 	/**
@@ -315,18 +363,9 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	 */
 	public void removeEdges(N node1, N node2){		
 		synchronized (lock) {
-			Iterator<Edge> it = edges.iterator();
-			while(it.hasNext()){
-				Edge e = it.next();
-				if (e.getSource().equals(node1) && e.getTarget().equals(node2)){
-					it.remove();
-					neighbourList.removeFromSet(node1,node2);
-				}
-				else if (e.getSource().equals(node2) && e.getTarget().equals(node1)){
-					it.remove();
-					neighbourList.removeFromSet(node2,node1);
-				}
-			}			
+			if (areNeighbours(node1,node2)) removeEdgeInternal(node1,node2);
+			if (areNeighbours(node2,node1)) removeEdgeInternal(node2,node1);
+			edgeList = null;
 		}
 	}	
 	/**
@@ -335,29 +374,22 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	 */
 	public void removeEdgesWithTarget(N node){
 		synchronized (lock) {
-			Iterator<Edge> it = edges.iterator();
-			while(it.hasNext()){
-				Edge e = it.next();
-				if (e.getTarget().equals(node)){
-					it.remove();
-					neighbourList.removeFromSet((N)e.getSource(),node);
-				}
+			Adjacency<N> in = incoming.get(node);
+			if (in==null || in.isEmpty()) return;
+			for (N source:new ArrayList<N>(in.keySet())){
+				removeEdgeInternal(source,node);
 			}
+			edgeList = null;
 		}
 	}	
 	public void removeIsolatedNodes() {
 		synchronized(lock){
-			Iterator it = nodes.iterator();
+			Iterator<Map.Entry<N,Adjacency<N>>> it = outgoing.entrySet().iterator();
 			while (it.hasNext()){
-				N n = (N)it.next();
-				boolean isolated = true;
-				for (Edge e:this.edges){
-					if (e.getSource().equals(n) || e.getTarget().equals(n)){
-						isolated = false;
-					}
-				}
-				if (isolated){
+				Map.Entry<N,Adjacency<N>> entry = it.next();
+				if (entry.getValue().isEmpty() && incoming.get(entry.getKey()).isEmpty()){
 					it.remove();
+					incoming.remove(entry.getKey());
 				}
 			}
 		}		
@@ -373,10 +405,10 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 		HashMap<Integer, Integer> idNodetoPajekNodes = new HashMap<Integer, Integer>();
 		
 		synchronized (lock) {
-			buffer.append("*Vertices "+nodes.size()+"\n");
+			buffer.append("*Vertices "+outgoing.size()+"\n");
 			//Print of the nodes IDs
 			int contNodes=0;
-			for (N n:nodes){
+			for (N n:outgoing.keySet()){
 				contNodes++;
 				idNode = getIdNode(n);
 				buffer.append(contNodes+" \"node_"+getTwoLastBytes(n)+"\"\n");
@@ -384,7 +416,7 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 			}	
 			buffer.append("*Edges"+"\n");
 			//Print the edge
-			for (Edge e: edges){
+			for (Edge e: getEdgeSnapshot()){
 				//Avoid printing double edges, if we have already print 1-2, we won't print 2-1, 
 				//they are bidirectional but we don't need to print both edge in the pajek file
 				if(edgesStored.get(e.toString())==null){
@@ -430,28 +462,104 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	//	PRIVATE METHODS --
 	
 	/**
-	 * Returns a set with all the child nodes of a given node
-	 * @param node
-	 * @return Neighbors
-	 */
-	private HashSet<N> getNeighborsRecursively(N node,int level) {		
-		Set<N> nodeSet = neighbourList.getSet(node);
-		List<N> newSet = new LinkedList<N>();		
-		if (nodeSet != null) {
-			for (N nodeInSet : nodeSet) {
-				// Recursivity, end nodes will not enter here
-				if (level>10){
-					level = level;
+	 * Returns the edges of the graph in a list which is not modifiable. It
+	 * is kept until the graph changes, so it is only built once per change
+	 */
+	private List<Edge> getEdgeSnapshot(){
+		List<Edge> edges = edgeList;
+		if (edges!=null) return edges;
+		synchronized (lock) {
+			if (edgeList==null){
+				ArrayList<Edge> list = new ArrayList<Edge>(edgeCount);
+				for (Adjacency<N> adjacency:outgoing.values()){
+					list.addAll(adjacency.values());
 				}
-				newSet.addAll(getNeighborsRecursively(nodeInSet,level++));
+				edgeList = Collections.unmodifiableList(list);
 			}
-		}		
-		//End case
-		newSet.add(node);
-		if (newSet.size()>nodes.size())
-			System.err.println("ERROR: There are "+newSet.size() +" nodes in the set!!");
-		return new HashSet<N>(newSet);		
-	}	
+			return edgeList;
+		}
+	}
+	/**
+	 * Registers the node if it is not in the graph
+	 * @return the instance of the node used by the graph
+	 */
+	private N addNodeInternal(N node){
+		Adjacency<N> adjacency = outgoing.get(node);
+		if (adjacency!=null) return adjacency.node;
+		outgoing.put(node,new Adjacency<N>(node,owner));
+		incoming.put(node,new Adjacency<N>(node,owner));
+		return node;
+	}
+	/**
+	 * Returns the adjacency of the node in the given map, copying it
+	 * first if it is shared with a clone of this graph
+	 */
+	private Adjacency<N> getModifiable(Map<N,Adjacency<N>> map, N node){
+		Adjacency<N> adjacency = map.get(node);
+		if (adjacency.owner!=owner){
+			adjacency = new Adjacency<N>(adjacency,owner);
+			map.put(node,adjacency);
+		}
+		return adjacency;
+	}
+	/**
+	 * Compares the topology of two graphs which are not
+	 * modified any more (see hasSameTopology)
+	 */
+	private boolean sameTopologyAs(NetworkGraph<N,W> other){
+		if (edgeCount!=other.edgeCount || outgoing.size()!=other.outgoing.size()) return false;
+		for (Map.Entry<N,Adjacency<N>> entry:outgoing.entrySet()){
+			Adjacency<N> otherAdjacency = other.outgoing.get(entry.getKey());
+			if (otherAdjacency==null) return false;
+			//Adjacencies shared by clones are the same object
+			if (otherAdjacency!=entry.getValue() && 
+					!otherAdjacency.keySet().equals(entry.getValue().keySet())) return false;
+		}
+		return true;
+	}
+	/**
+	 * Compares the weights of the edges of two graphs with the same
+	 * topology, which are not modified any more (see hasSameEdges)
+	 */
+	private boolean sameWeightsAs(NetworkGraph<N,W> other){
+		for (Map.Entry<N,Adjacency<N>> entry:outgoing.entrySet()){
+			Adjacency<N> otherAdjacency = other.outgoing.get(entry.getKey());
+			if (otherAdjacency==entry.getValue()) continue;
+			for (Map.Entry<N,Edge> edge:entry.getValue().entrySet()){
+				Float value = edge.getValue().getWeight().getValue();
+				Float otherValue = otherAdjacency.get(edge.getKey()).getWeight().getValue();
+				if (value==null ? otherValue!=null : !value.equals(otherValue)) return false;
+			}
+		}
+		return true;
+	}
+	/**
+	 * Replaces the instance of the node used by the graph,
+	 * keeping its edges (with the same weights)
+	 */
+	private void replaceNode(N node, N newNode){
+		List<Edge<N>> edges = new ArrayList<Edge<N>>();
+		for (Edge e:outgoing.get(node).values()) edges.add(e);
+		for (Edge e:incoming.get(node).values()){
+			//A loop is already in the outgoing edges
+			if (!e.getSource().equals(node)) edges.add(e);
+		}
+		removeEdges(node);
+		addNodeInternal(newNode);
+		for (Edge<N> e:edges){
+			N source = e.getSource().equals(node) ? newNode : e.getSource();
+			N target = e.getTarget().equals(node) ? newNode : e.getTarget();
+			addEdge(source, target, e.getWeight());
+		}
+	}
+	/**
+	 * Removes the existing edge from src to dst
+	 */
+	private void removeEdgeInternal(N src, N dst){
+		getModifiable(outgoing,src).remove(dst);
+		getModifiable(incoming,dst).remove(src);
+		edgeCount--;
+	}
 	/**
 	 * Method that returns the last two bytes of the node address
 	 */
@@ -473,6 +581,26 @@ public class NetworkGraph<N,W> implements Serializable, BandwidthUpdatable{
 	
 	//	PRIVATE CLASSES --
 	
+	/**
+	 * Edges of a node (outgoing or incoming), indexed by the other end. The
+	 * instance of the node used by the graph and the owner of the adjacency
+	 * (the graph which can modify it in place) are also kept
+	 */
+	private static class Adjacency<N> extends LinkedHashMap<N,Edge> {
+		private static final long serialVersionUID = 1L;
+		final N node;
+		final Object owner;
+		
+		Adjacency(N node, Object owner){
+			this.node = node;
+			this.owner = owner;
+		}
+		Adjacency(Adjacency<N> adjacency, Object owner){
+			super(adjacency);
+			this.node = adjacency.node;
+			this.owner = owner;
+		}
+	}
 	/**
 	 * To serialize the whole object we need that the
 	 * lock object implements Serializable
@@ -0,0 +1,114 @@
+package org.jgroups.protocols;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jgroups.stack.IpAddress;
+import org.junit.Test;
+
+import urv.olsr.data.OLSRNode;
+import urv.util.graph.HashMapSet;
+
+public class OMOLSRHeaderTest {
+
+    @Test
+    public void testForwardingTableAndRecipientsRoundTrip() throws Exception {
+        HashMapSet<OLSRNode,OLSRNode> table=new HashMapSet<>();
+        table.addToSet(node("10.0.0.2"), node("10.0.0.5"));
+        table.addToSet(node("10.0.0.2"), node("10.0.0.6"));
+        table.addToSet(node("10.0.0.3"), node("10.0.0.7"));
+        Set<OLSRNode> recipients=nodes("10.0.0.2", "10.0.0.4");
+        OMOLSRHeader header=new OMOLSRHeader().setType(OMOLSRHeader.DATA)
+          .setGroupId(new IpAddress("224.0.0.1", 7600)).setSrcAddress(new IpAddress("10.0.0.1", 7600))
+          .setForwardingTable(table).setRecipients(recipients);
+        OMOLSRHeader copy=roundTrip(header);
+        assertEquals(OMOLSRHeader.DATA, copy.type);
+        assertEquals(header.groupId, copy.groupId);
+        assertEquals(header.srcAddress, copy.srcAddress);
+        assertEquals(table, copy.getForwardingTable());
+        assertEquals(recipients, copy.getRecipients());
+    }
+
+    @Test
+    public void testRecipientsWithoutForwardingTable() throws Exception {
+        Set<OLSRNode> recipients=nodes("10.0.0.2", "10.0.0.3", "10.0.1.200");
+        OMOLSRHeader copy=roundTrip(new OMOLSRHeader().setType(OMOLSRHeader.DATA).setRecipients(recipients));
+        assertTrue(copy.getForwardingTable().isEmpty());
+        assertEquals(recipients, copy.getRecipients());
+    }
+
+    @Test
+    public void testUnicastHeaderHasNoRecipients() throws Exception {
+        HashMapSet<OLSRNode,OLSRNode> table=new HashMapSet<>();
+        table.addToSet(node("10.0.0.2"), node("10.0.0.3"));
+        OMOLSRHeader copy=roundTrip(new OMOLSRHeader().setType(OMOLSRHeader.DATA).setForwardingTable(table));
+        assertEquals(table, copy.getForwardingTable());
+        assertNull(copy.getRecipients());
+    }
+
+    @Test
+    public void testEmptyHeader() throws Exception {
+        assertArrayEquals(new byte[]{0, 0}, OMOLSRHeader.encode(new HashMapSet<OLSRNode,OLSRNode>(), null));
+        OMOLSRHeader copy=roundTrip(new OMOLSRHeader().setType(OMOLSRHeader.CONTROL));
+        assertEquals(OMOLSRHeader.CONTROL, copy.type);
+        assertTrue(copy.getForwardingTable().isEmpty());
+        assertNull(copy.getRecipients());
+    }
+
+    @Test
+    public void testMixedAddressFamilies() throws Exception {
+        HashMapSet<OLSRNode,OLSRNode> table=new HashMapSet<>();
+        table.addToSet(node("10.0.0.2"), node("fe80::2"));
+        Set<OLSRNode> recipients=nodes("10.0.0.2", "fe80::3");
+        OMOLSRHeader copy=roundTrip(new OMOLSRHeader().setType(OMOLSRHeader.DATA)
+                                      .setForwardingTable(table).setRecipients(recipients));
+        assertEquals(table, copy.getForwardingTable());
+        assertEquals(recipients, copy.getRecipients());
+        // IPv4 addresses written as IPv4-mapped ones are read back as IPv4 addresses
+        for(OLSRNode n: copy.getForwardingTable().keySet())
+            assertTrue(n.getAddress() instanceof Inet4Address);
+    }
+
+    @Test
+    public void testManyRecipients() throws Exception {
+        Set<OLSRNode> recipients=new HashSet<>();
+        for(int i=0; i < 300; i++)
+            recipients.add(node("10.0." + (i / 250) + "." + (i % 250 + 1)));
+        OMOLSRHeader copy=roundTrip(new OMOLSRHeader().setType(OMOLSRHeader.DATA).setRecipients(recipients));
+        assertEquals(recipients, copy.getRecipients());
+    }
+
+    private static OMOLSRHeader roundTrip(OMOLSRHeader header) throws Exception {
+        ByteArrayOutputStream buffer=new ByteArrayOutputStream();
+        header.writeTo(new DataOutputStream(buffer));
+        byte[] bytes=buffer.toByteArray();
+        assertEquals(header.serializedSize(), bytes.length);
+        OMOLSRHeader copy=new OMOLSRHeader();
+        DataInputStream in=new DataInputStream(new ByteArrayInputStream(bytes));
+        copy.readFrom(in);
+        assertEquals(0, in.available());
+        return copy;
+    }
+
+    private static OLSRNode node(String address) throws Exception {
+        return new OLSRNode().setValue(InetAddress.getByName(address));
+    }
+
+    private static Set<OLSRNode> nodes(String... addresses) throws Exception {
+        Set<OLSRNode> set=new HashSet<>();
+        for(String address: addresses)
+            set.add(node(address));
+        return set;
+    }
+}
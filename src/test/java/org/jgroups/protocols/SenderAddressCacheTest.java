@@ -0,0 +1,48 @@
+package org.jgroups.protocols;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+
+import org.jgroups.stack.IpAddress;
+import org.junit.Test;
+
+public class SenderAddressCacheTest {
+
+    @Test
+    public void testSenderWithTwoPortsKeepsBothEntries() throws Exception {
+        SenderAddressCache cache=new SenderAddressCache();
+        InetAddress host=InetAddress.getByName("10.222.0.1");
+        IpAddress ucast=cache.get(host, 5034);
+        IpAddress mcast=cache.get(host, 7600);
+        assertEquals(5034, ucast.getPort());
+        assertEquals(7600, mcast.getPort());
+        for(int i=0; i < 10; i++) {
+            assertSame(ucast, cache.get(host, 5034));
+            assertSame(mcast, cache.get(host, 7600));
+        }
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testOldestPortIsReplaced() throws Exception {
+        SenderAddressCache cache=new SenderAddressCache();
+        InetAddress host=InetAddress.getByName("10.222.0.1");
+        IpAddress first=cache.get(host, 1);
+        for(int port=2; port <= SenderAddressCache.MAX_PORTS_PER_HOST + 1; port++)
+            cache.get(host, port);
+        assertEquals(SenderAddressCache.MAX_PORTS_PER_HOST, cache.size());
+        assertNotSame(first, cache.get(host, 1));
+    }
+
+    @Test
+    public void testCacheIsClearedWhenFull() throws Exception {
+        SenderAddressCache cache=new SenderAddressCache(2);
+        cache.get(InetAddress.getByName("10.222.0.1"), 1);
+        cache.get(InetAddress.getByName("10.222.0.2"), 1);
+        cache.get(InetAddress.getByName("10.222.0.3"), 1);
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,160 @@
+package urv.app.benchmark;
+
+import java.io.DataInput;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jgroups.Address;
+import org.jgroups.protocols.NioDatagramReceiver;
+import org.jgroups.protocols.SenderAddressCache;
+import org.jgroups.stack.IpAddress;
+
+/**
+ * Compares the throughput of the two receive paths of the JOLSR_UDP transport over the loopback
+ * interface: the classic blocking receiver thread (one DatagramSocket.receive() and one new
+ * IpAddress per packet) and the selector driven {@link NioDatagramReceiver} (batched drain into
+ * pooled direct buffers and cached sender addresses).<p>
+ * Usage: DatagramReceiveBenchmark [numPackets] [packetSize] [batchSize]
+ */
+public class DatagramReceiveBenchmark {
+
+	//	CONSTANTS --
+
+	private static final int RECV_BUF_SIZE = 4 * 1024 * 1024;
+	private static final long DRAIN_TIMEOUT = 2000;
+
+	//	CLASS FIELDS --
+
+	private final int packetSize;
+	private final int batchSize;
+	private final AtomicLong received = new AtomicLong();
+
+	//	CONSTRUCTORS --
+
+	public DatagramReceiveBenchmark(int packetSize, int batchSize) {
+		this.packetSize = packetSize;
+		this.batchSize = batchSize;
+	}
+
+	//	MAIN --
+
+	public static void main(String[] args) throws Exception {
+		int numPackets = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		int packetSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+		int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+		DatagramReceiveBenchmark benchmark = new DatagramReceiveBenchmark(packetSize, batchSize);
+		//Warm up both paths before measuring
+		benchmark.runBlocking(numPackets/10);
+		benchmark.runNio(numPackets/10);
+		System.out.println("packets="+numPackets+" size="+packetSize+" batch="+batchSize);
+		benchmark.report("blocking", numPackets, benchmark.runBlocking(numPackets));
+		benchmark.report("nio", numPackets, benchmark.runNio(numPackets));
+	}
+
+	//	PUBLIC METHODS --
+
+	/**
+	 * Receives with a blocking DatagramSocket the same way the JOLSR_UDP ucast receiver thread did
+	 * @return elapsed time in ms
+	 */
+	public long runBlocking(int packets) throws Exception {
+		final DatagramSocket sock = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		sock.setReceiveBufferSize(RECV_BUF_SIZE);
+		received.set(0);
+		Thread receiver = new Thread(new Runnable() {
+			public void run() {
+				byte[] buf = new byte[65535];
+				DatagramPacket packet = new DatagramPacket(buf, buf.length);
+				while (true) {
+					try {
+						packet.setData(buf, 0, buf.length);
+						sock.receive(packet);
+						Address sender = new IpAddress(packet.getAddress(), packet.getPort());
+						consume(sender, packet.getData()[packet.getOffset()]);
+					} catch (SocketException e) {
+						break;
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "blocking receiver");
+		receiver.start();
+		long elapsed = send(sock.getLocalPort(), packets);
+		sock.close();
+		receiver.join();
+		return elapsed;
+	}
+	/**
+	 * Receives with the selector driven NIO receiver used by JOLSR_UDP when use_nio is enabled
+	 * @return elapsed time in ms
+	 */
+	public long runNio(int packets) throws Exception {
+		DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, RECV_BUF_SIZE);
+		channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		received.set(0);
+		NioDatagramReceiver receiver = new NioDatagramReceiver(new NioDatagramReceiver.DatagramHandler() {
+			public void receive(Address sender, DataInput in) throws Exception {
+				consume(sender, in.readByte());
+			}
+		}, new SenderAddressCache(), batchSize, 65535);
+		receiver.register(channel);
+		receiver.start();
+		long elapsed = send(channel.socket().getLocalPort(), packets);
+		receiver.stop();
+		channel.close();
+		System.out.println("   nio average batch size: "+String.format("%.2f", receiver.getAverageBatchSize()));
+		return elapsed;
+	}
+
+	//	PRIVATE METHODS --
+
+	private void consume(Address sender, byte firstByte){
+		if (sender != null && firstByte >= 0) {
+			received.incrementAndGet();
+		}
+	}
+	private void report(String name, int packets, long elapsed){
+		long count = received.get();
+		double rate = elapsed == 0 ? 0 : count * 1000.0 / elapsed;
+		System.out.println(String.format("%-10s received %d/%d packets in %d ms: %.0f packets/s, %.2f MB/s",
+				name, count, packets, elapsed, rate, rate * packetSize / (1024*1024)));
+	}
+	/**
+	 * Sends the packets from a single thread and waits until the receiver has drained them
+	 * (or stopped receiving, as packets may be dropped by the kernel)
+	 */
+	private long send(int port, int packets) throws Exception {
+		DatagramChannel out = DatagramChannel.open(StandardProtocolFamily.INET);
+		InetSocketAddress dest = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		ByteBuffer data = ByteBuffer.allocate(packetSize);
+		long start = System.currentTimeMillis();
+		for (int i=0;i<packets;i++){
+			data.clear();
+			out.send(data, dest);
+		}
+		long lastCount = -1;
+		long lastChange = System.currentTimeMillis();
+		long end = lastChange;
+		while (received.get() < packets && System.currentTimeMillis() - lastChange < DRAIN_TIMEOUT){
+			long count = received.get();
+			if (count != lastCount){
+				lastCount = count;
+				lastChange = end = System.currentTimeMillis();
+			}
+			Thread.sleep(1);
+		}
+		if (received.get() >= packets) end = System.currentTimeMillis();
+		out.close();
+		return end - start;
+	}
+}
@@ -0,0 +1,182 @@
+package urv.app.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import urv.emulator.topology.parser.PajekParserImpl;
+import urv.util.graph.Edge;
+import urv.util.graph.GraphContraction;
+import urv.util.graph.NetworkGraph;
+import urv.util.graph.Node;
+import urv.util.graph.Weight;
+
+/**
+ * Compares the computation of the contracted graph of a multicast group done with
+ * {@link GraphContraction} (a BFS from each member through non-member nodes) with the
+ * previous algorithm of MulticastNetworkGraph, which removed the non-member nodes one
+ * by one linking all the pairs of neighbors of each removed node. Both results are
+ * checked to contain the same member-to-member weights.<p>
+ * Graphs: the bundled 30-node graph and synthetic random geometric graphs (nodes
+ * placed at random in a square and linked when they are in radio range).<p>
+ * The elimination grows quickly with the size of the graph, so it is only run on graphs with
+ * up to eliminationLimit nodes; on bigger graphs only the BFS is measured.<p>
+ * Usage: GraphContractionBenchmark [syntheticSizes] [averageDegree] [memberRatio] [iterations] [eliminationLimit]<br>
+ * e.g. GraphContractionBenchmark 100,200,500 8 0.2 5 500
+ */
+public class GraphContractionBenchmark {
+
+	//	CONSTANTS --
+
+	private static final String BUNDLED_GRAPH = "graphs/graph30nodes.net";
+	private static final long SEED = 42;
+
+	//	CLASS FIELDS --
+
+	private final double memberRatio;
+	private final int iterations;
+	private final int eliminationLimit;
+	private final Random random = new Random(SEED);
+
+	//	CONSTRUCTORS --
+
+	public GraphContractionBenchmark(double memberRatio, int iterations, int eliminationLimit) {
+		this.memberRatio = memberRatio;
+		this.iterations = iterations;
+		this.eliminationLimit = eliminationLimit;
+	}
+
+	//	MAIN --
+
+	public static void main(String[] args) {
+		String syntheticSizes = args.length > 0 ? args[0] : "100,200,500";
+		double averageDegree = args.length > 1 ? Double.parseDouble(args[1]) : 8;
+		double memberRatio = args.length > 2 ? Double.parseDouble(args[2]) : 0.2;
+		int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		int eliminationLimit = args.length > 4 ? Integer.parseInt(args[4]) : 500;
+		GraphContractionBenchmark benchmark = new GraphContractionBenchmark(memberRatio, iterations, eliminationLimit);
+		NetworkGraph<Node,Weight> bundled = new PajekParserImpl().loadNetwork(BUNDLED_GRAPH).getGraph();
+		benchmark.run(BUNDLED_GRAPH, bundled);
+		for (String size:syntheticSizes.split(",")){
+			int numNodes = Integer.parseInt(size.trim());
+			benchmark.run("synthetic "+numNodes+" nodes", benchmark.createGeometricGraph(numNodes, averageDegree));
+		}
+	}
+
+	//	PUBLIC METHODS --
+
+	/**
+	 * Contracts the graph for a random group with both algorithms and prints the average times
+	 */
+	public void run(String name, NetworkGraph<Node,Weight> graph){
+		Set<Node> members = new HashSet<Node>();
+		for (Node node:graph.getNodeList()){
+			if (random.nextDouble() < memberRatio) members.add(node);
+		}
+		System.out.println(name+": nodes="+graph.getNetworkSize()+" edges="+graph.getEdges().size()+
+				" members="+members.size());
+		//Warm up
+		NetworkGraph<Node,Weight> bfsResult = GraphContraction.contract(graph, members);
+		long start = System.nanoTime();
+		for (int i=0;i<iterations;i++){
+			GraphContraction.contract(graph, members);
+		}
+		double bfsTime = (System.nanoTime()-start)/1e6/iterations;
+		Map<String,Float> bfsWeights = weightsOf(bfsResult);
+		if (graph.getNetworkSize()>eliminationLimit){
+			System.out.println(String.format("   bfs: %.3f ms (%d member pairs linked)   elimination: skipped",
+					bfsTime, bfsWeights.size()));
+			return;
+		}
+		//Check that both algorithms agree
+		NetworkGraph<Node,Weight> eliminationResult = contractByElimination(graph, members);
+		boolean sameResult = bfsWeights.equals(weightsOf(eliminationResult));
+		start = System.nanoTime();
+		for (int i=0;i<iterations;i++){
+			contractByElimination(graph, members);
+		}
+		double eliminationTime = (System.nanoTime()-start)/1e6/iterations;
+		System.out.println(String.format("   bfs: %.3f ms (%d member pairs linked)   elimination: %.3f ms   same result: %b   speedup: %.1fx",
+				bfsTime, bfsWeights.size(), eliminationTime, sameResult, eliminationTime/bfsTime));
+	}
+
+	//	PRIVATE METHODS --
+
+	/**
+	 * The contraction previously done in MulticastNetworkGraph.computeContractedGraph
+	 */
+	private NetworkGraph<Node,Weight> contractByElimination(NetworkGraph<Node,Weight> graph, Set<Node> groupNodes){
+		NetworkGraph<Node,Weight> newGraph = new NetworkGraph<Node,Weight>();
+		for (Edge e:graph.getEdges()){
+			newGraph.addEdge((Node)e.getSource(), (Node)e.getTarget(), new Weight().setValue(new Float(1.0f)));
+		}
+		Set<Node> nodes = new HashSet<Node>(newGraph.getNodeList());
+		for (Node node:nodes){
+			if (groupNodes.contains(node)) continue;
+			Set<Node> neighs = newGraph.getLinkedNodes(node);
+			for (Node ni:neighs){
+				for (Node nj:neighs){
+					if (ni.equals(nj)) continue;
+					Edge niEdge = newGraph.getEdgeBetween(ni,node);
+					Edge njEdge = newGraph.getEdgeBetween(nj,node);
+					Weight newWeight = Weight.add(niEdge.getWeight(), njEdge.getWeight());
+					Edge existingEdge = newGraph.getEdgeBetween(ni,nj);
+					if (existingEdge==null){
+						newGraph.addEdge(ni, nj, newWeight);
+					} else if (newWeight.compareTo(existingEdge.getWeight())<0){
+						newGraph.removeEdges(ni,nj);
+						newGraph.addEdge(ni, nj, newWeight);
+					}
+				}
+			}
+			newGraph.removeEdges(node);
+		}
+		return newGraph;
+	}
+	/**
+	 * Places the nodes at random in a unit square and links the pairs closer than the
+	 * radius which gives the requested average degree
+	 */
+	private NetworkGraph<Node,Weight> createGeometricGraph(int numNodes, double averageDegree){
+		double radius = Math.sqrt(averageDegree / (Math.PI * numNodes));
+		double[] x = new double[numNodes];
+		double[] y = new double[numNodes];
+		List<Node> nodes = new ArrayList<Node>();
+		NetworkGraph<Node,Weight> graph = new NetworkGraph<Node,Weight>();
+		for (int i=0;i<numNodes;i++){
+			x[i] = random.nextDouble();
+			y[i] = random.nextDouble();
+			nodes.add(new Node(i));
+			graph.addNode(nodes.get(i));
+		}
+		for (int i=0;i<numNodes;i++){
+			for (int j=i+1;j<numNodes;j++){
+				double dx = x[i]-x[j], dy = y[i]-y[j];
+				if (dx*dx+dy*dy <= radius*radius){
+					graph.addEdge(nodes.get(i), nodes.get(j), new Weight().setValue(new Float(1.0f)));
+					graph.addEdge(nodes.get(j), nodes.get(i), new Weight().setValue(new Float(1.0f)));
+				}
+			}
+		}
+		return graph;
+	}
+	/**
+	 * Returns the lowest weight of the edges between each pair of nodes, in any direction
+	 */
+	private Map<String,Float> weightsOf(NetworkGraph<Node,Weight> graph){
+		Map<String,Float> weights = new HashMap<String,Float>();
+		for (Edge e:graph.getEdges()){
+			int a = ((Node)e.getSource()).getId();
+			int b = ((Node)e.getTarget()).getId();
+			String key = Math.min(a, b)+"-"+Math.max(a, b);
+			Float weight = e.getWeight().getValue();
+			Float current = weights.get(key);
+			if (current==null || weight<current) weights.put(key, weight);
+		}
+		return weights;
+	}
+}
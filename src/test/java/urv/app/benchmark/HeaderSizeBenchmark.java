@@ -0,0 +1,111 @@
+package urv.app.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.jgroups.Global;
+import org.jgroups.protocols.OMOLSRHeader;
+import org.jgroups.stack.IpAddress;
+
+import urv.conf.PropertiesLoader;
+import urv.olsr.data.OLSRNode;
+import urv.util.graph.HashMapSet;
+
+/**
+ * Compares the size of the OMOLSR data header of a group with the previous encodings
+ * of its forwarding table, which wrote every node of every entry with an int count per
+ * entry: first as 24-byte nodes, and then as compact nodes (5 bytes, or more when the
+ * bandwidth information is set). Each header is also read back to check that it contains
+ * the same forwarding table.<p>
+ * The forwarding table is the one sent by the source: the members are split among
+ * the given number of virtual neighbors of the source, which are the keys of the table.<p>
+ * Usage: HeaderSizeBenchmark [groupSizes] [virtualNeighbors]<br>
+ * e.g. HeaderSizeBenchmark 10,40,100,250 4
+ */
+public class HeaderSizeBenchmark {
+
+	//	CONSTANTS --
+
+	private static final int LEGACY_NODE_SIZE = 24;
+
+	//	MAIN --
+
+	public static void main(String[] args) throws Exception {
+		String groupSizes = args.length > 0 ? args[0] : "10,40,100,250";
+		int virtualNeighbors = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		System.out.println("members\tlegacy_24B\tcompact_nodes\tcompact_nodes_bw\theader\treduction");
+		for (String size:groupSizes.split(",")){
+			int members = Integer.parseInt(size.trim());
+			HashMapSet<OLSRNode,OLSRNode> table = createForwardingTable(members, virtualNeighbors, false);
+			HashMapSet<OLSRNode,OLSRNode> tableWithBandwidth = createForwardingTable(members, virtualNeighbors, true);
+			OMOLSRHeader header = createHeader(tableWithBandwidth);
+			checkRoundTrip(header, table);
+			int fixedPart = createHeader(null).serializedSize();
+			int legacy = fixedPart + legacyTableSize(table, true);
+			int compactNodes = fixedPart + legacyTableSize(table, false);
+			int compactNodesBandwidth = fixedPart + legacyTableSize(tableWithBandwidth, false);
+			System.out.println(members+"\t"+legacy+"\t"+compactNodes+"\t"+compactNodesBandwidth+"\t"+
+					header.serializedSize()+"\t"+String.format("%.1fx", legacy/(double)header.serializedSize()));
+		}
+		System.exit(0);
+	}
+
+	//	PRIVATE METHODS --
+
+	private static void checkRoundTrip(OMOLSRHeader header, HashMapSet<OLSRNode,OLSRNode> expected) throws Exception {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		header.writeTo(new DataOutputStream(buffer));
+		if (buffer.size()!=header.serializedSize()){
+			throw new IllegalStateException("Written "+buffer.size()+" bytes, expected "+header.serializedSize());
+		}
+		OMOLSRHeader read = new OMOLSRHeader();
+		read.readFrom(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+		if (!read.getForwardingTable().equals(expected)){
+			throw new IllegalStateException("The forwarding table read is different from the one written");
+		}
+	}
+	private static HashMapSet<OLSRNode,OLSRNode> createForwardingTable(int members, int virtualNeighbors,
+			boolean bandwidth) throws Exception {
+		HashMapSet<OLSRNode,OLSRNode> table = new HashMapSet<OLSRNode,OLSRNode>();
+		OLSRNode[] keys = new OLSRNode[Math.min(virtualNeighbors, members)];
+		for (int i=0;i<members;i++){
+			OLSRNode node = new OLSRNode().setValue(InetAddress.getByAddress(
+					new byte[]{10,(byte)222,(byte)(i/250),(byte)(i%250+1)}));
+			if (bandwidth){
+				node.setBandwithCoefficient(0.5f).setBwBytesCapacity(1000000).setBwMessagesCapacity(2000);
+			}
+			if (i<keys.length){
+				keys[i] = node;
+				table.putSet(node, new HashSet<OLSRNode>());
+			} else {
+				table.addToSet(keys[i%keys.length], node);
+			}
+		}
+		return table;
+	}
+	private static OMOLSRHeader createHeader(HashMapSet<OLSRNode,OLSRNode> table) throws Exception {
+		return new OMOLSRHeader().setType(OMOLSRHeader.DATA)
+				.setGroupId(new IpAddress("225.222.222.222", PropertiesLoader.getUnicastPort()))
+				.setSrcAddress(new IpAddress("10.222.0.1", PropertiesLoader.getUnicastPort()))
+				.setForwardingTable(table);
+	}
+	/**
+	 * Size of the forwarding table with the previous encoding: an int with the number
+	 * of entries, and each entry as the key node, an int count and the nodes of its set
+	 */
+	private static int legacyTableSize(HashMapSet<OLSRNode,OLSRNode> table, boolean legacyNodes){
+		int size = Global.INT_SIZE;
+		for (Map.Entry<OLSRNode,HashSet<OLSRNode>> entry:table.entrySet()){
+			size += (legacyNodes ? LEGACY_NODE_SIZE : entry.getKey().serializedSize()) + Global.INT_SIZE;
+			for (OLSRNode node:entry.getValue()){
+				size += legacyNodes ? LEGACY_NODE_SIZE : node.serializedSize();
+			}
+		}
+		return size;
+	}
+}
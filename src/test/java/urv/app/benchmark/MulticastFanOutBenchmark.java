@@ -0,0 +1,165 @@
+package urv.app.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.Random;
+
+import org.jgroups.Event;
+import org.jgroups.Message;
+import org.jgroups.protocols.Constants;
+import org.jgroups.protocols.OMOLSR;
+import org.jgroups.protocols.OMOLSRHeader;
+import org.jgroups.stack.Protocol;
+
+import urv.olsr.data.OLSRNode;
+import urv.omolsr.core.StandardHandler;
+import urv.omolsr.data.OMOLSRData;
+import urv.omolsr.data.OMOLSRNetworkGraph;
+import urv.util.graph.NetworkGraph;
+import urv.util.graph.Weight;
+
+/**
+ * Measures the cost of sending a multicast message with the OMOLSR handler, for
+ * several group sizes: the time and the memory allocated to send the copies of a
+ * message originated by the local node, and to forward the copies of a message
+ * received from the source.<p>
+ * The contracted graph of the group is complete (as contracted graphs of small
+ * groups usually are) with random weights, so the source sends a copy to every
+ * member and the forwarding node relays the message to its subtree of the MST of
+ * the source. The messages are discarded below the OMOLSR protocol.<p>
+ * Usage: MulticastFanOutBenchmark [groupSizes] [iterations] [payloadSize]<br>
+ * e.g. MulticastFanOutBenchmark 5,10,20,40 200000 1024
+ */
+public class MulticastFanOutBenchmark {
+
+	//	CONSTANTS --
+
+	private static final long SEED = 42;
+	private static final com.sun.management.ThreadMXBean threadBean =
+		(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	//	CLASS FIELDS --
+
+	private long sentMessages;
+	// Last message sent, kept (as a transport would queue it) so that the
+	// copies are not optimized away by the compiler
+	private Message lastMessage;
+
+	//	MAIN --
+
+	public static void main(String[] args) throws Exception {
+		String groupSizes = args.length > 0 ? args[0] : "5,10,20,40";
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int payloadSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+		MulticastFanOutBenchmark benchmark = new MulticastFanOutBenchmark();
+		System.out.println("members\tcopies\tsend_ns\tsend_bytes\tforward_copies\tforward_ns\tforward_bytes");
+		for (String size:groupSizes.split(",")){
+			benchmark.run(Integer.parseInt(size.trim()), iterations, payloadSize);
+		}
+		System.exit(0);
+	}
+
+	//	PUBLIC METHODS --
+
+	public void run(int members, int iterations, int payloadSize) throws Exception {
+		OLSRNode[] nodes = new OLSRNode[members];
+		for (int i=0;i<members;i++){
+			nodes[i] = new OLSRNode().setValue(InetAddress.getByAddress(new byte[]{10,(byte)222,0,(byte)(i+1)}));
+		}
+		NetworkGraph<OLSRNode,Weight> graph = createCompleteGraph(nodes);
+		OMOLSRData sourceData = createData(nodes[0], graph);
+		StandardHandler source = createHandler(nodes[0], sourceData);
+		// The forwarding node is the virtual neighbor of the source with the biggest subtree
+		OMOLSRNetworkGraph omolsrGraph = new OMOLSRNetworkGraph(graph);
+		OLSRNode forwarder = nodes[1];
+		for (OLSRNode neighbor:omolsrGraph.computeMinimumSpanningTree(nodes[0]).getLinkedNodes(nodes[0])){
+			if (omolsrGraph.getSubtree(nodes[0], neighbor).size()>omolsrGraph.getSubtree(nodes[0], forwarder).size()){
+				forwarder = neighbor;
+			}
+		}
+		StandardHandler forwarding = createHandler(forwarder, createData(forwarder, graph));
+		byte[] payload = new byte[payloadSize];
+		// Message received by the forwarding node, with the header of the source
+		Message received = new Message(nodes[0].getJGroupsAddress(), payload);
+		received.putHeader(Constants.OMOLSR_ID, new OMOLSRHeader().setType(OMOLSRHeader.DATA)
+				.setSrcAddress(nodes[0].getJGroupsAddress())
+				.setForwardingTable(sourceData.getHeadersForSource(nodes[0])));
+		// Warm up before measuring
+		measureSend(source, payload, iterations/10);
+		measureForward(forwarding, received, iterations/10);
+		long[] send = measureSend(source, payload, iterations);
+		long[] forward = measureForward(forwarding, received, iterations);
+		System.out.println(members+"\t"+send[0]+"\t"+send[1]+"\t"+send[2]+"\t"+forward[0]+"\t"+forward[1]+"\t"+forward[2]);
+	}
+
+	//	PRIVATE METHODS --
+
+	private NetworkGraph<OLSRNode,Weight> createCompleteGraph(OLSRNode[] nodes){
+		Random random = new Random(SEED);
+		NetworkGraph<OLSRNode,Weight> graph = new NetworkGraph<OLSRNode,Weight>();
+		for (OLSRNode node:nodes){
+			graph.addNode(node);
+		}
+		for (int i=0;i<nodes.length;i++){
+			for (int j=i+1;j<nodes.length;j++){
+				float weight = 1+random.nextInt(5);
+				graph.addEdge(nodes[i], nodes[j], new Weight().setValue(weight));
+				graph.addEdge(nodes[j], nodes[i], new Weight().setValue(weight));
+			}
+		}
+		return graph;
+	}
+	private OMOLSRData createData(OLSRNode localNode, NetworkGraph<OLSRNode,Weight> graph){
+		OMOLSRData data = new OMOLSRData(localNode);
+		data.updateOMOLSRNetworkGraph(new OMOLSRNetworkGraph(graph));
+		data.computeMST();
+		return data;
+	}
+	private StandardHandler createHandler(OLSRNode localNode, OMOLSRData data){
+		OMOLSR omolsr = new OMOLSR();
+		omolsr.setId(Constants.OMOLSR_ID);
+		omolsr.setDownProtocol(new Protocol(){
+			public Object down(Event evt){
+				return null;
+			}
+			public Object down(Message msg){
+				sentMessages++;
+				lastMessage = msg;
+				return null;
+			}
+		});
+		return new StandardHandler(omolsr, data, localNode);
+	}
+	/**
+	 * @return copies sent per message, ns per message and bytes allocated per message
+	 */
+	private long[] measure(Runnable send, int iterations){
+		long id = Thread.currentThread().getId();
+		long messages = sentMessages;
+		long bytes = threadBean.getThreadAllocatedBytes(id);
+		long start = System.nanoTime();
+		for (int i=0;i<iterations;i++){
+			send.run();
+		}
+		long elapsed = System.nanoTime()-start;
+		bytes = threadBean.getThreadAllocatedBytes(id)-bytes;
+		return new long[]{(sentMessages-messages)/iterations, elapsed/iterations, bytes/iterations};
+	}
+	private long[] measureForward(final StandardHandler handler, final Message received, int iterations){
+		return measure(new Runnable(){
+			public void run(){
+				// OMOLSR.up passes a copy of the received message to the handler
+				handler.handleIncomingDataMessage(received.copy());
+			}
+		}, iterations);
+	}
+	private long[] measureSend(final StandardHandler handler, final byte[] payload, int iterations){
+		return measure(new Runnable(){
+			public void run(){
+				Message msg = new Message(null, payload);
+				msg.putHeader(Constants.OMOLSR_ID, new OMOLSRHeader().setType(OMOLSRHeader.DATA));
+				handler.handleOutgoingDataMessage(msg);
+			}
+		}, iterations);
+	}
+}
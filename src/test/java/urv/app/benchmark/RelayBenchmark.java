@@ -0,0 +1,182 @@
+package urv.app.benchmark;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jgroups.Event;
+import org.jgroups.Message;
+import org.jgroups.protocols.Constants;
+import org.jgroups.protocols.OLSR;
+import org.jgroups.protocols.OLSRHeader;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.stack.Protocol;
+
+import urv.conf.PropertiesLoader;
+
+/**
+ * Measures how many data messages per second the OLSR protocol relays through
+ * an emulated line of nodes (node 0 -> node 1 -> ... -> node N).<p>
+ * Each node is an OLSR protocol with its own controller, placed between an
+ * emulated link below (which delivers the messages to the adjacent nodes, as
+ * a copy, like a real link delivers a new buffer) and a sink above (which
+ * counts the delivered messages). The control messages are exchanged through
+ * the same links, so the benchmark first waits until the routes of the line
+ * have been computed, and then sends the messages from node 0 to node N in a
+ * single thread.<p>
+ * Usage: RelayBenchmark [numMessages] [payloadSize] [hops]
+ */
+public class RelayBenchmark {
+
+	//	CONSTANTS --
+
+	private static final String MCAST_ADDR = "225.222.222.222";
+	private static final long ROUTE_TIMEOUT = 120000;
+	private static final long PROBE_PERIOD = 200;
+
+	//	CLASS FIELDS --
+
+	private final int hops;
+	private final OLSR[] protocols;
+	private final LinkEmulator[] links;
+	private final IpAddress[] addresses;
+	private final AtomicLong delivered = new AtomicLong();
+
+	//	CONSTRUCTORS --
+
+	public RelayBenchmark(int hops) throws Exception {
+		this.hops = hops;
+		protocols = new OLSR[hops+1];
+		links = new LinkEmulator[hops+1];
+		addresses = new IpAddress[hops+1];
+		for (int i=0;i<=hops;i++){
+			addresses[i] = new IpAddress(InetAddress.getByAddress(new byte[]{10,(byte)222,0,(byte)(i+1)}),
+					PropertiesLoader.getUnicastPort());
+		}
+		for (int i=0;i<=hops;i++){
+			protocols[i] = new OLSR();
+			protocols[i].setId(Constants.OLSR_ID);
+			protocols[i].setValue("mcast_addr_name", MCAST_ADDR);
+			links[i] = new LinkEmulator(i);
+			protocols[i].setDownProtocol(links[i]);
+			protocols[i].setUpProtocol(new Sink(i==hops));
+		}
+	}
+
+	//	MAIN --
+
+	public static void main(String[] args) throws Exception {
+		int numMessages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int payloadSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+		int hops = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		RelayBenchmark benchmark = new RelayBenchmark(hops);
+		benchmark.start();
+		long convergence = benchmark.waitForRoutes();
+		System.out.println("hops="+hops+" payload="+payloadSize+" routes computed in "+convergence+" ms");
+		//Warm up before measuring
+		benchmark.run(numMessages/10, payloadSize);
+		long elapsed = benchmark.run(numMessages, payloadSize);
+		System.out.println("messages="+numMessages+" time="+elapsed+" ms msgs/s="+
+				(elapsed==0 ? 0 : numMessages*1000L/elapsed));
+		System.exit(0);
+	}
+
+	//	PUBLIC METHODS --
+
+	/**
+	 * Sends the messages from the first to the last node of the line
+	 * @return elapsed time in ms, until the last message has been delivered
+	 */
+	public long run(int numMessages, int payloadSize){
+		byte[] payload = new byte[payloadSize];
+		long target = delivered.get()+numMessages;
+		long start = System.nanoTime();
+		for (int i=0;i<numMessages;i++){
+			protocols[0].down(new Message(addresses[hops], payload));
+		}
+		while (delivered.get()<target){
+			Thread.yield();
+		}
+		return (System.nanoTime()-start)/1000000;
+	}
+	/**
+	 * Starts the controllers of the nodes, as the transport does when
+	 * the local address is set
+	 */
+	public void start(){
+		for (int i=0;i<=hops;i++){
+			protocols[i].up(new Event(Event.SET_LOCAL_ADDRESS, addresses[i]));
+		}
+	}
+	/**
+	 * Sends a message from the first to the last node until one arrives
+	 * @return time elapsed until then, in ms
+	 */
+	public long waitForRoutes() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while (delivered.get()==0){
+			if (System.currentTimeMillis()-start>ROUTE_TIMEOUT){
+				throw new IllegalStateException("The routes of the line have not been computed");
+			}
+			protocols[0].down(new Message(addresses[hops], new byte[0]));
+			Thread.sleep(PROBE_PERIOD);
+		}
+		return System.currentTimeMillis()-start;
+	}
+
+	//	PRIVATE CLASSES --
+
+	/**
+	 * Emulated link of a node: control messages are broadcast to the two
+	 * adjacent nodes, data messages are delivered to the adjacent node they
+	 * are sent to
+	 */
+	private class LinkEmulator extends Protocol {
+		private final int index;
+
+		LinkEmulator(int index) {
+			this.index = index;
+		}
+		public Object down(Event evt) {
+			return null;
+		}
+		public Object down(Message msg) {
+			OLSRHeader header = msg.getHeader(Constants.OLSR_ID);
+			if (header.getType()==OLSRHeader.CONTROL){
+				if (index>0) deliver(index-1, msg);
+				if (index<hops) deliver(index+1, msg);
+			} else {
+				for (int i=Math.max(index-1, 0);i<=Math.min(index+1, hops);i++){
+					if (i!=index && addresses[i].getIpAddress().equals(((IpAddress)msg.getDest()).getIpAddress())){
+						deliver(i, msg);
+					}
+				}
+			}
+			return null;
+		}
+		private void deliver(int node, Message msg){
+			Message received = msg.copy(true);
+			if (msg.getSrc()==null){
+				// The sender of the control messages is the previous hop
+				received.setSrc(addresses[index]);
+			}
+			protocols[node].up(received);
+		}
+	}
+	/**
+	 * Top of the stack of a node, which counts the delivered messages
+	 */
+	private class Sink extends Protocol {
+		private final boolean counting;
+
+		Sink(boolean counting) {
+			this.counting = counting;
+		}
+		public Object up(Event evt) {
+			return null;
+		}
+		public Object up(Message msg) {
+			if (counting) delivered.incrementAndGet();
+			return null;
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package urv.app.benchmark;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import org.jgroups.Event;
+import org.jgroups.Message;
+import org.jgroups.protocols.Constants;
+import org.jgroups.protocols.OMOLSR;
+import org.jgroups.protocols.OMOLSRHeader;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.stack.Protocol;
+
+import urv.emulator.topology.parser.PajekParserImpl;
+import urv.olsr.data.OLSRNode;
+import urv.omolsr.core.StandardHandler;
+import urv.omolsr.data.OMOLSRData;
+import urv.omolsr.data.OMOLSRNetworkGraph;
+import urv.omolsr.tree.TreeStrategies;
+import urv.omolsr.tree.TreeStrategy;
+import urv.util.graph.GraphContraction;
+import urv.util.graph.NetworkGraph;
+import urv.util.graph.Node;
+import urv.util.graph.Weight;
+
+/**
+ * Compares the OMOLSR tree strategies (minimum spanning tree, shortest path tree
+ * and widest path tree) by emulating the delivery of multicast messages over the
+ * bundled topologies.<p>
+ * For each topology, random groups are created with the given ratios of members.
+ * Every member has its own OMOLSR handler and data, with the contracted graph of
+ * the group, and every member sends one message. The unicast copies sent by the
+ * handlers are delivered to the handler of their destination, as OMOLSR.up does,
+ * and a copy between two members travels along the shortest route of the topology
+ * (as OLSR routes it), so it costs as many transmissions and time units as hops.
+ * For each strategy the following values are printed, averaged per message:<ul>
+ * <li>copies: unicast copies sent by the members
+ * <li>tx: transmissions (hops travelled by the copies)
+ * <li>avg_lat, max_lat: hops travelled until each member first receives the message
+ * <li>bottleneck: lowest capacity (kB/s) of the nodes (members or not, the source
+ * excluded) the first copy of each member has gone through, averaged over the members
+ * <li>dup: copies received by a member which already had the message
+ * <li>delivered: ratio of the members (the source excluded) which receive the message
+ * </ul>
+ * The capacity of each node is random, and its bandwidth coefficient is derived from
+ * it as OLSR does with the capacities measured by BW_CALC.<p>
+ * The source sends a copy to each of its virtual neighbors, so the tree only decides
+ * which members forward the message to the rest; the strategies only differ in groups
+ * whose members are not all virtual neighbors of each other.<p>
+ * The topologies are read with the Pajek parser of the emulator, so the ones with
+ * events (e.g. Graph12nodesB) cannot be used.<p>
+ * Usage: TreeStrategyBenchmark [graphs] [memberRatios] [groupsPerRatio]<br>
+ * e.g. TreeStrategyBenchmark graph30nodes,graph12nodes,graph7nodesLine 0.25,0.5,1 3
+ */
+public class TreeStrategyBenchmark {
+
+	//	CONSTANTS --
+
+	private static final String GRAPHS_DIR = "graphs/";
+	private static final long SEED = 42;
+	private static final int MIN_BYTES_CAPACITY = 50000;
+	private static final int MAX_BYTES_CAPACITY = 1000000;
+	private static final int MESSAGE_SIZE = 500;
+	private static final TreeStrategy[] STRATEGIES = {TreeStrategies.MINIMUM_SPANNING_TREE,
+		TreeStrategies.SHORTEST_PATH_TREE, TreeStrategies.WIDEST_PATH_TREE};
+
+	//	CLASS FIELDS --
+
+	private final Random random = new Random(SEED);
+	// Topology being emulated
+	private OLSRNode[] nodes;
+	private Map<InetAddress,Integer> indexes;
+	private int[][] adjacency;
+	// Routes between the members of the current group (by BFS from each member)
+	private int[][] routeParents;
+	private int[][] routeHops;
+	// Handlers of the members of the current group and copies in transit
+	private StandardHandler[] handlers;
+	private final PriorityQueue<Copy> inTransit = new PriorityQueue<Copy>();
+	// State of the copy being processed: its receiver, arrival time and bottleneck
+	private int currentNode;
+	private int currentTime;
+	private long currentBottleneck;
+	private long[] totals;
+
+	//	MAIN --
+
+	public static void main(String[] args) throws Exception {
+		String graphs = args.length > 0 ? args[0] : "graph30nodes,graph12nodes,graph7nodesLine";
+		String memberRatios = args.length > 1 ? args[1] : "0.25,0.5,1";
+		int groupsPerRatio = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		TreeStrategyBenchmark benchmark = new TreeStrategyBenchmark();
+		System.out.println("graph\tmembers\tstrategy\tcopies\ttx\tavg_lat\tmax_lat\tbottleneck\tdup\tdelivered");
+		try {
+			for (String graph:graphs.split(",")){
+				benchmark.loadTopology(GRAPHS_DIR+graph.trim()+".net");
+				for (String ratio:memberRatios.split(",")){
+					benchmark.run(graph.trim(), Double.parseDouble(ratio.trim()), groupsPerRatio);
+				}
+			}
+		} finally {
+			// The threads of the OMOLSR data of the members never end
+			System.exit(0);
+		}
+	}
+
+	//	PUBLIC METHODS --
+
+	/**
+	 * Loads the topology and assigns a random capacity to each node
+	 */
+	public void loadTopology(String file) throws Exception {
+		NetworkGraph<Node,Weight> graph = new PajekParserImpl().loadNetwork(file).getGraph();
+		List<Node> graphNodes = new ArrayList<Node>(graph.getNodeList());
+		nodes = new OLSRNode[graphNodes.size()];
+		indexes = new HashMap<InetAddress,Integer>();
+		Map<Node,Integer> ids = new HashMap<Node,Integer>();
+		for (int i=0;i<nodes.length;i++){
+			long bytes = MIN_BYTES_CAPACITY+random.nextInt(MAX_BYTES_CAPACITY-MIN_BYTES_CAPACITY);
+			long messages = bytes/MESSAGE_SIZE;
+			nodes[i] = new OLSRNode().setValue(InetAddress.getByAddress(new byte[]{10,(byte)222,(byte)(i/250),(byte)(i%250+1)}));
+			nodes[i].setBwBytesCapacity(bytes).setBwMessagesCapacity(messages)
+					.setBandwithCoefficient(10000000.0f/bytes+1000.0f/messages);
+			indexes.put(nodes[i].getAddress(), i);
+			ids.put(graphNodes.get(i), i);
+		}
+		adjacency = new int[nodes.length][];
+		for (int i=0;i<nodes.length;i++){
+			Set<Node> neighbors = graph.getLinkedNodes(graphNodes.get(i));
+			adjacency[i] = new int[neighbors==null ? 0 : neighbors.size()];
+			int k = 0;
+			if (neighbors!=null) for (Node neighbor:neighbors){
+				adjacency[i][k++] = ids.get(neighbor);
+			}
+		}
+	}
+	/**
+	 * Emulates the given number of random groups with the ratio of members,
+	 * and prints the average results of each strategy
+	 */
+	public void run(String graphName, double memberRatio, int groups){
+		long[][] results = new long[STRATEGIES.length][];
+		int totalMembers = 0;
+		for (int g=0;g<groups;g++){
+			List<Integer> members = createGroup(memberRatio);
+			totalMembers += members.size();
+			computeRoutes(members);
+			OMOLSRData[] data = createGroupData(members);
+			for (int s=0;s<STRATEGIES.length;s++){
+				long[] strategyTotals = emulate(members, data, STRATEGIES[s]);
+				if (results[s]==null){
+					results[s] = strategyTotals;
+				} else {
+					for (int i=0;i<strategyTotals.length;i++) results[s][i] += strategyTotals[i];
+				}
+			}
+		}
+		for (int s=0;s<STRATEGIES.length;s++){
+			long[] r = results[s];
+			// r: messages, copies, transmissions, latency sum, max latency sum, bottleneck sum,
+			// duplicates, deliveries, expected deliveries
+			double messages = r[0];
+			System.out.println(String.format("%s\t%.1f\t%s\t%.2f\t%.2f\t%.2f\t%.2f\t%.0f\t%.2f\t%.3f",
+					graphName, totalMembers/(double)groups, STRATEGIES[s].getName(),
+					r[1]/messages, r[2]/messages, r[3]/(double)Math.max(r[7], 1), r[4]/messages,
+					r[5]/(double)Math.max(r[7], 1)/1000, r[6]/messages, r[7]/(double)Math.max(r[8], 1)));
+		}
+	}
+
+	//	PRIVATE METHODS --
+
+	/**
+	 * Computes the shortest routes from each member to the rest of the nodes
+	 */
+	private void computeRoutes(List<Integer> members){
+		routeParents = new int[nodes.length][];
+		routeHops = new int[nodes.length][];
+		for (int member:members){
+			int[] parents = new int[nodes.length];
+			int[] hops = new int[nodes.length];
+			Arrays.fill(hops, -1);
+			hops[member] = 0;
+			parents[member] = -1;
+			ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+			queue.add(member);
+			while (!queue.isEmpty()){
+				int node = queue.poll();
+				for (int next:adjacency[node]){
+					if (hops[next]>=0) continue;
+					hops[next] = hops[node]+1;
+					parents[next] = node;
+					queue.add(next);
+				}
+			}
+			routeParents[member] = parents;
+			routeHops[member] = hops;
+		}
+	}
+	/**
+	 * Creates a random group with the ratio of members (two members at least)
+	 * whose nodes can reach each other
+	 */
+	private List<Integer> createGroup(double memberRatio){
+		List<Integer> members = new ArrayList<Integer>();
+		int first = random.nextInt(nodes.length);
+		members.add(first);
+		computeRoutes(members);
+		for (int i=0;i<nodes.length;i++){
+			if (i!=first && routeHops[first][i]>=0 && random.nextDouble()<memberRatio) members.add(i);
+		}
+		for (int i=0;members.size()<2 && i<nodes.length;i++){
+			if (i!=first && routeHops[first][i]>=0) members.add(i);
+		}
+		return members;
+	}
+	/**
+	 * Creates the data of each member of the group, with the contracted graph of the group
+	 */
+	private OMOLSRData[] createGroupData(List<Integer> members){
+		NetworkGraph<OLSRNode,Weight> graph = new NetworkGraph<OLSRNode,Weight>();
+		for (int i=0;i<nodes.length;i++){
+			graph.addNode(nodes[i]);
+			for (int j:adjacency[i]){
+				graph.addEdge(nodes[i], nodes[j], new Weight().setValue(1.0f));
+			}
+		}
+		Set<OLSRNode> memberNodes = new HashSet<OLSRNode>();
+		for (int member:members) memberNodes.add(nodes[member]);
+		NetworkGraph<OLSRNode,Weight> contracted = GraphContraction.contract(graph, memberNodes);
+		OMOLSRData[] data = new OMOLSRData[nodes.length];
+		handlers = new StandardHandler[nodes.length];
+		for (int member:members){
+			data[member] = new OMOLSRData(nodes[member]);
+			data[member].updateOMOLSRNetworkGraph(new OMOLSRNetworkGraph(contracted));
+			handlers[member] = new StandardHandler(createProtocol(member), data[member], nodes[member]);
+		}
+		return data;
+	}
+	/**
+	 * OMOLSR protocol of a member, whose messages are put in transit to their destination
+	 */
+	private OMOLSR createProtocol(final int member){
+		OMOLSR omolsr = new OMOLSR();
+		omolsr.setId(Constants.OMOLSR_ID);
+		omolsr.setDownProtocol(new Protocol(){
+			public Object down(Event evt){
+				return null;
+			}
+			public Object down(Message msg){
+				Integer destination = indexes.get(((IpAddress)msg.getDest()).getIpAddress());
+				// The copy delivered to the local node is not sent
+				if (destination==null || destination==member) return null;
+				int hops = routeHops[member][destination];
+				totals[1]++;
+				totals[2] += hops;
+				// Lowest capacity of the nodes in the route, the sender excluded
+				long bottleneck = member==currentNode ? currentBottleneck : Long.MAX_VALUE;
+				for (int node=destination;node!=member;node=routeParents[member][node]){
+					bottleneck = Math.min(bottleneck, nodes[node].getBwBytesCapacity());
+				}
+				inTransit.add(new Copy(destination, currentTime+hops, bottleneck, msg));
+				return null;
+			}
+		});
+		return omolsr;
+	}
+	/**
+	 * Sends a message from each member with the strategy and delivers all the copies
+	 * @return the totals of the group (see run)
+	 */
+	private long[] emulate(List<Integer> members, OMOLSRData[] data, TreeStrategy strategy){
+		for (int member:members){
+			data[member].setTreeStrategy(strategy);
+			data[member].computeMST();
+		}
+		totals = new long[9];
+		for (int source:members){
+			int[] firstArrival = new int[nodes.length];
+			Arrays.fill(firstArrival, -1);
+			firstArrival[source] = 0;
+			currentNode = source;
+			currentTime = 0;
+			currentBottleneck = Long.MAX_VALUE;
+			Message msg = new Message(null, new byte[0]);
+			msg.putHeader(Constants.OMOLSR_ID, new OMOLSRHeader().setType(OMOLSRHeader.DATA));
+			handlers[source].handleOutgoingDataMessage(msg);
+			int maxLatency = 0;
+			while (!inTransit.isEmpty()){
+				Copy copy = inTransit.poll();
+				if (firstArrival[copy.node]>=0){
+					totals[6]++;
+				} else {
+					firstArrival[copy.node] = copy.time;
+					maxLatency = Math.max(maxLatency, copy.time);
+					totals[3] += copy.time;
+					totals[5] += copy.bottleneck;
+					totals[7]++;
+				}
+				currentNode = copy.node;
+				currentTime = copy.time;
+				currentBottleneck = copy.bottleneck;
+				handlers[copy.node].handleIncomingDataMessage(copy.msg.copy());
+			}
+			totals[0]++;
+			totals[4] += maxLatency;
+			totals[8] += members.size()-1;
+		}
+		return totals;
+	}
+
+	//	PRIVATE CLASSES --
+
+	/**
+	 * Copy of a message in transit to a member, in order of arrival
+	 */
+	private static class Copy implements Comparable<Copy> {
+		final int node;
+		final int time;
+		final long bottleneck;
+		final Message msg;
+
+		Copy(int node, int time, long bottleneck, Message msg) {
+			this.node = node;
+			this.time = time;
+			this.bottleneck = bottleneck;
+			this.msg = msg;
+		}
+		public int compareTo(Copy other){
+			return time-other.time;
+		}
+	}
+}
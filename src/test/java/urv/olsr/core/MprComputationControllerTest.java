@@ -0,0 +1,200 @@
+package urv.olsr.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import urv.olsr.data.LinkCode;
+import urv.olsr.data.OLSRNode;
+import urv.olsr.data.OLSRNodeRegistry;
+import urv.olsr.data.mpr.MprSet;
+import urv.olsr.data.mpr.OLSRSet;
+import urv.olsr.data.neighbour.NeighborTable;
+import urv.olsr.data.neighbour.NeighborTableEntry;
+import urv.olsr.data.neighbour.NeighborsOfNeighborsSet;
+import urv.olsr.data.topology.OLSRNodePair;
+import urv.olsr.data.topology.TopologyInformationBaseTable;
+
+public class MprComputationControllerTest {
+
+	private OLSRNodeRegistry nodeRegistry;
+	private OLSRNode localNode;
+	private MprSet mprSet;
+	private MprComputationController controller;
+	private Map<OLSRNode,OLSRSet> neighborhood = new LinkedHashMap<OLSRNode,OLSRSet>();
+
+	@Before
+	public void setUp() throws Exception {
+		localNode = new OLSRNode().setValue(InetAddress.getByName("10.0.0.1"));
+		nodeRegistry = new OLSRNodeRegistry(localNode);
+		localNode = nodeRegistry.intern(localNode);
+		mprSet = new MprSet(localNode);
+		controller = new MprComputationController(mprSet, nodeRegistry, localNode);
+	}
+
+	@Test
+	public void testSingleCoverersAreSelected() throws Exception {
+		OLSRNode a = node(2), b = node(3), c = node(4);
+		OLSRNode x = node(10), y = node(11), z = node(12);
+		neighbor(a, x, y);
+		neighbor(b, x, y);
+		neighbor(c, z);
+		assertTrue(compute());
+		// c is the only way to reach z
+		assertTrue(mprSet.contains(c));
+		assertEquals(2, mprSet.size());
+	}
+
+	@Test
+	public void testNeighborCoveringMostTwoHopNeighborsIsSelected() throws Exception {
+		OLSRNode a = node(2), b = node(3), c = node(4);
+		OLSRNode x = node(10), y = node(11), z = node(12), w = node(13);
+		neighbor(a, x, y);
+		neighbor(b, x, y, z, w);
+		neighbor(c, z, w);
+		assertTrue(compute());
+		assertEquals(mprs(b), mprSet);
+	}
+
+	@Test
+	public void testNeighborsAndLocalNodeAreNotTwoHopNeighbors() throws Exception {
+		OLSRNode a = node(2), b = node(3);
+		OLSRNode x = node(10);
+		neighbor(a, localNode, b);
+		neighbor(b, localNode, a, x);
+		assertTrue(compute());
+		assertEquals(mprs(b), mprSet);
+	}
+
+	@Test
+	public void testRepairKeepsChangedNeighborWhenNeeded() throws Exception {
+		OLSRNode a = node(2), b = node(3);
+		OLSRNode x = node(10), y = node(11);
+		neighbor(a, x);
+		neighbor(b, x, y);
+		assertTrue(compute());
+		assertEquals(mprs(b), mprSet);
+		// Only b changes: x is now reached just through a
+		neighbor(a, x);
+		neighbor(b, y);
+		assertTrue(compute());
+		assertEquals(mprs(a, b), mprSet);
+	}
+
+	@Test
+	public void testRepairDropsRedundantMpr() throws Exception {
+		OLSRNode a = node(2), b = node(3);
+		OLSRNode x = node(10), y = node(11);
+		neighbor(a, x);
+		neighbor(b, y);
+		assertTrue(compute());
+		assertEquals(mprs(a, b), mprSet);
+		// Only a changes: it covers y as well, so b is no longer needed
+		neighbor(a, x, y);
+		neighbor(b, y);
+		assertTrue(compute());
+		assertEquals(mprs(a), mprSet);
+	}
+
+	@Test
+	public void testRepairSelectsNewMprForUncoveredTwoHopNeighbors() throws Exception {
+		OLSRNode a = node(2), b = node(3), c = node(4);
+		OLSRNode x = node(10), y = node(11), z = node(12);
+		neighbor(a, x);
+		neighbor(b, x, y);
+		neighbor(c, x);
+		assertTrue(compute());
+		assertEquals(mprs(b), mprSet);
+		// Only c changes: z can only be reached through it
+		neighbor(a, x);
+		neighbor(b, x, y);
+		neighbor(c, x, z);
+		assertTrue(compute());
+		assertEquals(mprs(b, c), mprSet);
+	}
+
+	@Test
+	public void testShrinkingNeighborhoods() throws Exception {
+		OLSRNode a = node(2), b = node(3), c = node(4), d = node(5);
+		OLSRNode x = node(10), y = node(11), z = node(12), w = node(13);
+		neighbor(a, x, y);
+		neighbor(b, y, z);
+		neighbor(c, z, w);
+		neighbor(d, w, x);
+		assertTrue(compute());
+		assertEquals(2, mprSet.size());
+		neighbor(a, x);
+		neighbor(c, x, z);
+		assertTrue(compute());
+		assertEquals(mprs(c), mprSet);
+		neighbor(a, y);
+		assertTrue(compute());
+		assertEquals(mprs(a), mprSet);
+	}
+
+	@Test
+	public void testCoverersOfNodesOutsideTheTwoHopSetAreCleared() throws Exception {
+		OLSRNode a = node(2), b = node(3), c = node(4);
+		OLSRNode x = node(10), y = node(11), w = node(12);
+		// y is advertised by b but missing in the 2-hop neighbor set,
+		// as if the set had been read before the neighbor table changed
+		neighbor(a, x, w);
+		neighbor(b, x, y);
+		assertTrue(compute(new OLSRNodePair(b, y)));
+		assertEquals(mprs(a), mprSet);
+		// b is gone: y is covered by a and c alone
+		neighbor(a, y);
+		neighbor(c, y);
+		assertTrue(compute());
+		assertEquals(1, mprSet.size());
+		assertTrue(mprSet.contains(a) || mprSet.contains(c));
+		// and then by c alone, while x is only reached through a
+		neighbor(a, x);
+		neighbor(c, y);
+		assertTrue(compute());
+		assertEquals(mprs(a, c), mprSet);
+	}
+
+	private OLSRNode node(int id) throws Exception {
+		return nodeRegistry.intern(new OLSRNode().setValue(InetAddress.getByName("10.0.0."+id)));
+	}
+	private void neighbor(OLSRNode node, OLSRNode... neighborsOfNeighbor){
+		OLSRSet set = new OLSRSet();
+		set.addAll(Arrays.asList(neighborsOfNeighbor));
+		neighborhood.put(node, set);
+	}
+	private OLSRSet mprs(OLSRNode... nodes){
+		OLSRSet set = new OLSRSet();
+		set.addAll(Arrays.asList(nodes));
+		return set;
+	}
+	/**
+	 * Computes and publishes the MPR set of the neighborhood given since
+	 * the previous computation
+	 * @param unadvertised pairs left out of the 2-hop neighbor set
+	 */
+	private boolean compute(OLSRNodePair... unadvertised){
+		NeighborsOfNeighborsSet neighborsOfNeighborsSet = new NeighborsOfNeighborsSet();
+		NeighborTable neighborTable = new NeighborTable(localNode, neighborsOfNeighborsSet, nodeRegistry);
+		for (Map.Entry<OLSRNode,OLSRSet> entry:neighborhood.entrySet()){
+			neighborTable.addNeighborEntryWithTimestamp(entry.getKey(), new NeighborTableEntry(entry.getKey(),
+					new LinkCode(LinkCode.SYM_NEIGH, LinkCode.SYM_LINK), entry.getValue()), 10000);
+		}
+		neighborTable.onTableChange();
+		neighborsOfNeighborsSet.removeAll(new HashSet<OLSRNodePair>(Arrays.asList(unadvertised)));
+		neighborhood.clear();
+		TopologySnapshot snapshot = TopologySnapshot.take(neighborTable, neighborsOfNeighborsSet,
+				new TopologyInformationBaseTable(localNode, nodeRegistry));
+		boolean computed = controller.computeNewMprSet(snapshot);
+		if (computed) controller.publishMprSet();
+		return computed;
+	}
+}
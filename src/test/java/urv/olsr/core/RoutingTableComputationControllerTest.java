@@ -0,0 +1,124 @@
+package urv.olsr.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import urv.olsr.data.LinkCode;
+import urv.olsr.data.OLSRNode;
+import urv.olsr.data.OLSRNodeRegistry;
+import urv.olsr.data.SequenceNumber;
+import urv.olsr.data.mpr.OLSRSet;
+import urv.olsr.data.neighbour.NeighborTable;
+import urv.olsr.data.neighbour.NeighborTableEntry;
+import urv.olsr.data.neighbour.NeighborsOfNeighborsSet;
+import urv.olsr.data.routing.RoutingTable;
+import urv.olsr.data.routing.RoutingTableEntry;
+import urv.olsr.data.topology.OLSRNodePair;
+import urv.olsr.data.topology.TopologyInformationBaseTable;
+
+public class RoutingTableComputationControllerTest {
+
+	private static final int NEIGHBORS = 3;
+	private static final int NODES = 20;
+	private static final int ROUNDS = 300;
+
+	private OLSRNodeRegistry nodeRegistry;
+	private OLSRNode localNode;
+	private OLSRNode[] nodes = new OLSRNode[NODES];
+	private NeighborTable neighborTable;
+	private NeighborsOfNeighborsSet neighborsOfNeighborsSet;
+	private TopologyInformationBaseTable topologyTable;
+
+	@Before
+	public void setUp() throws Exception {
+		localNode = new OLSRNode().setValue(InetAddress.getByName("10.0.0.1"));
+		nodeRegistry = new OLSRNodeRegistry(localNode);
+		localNode = nodeRegistry.intern(localNode);
+		for (int i=0;i<NODES;i++){
+			nodes[i] = nodeRegistry.intern(new OLSRNode().setValue(InetAddress.getByName("10.0.0."+(i+2))));
+		}
+		neighborsOfNeighborsSet = new NeighborsOfNeighborsSet();
+		neighborTable = new NeighborTable(localNode, neighborsOfNeighborsSet, nodeRegistry);
+		// The first nodes are symmetric neighbors, each of them with the next node as 2-hop neighbor
+		for (int i=0;i<NEIGHBORS;i++){
+			OLSRSet twoHopNeighbors = new OLSRSet();
+			twoHopNeighbors.add(nodes[NEIGHBORS+i]);
+			neighborTable.addNeighborEntryWithTimestamp(nodes[i], new NeighborTableEntry(nodes[i],
+					new LinkCode(LinkCode.SYM_NEIGH, LinkCode.SYM_LINK), twoHopNeighbors), 10000);
+		}
+		neighborTable.onTableChange();
+		topologyTable = new TopologyInformationBaseTable(localNode, nodeRegistry);
+	}
+
+	@Test
+	public void testIncrementalUpdatesMatchFullRecomputation() {
+		Random random = new Random(42);
+		RoutingTable incrementalTable = new RoutingTable(localNode);
+		RoutingTable fullTable = new RoutingTable(localNode);
+		RoutingTableComputationController incremental =
+				new RoutingTableComputationController(incrementalTable, nodeRegistry, localNode);
+		RoutingTableComputationController full =
+				new RoutingTableComputationController(fullTable, nodeRegistry, localNode);
+		List<OLSRNodePair> pairs = new ArrayList<OLSRNodePair>();
+		// A dense enough topology so that a few changes are applied incrementally
+		while (pairs.size()<60){
+			addRandomPair(random, pairs);
+		}
+		for (int round=0;round<ROUNDS;round++){
+			TopologySnapshot snapshot = TopologySnapshot.take(neighborTable, neighborsOfNeighborsSet, topologyTable);
+			incremental.computeNewRoutingTable(snapshot, round==0);
+			full.computeNewRoutingTable(snapshot, true);
+			incremental.publishRoutingTable();
+			full.publishRoutingTable();
+			assertSameRoutes(fullTable, incrementalTable);
+			int changes = 1+random.nextInt(3);
+			for (int i=0;i<changes;i++){
+				if (random.nextBoolean() && pairs.size()>40){
+					OLSRNodePair pair = pairs.remove(random.nextInt(pairs.size()));
+					topologyTable.removeTopologyInformationBaseEntry(pair.getOriginator(), pair.getAdvertised());
+				} else {
+					addRandomPair(random, pairs);
+				}
+			}
+		}
+	}
+
+	private void addRandomPair(Random random, List<OLSRNodePair> pairs){
+		OLSRNode originator = nodes[random.nextInt(NODES)];
+		OLSRNode advertised = nodes[random.nextInt(NODES)];
+		OLSRNodePair pair = new OLSRNodePair(originator, advertised);
+		if (originator==advertised || pairs.contains(pair)) return;
+		pairs.add(pair);
+		topologyTable.addTopologyInformationBaseEntry(originator, advertised, new SequenceNumber(1), 100000);
+	}
+	/**
+	 * Checks that both tables have the same destinations at the same
+	 * distance. The next hops may differ among equally short routes,
+	 * but they must be symmetric neighbors
+	 */
+	private void assertSameRoutes(RoutingTable expected, RoutingTable actual){
+		Map<OLSRNode,RoutingTableEntry> expectedRoutes = expected.getSnapshot();
+		Map<OLSRNode,RoutingTableEntry> actualRoutes = actual.getSnapshot();
+		assertEquals(expectedRoutes.keySet(), actualRoutes.keySet());
+		for (RoutingTableEntry entry:expectedRoutes.values()){
+			RoutingTableEntry actualEntry = actualRoutes.get(entry.getDestAddr());
+			assertNotNull(actualEntry);
+			assertEquals(entry.getDestAddr().toString(), entry.getHops(), actualEntry.getHops());
+			boolean isNeighbor = false;
+			for (int i=0;i<NEIGHBORS;i++){
+				isNeighbor |= nodes[i].equals(actualEntry.getNextAddr());
+			}
+			assertTrue(isNeighbor);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package urv.olsr.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExpiringEntryTableTest {
+
+	private CountingTable table;
+
+	@Before
+	public void setUp() {
+		table = new CountingTable();
+	}
+
+	@Test
+	public void testTimeoutLongerThanTheWheel() {
+		int validity = (ExpiringEntryTable.WHEEL_SIZE+88)*ExpiringEntryTable.TICK_DURATION;
+		table.addEntryWithTimestamp("a", "1", validity);
+		// The slot of the deadline is visited a whole turn before it
+		for (int time=ExpiringEntryTable.TICK_DURATION;time<validity;time+=ExpiringEntryTable.TICK_DURATION){
+			table.decreaseTimeAndProcessEntries(ExpiringEntryTable.TICK_DURATION);
+			assertTrue("expired at "+time, table.containsKey("a"));
+		}
+		assertEquals(ExpiringEntryTable.TICK_DURATION, table.getRemainingTime("a"));
+		table.decreaseTimeAndProcessEntries(ExpiringEntryTable.TICK_DURATION);
+		assertFalse(table.containsKey("a"));
+		assertEquals(-1, table.getRemainingTime("a"));
+		assertEquals(1, table.changes);
+	}
+
+	@Test
+	public void testTimeoutLongerThanTheWheelWithLongSteps() {
+		int validity = 3*ExpiringEntryTable.WHEEL_SIZE*ExpiringEntryTable.TICK_DURATION/2;
+		table.addEntryWithTimestamp("a", "1", validity);
+		table.addEntryWithTimestamp("b", "2", validity+1000);
+		// Less than a turn, and then more than a turn, in a single step
+		table.decreaseTimeAndProcessEntries(validity/3);
+		assertEquals(2, table.size());
+		table.decreaseTimeAndProcessEntries(2*validity/3);
+		assertFalse(table.containsKey("a"));
+		assertTrue(table.containsKey("b"));
+		assertEquals(1000, table.getRemainingTime("b"));
+		table.decreaseTimeAndProcessEntries(5*validity);
+		assertTrue(table.isEmpty());
+		assertEquals(2, table.changes);
+	}
+
+	@Test
+	public void testAddingAgainMovesTheDeadline() {
+		table.addEntryWithTimestamp("a", "1", 1000);
+		table.decreaseTimeAndProcessEntries(800);
+		table.addEntryWithTimestamp("a", "2", 1000);
+		assertEquals(1000, table.getRemainingTime("a"));
+		table.decreaseTimeAndProcessEntries(900);
+		assertEquals("2", table.getEntry("a"));
+		table.decreaseTimeAndProcessEntries(100);
+		assertFalse(table.containsKey("a"));
+		// Only the addition and the expiration are changes
+		assertEquals(2, table.getChangeCount());
+	}
+
+	@Test
+	public void testRefreshMovesTheDeadline() {
+		table.addEntryWithTimestamp("a", "1", 5000);
+		table.addEntryWithTimestamp("b", "2", 500);
+		// Later and earlier deadlines
+		table.updateTimestampInEntry("b", 2000);
+		table.updateTimestampInEntry("a", 300);
+		// Keys without entry are not scheduled
+		table.updateTimestampInEntry("c", 100);
+		assertEquals(-1, table.getRemainingTime("c"));
+		table.decreaseTimeAndProcessEntries(300);
+		assertFalse(table.containsKey("a"));
+		table.decreaseTimeAndProcessEntries(1600);
+		assertTrue(table.containsKey("b"));
+		table.decreaseTimeAndProcessEntries(100);
+		assertTrue(table.isEmpty());
+	}
+
+	@Test
+	public void testOneTableChangePerCall() {
+		table.addEntryWithTimestamp("a", "1", 500);
+		table.addEntryWithTimestamp("b", "2", 500);
+		table.addEntryWithTimestamp("c", "3", 500);
+		table.addEntryWithTimestamp("d", "4", 2000);
+		table.decreaseTimeAndProcessEntries(400);
+		assertEquals(0, table.changes);
+		table.decreaseTimeAndProcessEntries(100);
+		assertEquals(1, table.changes);
+		assertEquals(1, table.size());
+		// Nothing expires
+		table.decreaseTimeAndProcessEntries(100);
+		assertEquals(1, table.changes);
+		// Entries expiring in different ticks of the same call
+		table.addEntryWithTimestamp("e", "5", 1000);
+		table.addEntryWithTimestamp("f", "6", 1200);
+		table.decreaseTimeAndProcessEntries(1500);
+		assertEquals(2, table.changes);
+		assertTrue(table.isEmpty());
+	}
+
+	@Test
+	public void testRemovedEntriesDoNotExpire() {
+		table.addEntryWithTimestamp("a", "1", 500);
+		table.addEntryWithTimestamp("b", "2", 500);
+		table.removeEntry("a");
+		table.keySet().remove("b");
+		table.addEntryWithTimestamp("a", "3", 1000);
+		table.decreaseTimeAndProcessEntries(500);
+		assertEquals(0, table.changes);
+		assertEquals("3", table.getEntry("a"));
+		table.decreaseTimeAndProcessEntries(500);
+		assertEquals(1, table.changes);
+		assertTrue(table.isEmpty());
+	}
+
+	private static class CountingTable extends ExpiringEntryTable<String,String> {
+		int changes = 0;
+
+		public void onTableChange() {
+			changes++;
+		}
+	}
+}
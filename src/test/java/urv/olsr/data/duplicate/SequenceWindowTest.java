@@ -0,0 +1,139 @@
+package urv.olsr.data.duplicate;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SequenceWindowTest {
+
+	@Test
+	public void testDuplicates() {
+		SequenceWindow window = new SequenceWindow(10);
+		window.record(10, true);
+		window.record(11, false);
+		assertTrue(window.contains(10));
+		assertTrue(window.contains(11));
+		assertFalse(window.contains(12));
+		assertTrue(window.isRetransmitted(10));
+		assertFalse(window.isRetransmitted(11));
+		window.record(11, false);
+		assertTrue(window.contains(11));
+		assertFalse(window.contains(12));
+	}
+
+	@Test
+	public void testOutOfOrderInsideWindow() {
+		SequenceWindow window = new SequenceWindow(100);
+		window.record(100, false);
+		window.record(110, false);
+		assertFalse(window.contains(105));
+		window.record(105, true);
+		assertTrue(window.contains(105));
+		assertTrue(window.isRetransmitted(105));
+		assertTrue(window.contains(110));
+		assertFalse(window.contains(109));
+	}
+
+	@Test
+	public void testLateNumbersBehindWindowDoNotMoveIt() {
+		SequenceWindow window = new SequenceWindow(1000);
+		for (int seq=1000;seq<1010;seq++){
+			window.record(seq, false);
+		}
+		int late = 1009 - SequenceWindow.WINDOW_SIZE - 50;
+		// Not recorded yet, so it is processed once
+		assertFalse(window.contains(late));
+		assertFalse(window.isRetransmitted(late));
+		window.record(late, true);
+		assertTrue(window.contains(late));
+		assertTrue(window.isRetransmitted(late));
+		assertFalse(window.contains(late+1));
+		// The window does not move back
+		for (int seq=1000;seq<1010;seq++){
+			assertTrue(window.contains(seq));
+		}
+		assertFalse(window.contains(1010));
+		// and a newer number forgets the late ones
+		window.record(1010, false);
+		assertFalse(window.contains(late));
+	}
+
+	@Test
+	public void testRestartedOriginatorGetsNewWindow() {
+		SequenceWindow window = new SequenceWindow(1000);
+		for (int seq=1000;seq<1010;seq++){
+			window.record(seq, false);
+		}
+		// The originator starts again from 1
+		for (int seq=1;seq<SequenceWindow.RESTART_THRESHOLD;seq++){
+			assertFalse(window.contains(seq));
+			window.record(seq, false);
+			window.record(seq, false);
+			assertTrue(window.contains(seq));
+			assertTrue(window.contains(1009));
+		}
+		int last = SequenceWindow.RESTART_THRESHOLD;
+		assertFalse(window.contains(last));
+		window.record(last, false);
+		// The window has restarted
+		for (int seq=1;seq<=last;seq++){
+			assertTrue(window.contains(seq));
+		}
+		assertFalse(window.contains(last+1));
+		assertFalse(window.contains(1009));
+		window.record(last+1, false);
+		assertTrue(window.contains(last+1));
+	}
+
+	@Test
+	public void testJumpForwardEmptiesWindow() {
+		SequenceWindow window = new SequenceWindow(1000);
+		window.record(1000, false);
+		int next = 1000 + SequenceWindow.WINDOW_SIZE + 10;
+		window.record(next, false);
+		assertTrue(window.contains(next));
+		assertFalse(window.contains(next-1));
+		assertFalse(window.contains(next-SequenceWindow.WINDOW_SIZE+1));
+		// The previous highest number is now behind the window
+		assertFalse(window.contains(1000));
+	}
+
+	@Test
+	public void testWrapAround() {
+		SequenceWindow window = new SequenceWindow(65530);
+		for (int seq=65530;seq<=65535;seq++){
+			window.record(seq, false);
+		}
+		for (int seq=0;seq<5;seq++){
+			window.record(seq, false);
+		}
+		for (int seq=65530;seq<=65535;seq++){
+			assertTrue(window.contains(seq));
+		}
+		for (int seq=0;seq<5;seq++){
+			assertTrue(window.contains(seq));
+		}
+		assertFalse(window.contains(5));
+		assertFalse(window.contains(65529));
+	}
+
+	@Test
+	public void testHalfSequenceSpaceThreshold() {
+		SequenceWindow window = new SequenceWindow(1000);
+		window.record(1000, false);
+		// Less than half the sequence space ahead: newer, the window moves
+		int newer = 1000 + 32767;
+		assertFalse(window.contains(newer));
+		window.record(newer, false);
+		assertTrue(window.contains(newer));
+		assertFalse(window.contains(newer-1));
+		// Half the sequence space ahead: older, so the window does not move
+		int older = (newer + 32768) & 0xFFFF;
+		assertFalse(window.contains(older));
+		window.record(older, false);
+		assertTrue(window.contains(older));
+		assertTrue(window.contains(newer));
+		assertFalse(window.contains(newer-1));
+	}
+}
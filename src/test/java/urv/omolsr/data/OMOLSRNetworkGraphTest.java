@@ -0,0 +1,77 @@
+package urv.omolsr.data;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import urv.olsr.data.OLSRNode;
+import urv.omolsr.tree.TreeStrategies;
+import urv.util.graph.NetworkGraph;
+import urv.util.graph.Weight;
+
+public class OMOLSRNetworkGraphTest {
+
+	private OLSRNode r, a, c, b;
+	private OMOLSRNetworkGraph omolsrGraph;
+
+	@Before
+	public void setUp() throws Exception {
+		r = node(1);
+		a = node(2);
+		c = node(3);
+		b = node(4);
+		NetworkGraph<OLSRNode,Weight> graph = new NetworkGraph<OLSRNode,Weight>();
+		link(graph, r, a);
+		link(graph, r, c);
+		link(graph, a, b);
+		link(graph, c, b);
+		a.setBandwithCoefficient(0.8f);
+		c.setBandwithCoefficient(0.1f);
+		omolsrGraph = new OMOLSRNetworkGraph(graph);
+	}
+
+	@Test
+	public void testTreesAreCached() {
+		NetworkGraph<OLSRNode,Weight> mst = omolsrGraph.computeTree(r, TreeStrategies.MINIMUM_SPANNING_TREE);
+		assertSame(mst, omolsrGraph.computeTree(r, TreeStrategies.MINIMUM_SPANNING_TREE));
+		NetworkGraph<OLSRNode,Weight> widest = omolsrGraph.computeTree(r, TreeStrategies.WIDEST_PATH_TREE);
+		assertSame(widest, omolsrGraph.computeTree(r, TreeStrategies.WIDEST_PATH_TREE));
+		Set<OLSRNode> subtree = omolsrGraph.getSubtree(r, c, TreeStrategies.WIDEST_PATH_TREE);
+		assertSame(subtree, omolsrGraph.getSubtree(r, c, TreeStrategies.WIDEST_PATH_TREE));
+		assertNotSame(omolsrGraph.computeTree(a, TreeStrategies.WIDEST_PATH_TREE), widest);
+	}
+
+	@Test
+	public void testCoefficientsAreCapturedWhenWrapped() {
+		NetworkGraph<OLSRNode,Weight> widest = omolsrGraph.computeTree(r, TreeStrategies.WIDEST_PATH_TREE);
+		assertTrue(widest.areNeighbours(c, b));
+		a.setBandwithCoefficient(0.1f);
+		c.setBandwithCoefficient(0.8f);
+		// The nodes are updated in place, but the trees of this graph keep using the
+		// coefficients it was wrapped with, even the ones computed afterwards
+		assertSame(widest, omolsrGraph.computeTree(r, TreeStrategies.WIDEST_PATH_TREE));
+		assertTrue(omolsrGraph.getSubtree(r, c, TreeStrategies.WIDEST_PATH_TREE).contains(b));
+		// A new graph is installed when the bandwidth changes
+		OMOLSRNetworkGraph newGraph = new OMOLSRNetworkGraph(omolsrGraph.getNetworkGraphCopy());
+		NetworkGraph<OLSRNode,Weight> newWidest = newGraph.computeTree(r, TreeStrategies.WIDEST_PATH_TREE);
+		assertTrue(newWidest.areNeighbours(a, b));
+		assertFalse(newWidest.areNeighbours(c, b));
+		assertTrue(newGraph.getSubtree(r, a, TreeStrategies.WIDEST_PATH_TREE).contains(b));
+		assertFalse(newGraph.getSubtree(r, c, TreeStrategies.WIDEST_PATH_TREE).contains(b));
+	}
+
+	private static OLSRNode node(int id) throws Exception {
+		return new OLSRNode().setValue(InetAddress.getByName("10.0.0."+id));
+	}
+	private static void link(NetworkGraph<OLSRNode,Weight> graph, OLSRNode node1, OLSRNode node2){
+		graph.addEdge(node1, node2, new Weight().setValue(1f));
+		graph.addEdge(node2, node1, new Weight().setValue(1f));
+	}
+}
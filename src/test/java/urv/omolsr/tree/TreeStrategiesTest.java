@@ -0,0 +1,100 @@
+package urv.omolsr.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import urv.olsr.data.OLSRNode;
+import urv.util.graph.NetworkGraph;
+import urv.util.graph.Weight;
+
+public class TreeStrategiesTest {
+
+	@Test
+	public void testForName() {
+		assertSame(TreeStrategies.MINIMUM_SPANNING_TREE, TreeStrategies.forName("mst"));
+		assertSame(TreeStrategies.SHORTEST_PATH_TREE, TreeStrategies.forName(" SPT "));
+		assertSame(TreeStrategies.WIDEST_PATH_TREE, TreeStrategies.forName("Widest"));
+		assertEquals("mst,spt,widest", TreeStrategies.names());
+		assertEquals("widest", TreeStrategies.WIDEST_PATH_TREE.toString());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnknownName() {
+		TreeStrategies.forName("bfs");
+	}
+
+	@Test
+	public void testMinimumSpanningTreeAndShortestPathTree() throws Exception {
+		OLSRNode r = node(1), a = node(2), b = node(3);
+		NetworkGraph<OLSRNode,Weight> graph = new NetworkGraph<OLSRNode,Weight>();
+		link(graph, r, a, 2);
+		link(graph, a, b, 2);
+		link(graph, r, b, 3);
+		// The lightest edges are r-a and a-b
+		NetworkGraph<OLSRNode,Weight> mst = TreeStrategies.MINIMUM_SPANNING_TREE.computeTree(graph, r,
+				Collections.<OLSRNode,Float>emptyMap());
+		assertTrue(mst.areNeighbours(r, a));
+		assertTrue(mst.areNeighbours(a, b));
+		assertEquals(2, mst.getEdges().size());
+		// b is closer to r through the direct edge
+		NetworkGraph<OLSRNode,Weight> spt = TreeStrategies.SHORTEST_PATH_TREE.computeTree(graph, r,
+				Collections.<OLSRNode,Float>emptyMap());
+		assertTrue(spt.areNeighbours(r, a));
+		assertTrue(spt.areNeighbours(r, b));
+		assertEquals(2, spt.getEdges().size());
+	}
+
+	@Test
+	public void testWidestPathTreeAvoidsLoadedForwarders() throws Exception {
+		OLSRNode r = node(1), a = node(2), c = node(3), b = node(4);
+		NetworkGraph<OLSRNode,Weight> graph = new NetworkGraph<OLSRNode,Weight>();
+		link(graph, r, a, 1);
+		link(graph, r, c, 1);
+		link(graph, a, b, 1);
+		link(graph, c, b, 1);
+		Map<OLSRNode,Float> coefficients = new HashMap<OLSRNode,Float>();
+		coefficients.put(a, 0.8f);
+		coefficients.put(c, 0.1f);
+		NetworkGraph<OLSRNode,Weight> tree = TreeStrategies.WIDEST_PATH_TREE.computeTree(graph, r, coefficients);
+		assertTrue(tree.areNeighbours(c, b));
+		assertFalse(tree.areNeighbours(a, b));
+		coefficients.put(a, 0.1f);
+		coefficients.put(c, 0.8f);
+		tree = TreeStrategies.WIDEST_PATH_TREE.computeTree(graph, r, coefficients);
+		assertTrue(tree.areNeighbours(a, b));
+		assertFalse(tree.areNeighbours(c, b));
+	}
+
+	@Test
+	public void testWidestPathTreeWithoutBandwidthIsShortestPathTree() throws Exception {
+		OLSRNode r = node(1), a = node(2), c = node(3), d = node(4), b = node(5);
+		NetworkGraph<OLSRNode,Weight> graph = new NetworkGraph<OLSRNode,Weight>();
+		link(graph, r, c, 1);
+		link(graph, c, d, 1);
+		link(graph, d, b, 1);
+		link(graph, r, a, 1);
+		link(graph, a, b, 1);
+		NetworkGraph<OLSRNode,Weight> tree = TreeStrategies.WIDEST_PATH_TREE.computeTree(graph, r,
+				Collections.<OLSRNode,Float>emptyMap());
+		assertTrue(tree.areNeighbours(a, b));
+		assertFalse(tree.areNeighbours(d, b));
+		assertEquals(4, tree.getEdges().size());
+	}
+
+	private static OLSRNode node(int id) throws Exception {
+		return new OLSRNode().setValue(InetAddress.getByName("10.0.0."+id));
+	}
+	private static void link(NetworkGraph<OLSRNode,Weight> graph, OLSRNode node1, OLSRNode node2, float hops){
+		graph.addEdge(node1, node2, new Weight().setValue(hops));
+		graph.addEdge(node2, node1, new Weight().setValue(hops));
+	}
+}